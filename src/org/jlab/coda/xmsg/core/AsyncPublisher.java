@@ -0,0 +1,182 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.core;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.pubsub.MpscRing;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgProxyDriver;
+import org.jlab.coda.xmsg.sys.util.LogUtils;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the messages to a proxy with a dedicated I/O thread.
+ * <p>
+ * The publishing threads add the serialized messages to a bounded
+ * {@link MpscRing ring}, and the I/O thread drains the ring into a single
+ * publisher socket. When the ring is empty, the I/O thread parks itself,
+ * and the next publishing thread wakes it up. When the ring is full, the
+ * configured {@link xMsgAsyncPolicy policy} is applied.
+ * <p>
+ * If the socket fails, or the I/O thread gets any unexpected error, the I/O
+ * thread stops, and all the following publish requests fail.
+ * When the publisher is closed, the I/O thread sends all the queued messages
+ * before it stops, and a message queued after that is reported as failed
+ * to its publisher, instead of being lost.
+ */
+class AsyncPublisher {
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final int SPINS = 100;
+
+    private final xMsgProxyDriver connection;
+    private final xMsgAsyncPolicy policy;
+    private final MpscRing<ZMsg> ring;
+    private final Thread thread;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running = true;
+    private volatile boolean closed;
+    private volatile boolean waiting;
+    private volatile xMsgException failure;
+
+    private int linger = -1;
+
+    AsyncPublisher(xMsgProxyDriver connection, int queueSize, xMsgAsyncPolicy policy) {
+        this.connection = connection;
+        this.policy = policy;
+        this.ring = new MpscRing<>(queueSize);
+        this.thread = xMsgUtil.newThread("async-pub-" + connection.getAddress(), this::run);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a message to be sent by the I/O thread.
+     */
+    void publish(ZMsg msg) throws xMsgException {
+        checkState();
+        while (!ring.offer(msg)) {
+            switch (policy) {
+                case DROP:
+                    dropped.incrementAndGet();
+                    return;
+                case FAIL:
+                    throw new xMsgException("publisher queue is full: " + getAddress());
+                default:
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                    checkState();
+            }
+        }
+        if (closed) {
+            // the I/O thread may have stopped before the message was queued
+            checkState();
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void checkState() throws xMsgException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (!running) {
+            throw new xMsgException("publisher is closed: " + getAddress());
+        }
+    }
+
+    private void run() {
+        int idle = 0;
+        try {
+            while (running || !ring.isEmpty()) {
+                if (ring.drain(connection::send) > 0) {
+                    idle = 0;
+                    continue;
+                }
+                if (++idle < SPINS) {
+                    Thread.yield();
+                    continue;
+                }
+                waiting = true;
+                if (ring.isEmpty() && running) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                waiting = false;
+            }
+            // send the messages queued while the loop was stopping,
+            // the publishers of any later message will get an error
+            closed = true;
+            ring.drain(connection::send);
+        } catch (ZMQException e) {
+            if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+                LOGGER.severe(LogUtils.exceptionReporter(e));
+            }
+            failure = new xMsgException("could not publish message", e);
+            running = false;
+        } catch (RuntimeException e) {
+            LOGGER.severe(LogUtils.exceptionReporter(e));
+            failure = new xMsgException("could not publish message", e);
+            running = false;
+        } finally {
+            closed = true;
+            connection.close(linger);
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full.
+     */
+    long dropped() {
+        return dropped.get();
+    }
+
+    xMsgProxyAddress getAddress() {
+        return connection.getAddress();
+    }
+
+    /**
+     * Stops the I/O thread after all queued messages are sent,
+     * and closes the socket.
+     */
+    void close(int linger) {
+        this.linger = linger;
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
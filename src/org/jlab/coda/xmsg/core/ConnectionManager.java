@@ -22,10 +22,14 @@
 
 package org.jlab.coda.xmsg.core;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import org.jlab.coda.xmsg.excp.xMsgException;
@@ -50,26 +54,87 @@ class ConnectionManager {
     // default connection option
     private volatile xMsgConnectionSetup proxySetup;
 
+    // heartbeats of the used proxies
+    private final ProxyHealth health;
+
+    // asynchronous publishers, if enabled
+    private final Map<xMsgProxyAddress, AsyncPublisher> asyncPublishers;
+
     ConnectionManager(xMsgConnectionFactory factory) {
         this(factory, xMsgConnectionSetup.newBuilder().build());
     }
 
     ConnectionManager(xMsgConnectionFactory factory, xMsgConnectionSetup setup) {
         this.factory = factory;
-        this.proxyConnections = new ConnectionPool<>();
+        this.proxyConnections = setup.threadAffineConnections()
+                ? new ThreadConnectionPool<>(xMsgProxyDriver::close)
+                : new ConnectionPool<>();
         this.registrarConnections = new ConnectionPool<>();
         this.proxySetup = setup;
+        this.health = new ProxyHealth(factory, setup);
+        this.asyncPublishers = new ConcurrentHashMap<>();
+    }
+
+    xMsgConnection getConnection(xMsgProxyAddress address) throws xMsgException {
+        if (isAsync()) {
+            return new xMsgConnection(this, getAsyncPublisher(address));
+        }
+        return new xMsgConnection(this, getProxyConnection(address));
+    }
+
+    void cacheConnection(xMsgProxyAddress address) throws xMsgException {
+        if (isAsync()) {
+            getAsyncPublisher(address);
+            return;
+        }
+        releaseProxyConnection(createProxyConnection(address));
+    }
+
+    private boolean isAsync() {
+        return proxySetup.asyncQueueSize() > 0;
+    }
+
+    private AsyncPublisher getAsyncPublisher(xMsgProxyAddress address) throws xMsgException {
+        checkProxy(address);
+        AsyncPublisher publisher = asyncPublishers.get(address);
+        if (publisher != null) {
+            return publisher;
+        }
+        synchronized (asyncPublishers) {
+            publisher = asyncPublishers.get(address);
+            if (publisher == null) {
+                publisher = new AsyncPublisher(createProxyConnection(address),
+                                               proxySetup.asyncQueueSize(),
+                                               proxySetup.asyncPolicy());
+                asyncPublishers.put(address, publisher);
+            }
+            return publisher;
+        }
     }
 
     xMsgProxyDriver createProxySubscriber(xMsgProxyAddress address) throws xMsgException {
         return factory.createSubscriberConnection(address, proxySetup);
     }
 
+    xMsgProxyDriver createDurableSubscriber(xMsgProxyAddress address, String name)
+            throws xMsgException {
+        return factory.createDurableConnection(address, name, proxySetup);
+    }
+
+    xMsgProxyDriver createGroupSubscriber(xMsgProxyAddress address, String name)
+            throws xMsgException {
+        return factory.createGroupConnection(address, name, proxySetup);
+    }
+
     xMsgProxyDriver createProxyConnection(xMsgProxyAddress address) throws xMsgException {
-        return factory.createPublisherConnection(address, proxySetup);
+        checkProxy(address);
+        xMsgProxyDriver connection = factory.createPublisherConnection(address, proxySetup);
+        health.monitor(address);
+        return connection;
     }
 
     xMsgProxyDriver getProxyConnection(xMsgProxyAddress address) throws xMsgException {
+        checkProxy(address);
         xMsgProxyDriver cachedConnection = proxyConnections.getConnection(address);
         if (cachedConnection != null) {
             return cachedConnection;
@@ -78,9 +143,30 @@ class ConnectionManager {
     }
 
     void releaseProxyConnection(xMsgProxyDriver connection) {
+        if (!health.isAlive(connection.getAddress())) {
+            // the queued messages would only be sent if the proxy comes back
+            connection.close(0);
+            return;
+        }
+        // drain the pending subscription updates before caching the connection
+        connection.flush();
         proxyConnections.setConnection(connection.getAddress(), connection);
     }
 
+    private void checkProxy(xMsgProxyAddress address) throws xMsgException {
+        if (!health.isAlive(address)) {
+            throw new xMsgException("no heartbeats from proxy " + address);
+        }
+    }
+
+    boolean isProxyAlive(xMsgProxyAddress address) {
+        return health.isAlive(address);
+    }
+
+    ProxyHealth health() {
+        return health;
+    }
+
     xMsgRegDriver getRegistrarConnection(xMsgRegAddress address) throws xMsgException {
         xMsgRegDriver cachedConnection = registrarConnections.getConnection(address);
         if (cachedConnection != null) {
@@ -94,6 +180,11 @@ class ConnectionManager {
     }
 
     void destroy(int linger) {
+        synchronized (asyncPublishers) {
+            asyncPublishers.values().forEach(p -> p.close(linger));
+            asyncPublishers.clear();
+        }
+        health.destroy();
         proxyConnections.destroyAll(c -> c.close(linger));
         registrarConnections.destroyAll(c -> c.close());
     }
@@ -128,4 +219,106 @@ class ConnectionManager {
             }
         }
     }
+
+
+    /**
+     * Caches the connections by thread.
+     * <p>
+     * Every thread has its own map of released connections, so getting and
+     * releasing a connection do not touch any shared structure. The caches of
+     * the threads that have ended are closed when a new thread gets its cache,
+     * and periodically when a connection is released.
+     */
+    static class ThreadConnectionPool<A, C> extends ConnectionPool<A, C> {
+
+        static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+        private final Consumer<C> close;
+        private final long sweepInterval;
+        private final Map<ThreadCache<A, C>, Boolean> caches = new ConcurrentHashMap<>();
+        private final ThreadLocal<ThreadCache<A, C>> local =
+                ThreadLocal.withInitial(this::newCache);
+
+        private volatile long nextSweep = System.nanoTime();
+
+        ThreadConnectionPool(Consumer<C> close) {
+            this(close, SWEEP_INTERVAL);
+        }
+
+        ThreadConnectionPool(Consumer<C> close, long sweepInterval) {
+            this.close = close;
+            this.sweepInterval = sweepInterval;
+        }
+
+        private ThreadCache<A, C> newCache() {
+            ThreadCache<A, C> cache = new ThreadCache<>(Thread.currentThread());
+            synchronized (caches) {
+                sweep();
+                caches.put(cache, Boolean.TRUE);
+            }
+            return cache;
+        }
+
+        // must be called with the lock held
+        private void sweep() {
+            Iterator<ThreadCache<A, C>> it = caches.keySet().iterator();
+            while (it.hasNext()) {
+                ThreadCache<A, C> cache = it.next();
+                if (!cache.owner.isAlive()) {
+                    it.remove();
+                    cache.forEach(close);
+                }
+            }
+            nextSweep = System.nanoTime() + sweepInterval;
+        }
+
+        @Override
+        public C getConnection(A address) {
+            Queue<C> cache = local.get().connections.get(address);
+            if (cache != null) {
+                return cache.poll();
+            }
+            return null;
+        }
+
+        @Override
+        public void setConnection(A address, C connection) {
+            local.get().connections.computeIfAbsent(address, a -> new ArrayDeque<>())
+                                   .add(connection);
+            if (System.nanoTime() - nextSweep >= 0) {
+                synchronized (caches) {
+                    sweep();
+                }
+            }
+        }
+
+        @Override
+        public void destroyAll(Consumer<C> destroy) {
+            synchronized (caches) {
+                for (ThreadCache<A, C> cache : caches.keySet()) {
+                    cache.forEach(destroy);
+                }
+            }
+        }
+
+        int size() {
+            return caches.size();
+        }
+    }
+
+
+    private static final class ThreadCache<A, C> {
+
+        final Thread owner;
+        final Map<A, Queue<C>> connections = new HashMap<>();
+
+        ThreadCache(Thread owner) {
+            this.owner = owner;
+        }
+
+        void forEach(Consumer<C> action) {
+            connections.values().forEach(q -> q.forEach(action));
+            connections.clear();
+        }
+    }
 }
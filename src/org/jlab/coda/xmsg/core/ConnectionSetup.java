@@ -152,6 +152,71 @@ class ConnectionSetup {
             return getThis();
         }
 
+        /**
+         * Sets if the proxies running on the same node must be reached with
+         * IPC instead of TCP. The proxies must be listening on IPC endpoints.
+         * The proxies running with the same context are always reached with
+         * INPROC.
+         *
+         * @param flag true to connect with IPC to the local proxies
+         * @return this builder
+         */
+        public T preferIpc(boolean flag) {
+            this.conSetup.preferIpc(flag);
+            return getThis();
+        }
+
+        /**
+         * Sets the time without heartbeats after which a proxy is considered
+         * down. Connections to a proxy that is down fail immediately.
+         *
+         * @param timeout the time to wait, in milliseconds,
+         *                or zero to not track the heartbeats
+         * @return this builder
+         * @see xMsg#isProxyAlive
+         */
+        public T withHeartbeatTimeout(long timeout) {
+            this.conSetup.withHeartbeatTimeout(timeout);
+            return getThis();
+        }
+
+        /**
+         * Sets if the publisher connections must be cached by thread.
+         * A connection released by a thread is only reused by the same
+         * thread, so getting a connection does not touch the shared pool.
+         * Use this when the same long-lived threads publish many messages.
+         * The connections cached by a thread are closed some time after the
+         * thread ends.
+         *
+         * @param flag true to cache the connections by thread
+         * @return this builder
+         */
+        public T threadAffineConnections(boolean flag) {
+            this.conSetup.threadAffineConnections(flag);
+            return getThis();
+        }
+
+        /**
+         * Sets if the messages must be published asynchronously.
+         * The publishing threads only serialize the messages and add them to
+         * a bounded lock-free queue. A single background thread for every
+         * proxy sends the queued messages through a single socket, so many
+         * publishing threads do not need their own socket.
+         * <p>
+         * A publish request returns when the message is queued. The messages
+         * published by every thread are kept in order, and the messages still
+         * queued are sent when the actor is destroyed.
+         *
+         * @param queueSize the maximum number of queued messages by proxy,
+         *                  or zero to publish with the calling thread
+         * @param policy the action when the queue is full
+         * @return this builder
+         */
+        public T withAsyncPublishing(int queueSize, xMsgAsyncPolicy policy) {
+            this.conSetup.withAsyncPublishing(queueSize, policy);
+            return getThis();
+        }
+
         abstract T getThis();
     }
 
@@ -0,0 +1,249 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.core;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgConnectionFactory;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgConnectionSetup;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgProxyDriver;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the heartbeats published by the proxies used by an actor.
+ * <p>
+ * A watched proxy is considered down when no heartbeat was received for
+ * longer than the timeout. The state is computed when it is requested,
+ * from the time of the last heartbeat, so nobody has to check the proxies
+ * periodically. The proxies that are not watched are always alive.
+ * <p>
+ * The subscriptions receive the heartbeats with their own sockets.
+ * The proxies used only to publish are watched by a background thread,
+ * with one subscriber socket for every proxy.
+ */
+class ProxyHealth {
+
+    private static final byte[] HEARTBEAT =
+            xMsgCtrlConstants.HEARTBEAT_TOPIC.getBytes(StandardCharsets.US_ASCII);
+
+    private final xMsgConnectionFactory factory;
+    private final xMsgConnectionSetup setup;
+    private final long timeout;
+
+    private final Map<xMsgProxyAddress, Watch> watches = new ConcurrentHashMap<>();
+
+    private final Map<xMsgProxyAddress, Boolean> monitored = new ConcurrentHashMap<>();
+    private final Queue<xMsgProxyAddress> requests = new ConcurrentLinkedQueue<>();
+    private Thread monitor;
+    private volatile boolean running = true;
+
+    ProxyHealth(xMsgConnectionFactory factory, xMsgConnectionSetup setup) {
+        this.factory = factory;
+        this.setup = setup;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(setup.heartbeatTimeout());
+    }
+
+    /**
+     * Returns true if the heartbeats are tracked.
+     */
+    boolean isEnabled() {
+        return timeout > 0;
+    }
+
+    /**
+     * Tests if a heartbeat message was received.
+     */
+    static boolean isHeartbeat(ZMsg msg) {
+        if (msg.size() != 2) {
+            return false;
+        }
+        return Arrays.equals(msg.getFirst().getData(), HEARTBEAT);
+    }
+
+    /**
+     * Starts watching the given proxy. The proxy has a full timeout to send
+     * its first heartbeat. Every call must be paired with {@link #unwatch}.
+     */
+    synchronized void watch(xMsgProxyAddress address) {
+        Watch watch = watches.get(address);
+        if (watch == null) {
+            watch = new Watch();
+            watches.put(address, watch);
+        }
+        if (watch.watchers++ == 0) {
+            watch.lastBeat = System.nanoTime();
+        }
+    }
+
+    /**
+     * Stops watching the given proxy.
+     */
+    synchronized void unwatch(xMsgProxyAddress address) {
+        Watch watch = watches.get(address);
+        if (watch != null && --watch.watchers == 0) {
+            watches.remove(address);
+        }
+    }
+
+    /**
+     * Records a heartbeat received from the given proxy.
+     */
+    void beat(xMsgProxyAddress address) {
+        Watch watch = watches.get(address);
+        if (watch != null) {
+            watch.lastBeat = System.nanoTime();
+        }
+    }
+
+    /**
+     * Returns false if the given proxy is watched
+     * and its last heartbeat is older than the timeout.
+     */
+    boolean isAlive(xMsgProxyAddress address) {
+        if (!isEnabled()) {
+            return true;
+        }
+        Watch watch = watches.get(address);
+        return watch == null || System.nanoTime() - watch.lastBeat <= timeout;
+    }
+
+    /**
+     * Watches the given proxy with the background thread,
+     * until the actor is destroyed.
+     */
+    void monitor(xMsgProxyAddress address) {
+        if (!isEnabled() || monitored.putIfAbsent(address, Boolean.TRUE) != null) {
+            return;
+        }
+        watch(address);
+        requests.add(address);
+        synchronized (this) {
+            if (monitor == null && running) {
+                monitor = xMsgUtil.newThread("proxy-heartbeats", this::receive);
+                monitor.start();
+            }
+        }
+    }
+
+    private void receive() {
+        List<xMsgProxyAddress> addresses = new ArrayList<>();
+        List<xMsgProxyDriver> sockets = new ArrayList<>();
+        Poller poller = null;
+        long pollTimeout = Math.max(1, Math.min(100, TimeUnit.NANOSECONDS.toMillis(timeout) / 4));
+        try {
+            while (running) {
+                xMsgProxyAddress address;
+                while ((address = requests.poll()) != null) {
+                    try {
+                        xMsgProxyDriver socket = factory.createSubscriberConnection(address,
+                                                                                   setup);
+                        socket.subscribe(xMsgCtrlConstants.HEARTBEAT_TOPIC);
+                        addresses.add(address);
+                        sockets.add(socket);
+                    } catch (xMsgException e) {
+                        e.printStackTrace();
+                    }
+                    if (poller != null) {
+                        poller.close();
+                        poller = null;
+                    }
+                }
+                if (sockets.isEmpty()) {
+                    xMsgUtil.sleep(pollTimeout);
+                    continue;
+                }
+                if (poller == null) {
+                    poller = sockets.get(0).getContext().poller(sockets.size());
+                    for (xMsgProxyDriver socket : sockets) {
+                        poller.register(socket.getSocket(), Poller.POLLIN);
+                    }
+                }
+                if (poller.poll(pollTimeout) < 0) {
+                    break;
+                }
+                for (int i = 0; i < sockets.size(); i++) {
+                    if (poller.pollin(i)) {
+                        drain(addresses.get(i), sockets.get(i));
+                    }
+                }
+            }
+        } catch (ZMQException e) {
+            if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (poller != null) {
+                poller.close();
+            }
+            sockets.forEach(s -> s.close(0));
+        }
+    }
+
+    private void drain(xMsgProxyAddress address, xMsgProxyDriver socket) {
+        ZMsg msg;
+        while ((msg = socket.recv(false)) != null) {
+            if (isHeartbeat(msg)) {
+                beat(address);
+            }
+            msg.destroy();
+        }
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    void destroy() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = monitor;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private static final class Watch {
+        int watchers;
+        volatile long lastBeat;
+    }
+}
@@ -37,7 +37,10 @@ import org.jlab.coda.xmsg.sys.regdis.xMsgRegFactory;
 import org.zeromq.ZMQException;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -45,6 +48,7 @@ import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -310,8 +314,22 @@ public class xMsg implements AutoCloseable {
      * @throws xMsgException if a new connection could not be created
      */
     public xMsgConnection getConnection(xMsgProxyAddress address) throws xMsgException {
-        return new xMsgConnection(connectionManager,
-                                  connectionManager.getProxyConnection(address));
+        return connectionManager.getConnection(address);
+    }
+
+    /**
+     * Indicates if the given proxy is sending heartbeats.
+     * The heartbeats are tracked only if a
+     * {@link xMsgSetup.Builder#withHeartbeatTimeout heartbeat timeout} is set,
+     * for the proxies used by the subscriptions and connections of this actor.
+     * When a proxy is down, new connections to it fail immediately.
+     *
+     * @param address the address of the proxy
+     * @return false if no heartbeat was received from the proxy
+     *         for longer than the heartbeat timeout, true otherwise
+     */
+    public boolean isProxyAlive(xMsgProxyAddress address) {
+        return connectionManager.isProxyAlive(address);
     }
 
     /**
@@ -336,8 +354,7 @@ public class xMsg implements AutoCloseable {
      * @throws xMsgException if the new connection could not be created
      */
     public void cacheConnection(xMsgProxyAddress address) throws xMsgException {
-        xMsgProxyDriver driver = connectionManager.createProxyConnection(address);
-        connectionManager.releaseProxyConnection(driver);
+        connectionManager.cacheConnection(address);
     }
 
     /**
@@ -376,6 +393,12 @@ public class xMsg implements AutoCloseable {
 
     /**
      * Publishes a message through the specified proxy connection.
+     * <p>
+     * If the {@code deliveryTime} metadata field is set, the proxy holds the
+     * message and delivers it to the subscribers at the given time
+     * (milliseconds since the epoch). Scheduled messages are kept in the
+     * memory of the proxy, and they are lost if the proxy is stopped before
+     * they are delivered.
      *
      * @param connection the connection to the proxy
      * @param msg the message to be published
@@ -384,11 +407,124 @@ public class xMsg implements AutoCloseable {
     public void publish(xMsgConnection connection, xMsgMessage msg) throws xMsgException {
         // just make sure that receiver knows that this is not a sync request.
         // need this in case we reuse messages.
-        msg.getMetaData().clearReplyTo();
+        msg.clearReplyTo();
 
         connection.publish(msg);
     }
 
+    /**
+     * Publishes a batch of messages through the default proxy connection.
+     *
+     * @param msgs the messages to be published
+     * @throws xMsgException if the request failed
+     * @see #publish(xMsgConnection, Collection)
+     */
+    public void publish(Collection<xMsgMessage> msgs) throws xMsgException {
+        try (xMsgConnection connection = getConnection()) {
+            publish(connection, msgs);
+        }
+    }
+
+    /**
+     * Publishes a batch of messages through the specified proxy.
+     *
+     * @param address the address to the proxy
+     * @param msgs the messages to be published
+     * @throws xMsgException if the request failed
+     * @see #publish(xMsgConnection, Collection)
+     */
+    public void publish(xMsgProxyAddress address, Collection<xMsgMessage> msgs)
+            throws xMsgException {
+        try (xMsgConnection connection = getConnection(address)) {
+            publish(connection, msgs);
+        }
+    }
+
+    /**
+     * Publishes a batch of messages through the specified proxy connection.
+     * <p>
+     * The messages are written back to back to the connection, in the order
+     * of the collection, with the same semantics as publishing them one by
+     * one. Use this to publish many small messages at once, without the
+     * overhead of every single call.
+     * If the request fails, some of the messages may have been published.
+     *
+     * @param connection the connection to the proxy
+     * @param msgs the messages to be published
+     * @throws xMsgException if the request failed
+     */
+    public void publish(xMsgConnection connection, Collection<xMsgMessage> msgs)
+            throws xMsgException {
+        for (xMsgMessage msg : msgs) {
+            msg.clearReplyTo();
+        }
+        connection.publish(msgs);
+    }
+
+    /**
+     * Checks if the proxy of the given connection has any subscriber for the
+     * topic. The proxy forwards the subscriptions to the publishers, and the
+     * connection keeps them, so no request is sent to the proxy.
+     * <p>
+     * The subscriptions of a new connection are received from the proxy
+     * right after connecting, so they may not be known yet if the
+     * connection is not {@link xMsgSetup.Builder#checkConnection checked}.
+     * With {@link xMsgSetup.Builder#withAsyncPublishing asynchronous
+     * publishing}, the subscriptions are only known by the background
+     * publisher, and this method always returns true.
+     *
+     * @param connection the connection to the proxy
+     * @param topic the topic to be published
+     * @return true if a message of the topic would be received by any
+     *         subscriber of the proxy, including the proxy itself
+     *         (for example, to cache the messages)
+     */
+    public boolean hasSubscribers(xMsgConnection connection, xMsgTopic topic) {
+        return connection.hasSubscribers(topic);
+    }
+
+    /**
+     * Publishes a message through the default proxy connection, only if the
+     * proxy has subscribers for the topic. Otherwise the message is not even
+     * created.
+     *
+     * @param topic the topic of the message
+     * @param message creates the message to be published
+     * @return true if the message was published
+     * @throws xMsgException if the request failed
+     * @see #hasSubscribers
+     */
+    public boolean publishIfSubscribed(xMsgTopic topic, Supplier<xMsgMessage> message)
+            throws xMsgException {
+        try (xMsgConnection connection = getConnection()) {
+            return publishIfSubscribed(connection, topic, message);
+        }
+    }
+
+    /**
+     * Publishes a message through the specified proxy connection, only if the
+     * proxy has subscribers for the topic. Otherwise the message is not even
+     * created, so the cost of serializing the data is avoided when nobody
+     * would receive it.
+     *
+     * @param connection the connection to the proxy
+     * @param topic the topic of the message
+     * @param message creates the message to be published
+     * @return true if the message was published
+     * @throws xMsgException if the request failed
+     * @see #hasSubscribers
+     */
+    public boolean publishIfSubscribed(xMsgConnection connection,
+                                       xMsgTopic topic,
+                                       Supplier<xMsgMessage> message)
+            throws xMsgException {
+        if (!connection.hasSubscribers(topic)) {
+            return false;
+        }
+        publish(connection, message.get());
+        return true;
+    }
+
     /**
      * Publishes a message through the default proxy connection and blocks
      * waiting for a response.
@@ -459,7 +595,7 @@ public class xMsg implements AutoCloseable {
         String returnAddress = xMsgUtil.getUniqueReplyTo(myId);
 
         // set the return address as replyTo in the xMsgMessage
-        msg.getMetaData().setReplyTo(returnAddress);
+        msg.setReplyTo(returnAddress);
 
         try {
             // subscribe to the returnAddress
@@ -471,7 +607,7 @@ public class xMsg implements AutoCloseable {
             // wait for the response
             return syncPubListener.waitMessage(returnAddress, timeout);
         } finally {
-            msg.getMetaData().clearReplyTo();
+            msg.clearReplyTo();
         }
     }
 
@@ -532,16 +668,90 @@ public class xMsg implements AutoCloseable {
     public xMsgSubscription subscribe(xMsgProxyAddress address,
                                       Set<xMsgTopic> topics,
                                       xMsgCallBack callback) throws xMsgException {
+        return subscribe(address, topics, callback, xMsgSubscriptionSetup.defaultSetup());
+    }
+
+    /**
+     * Subscribes to a topic of interest through the default proxy,
+     * with the given subscription options.
+     * A background thread will be started to receive the messages.
+     *
+     * @param topic the topic to select messages
+     * @param callback the user action to run when a message is received
+     * @param subSetup the options of the subscription
+     * @throws xMsgException if the subscription could not be created
+     * @return the subscription handler
+     */
+    public xMsgSubscription subscribe(xMsgTopic topic,
+                                      xMsgCallBack callback,
+                                      xMsgSubscriptionSetup subSetup) throws xMsgException {
+        Set<xMsgTopic> topics = new HashSet<>(Arrays.asList(topic));
+        return subscribe(setup.proxyAddress(), topics, callback, subSetup);
+    }
+
+    /**
+     * Subscribes to a set of topics of interest through the specified proxy,
+     * with the given subscription options.
+     * A background thread will be started to receive the messages.
+     *
+     * @param address the address to the proxy
+     * @param topics the topics to select messages
+     * @param callback the user action to run when a message is received
+     * @param subSetup the options of the subscription
+     * @throws xMsgException if the subscription could not be created
+     * @return the subscription handler
+     */
+    public xMsgSubscription subscribe(xMsgProxyAddress address,
+                                      Set<xMsgTopic> topics,
+                                      xMsgCallBack callback,
+                                      xMsgSubscriptionSetup subSetup) throws xMsgException {
+        Objects.requireNonNull(subSetup, "null subscription setup");
         // get a connection to the proxy
-        xMsgProxyDriver connection = connectionManager.createProxySubscriber(address);
+        String durableName = subSetup.durableName();
+        String groupName = subSetup.groupName();
+        xMsgProxyDriver connection;
+        if (durableName != null) {
+            connection = connectionManager.createDurableSubscriber(address, durableName);
+        } else if (groupName != null) {
+            connection = connectionManager.createGroupSubscriber(address, groupName);
+        } else {
+            connection = connectionManager.createProxySubscriber(address);
+        }
         try {
             // define a unique name for the subscription
             String name = "sub-" + myName + "-" + connection.getAddress() + "-" + topics.hashCode();
+            if (!subSetup.metaFilter().isEmpty()) {
+                name += "-" + subSetup.metaFilter().hashCode();
+            }
+            if (subSetup.sampleEvery() > 1 || subSetup.maxRate() > 0) {
+                name += "-sample-" + subSetup.sampleEvery() + "-" + subSetup.maxRate();
+            }
+            if (durableName != null) {
+                name += "-durable-" + durableName;
+            }
+            if (groupName != null) {
+                name += "-group-" + groupName;
+            }
+            if (subSetup.conflate()) {
+                name += "-conflate";
+            }
 
             // start the subscription, if it does not exist yet
             xMsgSubscription sHandle = mySubscriptions.get(name);
             if (sHandle == null) {
-                sHandle = createSubscription(name, connection, topics, callback);
+                xMsgCallBack action = callback;
+                if (groupName != null || durableName != null) {
+                    // the completed callbacks grant more credit to the connection,
+                    // or commit the offsets of the durable subscription
+                    action = msg -> {
+                        try {
+                            callback.callback(msg);
+                        } finally {
+                            msg.complete();
+                        }
+                    };
+                }
+                sHandle = createSubscription(name, connection, topics, action, subSetup);
                 sHandle.start(setup.connectionSetup());
                 xMsgSubscription result = mySubscriptions.putIfAbsent(name, sHandle);
                 if (result == null) {
@@ -559,10 +769,29 @@ public class xMsg implements AutoCloseable {
     private xMsgSubscription createSubscription(String name,
                                                 xMsgProxyDriver connection,
                                                 Set<xMsgTopic> topics,
-                                                xMsgCallBack callback) {
+                                                xMsgCallBack callback,
+                                                xMsgSubscriptionSetup subSetup) {
+        ProxyHealth health = connectionManager.health();
         switch (callbackMode) {
             case MULTI_THREAD:
-                return new xMsgSubscription(name, connection, topics) {
+                if (subSetup.conflate()) {
+                    // only one callback per topic is waiting in the pool,
+                    // and it will run with the latest message of the topic
+                    Map<String, xMsgMessage> latest = new ConcurrentHashMap<>();
+                    return new xMsgSubscription(name, connection, topics, subSetup, health) {
+                        @Override
+                        public void handle(xMsgMessage inputMsg) throws xMsgException {
+                            String topic = inputMsg.getTopic().toString();
+                            xMsgMessage previous = latest.put(topic, inputMsg);
+                            if (previous == null) {
+                                threadPool.submit(() -> callback.callback(latest.remove(topic)));
+                            } else {
+                                previous.complete();
+                            }
+                        }
+                    };
+                }
+                return new xMsgSubscription(name, connection, topics, subSetup, health) {
                     @Override
                     public void handle(xMsgMessage inputMsg) throws xMsgException {
                         threadPool.submit(() -> callback.callback(inputMsg));
@@ -570,7 +799,7 @@ public class xMsg implements AutoCloseable {
                 };
 
             case SINGLE_THREAD:
-                return new xMsgSubscription(name, connection, topics) {
+                return new xMsgSubscription(name, connection, topics, subSetup, health) {
                     @Override
                     public void handle(xMsgMessage inputMsg) throws xMsgException {
                         callback.callback(inputMsg);
@@ -24,10 +24,14 @@ package org.jlab.coda.xmsg.core;
 
 import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
 import org.jlab.coda.xmsg.sys.pubsub.xMsgProxyDriver;
 import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 
 /**
  * The standard connection to xMsg nodes.
@@ -40,17 +44,27 @@ import java.io.Closeable;
  * <p>
  * Connections should be closed in order to return them to the connection pool,
  * so they can be reused by other publishing threads.
+ * <p>
+ * If {@link xMsgSetup.Builder#withAsyncPublishing asynchronous publishing}
+ * is enabled, all connections to the same proxy share the queue of a single
+ * background publisher, and they are not pooled.
  */
 public class xMsgConnection implements Closeable {
 
     private final ConnectionManager pool;
     private xMsgProxyDriver connection;
+    private AsyncPublisher async;
 
     xMsgConnection(ConnectionManager pool, xMsgProxyDriver connection) {
         this.pool = pool;
         this.connection = connection;
     }
 
+    xMsgConnection(ConnectionManager pool, AsyncPublisher async) {
+        this.pool = pool;
+        this.async = async;
+    }
+
     /**
      * If not destroyed, returns this connection the connection pool to be
      * reused.
@@ -59,6 +73,7 @@ public class xMsgConnection implements Closeable {
      */
     @Override
     public void close() {
+        async = null;
         if (connection != null) {
             pool.releaseProxyConnection(connection);
             connection = null;
@@ -66,6 +81,8 @@ public class xMsgConnection implements Closeable {
     }
 
     void destroy() {
+        // the asynchronous publisher is shared, it is closed by the pool
+        async = null;
         if (connection != null) {
             connection.close();
             connection = null;
@@ -73,23 +90,85 @@ public class xMsgConnection implements Closeable {
     }
 
     void publish(xMsgMessage msg) throws xMsgException {
+        if (async != null) {
+            async.publish(serialize(msg));
+            return;
+        }
         if (connection == null) {
             throw new IllegalStateException("connection is closed");
         }
         try {
-            connection.send(msg.serialize());
+            send(msg);
         } catch (ZMQException e) {
             destroy();
             throw new xMsgException("could not publish message", e);
         }
     }
 
+    void publish(Collection<xMsgMessage> msgs) throws xMsgException {
+        if (async != null) {
+            for (xMsgMessage msg : msgs) {
+                async.publish(serialize(msg));
+            }
+            return;
+        }
+        if (connection == null) {
+            throw new IllegalStateException("connection is closed");
+        }
+        try {
+            for (xMsgMessage msg : msgs) {
+                send(msg);
+            }
+        } catch (ZMQException e) {
+            destroy();
+            throw new xMsgException("could not publish messages", e);
+        }
+    }
+
+    private void send(xMsgMessage msg) {
+        ByteBuffer data = msg.dataBuffer();
+        if (data != null) {
+            connection.send(schedule(msg, msg.serializeHeader()), data);
+        } else {
+            connection.send(serialize(msg));
+        }
+    }
+
+    // the data of a buffer is copied into the frame,
+    // since the asynchronous queue only holds 0MQ messages
+    private static ZMsg serialize(xMsgMessage msg) {
+        return schedule(msg, msg.serialize());
+    }
+
+    private static ZMsg schedule(xMsgMessage msg, ZMsg out) {
+        if (msg.hasDeliveryTime()) {
+            // the proxy controller holds the message until it is due
+            out.push(xMsgCtrlConstants.CTRL_SCHEDULE);
+            out.push(xMsgCtrlConstants.CTRL_TOPIC + ":sch");
+        }
+        return out;
+    }
+
+    boolean hasSubscribers(xMsgTopic topic) {
+        if (async != null) {
+            // the subscriptions are only known by the I/O thread
+            return true;
+        }
+        if (connection == null) {
+            throw new IllegalStateException("connection is closed");
+        }
+        return connection.hasSubscribers(topic.toString());
+    }
+
     /**
      * Returns the address of the connected proxy.
      *
      * @return the address of the proxy
      */
     public xMsgProxyAddress getAddress() {
+        if (async != null) {
+            return async.getAddress();
+        }
         if (connection == null) {
             throw new IllegalStateException("connection is closed");
         }
@@ -26,7 +26,6 @@ import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgConnectionFactory;
 import org.jlab.coda.xmsg.net.xMsgContext;
 import org.jlab.coda.xmsg.net.xMsgProxyAddress;
-import org.jlab.coda.xmsg.sys.pubsub.xMsgProxyDriver;
 
 import java.io.Closeable;
 
@@ -135,8 +134,7 @@ public final class xMsgConnectionPool implements Closeable {
      * @throws xMsgException if a new connection could not be created
      */
     public xMsgConnection getConnection(xMsgProxyAddress address) throws xMsgException {
-        return new xMsgConnection(connectionManager,
-                                  connectionManager.getProxyConnection(address));
+        return connectionManager.getConnection(address);
     }
 
     /**
@@ -159,8 +157,7 @@ public final class xMsgConnectionPool implements Closeable {
      * @throws xMsgException if the new connection could not be created
      */
     public void cacheConnection(xMsgProxyAddress address) throws xMsgException {
-        xMsgProxyDriver driver = connectionManager.createProxyConnection(address);
-        connectionManager.releaseProxyConnection(driver);
+        connectionManager.cacheConnection(address);
     }
 
     /**
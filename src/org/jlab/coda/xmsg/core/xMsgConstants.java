@@ -56,5 +56,8 @@ public final class xMsgConstants {
     /** The default timeout to wait for a discovery request response. */
     public static final int DISCOVERY_TIMEOUT = 3000;
 
+    /** The default interval between the heartbeats published by a proxy. */
+    public static final int HEARTBEAT_INTERVAL = 1000;
+
     private xMsgConstants() { }
 }
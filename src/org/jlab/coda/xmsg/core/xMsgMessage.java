@@ -32,9 +32,11 @@ import org.zeromq.ZMsg;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The user-data message for xMsg pub/sub communications.
@@ -51,6 +53,9 @@ import java.util.List;
  * objects must be serialized before creating the message
  * (i.e. applications using xMsg must take care of the binary data format).
  * <p>
+ * The data can also be given as a {@link ByteBuffer}, direct or memory-mapped,
+ * which is sent to the proxy without copying it into a byte array.
+ * <p>
  * When a message is sync-published, the <i>metadata</i> will contain an
  * auto-generated {@code replyTopic} where the response can be published to.
  *
@@ -61,6 +66,13 @@ public class xMsgMessage {
     private final xMsgTopic topic;
     private final xMsgMeta.Builder metaData;
     private final byte[] data;
+    private final ByteBuffer dataBuffer;
+
+    // the serialized metadata, until the builder is requested again
+    private byte[] metaBytes;
+
+    // reports to the connection that the received message was processed
+    private final AtomicReference<Runnable> completion = new AtomicReference<>();
 
     /**
      * Constructs a new message.
@@ -72,6 +84,10 @@ public class xMsgMessage {
      * If the byte array must be reused or modified, pass the array to the
      * constructor as {@code data.clone()} to ensure the message keeps a copy of
      * the data and not the original array.
+     * <p>
+     * The metadata builder will be owned by the message too. Once the message
+     * is published, the metadata can only be modified through
+     * {@link #getMetaData()}.
      *
      * @param topic    the topic of the message
      * @param metaData the metadata of the message
@@ -81,6 +97,33 @@ public class xMsgMessage {
         this.topic = topic;
         this.metaData = metaData;
         this.data = data;
+        this.dataBuffer = null;
+    }
+
+    /**
+     * Constructs a new message with the data in a buffer.
+     * The message will be published to the given topic.
+     * The metadata must contain the mime-type describing the data.
+     * <p>
+     * The data are the remaining bytes of the buffer, between its position and
+     * its limit. The buffer is sent as it is, without copying its content,
+     * so the content cannot be modified by the calling code after creating
+     * this message. The position and the limit of the buffer are not used
+     * after creating the message.
+     * <p>
+     * The metadata builder will be owned by the message too. Once the message
+     * is published, the metadata can only be modified through
+     * {@link #getMetaData()}.
+     *
+     * @param topic    the topic of the message
+     * @param metaData the metadata of the message
+     * @param data     buffer with the serialized data
+     */
+    public xMsgMessage(xMsgTopic topic, xMsgMeta.Builder metaData, ByteBuffer data) {
+        this.topic = topic;
+        this.metaData = metaData;
+        this.data = null;
+        this.dataBuffer = data.slice();
     }
 
     /**
@@ -104,6 +147,31 @@ public class xMsgMessage {
         this.metaData = xMsgMeta.newBuilder();
         this.metaData.setDataType(mimeType);
         this.data = data;
+        this.dataBuffer = null;
+    }
+
+    /**
+     * Constructs a new message with the data in a buffer.
+     * The message will be published to the given topic.
+     * The metadata will only contain the specified {@code mime-type} describing
+     * the data.
+     * <p>
+     * The data are the remaining bytes of the buffer, between its position and
+     * its limit. The buffer is sent as it is, without copying its content,
+     * so the content cannot be modified by the calling code after creating
+     * this message. The position and the limit of the buffer are not used
+     * after creating the message.
+     *
+     * @param topic    the topic of the message
+     * @param mimeType the mime-type string for the data
+     * @param data     buffer with the serialized data
+     */
+    public xMsgMessage(xMsgTopic topic, String mimeType, ByteBuffer data) {
+        this.topic = topic;
+        this.metaData = xMsgMeta.newBuilder();
+        this.metaData.setDataType(mimeType);
+        this.data = null;
+        this.dataBuffer = data.slice();
     }
 
     /**
@@ -125,7 +193,9 @@ public class xMsgMessage {
             this.topic = xMsgTopic.wrap(topicFrame.getData());
             xMsgMeta metaDataObj = xMsgMeta.parseFrom(metaDataFrame.getData());
             this.metaData = metaDataObj.toBuilder();
+            this.metaBytes = metaDataFrame.getData();
             this.data = dataFrame.getData();
+            this.dataBuffer = null;
         } catch (InvalidProtocolBufferException e) {
             throw new xMsgException("could not parse metadata", e);
         }
@@ -134,17 +204,76 @@ public class xMsgMessage {
     /**
      * Serializes this message into a 0MQ message,
      * ready to send it over the wire.
+     * <p>
+     * The encoded topic and the serialized metadata are cached, so a message
+     * published again with the same metadata only sends its new data.
      *
      * @return the 0MQ message
      */
     ZMsg serialize() {
+        ZMsg msg = serializeHeader();
+        msg.add(getData());
+        return msg;
+    }
+
+    /**
+     * Serializes the topic and the metadata of this message into a 0MQ
+     * message. The data must be sent after them as the last frame.
+     *
+     * @return the 0MQ message without the data frame
+     */
+    ZMsg serializeHeader() {
+        if (metaBytes == null) {
+            metaBytes = metaData.build().toByteArray();
+        }
         ZMsg msg = new ZMsg();
-        msg.add(topic.toString());
-        msg.add(metaData.build().toByteArray());
-        msg.add(data);
+        msg.add(topic.toBytes());
+        msg.add(metaBytes);
         return msg;
     }
 
+    /**
+     * Returns the buffer with the data, if the message was created with a
+     * buffer, without duplicating it.
+     */
+    ByteBuffer dataBuffer() {
+        return dataBuffer;
+    }
+
+    /**
+     * Sets the action to run when the received message has been processed.
+     */
+    void setCompletion(Runnable action) {
+        completion.set(action);
+    }
+
+    /**
+     * Marks the received message as processed.
+     * The completion action runs only once.
+     */
+    void complete() {
+        Runnable action = completion.getAndSet(null);
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    boolean hasDeliveryTime() {
+        return metaData.hasDeliveryTime();
+    }
+
+    void setReplyTo(String replyTo) {
+        metaData.setReplyTo(replyTo);
+        metaBytes = null;
+    }
+
+    void clearReplyTo() {
+        if (metaData.hasReplyTo()) {
+            metaData.clearReplyTo();
+            metaBytes = null;
+        }
+    }
+
     /**
      * Returns the topic of the message.
      *
@@ -156,10 +285,16 @@ public class xMsgMessage {
 
     /**
      * Returns the metadata of the message.
+     * <p>
+     * The serialized metadata is cached when the message is published, and
+     * it is discarded when this method is called. Thus, the metadata must be
+     * modified through the builder returned after the message was last
+     * published, not with a reference obtained before.
      *
      * @return a reference to the metadata of the message
      */
     public xMsgMeta.Builder getMetaData() {
+        metaBytes = null;
         return metaData;
     }
 
@@ -228,18 +363,55 @@ public class xMsgMessage {
      * @return the size of the data, in bytes
      */
     public int getDataSize() {
+        if (dataBuffer != null) {
+            return dataBuffer.remaining();
+        }
         return data != null ? data.length : 0;
     }
 
     /**
      * Returns the data of the message.
+     * If the data is held in a buffer, it is copied into a new byte array.
      *
      * @return the byte array with the raw message data
+     * @see #getDataBuffer
      */
     public byte[] getData() {
+        if (dataBuffer != null) {
+            byte[] copy = new byte[dataBuffer.remaining()];
+            dataBuffer.duplicate().get(copy);
+            return copy;
+        }
         return data;
     }
 
+    /**
+     * Checks if the data of the message is held in a buffer.
+     * That is only the case for messages created with a buffer.
+     * The data of the received messages is always decoded by the socket
+     * into a heap byte array.
+     *
+     * @return true if the data is held in a buffer, false if it is a byte array
+     */
+    public boolean hasDataBuffer() {
+        return dataBuffer != null;
+    }
+
+    /**
+     * Returns the data of the message as a buffer, without copying it.
+     * The returned buffer is a read-only view of the data, with its own
+     * position and limit.
+     * The buffer of a received message wraps its heap byte array.
+     *
+     * @return a buffer with the raw message data
+     */
+    public ByteBuffer getDataBuffer() {
+        if (dataBuffer != null) {
+            return dataBuffer.asReadOnlyBuffer();
+        }
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
 
     /**
      * Constructs a message with the given data.
@@ -532,6 +704,9 @@ public class xMsgMessage {
         xMsgTopic resTopic = xMsgTopic.wrap(msg.metaData.getReplyTo());
         xMsgMeta.Builder resMeta = xMsgMeta.newBuilder(msg.metaData.build());
         resMeta.clearReplyTo();
+        if (msg.dataBuffer != null) {
+            return new xMsgMessage(resTopic, resMeta, msg.dataBuffer);
+        }
         return new xMsgMessage(resTopic, resMeta, msg.data);
     }
 
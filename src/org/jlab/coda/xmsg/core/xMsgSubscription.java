@@ -24,14 +24,20 @@ package org.jlab.coda.xmsg.core;
 
 import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.pubsub.MetaFilter;
 import org.jlab.coda.xmsg.sys.pubsub.xMsgConnectionSetup;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
 import org.jlab.coda.xmsg.sys.pubsub.xMsgPoller;
 import org.jlab.coda.xmsg.sys.pubsub.xMsgProxyDriver;
+import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -46,6 +52,25 @@ import java.util.stream.Collectors;
  * received messages. For every message, the user-provide callback will be
  * executed.
  * <p>
+ * If the subscription is {@link xMsgSubscriptionSetup#conflate() conflated},
+ * all the messages already queued in the connection are received before
+ * calling the user action, and only the latest message of each topic is handled.
+ * <p>
+ * If the subscription has a {@link xMsgSubscriptionSetup#metaFilter() metadata filter},
+ * or it is sampled, the connection is subscribed to the filter key of every
+ * topic instead, and the proxy only sends the messages that pass the filter.
+ * <p>
+ * If the subscription is a member of a {@link xMsgSubscriptionSetup#groupName() group},
+ * the connection receives a share of the messages of the group.
+ * If the subscription is {@link xMsgSubscriptionSetup#durableName() durable},
+ * the connection receives the messages replayed from the log of the proxy.
+ * In both cases the completed callbacks are reported back to the proxy by the
+ * background thread, which is woken up as soon as a callback completes.
+ * <p>
+ * If the heartbeats of the proxies are tracked, the connection is also
+ * subscribed to the heartbeat topic, and the background thread records the
+ * heartbeats, so the proxy is marked down when they stop arriving.
+ * <p>
  * When the subscription is destroyed, the background thread will be stopped
  * and the connection will be unsubscribed from the topic.
  * <p>
@@ -55,9 +80,19 @@ import java.util.stream.Collectors;
  */
 public abstract class xMsgSubscription {
 
+    // bound the messages received before running the callbacks,
+    // so a fast publisher cannot hold back the delivery forever
+    private static final int MAX_CONFLATED = 10000;
+
     private final String name;
     private final xMsgProxyDriver connection;
     private final List<String> topics;
+    private final List<String> keys;
+    private final List<byte[]> keyFrames;
+    private final boolean filtered;
+    private final boolean conflate;
+    private final ProxyHealth health;
+    private final boolean heartbeats;
 
     private final Thread thread;
     private volatile boolean isRunning = false;
@@ -67,10 +102,30 @@ public abstract class xMsgSubscription {
      *
      * @see xMsg#subscribe
      */
-    xMsgSubscription(String name, xMsgProxyDriver connection, Set<xMsgTopic> topics) {
+    xMsgSubscription(String name,
+                     xMsgProxyDriver connection,
+                     Set<xMsgTopic> topics,
+                     xMsgSubscriptionSetup setup,
+                     ProxyHealth health) {
         this.name = name;
         this.connection = connection;
         this.topics = topics.stream().map(xMsgTopic::toString).collect(Collectors.toList());
+        this.conflate = setup.conflate();
+        this.filtered = setup.isFiltered();
+        if (!filtered) {
+            this.keys = this.topics;
+        } else {
+            this.keys = this.topics.stream()
+                    .map(t -> new MetaFilter(t, setup.metaFilter(),
+                                             setup.sampleEvery(), setup.maxRate()).key())
+                    .collect(Collectors.toList());
+        }
+        this.keyFrames = this.keys.stream().map(String::getBytes).collect(Collectors.toList());
+        this.health = health;
+        // only the normal subscriptions are connected to the XPUB socket
+        this.heartbeats = health.isEnabled()
+                && setup.durableName() == null
+                && setup.groupName() == null;
         this.thread = xMsgUtil.newThread(name, new Handler());
     }
 
@@ -99,18 +154,21 @@ public abstract class xMsgSubscription {
         private void waitMessages(xMsgPoller poller) {
             while (isRunning) {
                 try {
+                    connection.flush();
                     if (poller.poll(100)) {
+                        if (conflate) {
+                            handleLatest();
+                            continue;
+                        }
                         ZMsg msg = connection.recv();
                         if (msg == null) {
                             break; // interrupted
                         }
                         try {
-                            if (msg.size() == 2) {
-                                // ignore control message
-                                // (which are composed of 2 frames)
-                                continue;
+                            xMsgMessage xmsg = parse(msg);
+                            if (xmsg != null) {
+                                handle(xmsg);
                             }
-                            handle(new xMsgMessage(msg));
                         } catch (xMsgException e) {
                             e.printStackTrace();
                         }
@@ -123,6 +181,82 @@ public abstract class xMsgSubscription {
                 }
             }
         }
+
+        private void handleLatest() {
+            Map<String, xMsgMessage> latest = new LinkedHashMap<>();
+            for (int i = 0; isRunning && i < MAX_CONFLATED; i++) {
+                ZMsg msg = connection.recv(false);
+                if (msg == null) {
+                    break;
+                }
+                try {
+                    xMsgMessage xmsg = parse(msg);
+                    if (xmsg == null) {
+                        continue;
+                    }
+                    String topic = xmsg.getTopic().toString();
+                    // keep the topics sorted by their latest update
+                    xMsgMessage previous = latest.remove(topic);
+                    if (previous != null) {
+                        previous.complete();
+                    }
+                    latest.put(topic, xmsg);
+                } catch (xMsgException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (xMsgMessage xmsg : latest.values()) {
+                try {
+                    handle(xmsg);
+                } catch (xMsgException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private xMsgMessage parse(ZMsg msg) throws xMsgException {
+            if (heartbeats && ProxyHealth.isHeartbeat(msg)) {
+                health.beat(connection.getAddress());
+                return null;
+            }
+            if (msg.size() == 2) {
+                // ignore control message
+                // (which are composed of 2 frames)
+                return null;
+            }
+            // the dropped messages are reported as processed right away
+            Runnable completion = connection.received();
+            try {
+                if (msg.size() == 4) {
+                    // filtered message (with the filter key as first frame),
+                    // the subscription also receives the copies of the filters
+                    // whose keys start with its own key
+                    ZFrame key = msg.pop();
+                    boolean accepted = filtered && isOwnKey(key.getData());
+                    key.destroy();
+                    if (!accepted) {
+                        return null;
+                    }
+                }
+                xMsgMessage xmsg = new xMsgMessage(msg);
+                xmsg.setCompletion(completion);
+                completion = null;
+                return xmsg;
+            } finally {
+                if (completion != null) {
+                    completion.run();
+                }
+            }
+        }
+    }
+
+    private boolean isOwnKey(byte[] key) {
+        for (byte[] own : keyFrames) {
+            if (Arrays.equals(own, key)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -132,13 +266,17 @@ public abstract class xMsgSubscription {
      */
     void start(xMsgConnectionSetup setup) throws xMsgException {
         setup.preSubscription(connection.getSocket());
-        topics.forEach(connection::subscribe);
+        connection.subscribe(keys);
         if (setup.checkSubscription()
-                && !connection.checkSubscription(topics.get(0), setup.subscriptionTimeout())) {
-            topics.forEach(connection::unsubscribe);
+                && !connection.checkSubscription(keys.get(0), setup.subscriptionTimeout())) {
+            keys.forEach(connection::unsubscribe);
             throw new xMsgException(subscriptionError());
         }
         setup.postSubscription();
+        if (heartbeats) {
+            connection.subscribe(xMsgCtrlConstants.HEARTBEAT_TOPIC);
+            health.watch(connection.getAddress());
+        }
         isRunning = true;
         thread.start();
     }
@@ -153,7 +291,11 @@ public abstract class xMsgSubscription {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         } finally {
-            topics.forEach(connection::unsubscribe);
+            keys.forEach(connection::unsubscribe);
+            if (heartbeats) {
+                connection.unsubscribe(xMsgCtrlConstants.HEARTBEAT_TOPIC);
+                health.unwatch(connection.getAddress());
+            }
             connection.close();
         }
     }
@@ -189,6 +331,18 @@ public abstract class xMsgSubscription {
         return topics.stream().map(xMsgTopic::wrap).collect(Collectors.toSet());
     }
 
+    /**
+     * Indicates if the proxy used by the subscription is sending heartbeats.
+     * If the {@link xMsgSetup.Builder#withHeartbeatTimeout heartbeats}
+     * are not tracked, the proxy is always considered alive.
+     *
+     * @return false if no heartbeat was received from the proxy
+     *         for longer than the heartbeat timeout
+     */
+    public boolean isProxyAlive() {
+        return health.isAlive(connection.getAddress());
+    }
+
     /**
      * Indicates if the subscription thread is running.
      *
@@ -0,0 +1,318 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.core;
+
+import org.jlab.coda.xmsg.sys.pubsub.MetaFilter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Setup of a single subscription.
+ * These options apply only to the subscription started with them,
+ * on top of the {@link xMsgSetup setup} of the actor.
+ *
+ * @see xMsg#subscribe(xMsgProxyAddress, java.util.Set, xMsgCallBack, xMsgSubscriptionSetup)
+ */
+public final class xMsgSubscriptionSetup {
+
+    /**
+     * Creates a builder to set options for a subscription.
+     *
+     * @return a new xMsgSubscriptionSetup builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+
+    /**
+     * Helps creating the setup for a subscription.
+     * All parameters not set will be initialized to their default values.
+     */
+    public static final class Builder {
+
+        private boolean conflate = false;
+        private String durableName = null;
+        private String groupName = null;
+        private final Map<String, Set<String>> metaFilter = new LinkedHashMap<>();
+        private int sampleEvery = 1;
+        private double maxRate = 0;
+
+        /**
+         * Sets if messages pending delivery should be conflated by topic.
+         * When enabled, if several messages of the same topic are waiting to be
+         * processed by the callback, only the latest one will be delivered and
+         * the older ones will be discarded.
+         * <p>
+         * Use this for topics that publish the latest value of some state
+         * (monitoring, status reports), when intermediate updates can be
+         * skipped if the callback cannot keep up with the publishers.
+         *
+         * @param flag true if messages should be conflated
+         * @return this builder
+         */
+        public Builder conflate(boolean flag) {
+            this.conflate = flag;
+            return this;
+        }
+
+        /**
+         * Adds a metadata condition that the received messages must satisfy.
+         * The given field must be set on the metadata of the message, and its
+         * value must be one of the given values. Enum fields are compared by the
+         * name of their value (i.e. {@code "ERROR"} for the {@code status}).
+         * When several fields are set, the messages must satisfy all of them.
+         * <p>
+         * The conditions are evaluated by the proxy, so the messages that do not
+         * pass the filter are never sent to the subscriber.
+         *
+         * @param field the name of the metadata field (i.e. {@code dataType})
+         * @param values the accepted values for the field
+         * @return this builder
+         * @throws IllegalArgumentException if the field does not exist in the
+         *         metadata, or the values are not valid
+         */
+        public Builder withMetaFilter(String field, String... values) {
+            Objects.requireNonNull(field, "null metadata field");
+            MetaFilter.checkField(field);
+            if (values.length == 0) {
+                throw new IllegalArgumentException("no values for field: " + field);
+            }
+            Arrays.stream(values).forEach(MetaFilter::checkValue);
+            metaFilter.computeIfAbsent(field, k -> new LinkedHashSet<>())
+                      .addAll(Arrays.asList(values));
+            return this;
+        }
+
+        /**
+         * Receives only one of every given number of messages.
+         * <p>
+         * The messages are sampled by the proxy, after the
+         * {@link #withMetaFilter metadata filter} if any, so the skipped
+         * messages are never sent to the subscriber. The first message is
+         * always received. Use this to monitor high-rate data topics.
+         *
+         * @param every receive one message of every this number (1 to receive all)
+         * @return this builder
+         * @throws IllegalArgumentException if the number is less than 1
+         */
+        public Builder sampleEvery(int every) {
+            MetaFilter.checkSampling(every, maxRate);
+            this.sampleEvery = every;
+            return this;
+        }
+
+        /**
+         * Receives at most the given number of messages per second.
+         * <p>
+         * The messages are sampled by the proxy, after the
+         * {@link #withMetaFilter metadata filter} and the
+         * {@link #sampleEvery sampling interval} if any, so the skipped
+         * messages are never sent to the subscriber. The received messages
+         * are at least {@code 1 / rate} seconds apart.
+         *
+         * @param rate the maximum messages per second (0 for no limit)
+         * @return this builder
+         * @throws IllegalArgumentException if the rate is negative
+         */
+        public Builder maxRate(double rate) {
+            MetaFilter.checkSampling(sampleEvery, rate);
+            this.maxRate = rate;
+            return this;
+        }
+
+        /**
+         * Makes the subscription durable, identified by the given name.
+         * <p>
+         * The messages of a durable subscription are read from the log of the
+         * proxy, starting after the last message processed by a previous
+         * subscription with the same name. Messages published while no
+         * subscriber was running are delivered when the subscription starts
+         * again, before the new messages. Only the topics kept in the log of the
+         * proxy can be received (see {@code -durable-topic} option of the proxy).
+         * <p>
+         * The position is saved after the callbacks complete. Since the
+         * callbacks can complete out of order, the saved position is the one
+         * before the oldest message still being processed. The delivery is
+         * at-least-once: if the subscription stops before the position of
+         * a processed message is saved, that message is delivered again to
+         * the next subscription with the same name, so the callback must
+         * handle duplicates. A new subscription with the same name replaces
+         * the running one.
+         *
+         * @param name the name of the durable subscription
+         * @return this builder
+         */
+        public Builder durable(String name) {
+            Objects.requireNonNull(name, "null durable subscription name");
+            if (name.isEmpty() || name.contains(" ")) {
+                throw new IllegalArgumentException("invalid durable subscription name: " + name);
+            }
+            this.durableName = name;
+            return this;
+        }
+
+        /**
+         * Makes the subscription a member of the given work-queue group.
+         * <p>
+         * Every message published to the topics of the group is received by a
+         * single member of the group, instead of by all of them. The proxy sends
+         * the messages to the members that have finished their previous messages,
+         * so the faster members receive more messages. The group does not change
+         * the delivery to the normal subscriptions of the same topics.
+         * <p>
+         * The members can be running on different actors and processes.
+         * When the last member leaves the group, the messages of the group still
+         * waiting to be received are discarded.
+         * The proxy must be started with the
+         * {@link org.jlab.coda.xmsg.sys.xMsgProxySetup.Builder#withWorkQueues work queues}
+         * enabled.
+         *
+         * @param name the name of the group
+         * @return this builder
+         */
+        public Builder group(String name) {
+            Objects.requireNonNull(name, "null group name");
+            if (name.isEmpty() || name.contains(" ")) {
+                throw new IllegalArgumentException("invalid group name: " + name);
+            }
+            this.groupName = name;
+            return this;
+        }
+
+        /**
+         * Creates the setup for a subscription.
+         *
+         * @return the subscription setup
+         * @throws IllegalArgumentException if a durable subscription uses
+         *         metadata filters or sampling, or a group subscription is also
+         *         durable, filtered, sampled or conflated
+         */
+        public xMsgSubscriptionSetup build() {
+            boolean filtered = !metaFilter.isEmpty() || sampleEvery > 1 || maxRate > 0;
+            if (durableName != null && filtered) {
+                throw new IllegalArgumentException("durable subscriptions cannot filter messages");
+            }
+            if (groupName != null && (durableName != null || filtered || conflate)) {
+                throw new IllegalArgumentException(
+                        "group subscriptions cannot be durable, filtered or conflated");
+            }
+            return new xMsgSubscriptionSetup(this);
+        }
+    }
+
+
+    private static final xMsgSubscriptionSetup DEFAULT = newBuilder().build();
+
+    private final boolean conflate;
+    private final String durableName;
+    private final String groupName;
+    private final Map<String, Set<String>> metaFilter;
+    private final int sampleEvery;
+    private final double maxRate;
+
+    private xMsgSubscriptionSetup(Builder builder) {
+        this.conflate = builder.conflate;
+        this.durableName = builder.durableName;
+        this.groupName = builder.groupName;
+        Map<String, Set<String>> filter = new LinkedHashMap<>();
+        builder.metaFilter.forEach((k, v) -> filter.put(k, new LinkedHashSet<>(v)));
+        this.metaFilter = Collections.unmodifiableMap(filter);
+        this.sampleEvery = builder.sampleEvery;
+        this.maxRate = builder.maxRate;
+    }
+
+    static xMsgSubscriptionSetup defaultSetup() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns true if messages pending delivery are conflated by topic.
+     *
+     * @return true if only the latest message of a topic is delivered
+     */
+    public boolean conflate() {
+        return conflate;
+    }
+
+    /**
+     * Gets the name of the durable subscription.
+     *
+     * @return the name used to save the position of the subscription,
+     *         or null if the subscription is not durable
+     */
+    public String durableName() {
+        return durableName;
+    }
+
+    /**
+     * Gets the name of the work-queue group of the subscription.
+     *
+     * @return the name of the group that shares the messages,
+     *         or null if the subscription receives all the messages
+     */
+    public String groupName() {
+        return groupName;
+    }
+
+    /**
+     * Gets the metadata conditions that the received messages must satisfy.
+     *
+     * @return the accepted values of every metadata field,
+     *         or an empty map if the messages are not filtered
+     */
+    public Map<String, Set<String>> metaFilter() {
+        return metaFilter;
+    }
+
+    /**
+     * Gets how many messages are skipped for every received message.
+     *
+     * @return N if one of every N messages is received, or 1 to receive all
+     */
+    public int sampleEvery() {
+        return sampleEvery;
+    }
+
+    /**
+     * Gets the maximum rate of the received messages.
+     *
+     * @return the maximum messages per second, or 0 for no limit
+     */
+    public double maxRate() {
+        return maxRate;
+    }
+
+    /**
+     * Returns true if the proxy filters or samples the messages.
+     */
+    boolean isFiltered() {
+        return !metaFilter.isEmpty() || sampleEvery > 1 || maxRate > 0;
+    }
+}
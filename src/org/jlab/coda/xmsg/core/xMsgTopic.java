@@ -22,7 +22,7 @@
 
 package org.jlab.coda.xmsg.core;
 
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.StringTokenizer;
 
 /**
@@ -84,6 +84,9 @@ public final class xMsgTopic {
 
     private final String topic;
 
+    // the encoded topic, sent as the first frame of every message
+    private byte[] bytes;
+
 
     /**
      * Construct a valid xMsg topic.
@@ -176,7 +179,23 @@ public final class xMsgTopic {
      * @param bytes binary representation of a valid xMsg topic
      */
     static xMsgTopic wrap(byte[] bytes) {
-        return new xMsgTopic(new String(bytes, Charset.forName("UTF-8")));
+        xMsgTopic topic = new xMsgTopic(new String(bytes, StandardCharsets.UTF_8));
+        topic.bytes = bytes;
+        return topic;
+    }
+
+    /**
+     * Returns the UTF-8 encoding of the topic, to be sent over the wire.
+     * The topic is encoded only once, and the same array is returned by all
+     * calls, so it must not be modified.
+     */
+    byte[] toBytes() {
+        byte[] encoded = bytes;
+        if (encoded == null) {
+            encoded = topic.getBytes(StandardCharsets.UTF_8);
+            bytes = encoded;
+        }
+        return encoded;
     }
 
     /**
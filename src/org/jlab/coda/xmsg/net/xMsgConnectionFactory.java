@@ -49,6 +49,7 @@ public class xMsgConnectionFactory {
 
     /**
      * Creates a new subscriber connection.
+     * The connection uses the cheapest transport available to reach the proxy.
      *
      * @param address the address of the proxy used by the connection
      * @param setup the settings of the connection
@@ -59,13 +60,57 @@ public class xMsgConnectionFactory {
     public xMsgProxyDriver createSubscriberConnection(xMsgProxyAddress address,
                                                       xMsgConnectionSetup setup)
             throws xMsgException {
-        xMsgProxyDriver connection = xMsgProxyDriver.subscriber(address, factory);
+        xMsgTransport transport = context.transport(address, setup.preferIpc());
+        xMsgProxyDriver connection = xMsgProxyDriver.subscriber(address, transport, factory);
+        prepareProxyConnection(connection, setup);
+        return connection;
+    }
+
+    /**
+     * Creates a new durable subscriber connection.
+     * The messages are replayed by the proxy from its log,
+     * resuming from the last position saved with the given name.
+     *
+     * @param address the address of the proxy used by the connection
+     * @param name the name of the durable subscription
+     * @param setup the settings of the connection
+     * @return a new connection that can subscribe to the durable topics
+     *         of the proxy running on the given address
+     * @throws xMsgException if the connection could not be created
+     */
+    public xMsgProxyDriver createDurableConnection(xMsgProxyAddress address,
+                                                   String name,
+                                                   xMsgConnectionSetup setup)
+            throws xMsgException {
+        xMsgProxyDriver connection = xMsgProxyDriver.durable(address, name, factory);
+        prepareProxyConnection(connection, setup);
+        return connection;
+    }
+
+    /**
+     * Creates a new work-queue group member connection.
+     * The proxy sends every message of the group to a single member,
+     * preferring the members that process their messages faster.
+     *
+     * @param address the address of the proxy used by the connection
+     * @param name the name of the group
+     * @param setup the settings of the connection
+     * @return a new connection that can join the group
+     *         in the proxy running on the given address
+     * @throws xMsgException if the connection could not be created
+     */
+    public xMsgProxyDriver createGroupConnection(xMsgProxyAddress address,
+                                                 String name,
+                                                 xMsgConnectionSetup setup)
+            throws xMsgException {
+        xMsgProxyDriver connection = xMsgProxyDriver.group(address, name, factory);
         prepareProxyConnection(connection, setup);
         return connection;
     }
 
     /**
      * Creates a new publisher connection.
+     * The connection uses the cheapest transport available to reach the proxy.
      *
      * @param address the address of the proxy used by the connection
      * @param setup the settings of the connection
@@ -76,7 +121,8 @@ public class xMsgConnectionFactory {
     public xMsgProxyDriver createPublisherConnection(xMsgProxyAddress address,
                                                      xMsgConnectionSetup setup)
             throws xMsgException {
-        xMsgProxyDriver connection = xMsgProxyDriver.publisher(address, factory);
+        xMsgTransport transport = context.transport(address, setup.preferIpc());
+        xMsgProxyDriver connection = xMsgProxyDriver.publisher(address, transport, factory);
         prepareProxyConnection(connection, setup);
         return connection;
     }
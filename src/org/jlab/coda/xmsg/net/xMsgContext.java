@@ -22,9 +22,13 @@
 
 package org.jlab.coda.xmsg.net;
 
+import org.jlab.coda.xmsg.core.xMsgUtil;
 import org.zeromq.ZContext;
 import org.zeromq.ZMQ.Context;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 
 /**
  * A wrapper over a 0MQ context to handle connection sockets.
@@ -50,6 +54,9 @@ public final class xMsgContext implements AutoCloseable {
     // ZContext.
     private final ZContext ctx;
 
+    // the transports of the proxies bound with this context, by port
+    private final Map<Integer, xMsgTransport> localProxies = new ConcurrentHashMap<>();
+
     private xMsgContext() {
         ctx = new ZContext(1);
     }
@@ -110,6 +117,55 @@ public final class xMsgContext implements AutoCloseable {
         ctx.getContext().setMaxSockets(maxSockets);
     }
 
+    /**
+     * Registers a proxy running with this context.
+     * The connections created with this context will use the given transport
+     * to reach the proxy.
+     *
+     * @param address the address of the proxy
+     * @param transport the cheapest transport bound by the proxy
+     */
+    public void addLocalProxy(xMsgProxyAddress address, xMsgTransport transport) {
+        localProxies.put(address.pubPort(), transport);
+    }
+
+    /**
+     * Unregisters a proxy running with this context.
+     *
+     * @param address the address of the proxy
+     */
+    public void removeLocalProxy(xMsgProxyAddress address) {
+        localProxies.remove(address.pubPort());
+    }
+
+    /**
+     * Gets the cheapest transport to connect to the given proxy.
+     * Proxies running with this context can be reached with
+     * {@link xMsgTransport#INPROC INPROC}.
+     * If the proxy is running on this node, and the local transports are
+     * preferred, {@link xMsgTransport#IPC IPC} will be used.
+     * Otherwise, the connection will use {@link xMsgTransport#TCP TCP}.
+     *
+     * @param address the address of the proxy
+     * @param preferIpc if the proxies on the local node are known
+     *        to listen on IPC
+     * @return the transport to connect to the proxy
+     */
+    public xMsgTransport transport(xMsgProxyAddress address, boolean preferIpc) {
+        if (!isLocalHost(address.host())) {
+            return xMsgTransport.TCP;
+        }
+        xMsgTransport transport = localProxies.get(address.pubPort());
+        if (transport != null) {
+            return transport;
+        }
+        return preferIpc ? xMsgTransport.IPC : xMsgTransport.TCP;
+    }
+
+    private static boolean isLocalHost(String host) {
+        return host.startsWith("127.") || xMsgUtil.getLocalHostIps().contains(host);
+    }
+
     /**
      * Returns the internal wrapped 0MQ context.
      *
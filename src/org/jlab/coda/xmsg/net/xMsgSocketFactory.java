@@ -73,11 +73,27 @@ public class xMsgSocketFactory {
      * @throws xMsgException if the port is in use
      */
     public void bindSocket(Socket socket, int port) throws xMsgException {
+        bindSocket(socket, xMsgTransport.TCP, port);
+    }
+
+    /**
+     * Binds the given socket to the given port, using the given transport.
+     *
+     * @param socket the socket to bind
+     * @param transport the transport of the endpoint
+     * @param port the listening port
+     * @throws xMsgException if the port is in use
+     */
+    public void bindSocket(Socket socket, xMsgTransport transport, int port)
+            throws xMsgException {
         try {
-            socket.bind("tcp://*:" + port);
+            socket.bind(transport.bindEndpoint(port));
         } catch (ZMQException e) {
             if (e.getErrorCode() == ZMQ.Error.EADDRINUSE.getCode()) {
-                throw new xMsgException("could not bind to port " + port);
+                if (transport == xMsgTransport.TCP) {
+                    throw new xMsgException("could not bind to port " + port);
+                }
+                throw new xMsgException("could not bind to " + transport.bindEndpoint(port));
             }
             throw e;
         }
@@ -92,8 +108,22 @@ public class xMsgSocketFactory {
      * @throws xMsgException if no 0MQ I/O threads are available for the connection
      */
     public void connectSocket(Socket socket, String host, int port) throws xMsgException {
+        connectSocket(socket, xMsgTransport.TCP, host, port);
+    }
+
+    /**
+     * Connects the given socket to the given port, using the given transport.
+     *
+     * @param socket the socket to be connected
+     * @param transport the transport of the endpoint
+     * @param host the address of the host
+     * @param port the connection port
+     * @throws xMsgException if no 0MQ I/O threads are available for the connection
+     */
+    public void connectSocket(Socket socket, xMsgTransport transport, String host, int port)
+            throws xMsgException {
         try {
-            socket.connect("tcp://" + host + ":" + port);
+            socket.connect(transport.connectEndpoint(host, port));
         } catch (ZMQException e) {
             if (e.getErrorCode() == ZMQ.Error.EMTHREAD.getCode()) {
                 throw new xMsgException("no I/O thread available", e);
@@ -0,0 +1,95 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.net;
+
+import java.io.File;
+
+/**
+ * The transports that can be used to connect with a proxy.
+ * <p>
+ * All proxies listen on TCP. A proxy also listens on INPROC for the actors
+ * that share its {@link xMsgContext}, and optionally on IPC for the actors
+ * running on the same node. The endpoints of every transport are derived
+ * from the proxy ports.
+ */
+public enum xMsgTransport {
+
+    /** Connections over the network. */
+    TCP {
+        @Override
+        public String bindEndpoint(int port) {
+            return "tcp://*:" + port;
+        }
+
+        @Override
+        public String connectEndpoint(String host, int port) {
+            return "tcp://" + host + ":" + port;
+        }
+    },
+
+    /** Connections between processes on the same node. */
+    IPC {
+        @Override
+        public String bindEndpoint(int port) {
+            return "ipc://" + IPC_DIR + File.separator + "xmsg-" + port;
+        }
+
+        @Override
+        public String connectEndpoint(String host, int port) {
+            return bindEndpoint(port);
+        }
+    },
+
+    /** Connections between threads using the same context. */
+    INPROC {
+        @Override
+        public String bindEndpoint(int port) {
+            return "inproc://xmsg-" + port;
+        }
+
+        @Override
+        public String connectEndpoint(String host, int port) {
+            return bindEndpoint(port);
+        }
+    };
+
+    private static final String IPC_DIR = System.getProperty("java.io.tmpdir");
+
+    /**
+     * Gets the endpoint to bind a socket to the given port.
+     *
+     * @param port the listening port
+     * @return the bind endpoint for this transport
+     */
+    public abstract String bindEndpoint(int port);
+
+    /**
+     * Gets the endpoint to connect a socket to the given host and port.
+     * The host is ignored by the local transports.
+     *
+     * @param host the address of the host
+     * @param port the connection port
+     * @return the connect endpoint for this transport
+     */
+    public abstract String connectEndpoint(String host, int port);
+}
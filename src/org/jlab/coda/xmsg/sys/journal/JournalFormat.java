@@ -0,0 +1,97 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import java.nio.file.Path;
+
+/**
+ * The layout of the files of a traffic journal.
+ * <p>
+ * A journal is a directory with a sequence of segments. Every segment is a
+ * memory-mapped file of fixed size, with a header followed by the records:
+ * <pre>
+ *   header:  int magic, int version, long creation time
+ *   record:  int size, long time, int frames, [int length, byte[] data]...
+ * </pre>
+ * The size of a record does not include the size field itself.
+ * The unused space at the end of a segment is filled with zeros,
+ * so a record size of zero marks the end of the segment.
+ * <p>
+ * Every segment has two companion files: a time index, with the time and
+ * offset of the first record of every second, and a catalog of the topics
+ * recorded in the segment, which is written when the segment is complete.
+ */
+public final class JournalFormat {
+
+    /** The first bytes of every segment ("XMJ1"). */
+    public static final int MAGIC = 0x584d4a31;
+
+    /** The version of the record layout. */
+    public static final int VERSION = 1;
+
+    /** The size of the segment header. */
+    public static final int HEADER_SIZE = 16;
+
+    /** The size of the fixed fields of a record. */
+    public static final int RECORD_HEADER_SIZE = 16;
+
+    /** The size of an entry of the time index. */
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    /** The default size of a segment. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final String TOPICS_SUFFIX = ".topics";
+
+    private JournalFormat() { }
+
+    static Path segmentFile(Path directory, long sequence) {
+        return directory.resolve(name(sequence) + SEGMENT_SUFFIX);
+    }
+
+    static Path indexFile(Path directory, long sequence) {
+        return directory.resolve(name(sequence) + INDEX_SUFFIX);
+    }
+
+    static Path topicsFile(Path directory, long sequence) {
+        return directory.resolve(name(sequence) + TOPICS_SUFFIX);
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String name(long sequence) {
+        return String.format("%012d", sequence);
+    }
+}
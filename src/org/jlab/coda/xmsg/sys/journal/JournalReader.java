@@ -0,0 +1,229 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Reads the messages of a journal, in the order they were written.
+ * <p>
+ * The segments are memory-mapped for reading. The messages can be selected
+ * by a time range and a topic prefix. The time index of every segment is used
+ * to start reading at the first record of the range, and the segments whose
+ * topic catalog has no matching topic in the range are skipped.
+ * <p>
+ * The segment being written by a running proxy may be read incompletely.
+ *
+ * @see JournalFormat
+ */
+public class JournalReader {
+
+    private final Path directory;
+    private final long from;
+    private final long to;
+    private final String prefix;
+    private final Deque<Long> segments;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Opens the journal in the given directory to read all messages.
+     *
+     * @param directory the journal directory
+     * @throws IOException if the directory cannot be read
+     */
+    public JournalReader(Path directory) throws IOException {
+        this(directory, Long.MIN_VALUE, Long.MAX_VALUE, "");
+    }
+
+    /**
+     * Opens the journal in the given directory to read the selected messages.
+     *
+     * @param directory the journal directory
+     * @param from the earliest time of the messages, in milliseconds
+     * @param to the latest time of the messages, in milliseconds
+     * @param topicPrefix the prefix of the topic of the messages
+     * @throws IOException if the directory cannot be read
+     */
+    public JournalReader(Path directory, long from, long to, String topicPrefix)
+            throws IOException {
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("no journal in " + directory);
+        }
+        this.directory = directory;
+        this.from = from;
+        this.to = to;
+        this.prefix = topicPrefix;
+        this.segments = new ArrayDeque<>(JournalWriter.existingSegments(directory));
+    }
+
+    /**
+     * Reads the next selected message.
+     *
+     * @return the next message, or null if there are no more messages
+     * @throws IOException if a segment could not be read
+     */
+    public JournalRecord next() throws IOException {
+        while (true) {
+            if (buffer == null && !open()) {
+                return null;
+            }
+            JournalRecord record = read();
+            if (record == null) {
+                buffer = null;
+                continue;
+            }
+            if (record.time() < from) {
+                continue;
+            }
+            if (record.time() > to) {
+                buffer = null;
+                continue;
+            }
+            if (record.topic().startsWith(prefix)) {
+                return record;
+            }
+        }
+    }
+
+    private boolean open() throws IOException {
+        while (!segments.isEmpty()) {
+            long sequence = segments.removeFirst();
+            if (!hasTopics(sequence)) {
+                continue;
+            }
+            Path file = JournalFormat.segmentFile(directory, sequence);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.remaining() < JournalFormat.HEADER_SIZE
+                    || buffer.getInt() != JournalFormat.MAGIC
+                    || buffer.getInt() != JournalFormat.VERSION) {
+                throw new IOException("invalid journal segment: " + file);
+            }
+            buffer.getLong();
+            long start = startOffset(sequence);
+            if (start < 0) {
+                buffer = null;
+                continue;
+            }
+            if (start > 0) {
+                buffer.position((int) start);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Checks the catalog of the segment, if it was written.
+    private boolean hasTopics(long sequence) throws IOException {
+        Path file = JournalFormat.topicsFile(directory, sequence);
+        if (!Files.exists(file)) {
+            return true;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(" ", 4);
+            if (fields.length < 4) {
+                return true;
+            }
+            try {
+                long first = Long.parseLong(fields[1]);
+                long last = Long.parseLong(fields[2]);
+                if (last >= from && first <= to && fields[3].startsWith(prefix)) {
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Finds the offset of the record to start reading, using the time index.
+    // Returns zero to read from the first record, or -1 to skip the segment.
+    private long startOffset(long sequence) throws IOException {
+        Path file = JournalFormat.indexFile(directory, sequence);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long offset = 0;
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream index = new DataInputStream(stream)) {
+            boolean first = true;
+            while (true) {
+                long time = index.readLong();
+                long position = index.readLong();
+                if (first && time > to) {
+                    return -1;
+                }
+                first = false;
+                // the index keeps the first record of every second
+                if (time / 1000 > from / 1000) {
+                    break;
+                }
+                offset = position;
+            }
+        } catch (EOFException e) {
+            // end of the index
+        }
+        return offset;
+    }
+
+    private JournalRecord read() {
+        try {
+            if (buffer.remaining() < JournalFormat.RECORD_HEADER_SIZE) {
+                return null;
+            }
+            int size = buffer.getInt();
+            if (size <= 0) {
+                return null;
+            }
+            long time = buffer.getLong();
+            int count = buffer.getInt();
+            List<byte[]> frames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] frame = new byte[buffer.getInt()];
+                buffer.get(frame);
+                frames.add(frame);
+            }
+            return new JournalRecord(time, frames);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            // incomplete record
+            return null;
+        }
+    }
+}
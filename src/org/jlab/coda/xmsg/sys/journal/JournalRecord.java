@@ -0,0 +1,82 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A message read from a journal.
+ */
+public final class JournalRecord {
+
+    private final long time;
+    private final List<byte[]> frames;
+
+    JournalRecord(long time, List<byte[]> frames) {
+        this.time = time;
+        this.frames = Collections.unmodifiableList(frames);
+    }
+
+    /**
+     * Gets the time when the message was received by the proxy.
+     *
+     * @return the time of the message, in milliseconds
+     */
+    public long time() {
+        return time;
+    }
+
+    /**
+     * Gets the topic of the message, from its first frame.
+     *
+     * @return the topic of the message
+     */
+    public String topic() {
+        return frames.isEmpty() ? "" : new String(frames.get(0), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the data of every frame of the message.
+     * A published message has three frames: topic, metadata and data.
+     *
+     * @return the frames of the message
+     */
+    public List<byte[]> frames() {
+        return frames;
+    }
+
+    /**
+     * Gets the total size of the frames of the message.
+     *
+     * @return the size of the message, in bytes
+     */
+    public long size() {
+        long size = 0;
+        for (byte[] frame : frames) {
+            size += frame.length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import static java.util.Arrays.asList;
+
+import org.jlab.coda.xmsg.core.xMsg;
+import org.jlab.coda.xmsg.core.xMsgConnection;
+import org.jlab.coda.xmsg.core.xMsgConstants;
+import org.jlab.coda.xmsg.core.xMsgMessage;
+import org.jlab.coda.xmsg.core.xMsgTopic;
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Publishes again the messages recorded in a journal.
+ * <p>
+ * The messages are published in the recorded order, with the original
+ * timing between them, or faster by the given factor. They can also be
+ * published as fast as possible. Independently of the timing, the publication
+ * rate can be limited to a maximum number of messages per second.
+ * <p>
+ * Only messages with topic, metadata and data frames are published.
+ * The reply-to field of the recorded sync requests is cleared.
+ *
+ * @see org.jlab.coda.xmsg.sys.xMsgProxySetup.Builder#withCapture
+ */
+public class JournalReplay {
+
+    /** The speed factor to publish the messages as fast as possible. */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    private final JournalReader reader;
+    private final double speed;
+    private final double rate;
+
+    private long messages;
+    private long bytes;
+    private long skipped;
+
+    public static void main(String[] args) {
+        try {
+            OptionParser parser = new OptionParser();
+            OptionSpec<String> hostSpec = parser.accepts("host")
+                    .withRequiredArg()
+                    .defaultsTo(xMsgUtil.localhost());
+            OptionSpec<Integer> portSpec = parser.accepts("port")
+                    .withRequiredArg()
+                    .ofType(Integer.class)
+                    .defaultsTo(xMsgConstants.DEFAULT_PORT);
+            OptionSpec<Double> speedSpec = parser.accepts("speed")
+                    .withRequiredArg()
+                    .ofType(Double.class)
+                    .defaultsTo(1.0);
+            OptionSpec<Double> rateSpec = parser.accepts("rate")
+                    .withRequiredArg()
+                    .ofType(Double.class)
+                    .defaultsTo(0.0);
+            OptionSpec<String> topicSpec = parser.accepts("topic")
+                    .withRequiredArg()
+                    .defaultsTo("");
+            OptionSpec<String> fromSpec = parser.accepts("from")
+                    .withRequiredArg();
+            OptionSpec<String> toSpec = parser.accepts("to")
+                    .withRequiredArg();
+            OptionSpec<String> dirSpec = parser.nonOptions();
+            parser.accepts("fast");
+            parser.acceptsAll(asList("h", "help")).forHelp();
+            OptionSet options = parser.parse(args);
+
+            List<String> dirs = options.valuesOf(dirSpec);
+            if (options.has("help") || dirs.size() != 1) {
+                usage(System.out);
+                System.exit(options.has("help") ? 0 : 1);
+            }
+
+            Path dir = Paths.get(dirs.get(0));
+            long from = options.has(fromSpec) ? parseTime(options.valueOf(fromSpec))
+                                              : Long.MIN_VALUE;
+            long to = options.has(toSpec) ? parseTime(options.valueOf(toSpec))
+                                          : Long.MAX_VALUE;
+            String prefix = options.valueOf(topicSpec);
+            double speed = options.has("fast") ? MAX_SPEED : options.valueOf(speedSpec);
+            double rate = options.valueOf(rateSpec);
+
+            xMsgProxyAddress address = new xMsgProxyAddress(options.valueOf(hostSpec),
+                                                            options.valueOf(portSpec));
+
+            JournalReader reader = new JournalReader(dir, from, to, prefix);
+            JournalReplay replay = new JournalReplay(reader, speed, rate);
+            try (xMsg actor = new xMsg("jx_replay");
+                 xMsgConnection con = actor.getConnection(address)) {
+                // give time to the connection to the proxy
+                xMsgUtil.sleep(100);
+                long start = System.nanoTime();
+                replay.run(actor, con);
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                System.out.printf("replayed %d messages (%d bytes) in %.3f s",
+                                  replay.messages(), replay.bytes(), elapsed);
+                if (replay.skipped() > 0) {
+                    System.out.printf(", skipped %d", replay.skipped());
+                }
+                System.out.println();
+            }
+
+        } catch (OptionException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException | xMsgException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value).toEpochMilli();
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("invalid time: " + value);
+            }
+        }
+    }
+
+    private static void usage(PrintStream out) {
+        out.printf("usage: jx_replay [options] <journal_dir>%n%n  Options:%n");
+        out.printf("  %-22s  %s%n", "-host <hostname>", "the host of the proxy");
+        out.printf("  %-22s  %s%n", "-port <port>", "the port of the proxy");
+        out.printf("  %-22s  %s%n", "-speed <factor>", "speed up the original timing");
+        out.printf("  %-22s  %s%n", "-fast", "ignore the original timing");
+        out.printf("  %-22s  %s%n", "-rate <msgs>", "publish up to the given messages per second");
+        out.printf("  %-22s  %s%n", "-topic <prefix>", "replay only the matching topics");
+        out.printf("  %-22s  %s%n", "-from <time>", "replay from the given time");
+        out.printf("  %-22s  %s%n", "-to <time>", "replay until the given time");
+        out.printf("%n  The times can be epoch milliseconds or ISO-8601 instants.%n");
+    }
+
+    /**
+     * Prepares the replay of the messages returned by the given reader.
+     *
+     * @param reader the reader of the journal
+     * @param speed the factor to speed up the original timing,
+     *              or {@link #MAX_SPEED} to ignore it
+     * @param rate the maximum number of messages per second,
+     *             or zero for no limit
+     */
+    public JournalReplay(JournalReader reader, double speed, double rate) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("invalid speed: " + speed);
+        }
+        if (!(rate >= 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("invalid rate: " + rate);
+        }
+        this.reader = reader;
+        this.speed = speed;
+        this.rate = rate;
+    }
+
+    /**
+     * Publishes all the messages through the given connection.
+     *
+     * @param actor the actor that publishes the messages
+     * @param connection the connection to the proxy
+     * @throws IOException if the journal could not be read
+     * @throws xMsgException if a message could not be published
+     */
+    public void run(xMsg actor, xMsgConnection connection) throws IOException, xMsgException {
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        long start = System.nanoTime();
+        long first = 0;
+        long last = start - interval;
+
+        for (JournalRecord r = reader.next(); r != null; r = reader.next()) {
+            xMsgMessage msg = toMessage(r);
+            if (msg == null) {
+                skipped++;
+                continue;
+            }
+            if (messages == 0) {
+                first = r.time();
+            }
+            long due = last + interval;
+            if (speed != MAX_SPEED) {
+                long offset = TimeUnit.MILLISECONDS.toNanos(r.time() - first);
+                due = Math.max(due, start + (long) (offset / speed));
+            }
+            waitUntil(due);
+            last = System.nanoTime();
+
+            actor.publish(connection, msg);
+            messages++;
+            bytes += r.size();
+        }
+    }
+
+    private static xMsgMessage toMessage(JournalRecord record) {
+        List<byte[]> frames = record.frames();
+        if (frames.size() != 3) {
+            return null;
+        }
+        try {
+            xMsgTopic topic = xMsgTopic.wrap(record.topic());
+            xMsgMeta.Builder meta = xMsgMeta.parseFrom(frames.get(1)).toBuilder();
+            return new xMsgMessage(topic, meta, frames.get(2));
+        } catch (InvalidProtocolBufferException e) {
+            return null;
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long delay = deadline - System.nanoTime();
+        while (delay > 0) {
+            LockSupport.parkNanos(delay);
+            delay = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Gets the number of published messages.
+     *
+     * @return the messages published by {@link #run}
+     */
+    public long messages() {
+        return messages;
+    }
+
+    /**
+     * Gets the size of the published messages.
+     *
+     * @return the total size of the frames of the published messages
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of recorded messages that could not be published.
+     *
+     * @return the messages skipped because they were not valid xMsg messages
+     */
+    public long skipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends messages to a journal of rolling memory-mapped segments.
+ * <p>
+ * A new segment is started when the current one is full.
+ * The writer never appends to segments of a previous journal in the same
+ * directory, it continues the sequence. When the number of segments exceeds
+ * the limit, the oldest segments are deleted.
+ * <p>
+ * The writer is not thread-safe.
+ *
+ * @see JournalFormat
+ */
+public class JournalWriter implements AutoCloseable {
+
+    /** The maximum number of topics in the catalog of a segment. */
+    public static final int MAX_CATALOG_TOPICS = 10000;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final Deque<Long> segments = new ArrayDeque<>();
+
+    private long sequence;
+    private MappedByteBuffer buffer;
+    private DataOutputStream index;
+    private long lastSecond;
+
+    private final Map<String, TopicEntry> catalog = new HashMap<>();
+    private boolean catalogComplete;
+
+    /**
+     * Creates a writer for the journal in the given directory.
+     * The directory is created if it does not exist.
+     *
+     * @param directory the journal directory
+     * @param segmentSize the size of every segment
+     * @param maxSegments the number of segments to keep, or zero to keep all
+     * @throws IOException if the directory cannot be created or read
+     */
+    public JournalWriter(Path directory, long segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= JournalFormat.HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+        }
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("invalid number of segments: " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        this.segments.addAll(existingSegments(directory));
+        this.sequence = segments.isEmpty() ? 0 : segments.getLast();
+    }
+
+    /**
+     * Gets the sequence numbers of the segments in the given directory.
+     *
+     * @param directory the journal directory
+     * @return the sorted sequence numbers
+     * @throws IOException if the directory cannot be read
+     */
+    static List<Long> existingSegments(Path directory) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                long seq = JournalFormat.sequence(file);
+                if (seq >= 0) {
+                    sequences.add(seq);
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    /**
+     * Appends a message to the journal.
+     *
+     * @param time the time when the message was received, in milliseconds
+     * @param frames the data of every frame of the message
+     * @throws IOException if a new segment could not be created
+     */
+    public void append(long time, List<byte[]> frames) throws IOException {
+        long size = JournalFormat.RECORD_HEADER_SIZE;
+        for (byte[] frame : frames) {
+            size += 4 + frame.length;
+        }
+        if (buffer == null || buffer.remaining() < size) {
+            roll(size);
+        }
+
+        long second = time / 1000;
+        if (second != lastSecond) {
+            index.writeLong(time);
+            index.writeLong(buffer.position());
+            lastSecond = second;
+        }
+
+        buffer.putInt((int) size - 4);
+        buffer.putLong(time);
+        buffer.putInt(frames.size());
+        for (byte[] frame : frames) {
+            buffer.putInt(frame.length);
+            buffer.put(frame);
+        }
+
+        if (catalogComplete && !frames.isEmpty()) {
+            String topic = new String(frames.get(0), StandardCharsets.UTF_8);
+            TopicEntry entry = catalog.get(topic);
+            if (entry == null) {
+                if (catalog.size() < MAX_CATALOG_TOPICS) {
+                    catalog.put(topic, new TopicEntry(time));
+                } else {
+                    catalog.clear();
+                    catalogComplete = false;
+                }
+            } else {
+                entry.count++;
+                entry.last = time;
+            }
+        }
+    }
+
+    /**
+     * Writes the pending data of the current segment to the disk.
+     *
+     * @throws IOException if the data could not be written
+     */
+    public void flush() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            index.flush();
+        }
+    }
+
+    private void roll(long recordSize) throws IOException {
+        finish();
+
+        sequence++;
+        long size = Math.max(segmentSize, JournalFormat.HEADER_SIZE + recordSize);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("message too large for the journal: " + recordSize);
+        }
+        Path file = JournalFormat.segmentFile(directory, sequence);
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.putInt(JournalFormat.MAGIC);
+        buffer.putInt(JournalFormat.VERSION);
+        buffer.putLong(System.currentTimeMillis());
+
+        index = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(JournalFormat.indexFile(directory, sequence))));
+        lastSecond = -1;
+        catalog.clear();
+        catalogComplete = true;
+
+        segments.add(sequence);
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            long oldest = segments.removeFirst();
+            Files.deleteIfExists(JournalFormat.segmentFile(directory, oldest));
+            Files.deleteIfExists(JournalFormat.indexFile(directory, oldest));
+            Files.deleteIfExists(JournalFormat.topicsFile(directory, oldest));
+        }
+    }
+
+    private void finish() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        buffer.force();
+        buffer = null;
+        index.close();
+        index = null;
+        if (catalogComplete) {
+            Path file = JournalFormat.topicsFile(directory, sequence);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, TopicEntry> e : catalog.entrySet()) {
+                    TopicEntry entry = e.getValue();
+                    writer.write(entry.count + " " + entry.first + " " + entry.last + " ");
+                    writer.write(e.getKey());
+                    writer.newLine();
+                }
+            }
+        }
+        catalog.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+
+    private static final class TopicEntry {
+
+        long count = 1;
+        long first;
+        long last;
+
+        TopicEntry(long time) {
+            first = time;
+            last = time;
+        }
+    }
+}
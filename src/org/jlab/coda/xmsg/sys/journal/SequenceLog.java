@@ -0,0 +1,460 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An append-only log of messages, numbered by a sequence.
+ * <p>
+ * The messages are written into rolling memory-mapped segments, named by the
+ * sequence number of their first message. Every record has the layout:
+ * <pre>
+ *   int size, long sequence, int frames, [int length, byte[] data]...
+ * </pre>
+ * The log also keeps the offset committed by every named consumer, which is
+ * the sequence number of the last message processed by the consumer.
+ * The offsets are saved into the log directory when the log is flushed.
+ * <p>
+ * When the log is opened, it continues after the last message of the existing
+ * segments. Cursors can read the log from any retained sequence number, and
+ * they return the new messages as soon as they are appended.
+ * <p>
+ * The log and its cursors must be used by a single thread.
+ */
+public class SequenceLog implements AutoCloseable {
+
+    /** The first bytes of every segment ("XMS1"). */
+    public static final int MAGIC = 0x584d5331;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String OFFSETS_FILE = "offsets";
+
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxSegments;
+
+    // segments by their first sequence number
+    private final TreeMap<Long, ByteBuffer> segments = new TreeMap<>();
+    private final Map<String, Long> offsets = new HashMap<>();
+
+    private MappedByteBuffer current;
+    private long nextSequence = 1;
+    private boolean dirtyOffsets;
+
+    /**
+     * Opens the log in the given directory.
+     * The directory is created if it does not exist.
+     *
+     * @param directory the log directory
+     * @param segmentSize the size of every segment
+     * @param maxSegments the number of segments to keep, or zero to keep all
+     * @throws IOException if the log could not be opened
+     */
+    public SequenceLog(Path directory, long segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+        }
+        if (maxSegments < 0) {
+            throw new IllegalArgumentException("invalid number of segments: " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        List<Long> firsts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                long first = firstSequence(file);
+                if (first > 0) {
+                    firsts.add(first);
+                }
+            }
+        }
+        Collections.sort(firsts);
+        for (long first : firsts) {
+            segments.put(first, null);
+        }
+        if (!firsts.isEmpty()) {
+            recover(firsts.get(firsts.size() - 1));
+        }
+        readOffsets();
+    }
+
+    private static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path segmentFile(long first) {
+        return directory.resolve(String.format("%020d", first) + SEGMENT_SUFFIX);
+    }
+
+    // Finds the end of the last segment, to continue appending to it.
+    private void recover(long first) throws IOException {
+        Path file = segmentFile(first);
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        checkHeader(current, file);
+        nextSequence = first;
+        while (true) {
+            int position = current.position();
+            Entry entry = read(current);
+            if (entry == null) {
+                current.position(position);
+                break;
+            }
+            nextSequence = entry.sequence + 1;
+        }
+        segments.put(first, current);
+    }
+
+    private static void checkHeader(ByteBuffer buffer, Path file) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("invalid log segment: " + file);
+        }
+        buffer.getInt();
+        buffer.getLong();
+    }
+
+    /**
+     * Appends a message to the log.
+     *
+     * @param frames the data of every frame of the message
+     * @return the sequence number of the message
+     * @throws IOException if a new segment could not be created
+     */
+    public long append(List<byte[]> frames) throws IOException {
+        long size = RECORD_HEADER_SIZE;
+        for (byte[] frame : frames) {
+            size += 4 + frame.length;
+        }
+        if (current == null || current.remaining() < size) {
+            roll(size);
+        }
+        long sequence = nextSequence++;
+        current.putInt((int) size - 4);
+        current.putLong(sequence);
+        current.putInt(frames.size());
+        for (byte[] frame : frames) {
+            current.putInt(frame.length);
+            current.put(frame);
+        }
+        return sequence;
+    }
+
+    private void roll(long recordSize) throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        long size = Math.max(segmentSize, HEADER_SIZE + recordSize);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("message too large for the log: " + recordSize);
+        }
+        Path file = segmentFile(nextSequence);
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.CREATE_NEW,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        current.putInt(MAGIC);
+        current.putInt(1);
+        current.putLong(nextSequence);
+        segments.put(nextSequence, current);
+
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            long oldest = segments.pollFirstEntry().getKey();
+            Files.deleteIfExists(segmentFile(oldest));
+        }
+    }
+
+    /**
+     * Gets the sequence number of the last appended message.
+     *
+     * @return the last sequence number, or zero if the log is empty
+     */
+    public long lastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Creates a cursor to read the log from the given sequence number.
+     * If the message was already deleted, the cursor starts at the oldest
+     * retained message.
+     *
+     * @param sequence the sequence number of the first message to read
+     * @return a new cursor
+     * @throws IOException if a segment could not be read
+     */
+    public Cursor cursor(long sequence) throws IOException {
+        Long first = segments.floorKey(sequence);
+        if (first == null) {
+            first = segments.isEmpty() ? nextSequence : segments.firstKey();
+        }
+        Cursor cursor = new Cursor(first);
+        cursor.skipTo(sequence);
+        return cursor;
+    }
+
+    private ByteBuffer view(long first) throws IOException {
+        ByteBuffer buffer = segments.get(first);
+        if (buffer == null) {
+            Path file = segmentFile(first);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            segments.put(first, buffer);
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        checkHeader(view, segmentFile(first));
+        return view;
+    }
+
+    private static Entry read(ByteBuffer buffer) {
+        int position = buffer.position();
+        try {
+            if (buffer.remaining() < RECORD_HEADER_SIZE) {
+                return null;
+            }
+            int size = buffer.getInt();
+            if (size <= 0) {
+                buffer.position(position);
+                return null;
+            }
+            long sequence = buffer.getLong();
+            int count = buffer.getInt();
+            List<byte[]> frames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] frame = new byte[buffer.getInt()];
+                buffer.get(frame);
+                frames.add(frame);
+            }
+            return new Entry(sequence, frames);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            buffer.position(position);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the offset of a consumer.
+     *
+     * @param name the name of the consumer
+     * @param sequence the sequence number of the last processed message
+     */
+    public void commit(String name, long sequence) {
+        Long previous = offsets.put(name, sequence);
+        if (previous == null || previous != sequence) {
+            dirtyOffsets = true;
+        }
+    }
+
+    /**
+     * Gets the offset of a consumer.
+     *
+     * @param name the name of the consumer
+     * @return the sequence number of the last processed message,
+     *         or zero if the consumer never committed an offset
+     */
+    public long committed(String name) {
+        return offsets.getOrDefault(name, 0L);
+    }
+
+    /**
+     * Writes the appended messages and the committed offsets to the disk.
+     *
+     * @throws IOException if the data could not be written
+     */
+    public void flush() throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        if (dirtyOffsets) {
+            Path tmp = directory.resolve(OFFSETS_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> e : offsets.entrySet()) {
+                    writer.write(e.getValue() + " " + e.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, directory.resolve(OFFSETS_FILE),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirtyOffsets = false;
+        }
+    }
+
+    private void readOffsets() throws IOException {
+        Path file = directory.resolve(OFFSETS_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(" ", 2);
+            if (fields.length == 2) {
+                try {
+                    offsets.put(fields[1], Long.parseLong(fields[0]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid offset: " + line);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+
+    /**
+     * A message read from the log.
+     */
+    public static final class Entry {
+
+        private final long sequence;
+        private final List<byte[]> frames;
+
+        Entry(long sequence, List<byte[]> frames) {
+            this.sequence = sequence;
+            this.frames = frames;
+        }
+
+        /**
+         * Gets the sequence number of the message.
+         *
+         * @return the position of the message in the log
+         */
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the data of every frame of the message.
+         *
+         * @return the frames of the message
+         */
+        public List<byte[]> frames() {
+            return frames;
+        }
+    }
+
+
+    /**
+     * Reads the messages of the log in order.
+     */
+    public final class Cursor {
+
+        private long segment;
+        private ByteBuffer buffer;
+
+        private Cursor(long segment) {
+            this.segment = segment;
+        }
+
+        private void skipTo(long sequence) throws IOException {
+            while (true) {
+                if (buffer == null && !open()) {
+                    return;
+                }
+                int position = buffer.position();
+                Entry entry = next();
+                if (entry == null) {
+                    return;
+                }
+                if (entry.sequence >= sequence) {
+                    buffer.position(position);
+                    return;
+                }
+            }
+        }
+
+        private boolean open() throws IOException {
+            if (!segments.containsKey(segment)) {
+                Long next = segments.ceilingKey(segment);
+                if (next == null) {
+                    return false;
+                }
+                segment = next;
+            }
+            buffer = view(segment);
+            return true;
+        }
+
+        /**
+         * Reads the next message.
+         *
+         * @return the next message, or null if the cursor is at the end of
+         *         the log. Later calls return the new appended messages.
+         * @throws IOException if a segment could not be read
+         */
+        public Entry next() throws IOException {
+            while (true) {
+                if (buffer == null && !open()) {
+                    return null;
+                }
+                Entry entry = read(buffer);
+                if (entry != null) {
+                    return entry;
+                }
+                Long next = segments.higherKey(segment);
+                if (next == null) {
+                    return null;
+                }
+                segment = next;
+                buffer = null;
+            }
+        }
+    }
+}
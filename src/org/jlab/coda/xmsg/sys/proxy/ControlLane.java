@@ -0,0 +1,212 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+import zmq.Msg;
+
+/**
+ * Carries the control messages of the proxy outside its data path.
+ * <p>
+ * The control requests published by the actors (with the
+ * {@link xMsgCtrlConstants#CTRL_TOPIC control topic}) are taken out of the
+ * published messages as soon as they are received by the XSUB socket, and
+ * they are pushed to the controller without waiting on the queues of the
+ * backend or the subscribers. The acknowledgments that must reach the
+ * subscribers are pushed by the controller to the distributor, which sends
+ * them to the XPUB socket before forwarding more data.
+ * The scheduled messages held by the controller are also pushed to the
+ * distributor when they are due, and they are published as any other message.
+ * <p>
+ * The requests socket must be used by the thread that reads the XSUB socket,
+ * and the acknowledgments and scheduled sockets by the thread that owns the
+ * XPUB socket.
+ * The controller connects its own sockets to both endpoints.
+ */
+public class ControlLane {
+
+    private static final byte[] CTRL_TOPIC = xMsgCtrlConstants.CTRL_TOPIC.getBytes();
+
+    private final xMsgSocketFactory factory;
+    private final MessageRelay relay = new MessageRelay();
+
+    private final Socket requests;
+    private final Socket acks;
+    private final Socket scheduled;
+
+    /**
+     * Binds the lane sockets of the forwarding threads.
+     *
+     * @param factory the factory to create the sockets
+     * @param address the address of the proxy
+     * @throws xMsgException if the sockets could not be created
+     */
+    public ControlLane(xMsgSocketFactory factory, xMsgProxyAddress address)
+            throws xMsgException {
+        this.factory = factory;
+        Socket requests = null;
+        Socket acks = null;
+        Socket scheduled = null;
+        try {
+            requests = factory.createSocket(ZMQ.PUSH);
+            acks = factory.createSocket(ZMQ.PULL);
+            scheduled = factory.createSocket(ZMQ.PULL);
+            requests.bind(requestsEndpoint(address));
+            acks.bind(acksEndpoint(address));
+            scheduled.bind(scheduledEndpoint(address));
+        } catch (Exception e) {
+            factory.closeQuietly(requests);
+            factory.closeQuietly(acks);
+            factory.closeQuietly(scheduled);
+            throw e;
+        }
+        this.requests = requests;
+        this.acks = acks;
+        this.scheduled = scheduled;
+    }
+
+    /**
+     * Gets the endpoint where the controller must connect a PULL socket
+     * to receive the control requests.
+     *
+     * @param address the address of the proxy
+     * @return the inproc endpoint for the requests
+     */
+    public static String requestsEndpoint(xMsgProxyAddress address) {
+        return "inproc://xmsg-control-" + address.pubPort() + "-requests";
+    }
+
+    /**
+     * Gets the endpoint where the controller must connect a PUSH socket
+     * to send the acknowledgments to the subscribers.
+     *
+     * @param address the address of the proxy
+     * @return the inproc endpoint for the acknowledgments
+     */
+    public static String acksEndpoint(xMsgProxyAddress address) {
+        return "inproc://xmsg-control-" + address.pubPort() + "-acks";
+    }
+
+    /**
+     * Gets the endpoint where the controller must connect a PUSH socket
+     * to send the scheduled messages when they are due.
+     *
+     * @param address the address of the proxy
+     * @return the inproc endpoint for the scheduled messages
+     */
+    public static String scheduledEndpoint(xMsgProxyAddress address) {
+        return "inproc://xmsg-control-" + address.pubPort() + "-scheduled";
+    }
+
+    /**
+     * Subscribes the given XSUB socket to the control topic,
+     * so the publishers send the control requests even if there are no
+     * subscribers for them.
+     *
+     * @param in the XSUB socket bound to the publishers port
+     */
+    public static void subscribe(Socket in) {
+        byte[] subscription = new byte[CTRL_TOPIC.length + 1];
+        subscription[0] = 1;
+        System.arraycopy(CTRL_TOPIC, 0, subscription, 1, CTRL_TOPIC.length);
+        in.send(subscription);
+    }
+
+    /**
+     * Checks if the given topic frame is the topic of a control request.
+     *
+     * @param topic the first frame of a published message
+     * @return true if the message must be passed to the controller
+     */
+    public static boolean isControl(Msg topic) {
+        if (topic.size() < CTRL_TOPIC.length) {
+            return false;
+        }
+        for (int i = 0; i < CTRL_TOPIC.length; i++) {
+            if (topic.get(i) != CTRL_TOPIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes a control request to the controller,
+     * when its topic frame was already received.
+     * The request is dropped if the controller cannot accept it.
+     *
+     * @param topic the first frame of the request
+     * @param from the XSUB socket
+     * @return false if the context was terminated, true otherwise
+     */
+    public boolean request(Msg topic, Socket from) {
+        return relay.forward(topic, from, requests);
+    }
+
+    /**
+     * Gets the socket that receives the acknowledgments from the controller.
+     *
+     * @return the socket to be read by the distributor
+     */
+    public Socket acks() {
+        return acks;
+    }
+
+    /**
+     * Gets the socket that receives the due scheduled messages from the controller.
+     *
+     * @return the socket to be read by the distributor
+     */
+    public Socket scheduled() {
+        return scheduled;
+    }
+
+    /**
+     * Closes the requests socket.
+     */
+    public void closeRequests() {
+        factory.closeQuietly(requests);
+    }
+
+    /**
+     * Closes the acknowledgments and scheduled sockets.
+     */
+    public void closeAcks() {
+        factory.closeQuietly(acks);
+        factory.closeQuietly(scheduled);
+    }
+
+    /**
+     * Closes all sockets, if the threads were never started.
+     */
+    public void close() {
+        closeRequests();
+        closeAcks();
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.sys.pubsub.MetaFilter;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+
+import zmq.Msg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Handles the subscribers side of the proxy.
+ * <p>
+ * The distributor sends the messages to the XPUB socket bound to the
+ * subscribers port, and receives the subscriptions from it.
+ * All the processing that must see both the forwarded messages and the
+ * subscriptions is done here, by the single thread that owns the XPUB socket.
+ * This includes the federation with other proxies,
+ * the handling of slow subscribers, the metadata filters,
+ * the capture of the published messages and the durable topics.
+ * The acknowledgments of the {@link ControlLane control lane} are sent before
+ * any other message, so they are not delayed by the forwarded data.
+ * The heartbeats of the proxy are published here too, to the subscribers of
+ * the reserved {@link xMsgCtrlConstants#HEARTBEAT_TOPIC heartbeat topic}.
+ * <p>
+ * When a subscriber subscribes with the key of a {@link MetaFilter}, every
+ * message accepted by the filter is sent again after the original message,
+ * with the key prepended as the first frame. Since the key cannot be a prefix
+ * of a published topic, only the filtered subscribers receive these copies.
+ * The publishers are also subscribed to the topic of the filter.
+ */
+public class Distributor {
+
+    /** The name of the number of cached topics. */
+    public static final String CACHE_TOPICS = "cache_topics";
+
+    /** The name of the size of the cached messages. */
+    public static final String CACHE_BYTES = "cache_bytes";
+
+    /** The name of the number of evicted topics. */
+    public static final String CACHE_EVICTIONS = "cache_evictions";
+
+    private static final long SPILL_TIMEOUT = 10;
+
+    private static final byte[] HEARTBEAT =
+            xMsgCtrlConstants.HEARTBEAT_TOPIC.getBytes(StandardCharsets.US_ASCII);
+
+    private final Socket out;
+    private final ProxyStats stats;
+    private final LastValueCache cache;
+    private final Federation federation;
+    private final ControlLane lane;
+    private final SubscriberQueues queues;
+    private final MetaFilters filters;
+    private final List<MessageSink> sinks;
+    private final MessageRelay relay;
+    private final long heartbeatInterval;
+
+    private long nextHeartbeat;
+
+    private int outIndex = -1;
+    private int laneIndex = -1;
+    private int scheduledIndex = -1;
+    private int federationIndex = -1;
+    private int bridgeIndex = -1;
+
+    /**
+     * Creates a new distributor for the given XPUB socket.
+     *
+     * @param out the XPUB socket bound to the subscribers port
+     * @param stats the counters of the forwarded traffic
+     * @param setup the proxy options
+     * @param federation the federation sockets, or null
+     * @param lane the control lane, or null
+     * @param sinks the receivers of a copy of the published messages
+     * @param capture an optional socket to receive a copy of every frame
+     */
+    public Distributor(Socket out,
+                       ProxyStats stats,
+                       xMsgProxySetup setup,
+                       Federation federation,
+                       ControlLane lane,
+                       List<MessageSink> sinks,
+                       Socket capture) {
+        this.out = out;
+        this.stats = stats;
+        this.federation = federation;
+        this.lane = lane;
+        this.sinks = sinks;
+        this.relay = new MessageRelay(capture);
+        this.heartbeatInterval = setup.heartbeatInterval();
+        if (setup.lastValueCacheSize() > 0) {
+            this.cache = new LastValueCache(setup.lastValueCacheSize());
+            // every new subscriber must get the cached messages
+            this.out.setXpubVerbose(true);
+            stats.register(CACHE_TOPICS, cache::topics);
+            stats.register(CACHE_BYTES, cache::bytes);
+            stats.register(CACHE_EVICTIONS, cache::evictions);
+        } else {
+            this.cache = null;
+        }
+        if (federation != null) {
+            federation.register(stats);
+        }
+        if (setup.subscriberQueueSize() > 0) {
+            this.queues = new SubscriberQueues(out,
+                                               setup.slowSubscriberPolicy(),
+                                               setup.spillBufferSize());
+            this.queues.register(stats);
+        } else {
+            this.queues = null;
+        }
+        this.filters = new MetaFilters();
+        this.filters.register(stats);
+        sinks.forEach(s -> s.register(stats));
+        updateRecording();
+    }
+
+    /**
+     * Sets the options of the XPUB socket.
+     * It must be called before binding the socket.
+     *
+     * @param out the XPUB socket for the subscribers port
+     * @param setup the proxy options
+     */
+    public static void configure(Socket out, xMsgProxySetup setup) {
+        out.setSndHWM(setup.subscriberQueueSize());
+    }
+
+    /**
+     * Subscribes the given XSUB socket to all topics, if the distributor must
+     * receive all messages even when there are no subscribers for them.
+     * This is required to fill the cache. Otherwise, only the topics required
+     * by the {@link MessageSink sinks} are subscribed.
+     *
+     * @param in the XSUB socket bound to the publishers port
+     */
+    public void subscribeAll(Socket in) {
+        if (cache != null) {
+            in.send(new byte[] {1});
+        } else {
+            sinks.forEach(s -> s.subscribe(in));
+        }
+    }
+
+    /**
+     * Registers the sockets that receive subscriptions and messages
+     * handled by the distributor.
+     *
+     * @param poller the poller of the forwarding thread
+     * @see #process
+     */
+    public void register(Poller poller) {
+        outIndex = poller.register(out, Poller.POLLIN);
+        if (lane != null) {
+            laneIndex = poller.register(lane.acks(), Poller.POLLIN);
+            scheduledIndex = poller.register(lane.scheduled(), Poller.POLLIN);
+        }
+        if (federation != null) {
+            federationIndex = poller.register(federation.publisher(), Poller.POLLIN);
+            bridgeIndex = poller.register(federation.bridge(), Poller.POLLIN);
+        }
+        sinks.forEach(s -> s.register(poller));
+    }
+
+    /**
+     * Handles the subscriptions and messages received by the registered
+     * sockets, if they are ready.
+     *
+     * @param poller the poller of the forwarding thread
+     * @param to the socket that passes the subscriptions to the publishers
+     * @return false if the context was terminated, true otherwise
+     */
+    public boolean process(Poller poller, Socket to) {
+        if (poller.pollin(outIndex) && !subscription(to)) {
+            return false;
+        }
+        if (lane != null && poller.pollin(laneIndex) && !deliver(lane.acks())) {
+            return false;
+        }
+        if (lane != null && poller.pollin(scheduledIndex) && !publish(lane.scheduled())) {
+            return false;
+        }
+        if (queues != null) {
+            queues.drain();
+        }
+        if (heartbeatInterval > 0) {
+            heartbeat();
+        }
+        if (federation != null) {
+            if (poller.pollin(federationIndex)) {
+                if (!relay.forward(federation.publisher(), to)) {
+                    return false;
+                }
+            }
+            if (poller.pollin(bridgeIndex)) {
+                if (!deliver(federation.bridge())) {
+                    return false;
+                }
+                federation.received();
+            }
+        }
+        for (MessageSink sink : sinks) {
+            if (!sink.process(poller, to)) {
+                return false;
+            }
+        }
+        updateRecording();
+        return true;
+    }
+
+    /**
+     * Forwards the next message from the given socket to the subscribers.
+     * If the federation is enabled, the message is also sent to the peers.
+     *
+     * @param from the socket with the published message
+     * @return false if the context was terminated, true otherwise
+     */
+    public boolean publish(Socket from) {
+        Msg topic = MessageRelay.receive(from);
+        if (topic == null) {
+            return false;
+        }
+        return publish(topic, from);
+    }
+
+    /**
+     * Forwards a message to the subscribers,
+     * when its topic frame was already received.
+     *
+     * @param topic the first frame of the message
+     * @param from the socket with the rest of the message
+     * @return false if the context was terminated, true otherwise
+     * @see #publish(Socket)
+     */
+    public boolean publish(Msg topic, Socket from) {
+        Socket tee = federation != null ? federation.publisher() : null;
+        if (queues == null) {
+            if (!relay.forward(topic, from, out, tee)) {
+                return false;
+            }
+            update();
+            filter();
+            record();
+            return true;
+        }
+        queues.prepare(topic);
+        if (!relay.forward(topic, from, out, tee)) {
+            return false;
+        }
+        update();
+        queues.complete(relay.frames());
+        filter();
+        record();
+        return true;
+    }
+
+    /**
+     * Returns the maximum time the forwarding thread can wait for new
+     * messages, before calling {@link #process} again.
+     *
+     * @return the poll timeout, in milliseconds, or -1 to wait indefinitely
+     */
+    public long timeout() {
+        long timeout = queues != null && queues.pending() ? SPILL_TIMEOUT : -1;
+        if (heartbeatInterval > 0) {
+            long next = Math.max(0, nextHeartbeat - System.currentTimeMillis());
+            timeout = timeout < 0 ? next : Math.min(timeout, next);
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the size of the last message received by {@link #publish}.
+     *
+     * @return the total size of all frames of the message
+     */
+    public long lastSize() {
+        return relay.size();
+    }
+
+    private boolean deliver(Socket from) {
+        if (!relay.forward(from, out)) {
+            return false;
+        }
+        update();
+        filter();
+        return true;
+    }
+
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        if (now < nextHeartbeat) {
+            return;
+        }
+        nextHeartbeat = now + heartbeatInterval;
+        // two frames, so it is ignored by the subscribers of other topics,
+        // and it is not counted as traffic
+        byte[] time = Long.toString(now).getBytes(StandardCharsets.US_ASCII);
+        MessageRelay.send(new byte[][] {HEARTBEAT, time}, out);
+    }
+
+    private void update() {
+        if (relay.dropped()) {
+            stats.dropped();
+            return;
+        }
+        stats.sent(relay.size());
+        if (cache != null) {
+            cache.store(relay.frames());
+        }
+    }
+
+    private void filter() {
+        if (filters.isEmpty() || relay.dropped()) {
+            return;
+        }
+        List<byte[]> frames = relay.frames();
+        for (byte[] key : filters.match(frames)) {
+            byte[][] msg = new byte[frames.size() + 1][];
+            msg[0] = key;
+            for (int i = 0; i < frames.size(); i++) {
+                msg[i + 1] = frames.get(i);
+            }
+            send(msg);
+            filters.sent();
+        }
+    }
+
+    private void updateRecording() {
+        boolean spills = queues != null && queues.spills();
+        boolean sinking = false;
+        for (MessageSink sink : sinks) {
+            sinking |= sink.isActive();
+        }
+        relay.recordFrames(cache != null || spills || !filters.isEmpty() || sinking);
+    }
+
+    private void record() {
+        for (MessageSink sink : sinks) {
+            if (sink.isActive()) {
+                sink.offer(relay.frames(), relay.size());
+            }
+        }
+    }
+
+    private boolean subscription(Socket to) {
+        Msg frame = MessageRelay.receive(out);
+        if (frame == null) {
+            return false;
+        }
+        stats.subscription(frame);
+        if (federation != null) {
+            federation.subscription(frame);
+        }
+        if (filters.subscription(frame)) {
+            updateRecording();
+        }
+
+        boolean subscribe = frame.size() > 0 && frame.get(0) == 1;
+        String key = null;
+        String prefix = null;
+        if (frame.size() > 1 && frame.get(1) == MetaFilter.MARKER) {
+            key = MetaFilters.key(frame.data());
+        } else if (cache != null && subscribe) {
+            prefix = LastValueCache.key(frame.data(), 1, frame.size() - 1);
+        }
+        if (key != null) {
+            // the publishers must send the messages of the topic of the filter,
+            // and the key itself is only used to check the subscription
+            byte[] data = frame.data();
+            byte[] topic = MetaFilter.topicOf(key).getBytes(StandardCharsets.UTF_8);
+            byte[] upstream = new byte[topic.length + 1];
+            upstream[0] = data[0];
+            System.arraycopy(topic, 0, upstream, 1, topic.length);
+            MessageRelay.send(new byte[][] {upstream}, to);
+        }
+        if (!relay.forward(frame, out, to)) {
+            return false;
+        }
+        if (cache != null && subscribe) {
+            if (key != null) {
+                replayFiltered(key);
+            } else {
+                replay(prefix);
+            }
+        }
+        return true;
+    }
+
+    private void replay(String prefix) {
+        for (byte[][] msg : cache.match(prefix)) {
+            send(msg);
+        }
+    }
+
+    private void replayFiltered(String key) {
+        MetaFilter filter = filters.get(key);
+        if (filter == null) {
+            return;
+        }
+        byte[] keyFrame = key.getBytes(StandardCharsets.UTF_8);
+        byte[] topic = filter.topic().getBytes(StandardCharsets.UTF_8);
+        for (byte[][] msg : cache.match(LastValueCache.key(topic, 0, topic.length))) {
+            if (MetaFilters.accepts(filter, msg)) {
+                byte[][] envelope = new byte[msg.length + 1][];
+                envelope[0] = keyFrame;
+                System.arraycopy(msg, 0, envelope, 1, msg.length);
+                send(envelope);
+            }
+        }
+    }
+
+    private void send(byte[][] msg) {
+        if (MessageRelay.send(msg, out)) {
+            long size = 0;
+            for (byte[] frame : msg) {
+                size += frame.length;
+            }
+            stats.sent(size);
+        } else {
+            stats.dropped();
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.sys.journal.SequenceLog;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.jlab.coda.xmsg.sys.util.LogUtils;
+import org.jlab.coda.xmsg.sys.util.ThreadUtils;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the messages of the durable topics, and serves the durable
+ * subscriptions.
+ * <p>
+ * The distributor passes every forwarded message to {@link #offer},
+ * which pushes the messages of the durable topics to the background thread of the store.
+ * The thread appends the messages to a {@link SequenceLog}, and sends them
+ * to the durable subscribers connected to the router socket bound on
+ * {@code pubPort + 5}.
+ * <p>
+ * A subscriber starts a session with the name of the subscription and its
+ * topics. The session reads the log from the offset committed by the last
+ * subscriber with the same name, so the messages published while no
+ * subscriber was running are sent first, as fast as the subscriber accepts
+ * them, followed by the new messages. Every message is preceded by its
+ * sequence number. The subscriber acknowledges the received messages, which
+ * commits their offset, and at most {@link #WINDOW} messages can be waiting
+ * for an acknowledgment. The offsets are saved with the log every second.
+ */
+public class DurableStore implements MessageSink {
+
+    /** The name of the counter of messages kept in the log. */
+    public static final String DURABLE_MESSAGES = "durable_messages";
+
+    /** The name of the number of durable sessions. */
+    public static final String DURABLE_SESSIONS = "durable_sessions";
+
+    /** The name of the counter of messages that could not be kept. */
+    public static final String DURABLE_DROPPED = "durable_dropped";
+
+    /** The maximum number of messages sent to a session without acknowledgment. */
+    public static final int WINDOW = 500;
+
+    private static final long FLUSH_INTERVAL = 1000;
+    private static final long POLL_TIMEOUT = 100;
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private final xMsgSocketFactory factory;
+    private final SequenceLog log;
+    private final byte[][] topics;
+
+    private final Socket input;
+    private final Socket output;
+    private final Socket router;
+    private final Thread thread;
+
+    private final Map<String, Session> sessions = new HashMap<>();
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int sessionCount;
+
+    private volatile boolean running = true;
+    private boolean failed;
+
+    /**
+     * Opens the log and binds the socket of the durable subscribers.
+     *
+     * @param factory the factory to create the sockets
+     * @param address the address of the proxy
+     * @param setup the proxy options
+     * @throws xMsgException if the log could not be opened
+     *         or the sockets could not be bound
+     */
+    public DurableStore(xMsgSocketFactory factory, xMsgProxyAddress address, xMsgProxySetup setup)
+            throws xMsgException {
+        this.factory = factory;
+        this.topics = setup.durableTopics().stream()
+                           .map(t -> t.getBytes(StandardCharsets.UTF_8))
+                           .toArray(byte[][]::new);
+        try {
+            this.log = new SequenceLog(setup.durableDirectory(),
+                                       setup.durableSegmentSize(),
+                                       setup.durableMaxSegments());
+        } catch (IOException e) {
+            throw new xMsgException("could not open durable log", e);
+        }
+        Socket input = null;
+        Socket output = null;
+        Socket router = null;
+        try {
+            String endpoint = "inproc://xmsg-durable-" + address.pubPort();
+            input = factory.createSocket(ZMQ.PULL);
+            output = factory.createSocket(ZMQ.PUSH);
+            router = factory.createSocket(ZMQ.ROUTER);
+            input.bind(endpoint);
+            output.connect(endpoint);
+            for (xMsgTransport transport : setup.transports()) {
+                factory.bindSocket(router, transport, address.pubPort() + 5);
+            }
+        } catch (Exception e) {
+            factory.closeQuietly(input);
+            factory.closeQuietly(output);
+            factory.closeQuietly(router);
+            closeLog();
+            throw e;
+        }
+        this.input = input;
+        this.output = output;
+        this.router = router;
+        this.thread = ThreadUtils.newThread("proxy-durable", this::run);
+        this.thread.start();
+    }
+
+    @Override
+    public void register(ProxyStats stats) {
+        stats.register(DURABLE_MESSAGES, stored::get);
+        stats.register(DURABLE_SESSIONS, () -> sessionCount);
+        stats.register(DURABLE_DROPPED, dropped::get);
+    }
+
+    /**
+     * Subscribes the given XSUB socket to the durable topics,
+     * so their messages are kept even when there are no subscribers.
+     *
+     * @param in the XSUB socket bound to the publishers port
+     */
+    @Override
+    public void subscribe(Socket in) {
+        for (byte[] topic : topics) {
+            byte[] subscription = new byte[topic.length + 1];
+            subscription[0] = 1;
+            System.arraycopy(topic, 0, subscription, 1, topic.length);
+            in.send(subscription);
+        }
+    }
+
+    /**
+     * Checks if the message with the given topic must be kept.
+     *
+     * @param topic the topic frame of the message
+     * @return true if the topic starts with a durable topic
+     */
+    public boolean accepts(byte[] topic) {
+        for (byte[] prefix : topics) {
+            if (startsWith(topic, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes a forwarded message to the store, without blocking,
+     * if it was published to a durable topic.
+     * It must be called by the forwarding thread.
+     *
+     * @param frames the data of every frame of the message
+     * @param size the total size of the frames
+     * @return true if the message must be kept
+     */
+    @Override
+    public boolean offer(List<byte[]> frames, long size) {
+        if (frames.isEmpty() || !accepts(frames.get(0))) {
+            return false;
+        }
+        if (!MessageRelay.send(frames.toArray(new byte[frames.size()][]), output)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        try (Poller poller = factory.context().poller(2)) {
+            int inputIndex = poller.register(input, Poller.POLLIN);
+            int routerIndex = poller.register(router, Poller.POLLIN);
+            long lastFlush = System.currentTimeMillis();
+            while (running) {
+                if (poller.poll(POLL_TIMEOUT) < 0) {
+                    break;
+                }
+                if (poller.pollin(inputIndex)) {
+                    append();
+                    sessions.values().forEach(this::send);
+                }
+                if (poller.pollin(routerIndex)) {
+                    request();
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastFlush >= FLUSH_INTERVAL) {
+                    flush();
+                    sessions.values().stream()
+                            .filter(s -> s.unsent != null)
+                            .forEach(this::send);
+                    lastFlush = now;
+                }
+            }
+        } catch (ZMQException e) {
+            if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+                LOGGER.severe(LogUtils.exceptionReporter(e));
+            }
+        } finally {
+            closeLog();
+            factory.closeQuietly(input);
+            factory.closeQuietly(router);
+        }
+    }
+
+    private void append() {
+        ZMsg msg;
+        while ((msg = ZMsg.recvMsg(input, false)) != null) {
+            if (failed) {
+                dropped.incrementAndGet();
+                continue;
+            }
+            List<byte[]> frames = new ArrayList<>(msg.size());
+            for (ZFrame frame : msg) {
+                frames.add(frame.getData());
+            }
+            try {
+                log.append(frames);
+                stored.incrementAndGet();
+            } catch (IOException e) {
+                failed = true;
+                dropped.incrementAndGet();
+                LOGGER.severe(LogUtils.exceptionReporter(e));
+            }
+        }
+    }
+
+    private void request() {
+        ZMsg msg = ZMsg.recvMsg(router);
+        if (msg == null || msg.size() < 3) {
+            return;
+        }
+        byte[] identity = msg.pop().getData();
+        String type = msg.popString();
+        String name = msg.popString();
+        Session session = sessions.get(name);
+        try {
+            switch (type) {
+                case xMsgCtrlConstants.CTRL_DURABLE:
+                    List<String> prefixes = new ArrayList<>();
+                    while (!msg.isEmpty()) {
+                        prefixes.add(msg.popString());
+                    }
+                    if (session == null || !session.owns(identity)) {
+                        // a new subscriber replaces the previous one
+                        session = new Session(identity, log.cursor(log.committed(name) + 1));
+                        sessions.put(name, session);
+                        sessionCount = sessions.size();
+                    }
+                    session.topics = prefixes.stream()
+                                             .map(t -> t.getBytes(StandardCharsets.UTF_8))
+                                             .toArray(byte[][]::new);
+                    reply(identity, type, name);
+                    send(session);
+                    break;
+
+                case xMsgCtrlConstants.CTRL_ACK:
+                    if (session != null && session.owns(identity) && msg.size() == 2) {
+                        long sequence = Long.parseLong(msg.popString());
+                        int count = Integer.parseInt(msg.popString());
+                        log.commit(name, sequence);
+                        session.inFlight = Math.max(0, session.inFlight - count);
+                        send(session);
+                    }
+                    break;
+
+                case xMsgCtrlConstants.CTRL_UNSUBSCRIBE:
+                    if (session != null && session.owns(identity)) {
+                        sessions.remove(name);
+                        sessionCount = sessions.size();
+                    }
+                    break;
+
+                default:
+                    LOGGER.warning("unexpected durable request: " + type);
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.warning("invalid durable request: " + type + " " + name);
+        } catch (IOException e) {
+            LOGGER.severe(LogUtils.exceptionReporter(e));
+        }
+    }
+
+    private void reply(byte[] identity, String type, String name) {
+        MessageRelay.send(new byte[][] {
+            identity,
+            type.getBytes(StandardCharsets.UTF_8),
+            name.getBytes(StandardCharsets.UTF_8),
+        }, router);
+    }
+
+    private void send(Session session) {
+        try {
+            while (session.inFlight < WINDOW) {
+                SequenceLog.Entry entry = session.unsent;
+                if (entry == null) {
+                    entry = session.cursor.next();
+                }
+                if (entry == null) {
+                    return;
+                }
+                session.unsent = null;
+                List<byte[]> frames = entry.frames();
+                if (frames.isEmpty() || !session.accepts(frames.get(0))) {
+                    continue;
+                }
+                byte[][] msg = new byte[frames.size() + 2][];
+                msg[0] = session.identity;
+                msg[1] = Long.toString(entry.sequence()).getBytes(StandardCharsets.UTF_8);
+                for (int i = 0; i < frames.size(); i++) {
+                    msg[i + 2] = frames.get(i);
+                }
+                if (!MessageRelay.send(msg, router)) {
+                    // the cursor cannot go back, so keep the entry to send it again
+                    session.unsent = entry;
+                    return;
+                }
+                session.inFlight++;
+            }
+        } catch (IOException e) {
+            LOGGER.severe(LogUtils.exceptionReporter(e));
+        }
+    }
+
+    private void flush() {
+        try {
+            log.flush();
+        } catch (IOException e) {
+            LOGGER.warning(LogUtils.exceptionReporter(e));
+        }
+    }
+
+    private void closeLog() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            LOGGER.warning(LogUtils.exceptionReporter(e));
+        }
+    }
+
+    /**
+     * Stops the store, saving the log and the committed offsets.
+     * It must be called by the forwarding thread.
+     */
+    @Override
+    public void close() {
+        factory.closeQuietly(output);
+        running = false;
+        // the forwarding thread may be closing because it was interrupted
+        boolean interrupted = Thread.interrupted();
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static final class Session {
+
+        final byte[] identity;
+        final SequenceLog.Cursor cursor;
+        byte[][] topics = new byte[0][];
+        SequenceLog.Entry unsent;
+        int inFlight;
+
+        Session(byte[] identity, SequenceLog.Cursor cursor) {
+            this.identity = identity;
+            this.cursor = cursor;
+        }
+
+        boolean owns(byte[] id) {
+            return Arrays.equals(identity, id);
+        }
+
+        boolean accepts(byte[] topic) {
+            for (byte[] prefix : topics) {
+                if (startsWith(topic, prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
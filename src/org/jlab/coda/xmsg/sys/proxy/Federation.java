@@ -0,0 +1,205 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.sys.pubsub.MetaFilter;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+
+import zmq.Msg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bridges the messages of selected topic domains between proxies.
+ * <p>
+ * Every federated proxy binds an XPUB socket to the federation port
+ * ({@code pubPort + 4}), where it sends the messages published by its own
+ * actors, and connects a SUB socket to the federation ports of all its peers.
+ * The messages received from the peers are only delivered to the local
+ * subscribers. They are never sent again to the federation port, thus a
+ * message crosses at most one bridge, and there are no loops even when the
+ * peers are configured as a full mesh.
+ * <p>
+ * The SUB socket only subscribes to the peers when the proxy receives a local
+ * subscription to a bridged domain, and it unsubscribes when the last local
+ * subscriber is gone. A {@link MetaFilter metadata filter} subscribes to the
+ * topic of the filter, and the filtering is done by the local proxy.
+ * The subscriptions received on the federation port are
+ * passed to the local publishers, like the subscriptions of local actors.
+ * <p>
+ * The sockets must be used by the single thread that owns the XPUB socket
+ * of the subscribers port.
+ */
+public class Federation {
+
+    /** The offset of the federation port from the publication port. */
+    public static final int PORT_OFFSET = 4;
+
+    /** The name of the counter of messages received from peers. */
+    public static final String MESSAGES_IN = "federation_in";
+
+    /** The name of the number of topics subscribed on peers. */
+    public static final String TOPICS = "federation_topics";
+
+    private static final String CTRL_DOMAIN = domain(xMsgCtrlConstants.CTRL_TOPIC);
+
+    private final xMsgSocketFactory factory;
+
+    private final Socket publisher;
+    private final Socket bridge;
+
+    private final Set<String> domains;
+    private final Map<String, Set<String>> topics = new HashMap<>();
+
+    private final LongAdder received = new LongAdder();
+    private volatile long subscribed;
+
+    /**
+     * Binds the federation port and connects to the given peers.
+     *
+     * @param factory the factory to create the sockets
+     * @param address the address of the local proxy
+     * @param peers the addresses of the federated proxies
+     * @param domains the topic domains bridged between the proxies
+     * @throws xMsgException if the federation port is already in use
+     */
+    public Federation(xMsgSocketFactory factory,
+                      xMsgProxyAddress address,
+                      Collection<xMsgProxyAddress> peers,
+                      Collection<String> domains)
+            throws xMsgException {
+        this.factory = factory;
+        this.domains = new LinkedHashSet<>(domains);
+        this.domains.remove(CTRL_DOMAIN);
+
+        Socket publisher = null;
+        Socket bridge = null;
+        try {
+            publisher = factory.createSocket(ZMQ.XPUB);
+            bridge = factory.createSocket(ZMQ.SUB);
+            factory.bindSocket(publisher, address.pubPort() + PORT_OFFSET);
+            for (xMsgProxyAddress peer : peers) {
+                factory.connectSocket(bridge, peer.host(), peer.pubPort() + PORT_OFFSET);
+            }
+        } catch (Exception e) {
+            factory.closeQuietly(publisher);
+            factory.closeQuietly(bridge);
+            throw e;
+        }
+        this.publisher = publisher;
+        this.bridge = bridge;
+    }
+
+    /**
+     * Registers the federation values in the proxy stats.
+     *
+     * @param stats the counters of the proxy
+     */
+    public void register(ProxyStats stats) {
+        stats.register(MESSAGES_IN, received::sum);
+        stats.register(TOPICS, () -> subscribed);
+    }
+
+    /**
+     * Gets the XPUB socket that sends the local messages to the peers.
+     * The subscriptions of the peers must be read from this socket.
+     *
+     * @return the socket bound to the federation port
+     */
+    public Socket publisher() {
+        return publisher;
+    }
+
+    /**
+     * Gets the SUB socket that receives the messages from the peers.
+     *
+     * @return the socket connected to the peers
+     */
+    public Socket bridge() {
+        return bridge;
+    }
+
+    /**
+     * Counts a message received from a peer.
+     */
+    public void received() {
+        received.increment();
+    }
+
+    /**
+     * Updates the subscriptions to the peers,
+     * when a local subscription request is received.
+     *
+     * @param frame the subscription frame received on the subscribers port
+     */
+    public void subscription(Msg frame) {
+        if (frame.size() == 0) {
+            return;
+        }
+        byte[] data = frame.data();
+        String key = new String(data, 1, data.length - 1, StandardCharsets.UTF_8);
+        String topic = MetaFilter.topicOf(key);
+        if (!domains.contains(domain(topic))) {
+            return;
+        }
+        // the same topic can be subscribed by both filtered and plain subscriptions
+        Set<String> keys = topics.get(topic);
+        if (data[0] == 1) {
+            if (keys == null) {
+                keys = new HashSet<>();
+                topics.put(topic, keys);
+                bridge.subscribe(topic.getBytes(StandardCharsets.UTF_8));
+            }
+            keys.add(key);
+        } else if (data[0] == 0 && keys != null && keys.remove(key) && keys.isEmpty()) {
+            topics.remove(topic);
+            bridge.unsubscribe(topic.getBytes(StandardCharsets.UTF_8));
+        }
+        subscribed = topics.size();
+    }
+
+    /**
+     * Closes the federation sockets.
+     */
+    public void close() {
+        factory.closeQuietly(publisher);
+        factory.closeQuietly(bridge);
+    }
+
+    private static String domain(String topic) {
+        int end = topic.indexOf(':');
+        return end < 0 ? topic : topic.substring(0, end);
+    }
+}
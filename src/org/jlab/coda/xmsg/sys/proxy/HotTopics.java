@@ -0,0 +1,322 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the topics with most traffic through the proxy, using fixed memory.
+ * <p>
+ * The traffic is counted on a ring of time buckets. Every bucket keeps a
+ * count-min sketch of the messages and bytes received per topic, and two small
+ * sets of candidate topics, with the highest message and byte counts seen in
+ * the bucket. The top topics of a sliding window are selected from the
+ * candidates of the buckets that cover the window, and their counts are
+ * estimated by adding the sketches of those buckets.
+ * <p>
+ * The counts are estimates that can only be higher than the real values.
+ * The memory used is the same for any number of distinct topics.
+ * <p>
+ * The tracker can be updated by the forwarding threads
+ * and queried by the control thread.
+ */
+public class HotTopics {
+
+    /** The length of every time bucket. */
+    public static final long BUCKET_MILLIS = 5000;
+
+    /** The number of time buckets (the longest window is one minute). */
+    public static final int BUCKETS = 12;
+
+    /** The maximum number of topics that can be reported for a window. */
+    public static final int MAX_TOPICS = 32;
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 512;
+
+    /**
+     * The value used to select the top topics.
+     */
+    public enum Order {
+        /** Order by number of messages. */
+        MESSAGES,
+        /** Order by number of bytes. */
+        BYTES
+    }
+
+    /**
+     * The estimated traffic of a topic.
+     */
+    public static final class Entry {
+
+        private final String topic;
+        private final long messages;
+        private final long bytes;
+
+        /**
+         * Creates a new traffic entry.
+         *
+         * @param topic the topic
+         * @param messages the number of messages
+         * @param bytes the number of bytes
+         */
+        public Entry(String topic, long messages, long bytes) {
+            this.topic = topic;
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gets the topic of the messages.
+         *
+         * @return the topic
+         */
+        public String topic() {
+            return topic;
+        }
+
+        /**
+         * Gets the estimated number of messages.
+         *
+         * @return the number of messages published to the topic
+         */
+        public long messages() {
+            return messages;
+        }
+
+        /**
+         * Gets the estimated number of bytes.
+         *
+         * @return the total size of the messages published to the topic
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return topic + " " + messages + " " + bytes;
+        }
+    }
+
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+    private final int[] index = new int[DEPTH];
+    private int current;
+    private long currentStart;
+
+    /**
+     * Creates an empty tracker.
+     */
+    public HotTopics() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+        currentStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Counts a message received by the proxy.
+     *
+     * @param topic the data of the topic frame
+     * @param bytes the size of the whole message
+     */
+    public void record(byte[] topic, long bytes) {
+        record(topic, bytes, System.currentTimeMillis());
+    }
+
+    synchronized void record(byte[] topic, long bytes, long now) {
+        advance(now);
+        long hash = hash(topic);
+        indexes(hash);
+        Bucket bucket = buckets[current];
+        long msgEstimate = Long.MAX_VALUE;
+        long byteEstimate = Long.MAX_VALUE;
+        for (int d = 0; d < DEPTH; d++) {
+            int i = d * WIDTH + index[d];
+            bucket.messages[i]++;
+            bucket.bytes[i] += bytes;
+            msgEstimate = Math.min(msgEstimate, bucket.messages[i]);
+            byteEstimate = Math.min(byteEstimate, bucket.bytes[i]);
+        }
+        bucket.topMessages.offer(hash, topic, msgEstimate);
+        bucket.topBytes.offer(hash, topic, byteEstimate);
+    }
+
+    /**
+     * Gets the topics with most traffic over the given sliding window.
+     * The window is rounded up to whole buckets, including the current one,
+     * and it is limited to {@link #BUCKETS} buckets.
+     *
+     * @param windowMillis the length of the window
+     * @param order select the topics by messages or by bytes
+     * @param count the maximum number of topics (up to {@link #MAX_TOPICS})
+     * @return the top topics, sorted by the selected value
+     */
+    public List<Entry> top(long windowMillis, Order order, int count) {
+        return top(windowMillis, order, count, System.currentTimeMillis());
+    }
+
+    synchronized List<Entry> top(long windowMillis, Order order, int count, long now) {
+        advance(now);
+        int size = (int) Math.min(BUCKETS, Math.max(1, ceilDiv(windowMillis, BUCKET_MILLIS)));
+
+        Map<Long, byte[]> candidates = new HashMap<>();
+        for (int n = 0; n < size; n++) {
+            Bucket bucket = buckets[Math.floorMod(current - n, BUCKETS)];
+            bucket.topMessages.collect(candidates);
+            bucket.topBytes.collect(candidates);
+        }
+
+        List<Entry> result = new ArrayList<>();
+        for (Map.Entry<Long, byte[]> c : candidates.entrySet()) {
+            indexes(c.getKey());
+            long messages = 0;
+            long bytes = 0;
+            for (int n = 0; n < size; n++) {
+                Bucket bucket = buckets[Math.floorMod(current - n, BUCKETS)];
+                messages += bucket.estimate(bucket.messages, index);
+                bytes += bucket.estimate(bucket.bytes, index);
+            }
+            String topic = new String(c.getValue(), StandardCharsets.UTF_8);
+            result.add(new Entry(topic, messages, bytes));
+        }
+
+        Comparator<Entry> cmp = order == Order.BYTES
+                ? Comparator.comparingLong(Entry::bytes)
+                : Comparator.comparingLong(Entry::messages);
+        result.sort(cmp.reversed().thenComparing(Entry::topic));
+        int limit = Math.max(0, Math.min(count, MAX_TOPICS));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private void advance(long now) {
+        long elapsed = (now - currentStart) / BUCKET_MILLIS;
+        if (elapsed <= 0) {
+            return;
+        }
+        for (long n = 0; n < Math.min(elapsed, BUCKETS); n++) {
+            current = (current + 1) % BUCKETS;
+            buckets[current].clear();
+        }
+        currentStart += elapsed * BUCKET_MILLIS;
+    }
+
+    private void indexes(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int d = 0; d < DEPTH; d++) {
+            index[d] = (h1 + d * h2) & (WIDTH - 1);
+        }
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return (x + y - 1) / y;
+    }
+
+    // 64-bit FNV-1a
+    private static long hash(byte[] data) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+
+    private static final class Bucket {
+
+        final long[] messages = new long[DEPTH * WIDTH];
+        final long[] bytes = new long[DEPTH * WIDTH];
+
+        final Candidates topMessages = new Candidates();
+        final Candidates topBytes = new Candidates();
+
+        long estimate(long[] sketch, int[] index) {
+            long estimate = Long.MAX_VALUE;
+            for (int d = 0; d < DEPTH; d++) {
+                estimate = Math.min(estimate, sketch[d * WIDTH + index[d]]);
+            }
+            return estimate;
+        }
+
+        void clear() {
+            Arrays.fill(messages, 0);
+            Arrays.fill(bytes, 0);
+            topMessages.clear();
+            topBytes.clear();
+        }
+    }
+
+
+    /**
+     * The topics with the highest counts in a bucket.
+     * When the set is full, a new topic replaces the topic with the lowest
+     * count, if its own count is higher.
+     */
+    private static final class Candidates {
+
+        final long[] hashes = new long[MAX_TOPICS];
+        final byte[][] topics = new byte[MAX_TOPICS][];
+        final long[] counts = new long[MAX_TOPICS];
+        int size;
+
+        void offer(long hash, byte[] topic, long count) {
+            int min = -1;
+            for (int i = 0; i < size; i++) {
+                if (hashes[i] == hash) {
+                    counts[i] = count;
+                    return;
+                }
+                if (min < 0 || counts[i] < counts[min]) {
+                    min = i;
+                }
+            }
+            if (size < MAX_TOPICS) {
+                min = size++;
+            } else if (count <= counts[min]) {
+                return;
+            }
+            hashes[min] = hash;
+            topics[min] = Arrays.copyOf(topic, topic.length);
+            counts[min] = count;
+        }
+
+        void collect(Map<Long, byte[]> result) {
+            for (int i = 0; i < size; i++) {
+                result.putIfAbsent(hashes[i], topics[i]);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(topics, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last message published to every topic.
+ * <p>
+ * The cache has a memory budget. When a new message does not fit,
+ * the topics that were not updated for the longest time are evicted first.
+ * Only data messages are cached. Control messages and responses to
+ * sync-publication requests are never cached.
+ * <p>
+ * The cache must be updated and queried by a single thread,
+ * but its size can be read from any thread.
+ */
+public class LastValueCache {
+
+    /** The estimated memory used by every entry, besides the message frames. */
+    static final int ENTRY_OVERHEAD = 64;
+
+    private static final int MESSAGE_FRAMES = 3;
+
+    private static final byte[][] IGNORED_TOPICS = {
+        xMsgCtrlConstants.CTRL_TOPIC.getBytes(),
+        "ret:".getBytes(),
+    };
+
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private volatile long topics;
+    private volatile long bytes;
+    private volatile long evictions;
+
+    /**
+     * Creates a new cache with the given memory budget.
+     *
+     * @param maxBytes the maximum size of the cached messages
+     */
+    public LastValueCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("invalid cache size: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Stores a copy of the given message as the last value of its topic.
+     * The previous value is always removed,
+     * even if the new message is too big to be cached.
+     *
+     * @param frames the frames of the message (topic, metadata and data)
+     * @return true if the message was cached
+     */
+    public boolean store(List<byte[]> frames) {
+        if (frames.size() != MESSAGE_FRAMES || isIgnored(frames.get(0))) {
+            return false;
+        }
+        byte[] topic = frames.get(0);
+        String key = key(topic, 0, topic.length);
+
+        long size = bytes;
+        Entry old = entries.remove(key);
+        if (old != null) {
+            size -= old.size;
+        }
+
+        long entrySize = ENTRY_OVERHEAD;
+        for (byte[] frame : frames) {
+            entrySize += frame.length;
+        }
+        if (entrySize > maxBytes) {
+            update(size);
+            return false;
+        }
+
+        byte[][] copy = new byte[frames.size()][];
+        for (int i = 0; i < copy.length; i++) {
+            byte[] frame = frames.get(i);
+            copy[i] = Arrays.copyOf(frame, frame.length);
+        }
+        entries.put(key, new Entry(copy, entrySize));
+        size += entrySize;
+
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxBytes) {
+            size -= it.next().size;
+            it.remove();
+            evictions++;
+        }
+        update(size);
+        return true;
+    }
+
+    /**
+     * Gets the cached messages whose topic starts with the given prefix.
+     *
+     * @param prefix the subscription prefix, as returned by
+     *        {@link #key(byte[], int, int)}
+     * @return the frames of all matching messages
+     */
+    public List<byte[][]> match(String prefix) {
+        List<byte[][]> result = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getKey().startsWith(prefix)) {
+                result.add(e.getValue().frames);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of cached topics.
+     *
+     * @return the number of topics with a cached message
+     */
+    public long topics() {
+        return topics;
+    }
+
+    /**
+     * Returns the estimated memory used by the cache.
+     *
+     * @return the total size of the cached messages
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of topics evicted because of the memory budget.
+     *
+     * @return the total number of evictions
+     */
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the key used to match cached topics.
+     * Every byte is mapped to a single char, so the key can be compared
+     * as a string without decoding the topic.
+     *
+     * @param data the topic or subscription bytes
+     * @param offset the start of the topic
+     * @param length the length of the topic
+     * @return the key for the topic
+     */
+    public static String key(byte[] data, int offset, int length) {
+        return new String(data, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private void update(long size) {
+        bytes = size;
+        topics = entries.size();
+    }
+
+    private static boolean isIgnored(byte[] topic) {
+        for (byte[] prefix : IGNORED_TOPICS) {
+            if (startsWith(topic, prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static final class Entry {
+
+        final byte[][] frames;
+        final long size;
+
+        Entry(byte[][] frames, long size) {
+            this.frames = frames;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.zeromq.ZMQ.Socket;
+
+import zmq.Msg;
+import zmq.SocketBase;
+import zmq.ZError;
+import zmq.ZMQ;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves messages between the sockets of the proxy.
+ * <p>
+ * The frames are passed as received, without copying their data into
+ * new byte arrays, like the built-in ZMQ proxy does.
+ * The messages are sent without blocking. If the destination socket cannot
+ * accept a message, the message is discarded and reported as dropped.
+ * A blocking relay waits instead, for the inner sockets of the proxy.
+ * The copies for the capture socket are always sent.
+ * <p>
+ * A relay keeps the result of the last forwarded message,
+ * so each forwarding thread must use its own relay.
+ */
+public final class MessageRelay {
+
+    private final SocketBase capture;
+    private final List<byte[]> frames = new ArrayList<>();
+
+    private boolean record;
+    private boolean block;
+    private long size;
+    private boolean dropped;
+
+    /**
+     * Creates a new relay.
+     */
+    public MessageRelay() {
+        this(null);
+    }
+
+    /**
+     * Creates a new relay that sends a copy of every frame to the given socket.
+     *
+     * @param capture the socket to receive the copies, or null
+     */
+    public MessageRelay(Socket capture) {
+        this.capture = capture != null ? capture.base() : null;
+    }
+
+    /**
+     * Keeps the data of the frames of the last forwarded message.
+     *
+     * @param record true to keep the frames
+     * @return this relay
+     * @see #frames()
+     */
+    public MessageRelay recordFrames(boolean record) {
+        this.record = record;
+        this.frames.clear();
+        return this;
+    }
+
+    /**
+     * Waits until the destination socket accepts every frame,
+     * instead of dropping the message.
+     *
+     * @param block true to wait for the destination socket
+     * @return this relay
+     */
+    public MessageRelay blocking(boolean block) {
+        this.block = block;
+        return this;
+    }
+
+    /**
+     * Receives the next frame from the given socket.
+     *
+     * @param socket the source socket
+     * @return the received frame, or null if the context was terminated
+     */
+    public static Msg receive(Socket socket) {
+        return socket.base().recv(0);
+    }
+
+    /**
+     * Forwards the next message from one socket to another.
+     *
+     * @param from the source socket
+     * @param to the destination socket
+     * @return false if the context was terminated, true otherwise
+     */
+    public boolean forward(Socket from, Socket to) {
+        return forward(from, to, null);
+    }
+
+    /**
+     * Forwards the next message from one socket to two destinations.
+     * The frames sent to the second destination share the data with the
+     * original frames. The message is dropped silently if the second
+     * destination cannot accept it.
+     *
+     * @param from the source socket
+     * @param to the destination socket
+     * @param tee an optional second destination socket
+     * @return false if the context was terminated, true otherwise
+     */
+    public boolean forward(Socket from, Socket to, Socket tee) {
+        Msg frame = receive(from);
+        if (frame == null) {
+            return false;
+        }
+        return forward(frame, from, to, tee);
+    }
+
+    /**
+     * Forwards a message from one socket to another,
+     * when its first frame was already received.
+     *
+     * @param frame the first frame of the message
+     * @param from the source socket
+     * @param to the destination socket
+     * @return false if the context was terminated, true otherwise
+     */
+    public boolean forward(Msg frame, Socket from, Socket to) {
+        return forward(frame, from, to, null);
+    }
+
+    /**
+     * Forwards a message from one socket to two destinations,
+     * when its first frame was already received.
+     *
+     * @param frame the first frame of the message
+     * @param from the source socket
+     * @param to the destination socket
+     * @param tee an optional second destination socket
+     * @return false if the context was terminated, true otherwise
+     * @see #forward(Socket, Socket, Socket)
+     */
+    public boolean forward(Msg frame, Socket from, Socket to, Socket tee) {
+        SocketBase source = from.base();
+        SocketBase target = to.base();
+        SocketBase second = tee != null ? tee.base() : null;
+        size = 0;
+        dropped = false;
+        frames.clear();
+        boolean teeDropped = false;
+        while (true) {
+            boolean more = frame.hasMore();
+            int flags = more ? ZMQ.ZMQ_SNDMORE : 0;
+            size += frame.size();
+            if (record) {
+                frames.add(frame.data());
+            }
+            if (capture != null && !capture.send(new Msg(frame), flags)) {
+                return false;
+            }
+            if (second != null && !teeDropped) {
+                teeDropped = !second.send(new Msg(frame.data()), flags | ZMQ.ZMQ_DONTWAIT);
+            }
+            if (!dropped && !target.send(frame, block ? flags : flags | ZMQ.ZMQ_DONTWAIT)) {
+                if (block || target.errno() == ZError.ETERM) {
+                    return false;
+                }
+                dropped = true;
+            }
+            if (!more) {
+                return true;
+            }
+            frame = source.recv(0);
+            if (frame == null) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Receives and discards the rest of a message,
+     * when its first frame was already received.
+     *
+     * @param frame the first frame of the message
+     * @param from the source socket
+     * @return false if the context was terminated, true otherwise
+     */
+    public static boolean discard(Msg frame, Socket from) {
+        SocketBase source = from.base();
+        while (frame.hasMore()) {
+            frame = source.recv(0);
+            if (frame == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends a message to the given socket, without blocking.
+     *
+     * @param frames the data of every frame of the message
+     * @param to the destination socket
+     * @return true if the message was sent, false if it was dropped
+     *         or the context was terminated
+     */
+    public static boolean send(byte[][] frames, Socket to) {
+        SocketBase target = to.base();
+        for (int i = 0; i < frames.length; i++) {
+            int flags = ZMQ.ZMQ_DONTWAIT | (i < frames.length - 1 ? ZMQ.ZMQ_SNDMORE : 0);
+            if (!target.send(new Msg(frames[i]), flags)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the last forwarded message.
+     *
+     * @return the total size of all frames, in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the data of the frames of the last forwarded message,
+     * if recording is enabled. The data is shared with the sent frames,
+     * and it must be copied to be kept.
+     *
+     * @return the data of every frame
+     */
+    public List<byte[]> frames() {
+        return frames;
+    }
+
+    /**
+     * Checks if the last message could not be forwarded.
+     *
+     * @return true if the destination socket did not accept the message
+     */
+    public boolean dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+
+import java.util.List;
+
+/**
+ * Receives a copy of the messages forwarded by the proxy.
+ * <p>
+ * The sinks are called by the thread that owns the XPUB socket,
+ * after every message is sent to the subscribers.
+ * They must not block the forwarding.
+ * <p>
+ * A sink can also own sockets that are polled by the forwarding thread,
+ * for the requests of its own clients.
+ *
+ * @see Distributor
+ */
+public interface MessageSink extends AutoCloseable {
+
+    /**
+     * Registers the counters of the sink to be reported with the proxy counters.
+     *
+     * @param stats the counters of the proxy
+     */
+    void register(ProxyStats stats);
+
+    /**
+     * Registers the sockets of the sink that must be polled by the
+     * forwarding thread.
+     *
+     * @param poller the poller of the forwarding thread
+     */
+    default void register(Poller poller) { }
+
+    /**
+     * Handles the requests received by the registered sockets, if they are ready.
+     *
+     * @param poller the poller of the forwarding thread
+     * @param to the socket that passes the subscriptions to the publishers
+     * @return false if the context was terminated, true otherwise
+     */
+    default boolean process(Poller poller, Socket to) {
+        return true;
+    }
+
+    /**
+     * Checks if the sink must receive the forwarded messages.
+     * If no sink is active, the frames of the messages are not copied.
+     *
+     * @return true if {@link #offer} must be called for every message
+     */
+    default boolean isActive() {
+        return true;
+    }
+
+    /**
+     * Subscribes the given XSUB socket to the topics that the sink must
+     * receive even when there are no subscribers for them.
+     *
+     * @param in the XSUB socket bound to the publishers port
+     */
+    default void subscribe(Socket in) { }
+
+    /**
+     * Passes a forwarded message to the sink, without blocking.
+     * The data of the frames is not copied, it must not be modified.
+     *
+     * @param frames the data of every frame of the message
+     * @param size the total size of the frames
+     * @return true if the message was accepted by the sink
+     */
+    boolean offer(List<byte[]> frames, long size);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,252 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
+import org.jlab.coda.xmsg.sys.pubsub.MetaFilter;
+
+import zmq.Msg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the metadata filters subscribed to the proxy,
+ * and selects the filters that accept every forwarded message.
+ * <p>
+ * The metadata of a message is only parsed when its topic matches the topic of
+ * some filter with metadata conditions. Messages that are not data messages
+ * (topic, metadata and data frames) never match a filter.
+ * <p>
+ * The sampling filters keep a counter and the time of the last sent message,
+ * so the messages are sampled after they pass the conditions of the filter,
+ * before they are sent to the subscribers. The first message is always sent.
+ * <p>
+ * The filters must be updated and matched by a single thread,
+ * but the counters can be read from any thread.
+ *
+ * @see MetaFilter
+ */
+public class MetaFilters {
+
+    /** The name of the number of subscribed filters. */
+    public static final String FILTERS = "meta_filters";
+
+    /** The name of the counter of messages sent to filtered subscriptions. */
+    public static final String FILTERED = "filtered_sent";
+
+    private static final int MESSAGE_FRAMES = 3;
+
+    private final Map<String, Entry> filters = new HashMap<>();
+
+    private final LongAdder sent = new LongAdder();
+    private volatile long size;
+
+    /**
+     * Registers the filter values in the proxy stats.
+     *
+     * @param stats the counters of the proxy
+     */
+    public void register(ProxyStats stats) {
+        stats.register(FILTERS, () -> size);
+        stats.register(FILTERED, sent::sum);
+    }
+
+    /**
+     * Adds or removes a filter, if the given subscription frame
+     * received from the subscribers port is for a filter key.
+     *
+     * @param frame the subscription frame
+     * @return true if the subscribed filters changed
+     */
+    public boolean subscription(Msg frame) {
+        if (frame.size() < 2 || frame.get(1) != MetaFilter.MARKER) {
+            return false;
+        }
+        byte[] data = frame.data();
+        String key = key(data);
+        boolean changed = false;
+        if (data[0] == 1 && !filters.containsKey(key)) {
+            MetaFilter filter = MetaFilter.parse(key);
+            if (filter != null) {
+                filters.put(key, new Entry(filter, key));
+                changed = true;
+            }
+        } else if (data[0] == 0) {
+            changed = filters.remove(key) != null;
+        }
+        size = filters.size();
+        return changed;
+    }
+
+    /**
+     * Decodes the filter key of a subscription frame.
+     *
+     * @param data the subscription frame, with the subscribe byte first
+     * @return the key of the filter
+     */
+    public static String key(byte[] data) {
+        return new String(data, 1, data.length - 1, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the filter subscribed with the given key.
+     *
+     * @param key the key of the filter
+     * @return the filter, or null if there is no such filter
+     */
+    public MetaFilter get(String key) {
+        Entry entry = filters.get(key);
+        return entry != null ? entry.filter : null;
+    }
+
+    /**
+     * Checks if there are subscribed filters.
+     *
+     * @return true if there are no filters
+     */
+    public boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * Gets the keys of all filters that accept the given message.
+     *
+     * @param frames the frames of the message
+     * @return the keys of the matching filters, as the bytes of the envelope frame
+     */
+    public List<byte[]> match(List<byte[]> frames) {
+        if (frames.size() != MESSAGE_FRAMES || filters.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<byte[]> result = new ArrayList<>();
+        byte[] topic = frames.get(0);
+        xMsgMeta meta = null;
+        boolean parsed = false;
+        long now = 0;
+        for (Entry entry : filters.values()) {
+            if (!startsWith(topic, entry.topic)) {
+                continue;
+            }
+            if (!entry.filter.values().isEmpty()) {
+                if (!parsed) {
+                    meta = parse(frames.get(1));
+                    parsed = true;
+                }
+                if (meta == null || !entry.filter.matches(meta)) {
+                    continue;
+                }
+            }
+            if (entry.filter.isSampled()) {
+                if (now == 0) {
+                    now = System.nanoTime();
+                }
+                if (!entry.sample(now)) {
+                    continue;
+                }
+            }
+            result.add(entry.key);
+        }
+        return result;
+    }
+
+    /**
+     * Checks if the given cached message is accepted by the filter.
+     *
+     * @param filter a subscribed filter
+     * @param frames the frames of the message
+     * @return true if the message passes the filter
+     */
+    public static boolean accepts(MetaFilter filter, byte[][] frames) {
+        if (frames.length != MESSAGE_FRAMES) {
+            return false;
+        }
+        xMsgMeta meta = parse(frames[1]);
+        return meta != null && filter.matches(meta);
+    }
+
+    /**
+     * Counts a message sent to a filtered subscription.
+     */
+    public void sent() {
+        sent.increment();
+    }
+
+    private static xMsgMeta parse(byte[] data) {
+        try {
+            return xMsgMeta.parseFrom(data);
+        } catch (InvalidProtocolBufferException e) {
+            return null;
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length || (data.length > 0 && data[0] == MetaFilter.MARKER)) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static final class Entry {
+
+        final MetaFilter filter;
+        final byte[] topic;
+        final byte[] key;
+        final long interval;
+
+        long count;
+        long next;
+
+        Entry(MetaFilter filter, String key) {
+            this.filter = filter;
+            this.topic = filter.topic().getBytes(StandardCharsets.UTF_8);
+            this.key = key.getBytes(StandardCharsets.UTF_8);
+            this.interval = filter.rate() > 0 ? (long) (1e9 / filter.rate()) : 0;
+        }
+
+        // one of every N messages, at least one interval apart
+        boolean sample(long now) {
+            if (count++ % filter.every() != 0) {
+                return false;
+            }
+            if (interval > 0) {
+                if (count > 1 && now - next < 0) {
+                    return false;
+                }
+                next = now + interval;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.jlab.coda.xmsg.sys.util.LogUtils;
+import org.jlab.coda.xmsg.sys.util.ThreadUtils;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
+
+import zmq.Msg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Forwards pub/sub messages with two threads.
+ * <p>
+ * The XSUB and XPUB sockets bound to the proxy ports cannot be shared between
+ * threads, and all the processing of the subscribers side (cache, filters,
+ * slow subscribers, sinks) must see both the messages and the subscriptions.
+ * Thus the work is split in two stages: the <i>frontend</i> thread receives
+ * all published messages, passes the control requests to the controller
+ * through the {@link ControlLane control lane}, discards the messages over the
+ * {@link RateLimiter rate limits} and counts the received traffic, and the
+ * <i>backend</i> thread sends the admitted messages to the subscribers with a
+ * {@link Distributor}. The messages keep their order.
+ * <p>
+ * The pipe between the stages is bounded by {@link #PIPE_HWM} messages on
+ * each end. The frontend waits for the backend when the pipe is full, so the
+ * messages are never dropped inside the proxy, and a slow backend stops the
+ * reception from the XSUB socket instead of growing the queued messages.
+ * Only the XPUB socket drops messages, according to the slow subscribers
+ * policy.
+ * <p>
+ * The subscriptions received by the backend are passed to the frontend and
+ * forwarded to the publishers, like a normal proxy would do.
+ */
+public class PipelinedForwarder implements Runnable {
+
+    /** The maximum number of messages queued on each end of the data pipe. */
+    static final int PIPE_HWM = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private final xMsgSocketFactory factory;
+    private final xMsgProxyAddress addr;
+    private final ProxyStats stats;
+    private final RateLimiter limiter;
+    private final Federation federation;
+    private final ControlLane lane;
+    private final List<MessageSink> sinks = new ArrayList<>();
+    private final Distributor distributor;
+
+    private final Socket in;
+    private final Socket out;
+    private final Socket dispatch;
+    private final Socket results;
+    private final Socket subsIn;
+    private final Socket subsOut;
+
+    /**
+     * Creates the sockets of the pipelined proxy.
+     *
+     * @param context the context to handle the proxy sockets
+     * @param address the local address
+     * @param setup the proxy options
+     * @param stats the counters of the forwarded traffic
+     * @param limiter the rate limits of the publishers
+     * @throws xMsgException if the address is already in use
+     */
+    public PipelinedForwarder(xMsgContext context,
+                              xMsgProxyAddress address,
+                              xMsgProxySetup setup,
+                              ProxyStats stats,
+                              RateLimiter limiter)
+            throws xMsgException {
+        this.factory = new xMsgSocketFactory(context.getContext());
+        this.addr = address;
+        this.stats = stats;
+        this.limiter = limiter;
+
+        String prefix = "inproc://xmsg-proxy-" + address.pubPort() + "-"
+                + Integer.toHexString(System.identityHashCode(this));
+
+        Socket in = null;
+        Socket out = null;
+        Socket dispatch = null;
+        Socket results = null;
+        Socket subsIn = null;
+        Socket subsOut = null;
+        Federation federation = null;
+        ControlLane lane = null;
+        TrafficCapture journal = null;
+        DurableStore durable = null;
+        WorkQueues queues = null;
+        try {
+            in = factory.createSocket(ZMQ.XSUB);
+            out = factory.createSocket(ZMQ.XPUB);
+            Distributor.configure(out, setup);
+            for (xMsgTransport transport : setup.transports()) {
+                factory.bindSocket(in, transport, address.pubPort());
+                factory.bindSocket(out, transport, address.subPort());
+            }
+
+            dispatch = factory.createSocket(ZMQ.PAIR);
+            results = factory.createSocket(ZMQ.PAIR);
+            connectPipe(results, dispatch, prefix + "-data", PIPE_HWM);
+
+            subsIn = factory.createSocket(ZMQ.PAIR);
+            subsOut = factory.createSocket(ZMQ.PAIR);
+            subsIn.bind(prefix + "-subs");
+            subsOut.connect(prefix + "-subs");
+
+            lane = new ControlLane(factory, address);
+            if (setup.hasWorkQueues()) {
+                queues = new WorkQueues(factory, address, setup);
+            }
+
+            if (setup.isFederated()) {
+                federation = new Federation(factory, address,
+                                            setup.federationPeers(),
+                                            setup.federationDomains());
+            }
+
+            if (setup.captureDirectory() != null) {
+                journal = new TrafficCapture(setup.captureDirectory(),
+                                             setup.captureSegmentSize(),
+                                             setup.captureMaxSegments());
+            }
+
+            if (setup.durableDirectory() != null) {
+                durable = new DurableStore(factory, address, setup);
+            }
+        } catch (Exception e) {
+            factory.closeQuietly(in);
+            factory.closeQuietly(out);
+            factory.closeQuietly(dispatch);
+            factory.closeQuietly(results);
+            factory.closeQuietly(subsIn);
+            factory.closeQuietly(subsOut);
+            if (lane != null) {
+                lane.close();
+            }
+            if (queues != null) {
+                queues.close();
+            }
+            if (federation != null) {
+                federation.close();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            throw e;
+        }
+        this.in = in;
+        this.out = out;
+        this.dispatch = dispatch;
+        this.results = results;
+        this.subsIn = subsIn;
+        this.subsOut = subsOut;
+        this.federation = federation;
+        this.lane = lane;
+        if (journal != null) {
+            sinks.add(journal);
+        }
+        if (durable != null) {
+            sinks.add(durable);
+        }
+        if (queues != null) {
+            sinks.add(queues);
+        }
+        this.distributor = new Distributor(out, stats, setup, federation, lane, sinks, null);
+        this.distributor.subscribeAll(in);
+        ControlLane.subscribe(in);
+    }
+
+    /**
+     * Connects the two ends of a bounded inproc pipe.
+     * When the pipe is full, a blocking send waits for the receiver,
+     * and a non-blocking send fails.
+     *
+     * @param receiver the socket that binds the pipe
+     * @param sender the socket that connects to the pipe
+     * @param endpoint the inproc endpoint of the pipe
+     * @param hwm the maximum number of messages queued on each end
+     */
+    static void connectPipe(Socket receiver, Socket sender, String endpoint, int hwm) {
+        // the socket factory creates unbounded sockets
+        receiver.setRcvHWM(hwm);
+        receiver.setSndHWM(hwm);
+        sender.setSndHWM(hwm);
+        sender.setRcvHWM(hwm);
+        receiver.bind(endpoint);
+        sender.connect(endpoint);
+    }
+
+    /**
+     * Runs the frontend on the calling thread, and the backend on its own
+     * thread. It returns when the context is destroyed.
+     */
+    @Override
+    public void run() {
+        Thread backend = ThreadUtils.newThread("proxy-backend", this::backend);
+        try {
+            LOGGER.info("running on host = " + addr.host() + "  port = " + addr.pubPort()
+                        + "  pipelined");
+            backend.start();
+            frontend();
+        } catch (Exception e) {
+            LOGGER.severe(LogUtils.exceptionReporter(e));
+        } finally {
+            factory.closeQuietly(in);
+            factory.closeQuietly(subsIn);
+            factory.closeQuietly(dispatch);
+            lane.closeRequests();
+            backend.interrupt();
+            try {
+                backend.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Closes all the sockets, if the threads were never started.
+     */
+    public void close() {
+        factory.closeQuietly(in);
+        factory.closeQuietly(out);
+        factory.closeQuietly(dispatch);
+        factory.closeQuietly(results);
+        factory.closeQuietly(subsIn);
+        factory.closeQuietly(subsOut);
+        lane.close();
+        if (federation != null) {
+            federation.close();
+        }
+        sinks.forEach(MessageSink::close);
+    }
+
+    private void frontend() {
+        try (Poller poller = factory.context().poller(2)) {
+            poller.register(in, Poller.POLLIN);
+            poller.register(subsIn, Poller.POLLIN);
+            // the pipe to the backend must wait, not drop
+            final MessageRelay relay = new MessageRelay().blocking(true);
+            while (!Thread.currentThread().isInterrupted()) {
+                if (poller.poll(-1) < 0) {
+                    break;
+                }
+                if (poller.pollin(0)) {
+                    Msg topic = MessageRelay.receive(in);
+                    if (topic == null) {
+                        break;
+                    }
+                    if (ControlLane.isControl(topic)) {
+                        if (!lane.request(topic, in)) {
+                            break;
+                        }
+                    } else if (!limiter.admit(topic)) {
+                        if (!MessageRelay.discard(topic, in)) {
+                            break;
+                        }
+                    } else {
+                        if (!relay.forward(topic, in, dispatch)) {
+                            break;
+                        }
+                        stats.received(topic, relay.size());
+                    }
+                }
+                if (poller.pollin(1)) {
+                    if (!relay.forward(subsIn, in)) {
+                        break;
+                    }
+                }
+            }
+        } catch (ZMQException e) {
+            if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+                throw e;
+            }
+        }
+    }
+
+    private void backend() {
+        try (Poller poller = factory.context().poller(4)) {
+            distributor.register(poller);
+            int input = poller.register(results, Poller.POLLIN);
+            while (!Thread.currentThread().isInterrupted()) {
+                if (poller.poll(distributor.timeout()) < 0) {
+                    break;
+                }
+                if (!distributor.process(poller, subsOut)) {
+                    break;
+                }
+                if (poller.pollin(input)) {
+                    if (!distributor.publish(results)) {
+                        break;
+                    }
+                }
+            }
+        } catch (ZMQException e) {
+            if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+                LOGGER.severe(LogUtils.exceptionReporter(e));
+            }
+        } catch (Exception e) {
+            LOGGER.severe(LogUtils.exceptionReporter(e));
+        } finally {
+            factory.closeQuietly(out);
+            factory.closeQuietly(results);
+            factory.closeQuietly(subsOut);
+            lane.closeAcks();
+            if (federation != null) {
+                federation.close();
+            }
+            sinks.forEach(MessageSink::close);
+        }
+    }
+}
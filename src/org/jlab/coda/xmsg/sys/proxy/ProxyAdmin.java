@@ -0,0 +1,409 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import static java.util.Arrays.asList;
+
+import org.jlab.coda.xmsg.core.xMsgConstants;
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.RateLimit;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMQException;
+import org.zeromq.ZMsg;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Sends administration requests to a running proxy.
+ * <p>
+ * The requests are received by the control thread of the proxy,
+ * on the port following the synchronization port ({@code pubPort + 3}).
+ * They never pass through the forwarding threads.
+ */
+public class ProxyAdmin implements AutoCloseable {
+
+    private static final long TIMEOUT = 3000;
+    private static final int TOP_COUNT = 10;
+
+    private final xMsgSocketFactory factory;
+    private final Socket socket;
+
+    public static void main(String[] args) {
+        try {
+            OptionParser parser = new OptionParser();
+            OptionSpec<String> hostSpec = parser.accepts("host")
+                    .withRequiredArg()
+                    .defaultsTo(xMsgUtil.localhost());
+            OptionSpec<Integer> portSpec = parser.accepts("port")
+                    .withRequiredArg()
+                    .ofType(Integer.class)
+                    .defaultsTo(xMsgConstants.DEFAULT_PORT);
+            OptionSpec<String> commandSpec = parser.nonOptions();
+            parser.acceptsAll(asList("h", "help")).forHelp();
+            OptionSet options = parser.parse(args);
+
+            List<String> command = options.valuesOf(commandSpec);
+            if (options.has("help") || command.isEmpty()) {
+                usage(System.out);
+                System.exit(command.isEmpty() && !options.has("help") ? 1 : 0);
+            }
+
+            String host = options.valueOf(hostSpec);
+            int port = options.valueOf(portSpec);
+            xMsgProxyAddress address = new xMsgProxyAddress(host, port);
+
+            try (ProxyAdmin admin = new ProxyAdmin(xMsgContext.getInstance(), address)) {
+                switch (command.get(0)) {
+                    case xMsgCtrlConstants.CTRL_STATS:
+                        admin.stats(TIMEOUT)
+                             .forEach((k, v) -> System.out.printf("%-20s %d%n", k, v));
+                        break;
+                    case xMsgCtrlConstants.CTRL_TOP: {
+                        long seconds = command.size() > 1 ? Long.parseLong(command.get(1)) : 60;
+                        HotTopics.Order order = command.size() > 2
+                                ? HotTopics.Order.valueOf(command.get(2).toUpperCase())
+                                : HotTopics.Order.MESSAGES;
+                        admin.top(TIMEOUT, seconds * 1000, order, TOP_COUNT)
+                             .forEach(e -> System.out.printf("%-40s %12d %16d%n",
+                                                             e.topic(), e.messages(), e.bytes()));
+                        break;
+                    }
+                    case xMsgCtrlConstants.CTRL_SUBSCRIBED:
+                        admin.subscribed(TIMEOUT, command.size() > 1 ? command.get(1) : "")
+                             .forEach(System.out::println);
+                        break;
+                    case xMsgCtrlConstants.CTRL_LISTENERS:
+                        admin.listeners(TIMEOUT, command.get(1))
+                             .forEach(System.out::println);
+                        break;
+                    case xMsgCtrlConstants.CTRL_LIMIT: {
+                        List<RateLimiter.Entry> limits;
+                        if (command.size() == 1) {
+                            limits = admin.limits(TIMEOUT);
+                        } else {
+                            String prefix = command.size() > 3 ? command.get(3) : null;
+                            double rate = Double.parseDouble(command.get(2));
+                            RateLimit limit = rate == 0
+                                    ? null
+                                    : new RateLimit(rate, defaultBurst(rate));
+                            if (command.get(1).equals(xMsgCtrlConstants.CTRL_LIMIT_TOPIC)) {
+                                if (prefix == null) {
+                                    throw new IllegalArgumentException("missing topic prefix");
+                                }
+                                limits = admin.setTopicLimit(TIMEOUT, prefix, limit);
+                            } else {
+                                limits = admin.setPublisherLimit(TIMEOUT, limit);
+                            }
+                        }
+                        limits.forEach(e -> System.out.printf("%-40s %12.1f %8d%n",
+                                e.prefix() != null ? e.prefix() : "(every publisher)",
+                                e.limit().rate(), e.limit().burst()));
+                        break;
+                    }
+                    default:
+                        System.err.println("unknown command: " + command.get(0));
+                        System.exit(1);
+                }
+            } finally {
+                xMsgContext.getInstance().destroy();
+            }
+
+        } catch (OptionException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (xMsgException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage(PrintStream out) {
+        out.printf("usage: jx_proxy_admin [options] <command>%n%n  Options:%n");
+        out.printf("  %-22s  %s%n", "-host <hostname>", "the host of the proxy");
+        out.printf("  %-22s  %s%n", "-port <port>", "the port of the proxy");
+        out.printf("%n  Commands:%n");
+        out.printf("  %-22s  %s%n", "stats", "print the traffic counters");
+        out.printf("  %-22s  %s%n", "top [seconds] [order]",
+                   "print the topics with most messages or bytes");
+        out.printf("  %-22s  %s%n", "subscribed [prefix]",
+                   "print the subscribed topics that start with the prefix");
+        out.printf("  %-22s  %s%n", "listeners <topic>",
+                   "print the subscriptions that receive the topic");
+        out.printf("  %-22s  %s%n", "limit", "print the rate limits");
+        out.printf("  %-22s  %s%n", "limit publisher <msgs>",
+                   "set the messages per second of every publisher (0 to remove)");
+        out.printf("  %-22s  %s%n", "limit topic <msgs> <t>",
+                   "set the messages per second of the topic prefix (0 to remove)");
+    }
+
+    // the limits accept one second of messages at once
+    private static int defaultBurst(double rate) {
+        return (int) Math.max(1, Math.ceil(rate));
+    }
+
+    /**
+     * Connects to the control socket of the given proxy.
+     *
+     * @param context the context to create the control socket
+     * @param address the address of the proxy
+     * @throws xMsgException if the socket could not be created
+     */
+    public ProxyAdmin(xMsgContext context, xMsgProxyAddress address) throws xMsgException {
+        this.factory = new xMsgSocketFactory(context.getContext());
+        this.socket = factory.createSocket(ZMQ.DEALER);
+        try {
+            // do not block the context termination if the proxy is not running
+            factory.setLinger(socket, 0);
+            factory.connectSocket(socket, address.host(), address.pubPort() + 3);
+        } catch (Exception e) {
+            factory.closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the traffic counters of the proxy.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @return the value of every counter, by name
+     * @throws xMsgException if the request failed or timed out
+     * @see ProxyStats
+     */
+    public Map<String, Long> stats(long timeout) throws xMsgException {
+        ZMsg response = request(timeout, xMsgCtrlConstants.CTRL_STATS);
+        Map<String, Long> values = new LinkedHashMap<>();
+        while (response.size() >= 2) {
+            String name = response.popString();
+            String value = response.popString();
+            try {
+                values.put(name, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                throw new xMsgException("invalid proxy response: " + name + " = " + value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the topics with most traffic over the last period of time.
+     * The traffic is estimated by the proxy,
+     * over windows of {@link HotTopics#BUCKET_MILLIS} milliseconds.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @param windowMillis the length of the period
+     * @param order select the topics by messages or by bytes
+     * @param count the maximum number of topics
+     * @return the estimated traffic of the top topics
+     * @throws xMsgException if the request failed or timed out
+     * @see HotTopics
+     */
+    public List<HotTopics.Entry> top(long timeout, long windowMillis,
+                                     HotTopics.Order order, int count)
+            throws xMsgException {
+        ZMsg response = request(timeout, xMsgCtrlConstants.CTRL_TOP,
+                                Long.toString(windowMillis),
+                                order.name(),
+                                Integer.toString(count));
+        List<HotTopics.Entry> entries = new ArrayList<>();
+        while (response.size() >= 3) {
+            String topic = new String(response.pop().getData(), StandardCharsets.UTF_8);
+            String messages = response.popString();
+            String bytes = response.popString();
+            try {
+                entries.add(new HotTopics.Entry(topic,
+                                                Long.parseLong(messages),
+                                                Long.parseLong(bytes)));
+            } catch (NumberFormatException e) {
+                throw new xMsgException("invalid proxy response: " + topic);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the topic prefixes currently subscribed to the proxy,
+     * that start with the given prefix.
+     * Up to {@link SubscriptionTrie#MAX_TOPICS} topics are returned.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @param prefix the start of the subscribed topics, or an empty string
+     * @return the subscribed topics, sorted
+     * @throws xMsgException if the request failed or timed out
+     * @see SubscriptionTrie
+     */
+    public List<String> subscribed(long timeout, String prefix) throws xMsgException {
+        return parseTopics(request(timeout, xMsgCtrlConstants.CTRL_SUBSCRIBED, prefix));
+    }
+
+    /**
+     * Gets the topic prefixes subscribed to the proxy that match the given
+     * topic, i.e., if there is any subscriber listening to the topic.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @param topic the published topic
+     * @return the matching subscribed topics, from the shortest to the longest
+     * @throws xMsgException if the request failed or timed out
+     * @see SubscriptionTrie
+     */
+    public List<String> listeners(long timeout, String topic) throws xMsgException {
+        return parseTopics(request(timeout, xMsgCtrlConstants.CTRL_LISTENERS, topic));
+    }
+
+    private static List<String> parseTopics(ZMsg response) {
+        List<String> topics = new ArrayList<>();
+        while (!response.isEmpty()) {
+            topics.add(new String(response.pop().getData(), StandardCharsets.UTF_8));
+        }
+        return topics;
+    }
+
+    /**
+     * Gets the current rate limits of the proxy.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @return the limit of every publisher, if any, and the topic limits
+     * @throws xMsgException if the request failed or timed out
+     * @see RateLimiter
+     */
+    public List<RateLimiter.Entry> limits(long timeout) throws xMsgException {
+        return parseLimits(request(timeout, xMsgCtrlConstants.CTRL_LIMIT));
+    }
+
+    /**
+     * Changes the rate limit of every publisher connection.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @param limit the new limit, or null to remove the limit
+     * @return the limits of the proxy after the change
+     * @throws xMsgException if the request failed or timed out
+     */
+    public List<RateLimiter.Entry> setPublisherLimit(long timeout, RateLimit limit)
+            throws xMsgException {
+        return parseLimits(request(timeout, xMsgCtrlConstants.CTRL_LIMIT,
+                                   xMsgCtrlConstants.CTRL_LIMIT_PUBLISHER,
+                                   rateOf(limit), burstOf(limit)));
+    }
+
+    /**
+     * Changes the rate limit of the given topic prefix.
+     *
+     * @param timeout the milliseconds to wait for a response
+     * @param prefix the limited topic prefix
+     * @param limit the new limit, or null to remove the limit
+     * @return the limits of the proxy after the change
+     * @throws xMsgException if the request failed or timed out
+     */
+    public List<RateLimiter.Entry> setTopicLimit(long timeout, String prefix, RateLimit limit)
+            throws xMsgException {
+        return parseLimits(request(timeout, xMsgCtrlConstants.CTRL_LIMIT,
+                                   xMsgCtrlConstants.CTRL_LIMIT_TOPIC, prefix,
+                                   rateOf(limit), burstOf(limit)));
+    }
+
+    private static String rateOf(RateLimit limit) {
+        return limit != null ? Double.toString(limit.rate()) : "0";
+    }
+
+    private static String burstOf(RateLimit limit) {
+        return limit != null ? Integer.toString(limit.burst()) : "0";
+    }
+
+    private static List<RateLimiter.Entry> parseLimits(ZMsg response) throws xMsgException {
+        List<RateLimiter.Entry> entries = new ArrayList<>();
+        while (response.size() >= 4) {
+            String scope = response.popString();
+            String prefix = new String(response.pop().getData(), StandardCharsets.UTF_8);
+            String rate = response.popString();
+            String burst = response.popString();
+            try {
+                RateLimit limit = new RateLimit(Double.parseDouble(rate),
+                                                Integer.parseInt(burst));
+                boolean topic = scope.equals(xMsgCtrlConstants.CTRL_LIMIT_TOPIC);
+                entries.add(new RateLimiter.Entry(topic ? prefix : null, limit));
+            } catch (IllegalArgumentException e) {
+                throw new xMsgException("invalid proxy response: " + scope + " " + prefix);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Sends a request to the proxy and waits for the response.
+     * The first frame of the response must repeat the request command.
+     * It is removed from the returned message.
+     */
+    ZMsg request(long timeout, String command, String... args) throws xMsgException {
+        ZMsg request = new ZMsg();
+        request.add(command);
+        for (String arg : args) {
+            request.add(arg);
+        }
+        try {
+            request.send(socket);
+        } catch (ZMQException e) {
+            throw new xMsgException("could not send proxy request", e);
+        }
+
+        try (Poller poller = factory.context().poller(1)) {
+            poller.register(socket, Poller.POLLIN);
+            poller.poll(timeout);
+            if (!poller.pollin(0)) {
+                throw new xMsgException("proxy response timeout");
+            }
+            ZMsg response = ZMsg.recvMsg(socket);
+            String type = response.popString();
+            if (xMsgCtrlConstants.CTRL_ERROR.equals(type)) {
+                throw new xMsgException("proxy could not process request: "
+                                        + response.popString());
+            }
+            if (!command.equals(type)) {
+                throw new xMsgException("unexpected proxy response: " + type);
+            }
+            return response;
+        } catch (ZMQException e) {
+            throw new xMsgException("could not receive proxy response", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        factory.closeQuietly(socket);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import zmq.Msg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of the traffic forwarded by the proxy.
+ * <p>
+ * The counters can be updated by multiple forwarding threads,
+ * and read at any time by the control thread.
+ * The <i>out</i> counters count the messages passed to the subscribers socket,
+ * not the copies delivered to every matching subscriber.
+ * <p>
+ * Other components of the proxy can register their own values,
+ * which are reported after the traffic counters.
+ */
+public final class ProxyStats {
+
+    /** Name of the counter of messages received from publishers. */
+    public static final String MESSAGES_IN = "messages_in";
+
+    /** Name of the counter of bytes received from publishers. */
+    public static final String BYTES_IN = "bytes_in";
+
+    /** Name of the counter of messages forwarded to subscribers. */
+    public static final String MESSAGES_OUT = "messages_out";
+
+    /** Name of the counter of bytes forwarded to subscribers. */
+    public static final String BYTES_OUT = "bytes_out";
+
+    /** Name of the counter of subscription requests. */
+    public static final String SUBSCRIPTIONS = "subscriptions";
+
+    /** Name of the counter of unsubscription requests. */
+    public static final String UNSUBSCRIPTIONS = "unsubscriptions";
+
+    /** Name of the counter of messages discarded by the proxy. */
+    public static final String DROPPED = "dropped";
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder subscriptions = new LongAdder();
+    private final LongAdder unsubscriptions = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+
+    private final HotTopics hotTopics = new HotTopics();
+    private final SubscriptionTrie subscribedTopics = new SubscriptionTrie();
+
+    /**
+     * Counts a message received from a publisher.
+     *
+     * @param bytes the size of the received message
+     */
+    public void received(long bytes) {
+        messagesIn.increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Counts a message received from a publisher,
+     * and tracks the traffic of its topic.
+     *
+     * @param topic the topic frame of the received message
+     * @param bytes the size of the received message
+     * @see #hotTopics()
+     */
+    public void received(Msg topic, long bytes) {
+        received(bytes);
+        hotTopics.record(topic.data(), bytes);
+    }
+
+    /**
+     * Counts a message forwarded to the subscribers.
+     *
+     * @param bytes the size of the forwarded message
+     */
+    public void sent(long bytes) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Counts a message discarded by the proxy.
+     */
+    public void dropped() {
+        dropped.increment();
+    }
+
+    /**
+     * Counts a subscription request received from a subscriber,
+     * and updates the registry of subscribed topics.
+     * The first byte of the frame is 1 for subscriptions and 0 for
+     * unsubscriptions. Any other frame is ignored.
+     *
+     * @param frame the subscription frame
+     * @see #subscribedTopics()
+     */
+    public void subscription(Msg frame) {
+        if (frame.size() == 0) {
+            return;
+        }
+        subscribedTopics.subscription(frame);
+        byte type = frame.get(0);
+        if (type == 1) {
+            subscriptions.increment();
+        } else if (type == 0) {
+            unsubscriptions.increment();
+        }
+    }
+
+    /**
+     * Gets the tracker of the topics with most traffic.
+     *
+     * @return the traffic of the top topics
+     */
+    public HotTopics hotTopics() {
+        return hotTopics;
+    }
+
+    /**
+     * Gets the registry of the topics currently subscribed.
+     *
+     * @return the subscribed topic prefixes
+     */
+    public SubscriptionTrie subscribedTopics() {
+        return subscribedTopics;
+    }
+
+    /**
+     * Registers a value that should be reported with the counters.
+     * The supplier will be called from the control thread.
+     *
+     * @param name the name of the value
+     * @param gauge the supplier of the current value
+     */
+    public synchronized void register(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Gets the current value of all counters.
+     *
+     * @return the counter values, by name
+     */
+    public synchronized Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put(MESSAGES_IN, messagesIn.sum());
+        values.put(BYTES_IN, bytesIn.sum());
+        values.put(MESSAGES_OUT, messagesOut.sum());
+        values.put(BYTES_OUT, bytesOut.sum());
+        values.put(SUBSCRIPTIONS, subscriptions.sum());
+        values.put(UNSUBSCRIPTIONS, unsubscriptions.sum());
+        values.put(DROPPED, dropped.sum());
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.RateLimit;
+
+import zmq.Msg;
+import zmq.io.Metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Limits the rate of the messages received from the publishers,
+ * with token buckets.
+ * <p>
+ * Every publisher connection has its own bucket, and every limited topic
+ * prefix has a bucket shared by all publishers. A message is accepted only if
+ * its publisher and its topic have tokens left, and then it takes one token
+ * from both. The messages over the limits are discarded by the receiving
+ * thread, before they are forwarded, so they never take space in the queues.
+ * <p>
+ * The connections are identified by the metadata that ZMQ attaches to the
+ * frames received from them. The connections without metadata (INPROC)
+ * share a single bucket.
+ * <p>
+ * The buckets are only used by the thread that receives the published
+ * messages. The limits can be changed by any thread at any time.
+ */
+public class RateLimiter {
+
+    /** The name of the counter of messages discarded by the rate limits. */
+    public static final String RATE_LIMITED = "rate_limited";
+
+    /**
+     * The limit of every publisher, or of a topic prefix.
+     */
+    public static final class Entry {
+
+        private final String prefix;
+        private final RateLimit limit;
+
+        /**
+         * Creates a new limit entry.
+         *
+         * @param prefix the limited topic prefix, or null for the publishers
+         * @param limit the limit
+         */
+        public Entry(String prefix, RateLimit limit) {
+            this.prefix = prefix;
+            this.limit = limit;
+        }
+
+        /**
+         * Gets the limited topic prefix.
+         *
+         * @return the prefix, or null if this is the limit of every publisher
+         */
+        public String prefix() {
+            return prefix;
+        }
+
+        /**
+         * Gets the limit.
+         *
+         * @return the rate and burst of the limit
+         */
+        public RateLimit limit() {
+            return limit;
+        }
+    }
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // the buckets of the closed connections are removed when they are full
+    private static final long SWEEP_NANOS = 10 * NANOS_PER_SECOND;
+
+    private static final Metadata INPROC = new Metadata();
+
+    private final Map<Metadata, Bucket> publishers = new IdentityHashMap<>();
+    private long lastSweep;
+
+    private volatile RateLimit publisherLimit;
+    private volatile TopicBucket[] topics = new TopicBucket[0];
+    private volatile boolean enabled;
+    private volatile long limited;
+
+    /**
+     * Creates the limits of the given proxy setup.
+     *
+     * @param setup the proxy options
+     */
+    public RateLimiter(xMsgProxySetup setup) {
+        publisherLimit = setup.publisherRateLimit();
+        setup.topicRateLimits().forEach(this::setTopicLimit);
+        update();
+    }
+
+    /**
+     * Registers the counter of rejected messages.
+     *
+     * @param stats the counters of the proxy
+     */
+    public void register(ProxyStats stats) {
+        stats.register(RATE_LIMITED, () -> limited);
+    }
+
+    /**
+     * Sets the limit of every publisher connection.
+     *
+     * @param limit the new limit, or null to remove the limit
+     */
+    public synchronized void setPublisherLimit(RateLimit limit) {
+        publisherLimit = limit;
+        update();
+    }
+
+    /**
+     * Sets the limit of the topics with the given prefix.
+     * The messages published so far do not count against the new limit.
+     *
+     * @param prefix the prefix of the limited topics
+     * @param limit the new limit, or null to remove the limit
+     */
+    public synchronized void setTopicLimit(String prefix, RateLimit limit) {
+        List<TopicBucket> list = new ArrayList<>(Arrays.asList(topics));
+        list.removeIf(t -> t.prefix.equals(prefix));
+        if (limit != null) {
+            list.add(new TopicBucket(prefix, limit, System.nanoTime()));
+        }
+        // the longest prefix is matched first
+        list.sort(Comparator.comparingInt((TopicBucket t) -> t.data.length).reversed());
+        topics = list.toArray(new TopicBucket[0]);
+        update();
+    }
+
+    private void update() {
+        enabled = publisherLimit != null || topics.length > 0;
+    }
+
+    /**
+     * Gets the current limits.
+     *
+     * @return the publisher limit first, if any,
+     *         and then the limits of the topic prefixes, in order
+     */
+    public List<Entry> limits() {
+        List<Entry> limits = new ArrayList<>();
+        RateLimit limit = publisherLimit;
+        if (limit != null) {
+            limits.add(new Entry(null, limit));
+        }
+        Arrays.stream(topics)
+              .sorted(Comparator.comparing(t -> t.prefix))
+              .forEach(t -> limits.add(new Entry(t.prefix, t.bucket.limit)));
+        return limits;
+    }
+
+    /**
+     * Checks if a new message can be received.
+     * It must be called by the thread that receives the messages.
+     *
+     * @param topic the first frame of the message
+     * @return true if the message is accepted,
+     *         false if it must be discarded
+     */
+    public boolean admit(Msg topic) {
+        if (!enabled) {
+            return true;
+        }
+        return admit(topic, System.nanoTime());
+    }
+
+    boolean admit(Msg topic, long now) {
+        Bucket publisher = null;
+        RateLimit limit = publisherLimit;
+        if (limit != null) {
+            publisher = publisherBucket(topic.getMetadata(), limit, now);
+            if (!publisher.refill(now)) {
+                limited++;
+                return false;
+            }
+        }
+        Bucket shared = null;
+        byte[] data = topic.data();
+        for (TopicBucket t : topics) {
+            if (t.matches(data)) {
+                shared = t.bucket;
+                break;
+            }
+        }
+        if (shared != null) {
+            if (!shared.refill(now)) {
+                limited++;
+                return false;
+            }
+            shared.tokens -= 1;
+        }
+        if (publisher != null) {
+            publisher.tokens -= 1;
+        }
+        return true;
+    }
+
+    private Bucket publisherBucket(Metadata metadata, RateLimit limit, long now) {
+        if (now - lastSweep > SWEEP_NANOS) {
+            sweep(now);
+        }
+        Metadata key = metadata != null ? metadata : INPROC;
+        Bucket bucket = publishers.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(limit, now);
+            publishers.put(key, bucket);
+        } else if (bucket.limit != limit) {
+            bucket.limit = limit;
+            bucket.tokens = Math.min(bucket.tokens, limit.burst());
+        }
+        return bucket;
+    }
+
+    private void sweep(long now) {
+        lastSweep = now;
+        Iterator<Bucket> iter = publishers.values().iterator();
+        while (iter.hasNext()) {
+            Bucket bucket = iter.next();
+            bucket.refill(now);
+            if (bucket.tokens >= bucket.limit.burst()) {
+                iter.remove();
+            }
+        }
+    }
+
+    int publishers() {
+        return publishers.size();
+    }
+
+
+    private static final class Bucket {
+
+        RateLimit limit;
+        double tokens;
+        long last;
+
+        Bucket(RateLimit limit, long now) {
+            this.limit = limit;
+            this.tokens = limit.burst();
+            this.last = now;
+        }
+
+        // adds the tokens of the elapsed time, and checks if one is left
+        boolean refill(long now) {
+            double elapsed = (double) (now - last) / NANOS_PER_SECOND;
+            if (elapsed > 0) {
+                tokens = Math.min(limit.burst(), tokens + elapsed * limit.rate());
+                last = now;
+            }
+            return tokens >= 1;
+        }
+    }
+
+
+    private static final class TopicBucket {
+
+        final String prefix;
+        final byte[] data;
+        final Bucket bucket;
+
+        TopicBucket(String prefix, RateLimit limit, long now) {
+            this.prefix = prefix;
+            this.data = prefix.getBytes(StandardCharsets.UTF_8);
+            this.bucket = new Bucket(limit, now);
+        }
+
+        boolean matches(byte[] topic) {
+            if (topic.length < data.length) {
+                return false;
+            }
+            for (int i = 0; i < data.length; i++) {
+                if (topic[i] != data[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Holds the scheduled messages until their delivery time.
+ * <p>
+ * A message with the {@code deliveryTime} metadata field is published as a
+ * control request, so it reaches the controller of the proxy without being
+ * forwarded. The controller passes the message to the scheduler, which keeps
+ * it in a {@link TimingWheel} until it is due. Then the message is pushed to
+ * the distributor through the {@link ControlLane control lane}, and it is
+ * published to the subscribers as any other message.
+ * <p>
+ * The scheduler must be used by the controller thread.
+ * The messages are kept in memory only.
+ */
+public class Scheduler {
+
+    /** The name of the number of messages waiting for their delivery time. */
+    public static final String SCHEDULED = "scheduled";
+
+    /** The name of the counter of delivered scheduled messages. */
+    public static final String SCHEDULED_DELIVERED = "scheduled_delivered";
+
+    /** The resolution of the delivery time, in milliseconds. */
+    public static final long TICK_MILLIS = 10;
+
+    private static final int WHEEL_SIZE = 512;
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private final Socket due;
+    private final TimingWheel<ZMsg> wheel;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * Creates a scheduler that sends the due messages to the given socket.
+     *
+     * @param due the socket connected to the distributor
+     */
+    public Scheduler(Socket due) {
+        this.due = due;
+        this.wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+    }
+
+    /**
+     * Registers the scheduler counters to be reported with the proxy counters.
+     *
+     * @param stats the counters of the proxy
+     */
+    public void register(ProxyStats stats) {
+        stats.register(SCHEDULED, pending::get);
+        stats.register(SCHEDULED_DELIVERED, delivered::get);
+    }
+
+    /**
+     * Holds a message until its delivery time.
+     * If the time has already passed, the message is delivered immediately.
+     *
+     * @param msg the topic, metadata and data frames of the message
+     * @return false if the message is not valid
+     */
+    public boolean schedule(ZMsg msg) {
+        if (msg.size() != 3) {
+            LOGGER.warning("invalid scheduled message");
+            return false;
+        }
+        long deliveryTime;
+        try {
+            ZFrame[] frames = msg.toArray(new ZFrame[0]);
+            xMsgMeta meta = xMsgMeta.parseFrom(frames[1].getData());
+            deliveryTime = meta.getDeliveryTime();
+        } catch (InvalidProtocolBufferException e) {
+            LOGGER.warning("invalid scheduled message metadata");
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (deliveryTime <= now) {
+            deliver(msg);
+        } else {
+            wheel.schedule(deliveryTime, msg);
+            pending.set(wheel.size());
+        }
+        return true;
+    }
+
+    /**
+     * Delivers all the messages that are due.
+     */
+    public void advance() {
+        wheel.advance(System.currentTimeMillis(), this::deliver);
+        pending.set(wheel.size());
+    }
+
+    /**
+     * Gets the maximum time the controller can wait before calling
+     * {@link #advance} again.
+     *
+     * @return the poll timeout, in milliseconds, or -1 to wait indefinitely
+     */
+    public long timeout() {
+        return wheel.timeout(System.currentTimeMillis());
+    }
+
+    private void deliver(ZMsg msg) {
+        msg.send(due);
+        delivered.incrementAndGet();
+    }
+}
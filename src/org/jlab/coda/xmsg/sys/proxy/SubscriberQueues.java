@@ -0,0 +1,390 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.SlowSubscriberPolicy;
+import org.zeromq.ZMQ.Socket;
+
+import zmq.Msg;
+import zmq.SocketBase;
+import zmq.pipe.Pipe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the queue of every subscriber connected to the XPUB socket.
+ * <p>
+ * The queue of each subscriber is bounded by the high-water mark of the XPUB
+ * socket. When the queue of a slow subscriber is full, 0MQ silently drops the
+ * messages for that subscriber, while the other subscribers keep receiving
+ * them. This class detects the full queues before every message is sent,
+ * and applies the configured {@link SlowSubscriberPolicy policy}:
+ * <ul>
+ * <li>{@code DROP}: the messages are dropped and counted.
+ * <li>{@code DISCONNECT}: the slow subscriber is disconnected, releasing its
+ *     backlog. It will reconnect and subscribe again as a new subscriber.
+ * <li>{@code SPILL}: the messages are kept in a bounded spill buffer,
+ *     and sent in order when the subscriber catches up.
+ * </ul>
+ * <p>
+ * jeromq does not expose the pipes of the XPUB socket, so they are accessed
+ * through the internals of jeromq 0.4. If that fails, the queues are still
+ * bounded but the slow subscribers are not tracked.
+ * All methods must be called by the thread that owns the XPUB socket.
+ */
+public class SubscriberQueues {
+
+    /** The name of the number of subscribers with a full queue. */
+    public static final String SLOW_SUBSCRIBERS = "slow_subscribers";
+
+    /** The name of the size of the longest subscriber queue. */
+    public static final String MAX_QUEUE = "max_queue";
+
+    /** The name of the counter of messages dropped for slow subscribers. */
+    public static final String SLOW_DROPPED = "slow_dropped";
+
+    /** The name of the counter of disconnected slow subscribers. */
+    public static final String SLOW_DISCONNECTED = "slow_disconnected";
+
+    /** The name of the number of messages in the spill buffers. */
+    public static final String SPILLED = "spilled";
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private static final long SAMPLE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Socket out;
+    private final SlowSubscriberPolicy policy;
+    private final int spillSize;
+
+    private final Internals internals;
+
+    private final List<Pipe> full = new ArrayList<>();
+    private final List<Pipe> targets = new ArrayList<>();
+    private final Map<Pipe, Deque<byte[][]>> spills = new IdentityHashMap<>();
+    private final List<Pipe> disconnected = new ArrayList<>();
+
+    private long nextSample;
+
+    private volatile long slowSubscribers;
+    private volatile long maxQueue;
+    private volatile long dropped;
+    private volatile long disconnections;
+    private volatile long spilled;
+
+    /**
+     * Bounds the subscriber queues of the given XPUB socket.
+     *
+     * @param out the XPUB socket bound to the subscribers port
+     * @param policy the action for the messages to slow subscribers
+     * @param spillSize the maximum number of spilled messages by subscriber
+     */
+    public SubscriberQueues(Socket out, SlowSubscriberPolicy policy, int spillSize) {
+        this.out = out;
+        this.policy = policy;
+        this.spillSize = spillSize;
+        this.internals = Internals.create(out.base());
+    }
+
+    /**
+     * Registers the queue values in the proxy stats.
+     *
+     * @param stats the counters of the proxy
+     */
+    public void register(ProxyStats stats) {
+        stats.register(SLOW_SUBSCRIBERS, () -> slowSubscribers);
+        stats.register(MAX_QUEUE, () -> maxQueue);
+        stats.register(SLOW_DROPPED, () -> dropped);
+        stats.register(SLOW_DISCONNECTED, () -> disconnections);
+        if (policy == SlowSubscriberPolicy.SPILL) {
+            stats.register(SPILLED, () -> spilled);
+        }
+    }
+
+    /**
+     * Checks if the whole messages must be kept after they are sent.
+     *
+     * @return true if the messages may be spilled
+     */
+    public boolean spills() {
+        return policy == SlowSubscriberPolicy.SPILL;
+    }
+
+    /**
+     * Checks if there are spilled messages waiting for their subscribers.
+     *
+     * @return true if the spill buffers must be drained
+     */
+    public boolean pending() {
+        return !spills.isEmpty();
+    }
+
+    /**
+     * Finds the slow subscribers for the message with the given topic,
+     * before the message is sent.
+     *
+     * @param topic the topic frame of the message
+     */
+    public void prepare(Msg topic) {
+        targets.clear();
+        if (internals == null) {
+            return;
+        }
+        drain();
+        full.clear();
+        for (Pipe pipe : internals.pipes) {
+            if (!pipe.checkHwm() || spills.containsKey(pipe)) {
+                full.add(pipe);
+            }
+        }
+        slowSubscribers = full.size();
+        if (!full.isEmpty()) {
+            internals.match(topic, full, targets);
+        }
+        if (policy == SlowSubscriberPolicy.DISCONNECT) {
+            for (Pipe pipe : targets) {
+                disconnect(pipe);
+            }
+        }
+    }
+
+    /**
+     * Handles the message for the slow subscribers, after it was sent.
+     *
+     * @param frames all frames of the sent message, if the message may be
+     *               spilled
+     */
+    public void complete(List<byte[]> frames) {
+        for (Pipe pipe : targets) {
+            if (policy == SlowSubscriberPolicy.SPILL) {
+                Deque<byte[][]> spill = spills.computeIfAbsent(pipe, p -> new ArrayDeque<>());
+                if (spill.size() < spillSize) {
+                    spill.add(frames.toArray(new byte[frames.size()][]));
+                    spilled++;
+                    continue;
+                }
+            }
+            dropped++;
+        }
+        targets.clear();
+    }
+
+    /**
+     * Sends the spilled messages to the subscribers that caught up,
+     * and updates the size of the queues periodically.
+     */
+    public void drain() {
+        if (internals == null) {
+            return;
+        }
+        if (!spills.isEmpty()) {
+            // update the state of the pipes
+            out.getEvents();
+            Iterator<Map.Entry<Pipe, Deque<byte[][]>>> it = spills.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Pipe, Deque<byte[][]>> entry = it.next();
+                Pipe pipe = entry.getKey();
+                Deque<byte[][]> spill = entry.getValue();
+                if (!internals.pipes.contains(pipe)) {
+                    spilled -= spill.size();
+                    it.remove();
+                    continue;
+                }
+                boolean written = false;
+                while (!spill.isEmpty() && pipe.checkHwm() && write(pipe, spill.peek())) {
+                    spill.poll();
+                    spilled--;
+                    written = true;
+                }
+                if (written) {
+                    pipe.flush();
+                }
+                if (spill.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        long now = System.nanoTime();
+        if (now - nextSample >= 0) {
+            nextSample = now + SAMPLE_INTERVAL;
+            disconnected.retainAll(internals.pipes);
+            long max = 0;
+            for (Pipe pipe : internals.pipes) {
+                max = Math.max(max, internals.depth(pipe));
+            }
+            maxQueue = max;
+        }
+    }
+
+    // The caller must check the HWM of the pipe first. Pipe.checkWrite() would
+    // deactivate a full pipe behind the back of the XPUB socket, and then the
+    // socket would activate it twice.
+    private static boolean write(Pipe pipe, byte[][] frames) {
+        for (int i = 0; i < frames.length; i++) {
+            Msg msg = new Msg(frames[i]);
+            if (i < frames.length - 1) {
+                msg.setFlags(Msg.MORE);
+            }
+            if (!pipe.write(msg)) {
+                // only the first frame can fail, when the pipe is not active
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void disconnect(Pipe pipe) {
+        if (disconnected.contains(pipe)) {
+            return;
+        }
+        if (internals.disconnect(pipe)) {
+            disconnected.add(pipe);
+            disconnections++;
+        }
+    }
+
+
+    /**
+     * Reflective access to the pipes of the jeromq XPUB socket.
+     */
+    private static final class Internals {
+
+        private final List<Pipe> pipes;
+        private final Object trie;
+        private final SocketBase xpub;
+        private final Method match;
+        private final Object handler;
+        private final Field written;
+        private final Field read;
+        private final Field peer;
+        private final Field sink;
+        private final Method terminate;
+
+        // the arguments of the current match
+        private List<Pipe> candidates;
+        private List<Pipe> matched;
+
+        @SuppressWarnings("unchecked")
+        private Internals(SocketBase xpub) throws ReflectiveOperationException {
+            Class<?> xpubClass = xpub.getClass();
+            Object dist = accessible(xpubClass.getDeclaredField("dist")).get(xpub);
+            this.pipes = (List<Pipe>) accessible(dist.getClass().getDeclaredField("pipes"))
+                    .get(dist);
+            this.trie = accessible(xpubClass.getDeclaredField("subscriptions")).get(xpub);
+            this.xpub = xpub;
+
+            Class<?> handlerClass = null;
+            for (Class<?> c : trie.getClass().getDeclaredClasses()) {
+                if (c.getSimpleName().equals("IMtrieHandler")) {
+                    handlerClass = c;
+                }
+            }
+            if (handlerClass == null) {
+                throw new NoSuchMethodException("IMtrieHandler");
+            }
+            this.match = accessible(trie.getClass().getDeclaredMethod("match",
+                    ByteBuffer.class, int.class, handlerClass, xpubClass));
+            InvocationHandler onMatch = (proxy, method, args) -> {
+                if (method.getName().equals("invoke")) {
+                    Pipe pipe = (Pipe) args[0];
+                    if (candidates.contains(pipe) && !matched.contains(pipe)) {
+                        matched.add(pipe);
+                    }
+                    return null;
+                }
+                return method.invoke(this, args);
+            };
+            this.handler = Proxy.newProxyInstance(handlerClass.getClassLoader(),
+                                                  new Class<?>[] {handlerClass},
+                                                  onMatch);
+
+            this.written = accessible(Pipe.class.getDeclaredField("msgsWritten"));
+            this.read = accessible(Pipe.class.getDeclaredField("peersMsgsRead"));
+            this.peer = accessible(Pipe.class.getDeclaredField("peer"));
+            this.sink = accessible(Pipe.class.getDeclaredField("sink"));
+            this.terminate = accessible(zmq.Own.class.getDeclaredMethod("terminate"));
+        }
+
+        static Internals create(SocketBase xpub) {
+            try {
+                return new Internals(xpub);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.warning("could not track the subscriber queues: " + e);
+                return null;
+            }
+        }
+
+        void match(Msg topic, List<Pipe> candidates, List<Pipe> matched) {
+            this.candidates = candidates;
+            this.matched = matched;
+            try {
+                match.invoke(trie, ByteBuffer.wrap(topic.data()), topic.size(), handler, xpub);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                this.candidates = null;
+                this.matched = null;
+            }
+        }
+
+        long depth(Pipe pipe) {
+            try {
+                return written.getLong(pipe) - read.getLong(pipe);
+            } catch (IllegalAccessException e) {
+                return 0;
+            }
+        }
+
+        boolean disconnect(Pipe pipe) {
+            try {
+                // ask the session of the subscriber to close the connection
+                Object session = sink.get(peer.get(pipe));
+                if (session instanceof zmq.Own) {
+                    terminate.invoke(session);
+                    return true;
+                }
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warning("could not disconnect slow subscriber: " + e);
+            }
+            return false;
+        }
+
+        private static <T extends java.lang.reflect.AccessibleObject> T accessible(T object) {
+            object.setAccessible(true);
+            return object;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import zmq.Msg;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the topic prefixes currently subscribed on an XPUB socket.
+ * <p>
+ * The registry is updated with the subscription frames received by the XPUB
+ * socket. The proxy uses it to track the subscriptions of its subscribers,
+ * and the publisher connections to track the subscriptions forwarded to them
+ * by the proxy. The socket reports a prefix when it is subscribed for the first
+ * time, and reports it again only when the last subscriber is gone (or when
+ * the socket is verbose), so the registry knows the subscribed prefixes,
+ * but not how many subscribers are using them.
+ * <p>
+ * The prefixes are kept in a trie. Every node counts the subscribed prefixes
+ * of its subtree, so the nodes without subscriptions are removed as soon as
+ * the last prefix is unsubscribed, and the subscribers of a topic can be
+ * found with a single walk over the bytes of the topic.
+ * <p>
+ * The registry is updated by the thread that owns the XPUB socket,
+ * and it can be queried from other threads.
+ */
+public class SubscriptionTrie {
+
+    /** The name of the number of subscribed prefixes. */
+    public static final String TOPICS = "subscribed_topics";
+
+    /** The maximum number of prefixes returned by a query. */
+    public static final int MAX_TOPICS = 1000;
+
+    private final Node root = new Node();
+
+    /**
+     * Updates the registry with a subscription frame.
+     * The first byte of the frame is 1 for subscriptions and 0 for
+     * unsubscriptions. Any other frame is ignored.
+     *
+     * @param frame the subscription frame
+     */
+    public void subscription(Msg frame) {
+        if (frame.size() == 0) {
+            return;
+        }
+        subscription(frame.data());
+    }
+
+    /**
+     * Updates the registry with the data of a subscription frame.
+     *
+     * @param frame the data of the subscription frame
+     * @see #subscription(Msg)
+     */
+    public void subscription(byte[] frame) {
+        if (frame.length == 0) {
+            return;
+        }
+        byte type = frame[0];
+        if (type == 1) {
+            add(frame);
+        } else if (type == 0) {
+            remove(frame);
+        }
+    }
+
+    // the first byte of the data is the subscription flag
+    private synchronized void add(byte[] data) {
+        Node node = root;
+        for (int i = 1; i < data.length; i++) {
+            node = node.child(data[i], true);
+        }
+        if (node.subscribed) {
+            return;
+        }
+        node.subscribed = true;
+        node = root;
+        root.topics++;
+        for (int i = 1; i < data.length; i++) {
+            node = node.child(data[i], false);
+            node.topics++;
+        }
+    }
+
+    private synchronized void remove(byte[] data) {
+        Node node = root;
+        for (int i = 1; i < data.length && node != null; i++) {
+            node = node.child(data[i], false);
+        }
+        if (node == null || !node.subscribed) {
+            return;
+        }
+        node.subscribed = false;
+        node = root;
+        root.topics--;
+        for (int i = 1; i < data.length; i++) {
+            Node next = node.child(data[i], false);
+            if (--next.topics == 0) {
+                node.children.remove(data[i]);
+                return;
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * Checks if a message published to the given topic would be received by
+     * any subscriber.
+     *
+     * @param topic the published topic
+     * @return true if any subscribed prefix matches the topic
+     */
+    public synchronized boolean hasSubscribers(String topic) {
+        byte[] data = topic.getBytes(StandardCharsets.UTF_8);
+        Node node = root;
+        for (int i = 0; node != null; i++) {
+            if (node.subscribed) {
+                return true;
+            }
+            if (i == data.length) {
+                break;
+            }
+            node = node.child(data[i], false);
+        }
+        return false;
+    }
+
+    /**
+     * Gets the subscribed prefixes that match the given topic,
+     * i.e., the subscriptions that would receive a message published to it.
+     *
+     * @param topic the published topic
+     * @return the matching prefixes, from the shortest to the longest
+     */
+    public synchronized List<String> listeners(String topic) {
+        byte[] data = topic.getBytes(StandardCharsets.UTF_8);
+        List<String> prefixes = new ArrayList<>();
+        Node node = root;
+        for (int i = 0; node != null; i++) {
+            if (node.subscribed) {
+                prefixes.add(new String(data, 0, i, StandardCharsets.UTF_8));
+            }
+            if (i == data.length) {
+                break;
+            }
+            node = node.child(data[i], false);
+        }
+        return prefixes;
+    }
+
+    /**
+     * Gets the subscribed prefixes that start with the given prefix.
+     * Up to {@link #MAX_TOPICS} prefixes are returned.
+     *
+     * @param prefix the start of the subscribed prefixes,
+     *               or an empty string for all prefixes
+     * @return the subscribed prefixes, sorted
+     */
+    public synchronized List<String> subscribed(String prefix) {
+        byte[] data = prefix.getBytes(StandardCharsets.UTF_8);
+        Node node = root;
+        for (int i = 0; i < data.length && node != null; i++) {
+            node = node.child(data[i], false);
+        }
+        List<String> prefixes = new ArrayList<>();
+        if (node != null) {
+            ByteArrayOutputStream path = new ByteArrayOutputStream();
+            path.write(data, 0, data.length);
+            collect(node, path, prefixes);
+        }
+        Collections.sort(prefixes);
+        return prefixes;
+    }
+
+    private static void collect(Node node, ByteArrayOutputStream path, List<String> prefixes) {
+        if (prefixes.size() >= MAX_TOPICS) {
+            return;
+        }
+        if (node.subscribed) {
+            prefixes.add(new String(path.toByteArray(), StandardCharsets.UTF_8));
+        }
+        if (node.children == null) {
+            return;
+        }
+        byte[] current = path.toByteArray();
+        for (Map.Entry<Byte, Node> child : node.children.entrySet()) {
+            path.reset();
+            path.write(current, 0, current.length);
+            path.write(child.getKey());
+            collect(child.getValue(), path, prefixes);
+        }
+    }
+
+    /**
+     * Counts the subscribed prefixes that start with the given prefix.
+     *
+     * @param prefix the start of the subscribed prefixes,
+     *               or an empty string for all prefixes
+     * @return the number of subscribed prefixes
+     */
+    public synchronized int count(String prefix) {
+        byte[] data = prefix.getBytes(StandardCharsets.UTF_8);
+        Node node = root;
+        for (int i = 0; i < data.length && node != null; i++) {
+            node = node.child(data[i], false);
+        }
+        return node != null ? node.topics : 0;
+    }
+
+    /**
+     * Registers the number of subscribed prefixes with the proxy counters.
+     *
+     * @param stats the counters of the proxy
+     */
+    public void register(ProxyStats stats) {
+        stats.register(TOPICS, () -> count(""));
+    }
+
+
+    private static final class Node {
+
+        Map<Byte, Node> children;
+        boolean subscribed;
+        int topics;
+
+        Node child(byte key, boolean create) {
+            if (children == null) {
+                if (!create) {
+                    return null;
+                }
+                children = new HashMap<>(4);
+            }
+            Node node = children.get(key);
+            if (node == null && create) {
+                node = new Node();
+                children.put(key, node);
+            }
+            return node;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel, to hold items until their deadline.
+ * <p>
+ * The time is divided in ticks of fixed length, and the wheel has a fixed
+ * number of buckets. An item is added to the bucket of the tick of its
+ * deadline, with the number of full turns of the wheel that must pass before
+ * it expires. Scheduling an item is O(1), and every tick only visits the items
+ * of a single bucket. The items expire at the end of the tick of their
+ * deadline, so they can be late by up to one tick.
+ * <p>
+ * The wheel must be used by a single thread.
+ *
+ * @param <T> the type of the scheduled items
+ */
+public class TimingWheel<T> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<List<Timeout<T>>> buckets;
+    private final long startTime;
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param tickMillis the length of every tick, in milliseconds
+     * @param wheelSize the number of buckets (rounded up to a power of two)
+     * @param now the current time, in milliseconds
+     */
+    public TimingWheel(long tickMillis, int wheelSize, long now) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("invalid tick: " + tickMillis);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("invalid wheel size: " + wheelSize);
+        }
+        int buckets = Integer.highestOneBit(wheelSize);
+        if (buckets < wheelSize) {
+            buckets <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = buckets - 1;
+        this.buckets = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            this.buckets.add(new ArrayList<>());
+        }
+        this.startTime = now;
+    }
+
+    /**
+     * Adds an item to the wheel.
+     * If the deadline has already passed, the item expires on the next tick.
+     *
+     * @param deadline the time when the item expires, in milliseconds
+     * @param item the scheduled item
+     */
+    public void schedule(long deadline, T item) {
+        long tick = Math.max((deadline - startTime) / tickMillis, currentTick);
+        long rounds = (tick - currentTick) / buckets.size();
+        buckets.get((int) (tick & mask)).add(new Timeout<>(rounds, item));
+        size++;
+    }
+
+    /**
+     * Expires all the items with a deadline in the ticks that ended
+     * before the given time.
+     *
+     * @param now the current time, in milliseconds
+     * @param action the action to run with every expired item, in order of
+     *               expiration
+     */
+    public void advance(long now, Consumer<T> action) {
+        while (size > 0 && now >= tickEnd(currentTick)) {
+            Iterator<Timeout<T>> iter = buckets.get((int) (currentTick & mask)).iterator();
+            while (iter.hasNext()) {
+                Timeout<T> timeout = iter.next();
+                if (timeout.rounds == 0) {
+                    iter.remove();
+                    size--;
+                    action.accept(timeout.item);
+                } else {
+                    timeout.rounds--;
+                }
+            }
+            currentTick++;
+        }
+        if (size == 0 && now >= tickEnd(currentTick)) {
+            // nothing to visit, jump to the current tick
+            currentTick = (now - startTime) / tickMillis;
+        }
+    }
+
+    private long tickEnd(long tick) {
+        return startTime + (tick + 1) * tickMillis;
+    }
+
+    /**
+     * Gets the time until the end of the current tick.
+     *
+     * @param now the current time, in milliseconds
+     * @return the milliseconds until {@link #advance} must be called again,
+     *         or -1 if the wheel is empty
+     */
+    public long timeout(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        return Math.max(0, tickEnd(currentTick) - now);
+    }
+
+    /**
+     * Gets the number of items in the wheel.
+     *
+     * @return the number of items waiting for their deadline
+     */
+    public int size() {
+        return size;
+    }
+
+
+    private static final class Timeout<T> {
+
+        long rounds;
+        final T item;
+
+        Timeout(long rounds, T item) {
+            this.rounds = rounds;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.sys.journal.JournalWriter;
+import org.jlab.coda.xmsg.sys.util.LogUtils;
+import org.jlab.coda.xmsg.sys.util.ThreadUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Records the messages forwarded by the proxy into a journal on disk.
+ * <p>
+ * The forwarding thread only queues the frames of every message.
+ * A background thread writes the queued messages into the rolling segments
+ * of a {@link JournalWriter}, so the forwarding never waits for the disk.
+ * If the writer falls behind by more than {@link #MAX_QUEUED_BYTES},
+ * or the journal cannot be written, the new messages are not captured,
+ * and they are counted as dropped.
+ */
+public class TrafficCapture implements MessageSink {
+
+    /** The name of the counter of captured messages. */
+    public static final String CAPTURED = "captured";
+
+    /** The name of the counter of messages that could not be captured. */
+    public static final String CAPTURE_DROPPED = "capture_dropped";
+
+    /** The maximum size of the messages waiting to be written. */
+    public static final long MAX_QUEUED_BYTES = 64 * 1024 * 1024;
+
+    private static final long FLUSH_INTERVAL = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private static final Entry STOP = new Entry(0, new byte[0][], 0);
+
+    private final JournalWriter writer;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final LongAdder captured = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+
+    private volatile boolean failed;
+
+    /**
+     * Starts capturing into the journal in the given directory.
+     *
+     * @param directory the journal directory
+     * @param segmentSize the size of every segment
+     * @param maxSegments the number of segments to keep, or zero to keep all
+     * @throws xMsgException if the journal could not be opened
+     */
+    public TrafficCapture(Path directory, long segmentSize, int maxSegments)
+            throws xMsgException {
+        try {
+            this.writer = new JournalWriter(directory, segmentSize, maxSegments);
+        } catch (IOException e) {
+            throw new xMsgException("could not open capture journal", e);
+        }
+        this.thread = ThreadUtils.newThread("proxy-capture", this::run);
+        this.thread.start();
+    }
+
+    @Override
+    public void register(ProxyStats stats) {
+        stats.register(CAPTURED, captured::sum);
+        stats.register(CAPTURE_DROPPED, dropped::sum);
+    }
+
+    /**
+     * Queues a forwarded message to be written, without blocking.
+     * The data of the frames is not copied, it must not be modified.
+     *
+     * @param frames the data of every frame of the message
+     * @param size the total size of the frames
+     * @return true if the message was queued, false if it was dropped
+     */
+    @Override
+    public boolean offer(List<byte[]> frames, long size) {
+        if (failed || queuedBytes.get() + size > MAX_QUEUED_BYTES) {
+            dropped.increment();
+            return false;
+        }
+        queuedBytes.addAndGet(size);
+        byte[][] data = frames.toArray(new byte[frames.size()][]);
+        queue.add(new Entry(System.currentTimeMillis(), data, size));
+        return true;
+    }
+
+    private void run() {
+        boolean dirty = false;
+        try {
+            while (true) {
+                Entry entry = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (entry == STOP) {
+                    break;
+                }
+                if (entry == null) {
+                    if (dirty && !failed) {
+                        writer.flush();
+                        dirty = false;
+                    }
+                    continue;
+                }
+                queuedBytes.addAndGet(-entry.size);
+                if (!failed) {
+                    writer.append(entry.time, Arrays.asList(entry.frames));
+                    captured.increment();
+                    dirty = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failed = true;
+            LOGGER.severe(LogUtils.exceptionReporter(e));
+        }
+    }
+
+    /**
+     * Writes the queued messages and closes the journal.
+     */
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOGGER.warning(LogUtils.exceptionReporter(e));
+        }
+    }
+
+
+    private static final class Entry {
+
+        final long time;
+        final byte[][] frames;
+        final long size;
+
+        Entry(long time, byte[][] frames, long size) {
+            this.time = time;
+            this.frames = frames;
+            this.size = size;
+        }
+    }
+}
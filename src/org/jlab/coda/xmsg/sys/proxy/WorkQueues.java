@@ -0,0 +1,387 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Poller;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Load-balances the messages of a topic among the members of a group.
+ * <p>
+ * The workers connect to the router socket bound on {@code pubPort + 6},
+ * and join a named group on some topics, with some initial credit. Every
+ * message published to the topics is sent to a single member of the group,
+ * in round-robin order among the members with credit left. Every sent
+ * message consumes one credit, and the workers grant more credit when they
+ * finish processing their messages, so the faster workers receive more
+ * messages. When no member has credit, the messages wait in a bounded queue
+ * of the group, dropping the oldest.
+ * <p>
+ * The groups do not change the delivery to the normal subscribers of the
+ * topic. The router socket is polled by the thread that owns the XPUB socket,
+ * which also subscribes the publishers to the topics of the groups.
+ */
+public class WorkQueues implements MessageSink {
+
+    /** The name of the number of groups. */
+    public static final String GROUPS = "groups";
+
+    /** The name of the counter of messages sent to the group members. */
+    public static final String GROUP_SENT = "group_sent";
+
+    /** The name of the counter of messages dropped by full group queues. */
+    public static final String GROUP_DROPPED = "group_dropped";
+
+    /** The maximum number of messages waiting for credit, per group. */
+    public static final int MAX_QUEUED = 10000;
+
+    private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+    private final xMsgSocketFactory factory;
+    private final Socket router;
+    private final Map<String, Group> groups = new HashMap<>();
+    private final Map<String, Integer> topics = new HashMap<>();
+
+    private int routerIndex = -1;
+    // only updated by the forwarding thread
+    private volatile long sent;
+    private volatile long dropped;
+    private volatile int groupCount;
+
+    /**
+     * Binds the socket of the group members.
+     *
+     * @param factory the factory to create the socket
+     * @param address the address of the proxy
+     * @param setup the proxy options
+     * @throws xMsgException if the socket could not be bound
+     */
+    public WorkQueues(xMsgSocketFactory factory, xMsgProxyAddress address, xMsgProxySetup setup)
+            throws xMsgException {
+        this.factory = factory;
+        Socket router = factory.createSocket(ZMQ.ROUTER);
+        try {
+            // fail on disconnected members, to send their messages to others
+            router.setRouterMandatory(true);
+            for (xMsgTransport transport : setup.transports()) {
+                factory.bindSocket(router, transport, address.pubPort() + 6);
+            }
+        } catch (Exception e) {
+            factory.closeQuietly(router);
+            throw e;
+        }
+        this.router = router;
+    }
+
+    @Override
+    public void register(ProxyStats stats) {
+        stats.register(GROUPS, () -> groupCount);
+        stats.register(GROUP_SENT, () -> sent);
+        stats.register(GROUP_DROPPED, () -> dropped);
+    }
+
+    @Override
+    public void register(Poller poller) {
+        routerIndex = poller.register(router, Poller.POLLIN);
+    }
+
+    @Override
+    public boolean process(Poller poller, Socket to) {
+        if (!poller.pollin(routerIndex)) {
+            return true;
+        }
+        ZMsg msg;
+        while ((msg = ZMsg.recvMsg(router, false)) != null) {
+            request(msg, to);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isActive() {
+        return !groups.isEmpty();
+    }
+
+    @Override
+    public boolean offer(List<byte[]> frames, long size) {
+        if (frames.isEmpty()) {
+            return false;
+        }
+        byte[] topic = frames.get(0);
+        boolean accepted = false;
+        for (Group group : groups.values()) {
+            if (group.accepts(topic)) {
+                group.queue(frames.toArray(new byte[frames.size()][]));
+                dispatch(group);
+                accepted = true;
+            }
+        }
+        return accepted;
+    }
+
+    private void request(ZMsg msg, Socket to) {
+        if (msg.size() < 3) {
+            return;
+        }
+        byte[] identity = msg.pop().getData();
+        String type = msg.popString();
+        String name = msg.popString();
+        try {
+            switch (type) {
+                case xMsgCtrlConstants.CTRL_JOIN: {
+                    int credit = Integer.parseInt(msg.popString());
+                    Group group = groups.get(name);
+                    if (group == null) {
+                        group = new Group(name);
+                        groups.put(name, group);
+                        groupCount = groups.size();
+                    }
+                    while (!msg.isEmpty()) {
+                        String topic = msg.popString();
+                        if (group.add(topic)) {
+                            subscribe(topic, to);
+                        }
+                    }
+                    group.join(identity, credit);
+                    reply(identity, type, name);
+                    dispatch(group);
+                    break;
+                }
+                case xMsgCtrlConstants.CTRL_CREDIT: {
+                    int credit = Integer.parseInt(msg.popString());
+                    Group group = groups.get(name);
+                    if (group != null && group.credit(identity, credit)) {
+                        dispatch(group);
+                    }
+                    break;
+                }
+                case xMsgCtrlConstants.CTRL_LEAVE: {
+                    leave(identity, name, to);
+                    break;
+                }
+                default:
+                    LOGGER.warning("unexpected group request: " + type);
+            }
+        } catch (NullPointerException | NumberFormatException e) {
+            LOGGER.warning("invalid group request: " + type + " " + name);
+        }
+    }
+
+    private void leave(byte[] identity, String name, Socket to) {
+        Group group = groups.get(name);
+        if (group != null && group.leave(identity) && group.members.isEmpty()) {
+            groups.remove(name);
+            groupCount = groups.size();
+            dropped += group.pending.size();
+            group.topics.forEach(t -> unsubscribe(t, to));
+        }
+    }
+
+    private void subscribe(String topic, Socket to) {
+        int count = topics.merge(topic, 1, Integer::sum);
+        if (count == 1) {
+            MessageRelay.send(new byte[][] {subscription(1, topic)}, to);
+        }
+    }
+
+    private void unsubscribe(String topic, Socket to) {
+        int count = topics.merge(topic, -1, Integer::sum);
+        if (count == 0) {
+            topics.remove(topic);
+            MessageRelay.send(new byte[][] {subscription(0, topic)}, to);
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] subscription(int flag, String topic) {
+        byte[] data = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[data.length + 1];
+        frame[0] = (byte) flag;
+        System.arraycopy(data, 0, frame, 1, data.length);
+        return frame;
+    }
+
+    private void reply(byte[] identity, String type, String name) {
+        MessageRelay.send(new byte[][] {
+            identity,
+            type.getBytes(StandardCharsets.UTF_8),
+            name.getBytes(StandardCharsets.UTF_8),
+        }, router);
+    }
+
+    private void dispatch(Group group) {
+        while (!group.pending.isEmpty()) {
+            Member member = group.next();
+            if (member == null) {
+                return;
+            }
+            byte[][] frames = group.pending.peek();
+            byte[][] msg = new byte[frames.length + 1][];
+            msg[0] = member.identity;
+            System.arraycopy(frames, 0, msg, 1, frames.length);
+            if (MessageRelay.send(msg, router)) {
+                group.pending.poll();
+                member.credit--;
+                sent++;
+            } else {
+                // the member is gone
+                group.remove(member);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        factory.closeQuietly(router);
+    }
+
+
+    private static final class Member {
+
+        final byte[] identity;
+        final ByteBuffer key;
+        int credit;
+
+        Member(byte[] identity) {
+            this.identity = identity;
+            this.key = ByteBuffer.wrap(identity);
+        }
+    }
+
+
+    private final class Group {
+
+        final String name;
+        final List<String> topics = new ArrayList<>();
+        final List<byte[]> prefixes = new ArrayList<>();
+        final Map<ByteBuffer, Member> members = new HashMap<>();
+        final List<Member> order = new ArrayList<>();
+        final Deque<byte[][]> pending = new ArrayDeque<>();
+        int next;
+
+        Group(String name) {
+            this.name = name;
+        }
+
+        boolean add(String topic) {
+            if (topics.contains(topic)) {
+                return false;
+            }
+            topics.add(topic);
+            prefixes.add(topic.getBytes(StandardCharsets.UTF_8));
+            return true;
+        }
+
+        boolean accepts(byte[] data) {
+            for (byte[] prefix : prefixes) {
+                if (startsWith(data, prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // repeated requests of a member do not grant more credit
+        void join(byte[] identity, int credit) {
+            members.computeIfAbsent(ByteBuffer.wrap(identity), k -> {
+                Member m = new Member(identity);
+                m.credit = credit;
+                order.add(m);
+                return m;
+            });
+        }
+
+        boolean credit(byte[] identity, int credit) {
+            Member member = members.get(ByteBuffer.wrap(identity));
+            if (member == null) {
+                return false;
+            }
+            member.credit += credit;
+            return true;
+        }
+
+        boolean leave(byte[] identity) {
+            Member member = members.get(ByteBuffer.wrap(identity));
+            if (member == null) {
+                return false;
+            }
+            remove(member);
+            return true;
+        }
+
+        void remove(Member member) {
+            members.remove(member.key);
+            order.remove(member);
+        }
+
+        // the next member with credit, in round-robin order
+        Member next() {
+            int size = order.size();
+            for (int i = 0; i < size; i++) {
+                Member member = order.get((next + i) % size);
+                if (member.credit > 0) {
+                    next = (next + i + 1) % size;
+                    return member;
+                }
+            }
+            return null;
+        }
+
+        void queue(byte[][] frames) {
+            if (pending.size() >= MAX_QUEUED) {
+                pending.poll();
+                dropped++;
+            }
+            pending.add(frames);
+        }
+    }
+}
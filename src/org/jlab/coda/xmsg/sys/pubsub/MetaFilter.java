@@ -0,0 +1,348 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.pubsub;
+
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A predicate on the metadata of the messages of a topic,
+ * evaluated by the proxy before sending the messages to a subscriber.
+ * <p>
+ * The filter is made of a set of metadata fields, each with a set of accepted
+ * values. A message passes the filter when every field is set on its metadata
+ * and its value is one of the accepted ones. Enum fields are compared by
+ * the name of their value.
+ * <p>
+ * The filter can also sample the messages that pass the conditions, keeping
+ * one of every N messages, or at most M messages per second, or both.
+ * A filter can sample all the messages of the topic, without conditions.
+ * <p>
+ * The subscriber subscribes to the {@link #key() key} of the filter instead
+ * of the topic. The key starts with a marker that is not valid in a topic,
+ * so it does not match any published message. The proxy sends every message
+ * that passes the filter again, with the key prepended as an extra frame.
+ * <p>
+ * Every part of the key is terminated by the marker too, so the key of a
+ * filter is not a prefix of the key of a filter with a longer topic, value or
+ * sampling option. The key can still be a prefix of the key of a filter with
+ * more conditions, and the subscriptions prefix-match the keys like topics,
+ * thus the subscribers must drop the copies whose key is not their own.
+ */
+public final class MetaFilter {
+
+    /** The first character of every filter key. */
+    public static final char MARKER = '\u0001';
+
+    private static final char VALUE_SEP = '\u0002';
+
+    private static final String EVERY = "#every=";
+    private static final String RATE = "#rate=";
+
+    private final String topic;
+    private final Map<String, Set<String>> values;
+    private final Map<FieldDescriptor, Set<String>> fields;
+    private final int every;
+    private final double rate;
+    private final String key;
+
+    /**
+     * Creates a filter for the given topic.
+     *
+     * @param topic the topic of the filtered messages
+     * @param values the accepted values of every metadata field
+     * @throws IllegalArgumentException if a field does not exist,
+     *         or there are no values for a field
+     */
+    public MetaFilter(String topic, Map<String, ? extends Set<String>> values) {
+        this(topic, values, 1, 0);
+    }
+
+    /**
+     * Creates a filter for the given topic, that also samples the messages
+     * that pass the metadata conditions.
+     *
+     * @param topic the topic of the filtered messages
+     * @param values the accepted values of every metadata field (can be empty)
+     * @param every keep one of every given number of messages (1 to keep all)
+     * @param rate the maximum number of messages per second (0 for no limit)
+     * @throws IllegalArgumentException if a field does not exist,
+     *         there are no values for a field, the sampling options are not
+     *         valid, or there are no conditions and no sampling
+     */
+    public MetaFilter(String topic, Map<String, ? extends Set<String>> values,
+                      int every, double rate) {
+        if (topic.indexOf(MARKER) >= 0) {
+            throw new IllegalArgumentException("invalid topic: " + topic);
+        }
+        checkSampling(every, rate);
+        if (values.isEmpty() && every == 1 && rate == 0) {
+            throw new IllegalArgumentException("empty metadata filter");
+        }
+        this.topic = topic;
+        this.every = every;
+        this.rate = rate;
+        this.values = new TreeMap<>();
+        this.fields = new TreeMap<>((f1, f2) -> f1.getName().compareTo(f2.getName()));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(MARKER).append(topic);
+        for (Map.Entry<String, ? extends Set<String>> e : new TreeMap<>(values).entrySet()) {
+            FieldDescriptor field = field(e.getKey());
+            Set<String> accepted = Collections.unmodifiableSet(new TreeSet<>(e.getValue()));
+            accepted.forEach(MetaFilter::checkValue);
+            if (accepted.isEmpty()) {
+                throw new IllegalArgumentException("no values for field: " + e.getKey());
+            }
+            this.values.put(e.getKey(), accepted);
+            this.fields.put(field, accepted);
+
+            sb.append(MARKER).append(e.getKey()).append('=');
+            sb.append(String.join(String.valueOf(VALUE_SEP), accepted));
+        }
+        if (every > 1) {
+            sb.append(MARKER).append(EVERY).append(every);
+        }
+        if (rate > 0) {
+            sb.append(MARKER).append(RATE).append(rate);
+        }
+        sb.append(MARKER);
+        this.key = sb.toString();
+    }
+
+    /**
+     * Parses a filter from its key.
+     *
+     * @param key the key of the filter
+     * @return the filter, or null if the key is not a valid filter key
+     */
+    public static MetaFilter parse(String key) {
+        if (!isKey(key) || key.length() < 2 || key.charAt(key.length() - 1) != MARKER) {
+            return null;
+        }
+        String[] parts = key.substring(1, key.length() - 1).split(String.valueOf(MARKER), -1);
+        Map<String, Set<String>> values = new TreeMap<>();
+        int every = 1;
+        double rate = 0;
+        try {
+            for (int i = 1; i < parts.length; i++) {
+                if (parts[i].startsWith(EVERY)) {
+                    every = Integer.parseInt(parts[i].substring(EVERY.length()));
+                    continue;
+                }
+                if (parts[i].startsWith(RATE)) {
+                    rate = Double.parseDouble(parts[i].substring(RATE.length()));
+                    continue;
+                }
+                int eq = parts[i].indexOf('=');
+                if (eq <= 0) {
+                    return null;
+                }
+                String[] accepted = parts[i].substring(eq + 1).split(String.valueOf(VALUE_SEP));
+                values.put(parts[i].substring(0, eq), new TreeSet<>(Arrays.asList(accepted)));
+            }
+            return new MetaFilter(parts[0], values, every, rate);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the given subscription is a filter key.
+     *
+     * @param subscription a subscribed topic
+     * @return true if the subscription is the key of a metadata filter
+     */
+    public static boolean isKey(String subscription) {
+        return !subscription.isEmpty() && subscription.charAt(0) == MARKER;
+    }
+
+    /**
+     * Gets the topic of the messages selected by the given subscription.
+     *
+     * @param subscription a subscribed topic or filter key
+     * @return the topic of the filter if the subscription is a filter key,
+     *         or the same subscription otherwise
+     */
+    public static String topicOf(String subscription) {
+        if (!isKey(subscription)) {
+            return subscription;
+        }
+        int end = subscription.indexOf(MARKER, 1);
+        return end < 0 ? subscription.substring(1) : subscription.substring(1, end);
+    }
+
+    /**
+     * Checks that the given metadata field can be used in a filter.
+     *
+     * @param name the name of the field
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public static void checkField(String name) {
+        field(name);
+    }
+
+    /**
+     * Checks that the given value can be used in a filter.
+     *
+     * @param value an accepted value for a field
+     * @throws IllegalArgumentException if the value contains reserved characters
+     */
+    public static void checkValue(String value) {
+        if (value.isEmpty() || value.indexOf(MARKER) >= 0 || value.indexOf(VALUE_SEP) >= 0) {
+            throw new IllegalArgumentException("invalid filter value: " + value);
+        }
+    }
+
+    /**
+     * Checks that the given sampling options can be used in a filter.
+     *
+     * @param every keep one of every given number of messages
+     * @param rate the maximum number of messages per second
+     * @throws IllegalArgumentException if the options are not valid
+     */
+    public static void checkSampling(int every, double rate) {
+        if (every < 1) {
+            throw new IllegalArgumentException("invalid sampling interval: " + every);
+        }
+        if (!(rate >= 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("invalid sampling rate: " + rate);
+        }
+    }
+
+    private static FieldDescriptor field(String name) {
+        FieldDescriptor field = xMsgMeta.getDescriptor().findFieldByName(name);
+        if (field == null) {
+            throw new IllegalArgumentException("invalid metadata field: " + name);
+        }
+        return field;
+    }
+
+    /**
+     * Checks if the given metadata passes the filter.
+     *
+     * @param meta the metadata of a message
+     * @return true if all the fields have accepted values
+     */
+    public boolean matches(xMsgMeta meta) {
+        for (Map.Entry<FieldDescriptor, Set<String>> e : fields.entrySet()) {
+            FieldDescriptor field = e.getKey();
+            if (!meta.hasField(field)) {
+                return false;
+            }
+            Object value = meta.getField(field);
+            String str = value instanceof EnumValueDescriptor
+                    ? ((EnumValueDescriptor) value).getName()
+                    : String.valueOf(value);
+            if (!e.getValue().contains(str)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the topic of the filtered messages.
+     *
+     * @return the topic of the filter
+     */
+    public String topic() {
+        return topic;
+    }
+
+    /**
+     * Gets the accepted values of every field.
+     *
+     * @return the accepted values, by field name
+     */
+    public Map<String, Set<String>> values() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Gets how many messages that pass the conditions are received for one
+     * that is sent to the subscriber.
+     *
+     * @return N if one of every N messages is sent, or 1 to send all
+     */
+    public int every() {
+        return every;
+    }
+
+    /**
+     * Gets the maximum rate of the messages sent to the subscriber.
+     *
+     * @return the maximum number of messages per second, or 0 for no limit
+     */
+    public double rate() {
+        return rate;
+    }
+
+    /**
+     * Checks if the filter samples the messages.
+     *
+     * @return true if not all the messages that pass the conditions are sent
+     */
+    public boolean isSampled() {
+        return every > 1 || rate > 0;
+    }
+
+    /**
+     * Gets the key that subscribers must use to receive the filtered messages.
+     * Equal filters always have the same key.
+     *
+     * @return the subscription key of the filter
+     */
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return key.equals(((MetaFilter) obj).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return key.substring(1).replace(MARKER, ' ').replace(VALUE_SEP, ',');
+    }
+}
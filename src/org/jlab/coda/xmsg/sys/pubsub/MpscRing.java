@@ -0,0 +1,156 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.pubsub;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free queue for many producers and a single consumer.
+ * <p>
+ * The items are stored in a fixed ring of slots. A producer claims the next
+ * slot by advancing the producer index with a CAS, only if the slot was
+ * already released by the consumer, and then publishes the item into the
+ * slot. The consumer takes the items in order, and a claimed slot which is
+ * still empty means that its producer has not finished publishing it yet.
+ * No memory is allocated to add or remove the items.
+ * <p>
+ * {@link #offer} can be called by any thread, but {@link #poll} and
+ * {@link #drain} must be called by a single consumer thread.
+ *
+ * @param <T> the type of the queued items
+ */
+public class MpscRing<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity the maximum number of items (rounded up to a power of two)
+     */
+    public MpscRing(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Adds an item to the ring, if it is not full.
+     *
+     * @param item the item to be queued
+     * @return false if the ring is full
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException("null item");
+        }
+        long index;
+        do {
+            index = producerIndex.get();
+            if (index - consumerIndex.get() > mask) {
+                return false;
+            }
+        } while (!producerIndex.compareAndSet(index, index + 1));
+        slots.set((int) index & mask, item);
+        return true;
+    }
+
+    /**
+     * Removes the oldest item of the ring.
+     *
+     * @return the removed item, or null if the ring is empty
+     */
+    public T poll() {
+        long index = consumerIndex.get();
+        int slot = (int) index & mask;
+        T item = slots.get(slot);
+        if (item == null) {
+            if (index == producerIndex.get()) {
+                return null;
+            }
+            // the slot is claimed but not published yet
+            do {
+                item = slots.get(slot);
+            } while (item == null);
+        }
+        slots.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return item;
+    }
+
+    /**
+     * Removes all the items of the ring, in order.
+     *
+     * @param action the action to run on every removed item
+     * @return the number of removed items
+     */
+    public int drain(Consumer<T> action) {
+        int count = 0;
+        T item;
+        while ((item = poll()) != null) {
+            action.accept(item);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if the ring has no items.
+     *
+     * @return true if the ring is empty
+     */
+    public boolean isEmpty() {
+        return consumerIndex.get() == producerIndex.get();
+    }
+
+    /**
+     * Returns the current number of items in the ring.
+     *
+     * @return the number of queued items
+     */
+    public int size() {
+        long consumed = consumerIndex.get();
+        return (int) (producerIndex.get() - consumed);
+    }
+
+    /**
+     * Returns the maximum number of items in the ring.
+     *
+     * @return the capacity of the ring
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -22,6 +22,7 @@
 
 package org.jlab.coda.xmsg.sys.pubsub;
 
+import org.jlab.coda.xmsg.core.xMsgAsyncPolicy;
 import org.jlab.coda.xmsg.core.xMsgConstants;
 import org.jlab.coda.xmsg.core.xMsgUtil;
 import org.jlab.coda.xmsg.sys.util.Environment;
@@ -62,6 +63,15 @@ public final class xMsgConnectionSetup {
         private boolean checkConnection;
         private boolean checkSubscription;
 
+        private boolean preferIpc;
+
+        private long heartbeatTimeout;
+
+        private boolean threadAffineConnections;
+
+        private int asyncQueueSize;
+        private xMsgAsyncPolicy asyncPolicy;
+
         private Builder() {
             final long postConSleep = Environment.getLong("XMSG_POST_CONNECTION_SLEEP", 0);
             final long postSubSleep = Environment.getLong("XMSG_POST_SUBSCRIPTION_SLEEP", 10);
@@ -79,6 +89,15 @@ public final class xMsgConnectionSetup {
 
             checkConnection = !Environment.isDefined("XMSG_NO_CHECK_CONNECTION");
             checkSubscription = !Environment.isDefined("XMSG_NO_CHECK_SUBSCRIPTION");
+
+            preferIpc = Environment.isDefined("XMSG_PREFER_IPC");
+
+            heartbeatTimeout = Environment.getLong("XMSG_HEARTBEAT_TIMEOUT", 0);
+
+            threadAffineConnections = Environment.isDefined("XMSG_THREAD_AFFINE_CONNECTIONS");
+
+            asyncQueueSize = 0;
+            asyncPolicy = xMsgAsyncPolicy.BLOCK;
         }
 
         /**
@@ -186,6 +205,79 @@ public final class xMsgConnectionSetup {
             return this;
         }
 
+        /**
+         * Sets if the proxies running on the same node must be reached with
+         * IPC instead of TCP. The proxies must be listening on IPC endpoints.
+         * <p>
+         * The proxies that use the same context of the connection are always
+         * reached with INPROC.
+         *
+         * @param flag if true, the local proxies will be reached with IPC
+         * @return this builder
+         */
+        public Builder preferIpc(boolean flag) {
+            this.preferIpc = flag;
+            return this;
+        }
+
+        /**
+         * Sets the time without heartbeats after which a proxy is considered
+         * down. The subscriptions and the publishers track the heartbeats
+         * of the proxies they use, and new connections to a proxy that is
+         * down fail immediately, instead of queueing the messages until the
+         * proxy is back. The timeout should be a few times longer than the
+         * heartbeat interval of the proxies.
+         *
+         * @param timeout the time to wait, in milliseconds,
+         *                or zero to not track the heartbeats
+         * @return this builder
+         * @see org.jlab.coda.xmsg.sys.xMsgProxySetup.Builder#withHeartbeatInterval
+         */
+        public Builder withHeartbeatTimeout(long timeout) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("invalid timeout: " + timeout);
+            }
+            this.heartbeatTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets if the publisher connections must be cached by thread.
+         * A released connection can only be reused by the same thread,
+         * and every thread keeps its own cache, so the publishing threads
+         * do not contend on a shared pool. The connections cached by a thread
+         * are closed after the thread ends, when a new thread uses the pool.
+         *
+         * @param flag if true, the connections will be cached by thread
+         * @return this builder
+         */
+        public Builder threadAffineConnections(boolean flag) {
+            this.threadAffineConnections = flag;
+            return this;
+        }
+
+        /**
+         * Sets if the messages must be published asynchronously.
+         * The publishing threads serialize the messages and add them to a
+         * bounded lock-free queue, and a single background thread for every
+         * proxy sends the queued messages through a single socket.
+         * When the queue is full, the given policy is applied.
+         *
+         * @param queueSize the maximum number of queued messages by proxy,
+         *                  or zero to publish with the calling thread
+         * @param policy the action when the queue is full
+         * @return this builder
+         */
+        public Builder withAsyncPublishing(int queueSize, xMsgAsyncPolicy policy) {
+            if (queueSize < 0) {
+                throw new IllegalArgumentException("invalid queue size: " + queueSize);
+            }
+            Objects.requireNonNull(policy, "null async policy");
+            this.asyncQueueSize = queueSize;
+            this.asyncPolicy = policy;
+            return this;
+        }
+
         /**
          * Creates the setup.
          *
@@ -199,7 +291,12 @@ public final class xMsgConnectionSetup {
                                            connectionTimeout,
                                            subscriptionTimeout,
                                            checkConnection,
-                                           checkSubscription);
+                                           checkSubscription,
+                                           preferIpc,
+                                           heartbeatTimeout,
+                                           threadAffineConnections,
+                                           asyncQueueSize,
+                                           asyncPolicy);
         }
     }
 
@@ -216,6 +313,15 @@ public final class xMsgConnectionSetup {
     private final boolean checkConnection;
     private final boolean checkSubscription;
 
+    private final boolean preferIpc;
+
+    private final long heartbeatTimeout;
+
+    private final boolean threadAffineConnections;
+
+    private final int asyncQueueSize;
+    private final xMsgAsyncPolicy asyncPolicy;
+
 
     // checkstyle.off: ParameterNumber
     private xMsgConnectionSetup(Consumer<Socket> preConnection,
@@ -225,7 +331,12 @@ public final class xMsgConnectionSetup {
                                 long connectionTimeout,
                                 long subscriptionTimeout,
                                 boolean checkConnection,
-                                boolean checkSubscription) {
+                                boolean checkSubscription,
+                                boolean preferIpc,
+                                long heartbeatTimeout,
+                                boolean threadAffineConnections,
+                                int asyncQueueSize,
+                                xMsgAsyncPolicy asyncPolicy) {
         this.preConnection = preConnection;
         this.postConnection = postConnection;
         this.preSubscription = preSubscription;
@@ -234,6 +345,11 @@ public final class xMsgConnectionSetup {
         this.subscriptionTimeout = subscriptionTimeout;
         this.checkConnection = checkConnection;
         this.checkSubscription = checkSubscription;
+        this.preferIpc = preferIpc;
+        this.heartbeatTimeout = heartbeatTimeout;
+        this.threadAffineConnections = threadAffineConnections;
+        this.asyncQueueSize = asyncQueueSize;
+        this.asyncPolicy = asyncPolicy;
     }
     // checkstyle.on: ParameterNumber
 
@@ -307,4 +423,51 @@ public final class xMsgConnectionSetup {
     public boolean checkSubscription() {
         return checkSubscription;
     }
+
+    /**
+     * Gets if the proxies on the same node must be reached with IPC.
+     *
+     * @return true if IPC is preferred over TCP for local proxies
+     */
+    public boolean preferIpc() {
+        return preferIpc;
+    }
+
+    /**
+     * Gets the time without heartbeats after which a proxy is considered down.
+     *
+     * @return the timeout, in milliseconds, or zero if the heartbeats
+     *         are not tracked
+     */
+    public long heartbeatTimeout() {
+        return heartbeatTimeout;
+    }
+
+    /**
+     * Gets if the publisher connections are cached by thread.
+     *
+     * @return true if a released connection is reused only by the same thread
+     */
+    public boolean threadAffineConnections() {
+        return threadAffineConnections;
+    }
+
+    /**
+     * Gets the size of the queue of the asynchronous publishers.
+     *
+     * @return the maximum number of queued messages by proxy,
+     *         or zero if the messages are published synchronously
+     */
+    public int asyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+    /**
+     * Gets the action of the asynchronous publishers when the queue is full.
+     *
+     * @return the policy for a full queue
+     */
+    public xMsgAsyncPolicy asyncPolicy() {
+        return asyncPolicy;
+    }
 }
@@ -25,9 +25,25 @@ package org.jlab.coda.xmsg.sys.pubsub;
 public final class xMsgCtrlConstants {
 
     public static final String CTRL_TOPIC = "xmsg:control";
+    public static final String HEARTBEAT_TOPIC = "xmsg:heartbeat";
     public static final String CTRL_CONNECT = "pub";
     public static final String CTRL_SUBSCRIBE = "sub";
     public static final String CTRL_REPLY = "rep";
+    public static final String CTRL_SCHEDULE = "schedule";
+    public static final String CTRL_STATS = "stats";
+    public static final String CTRL_TOP = "top";
+    public static final String CTRL_SUBSCRIBED = "subscribed";
+    public static final String CTRL_LISTENERS = "listeners";
+    public static final String CTRL_LIMIT = "limit";
+    public static final String CTRL_LIMIT_PUBLISHER = "publisher";
+    public static final String CTRL_LIMIT_TOPIC = "topic";
+    public static final String CTRL_DURABLE = "durable";
+    public static final String CTRL_ACK = "ack";
+    public static final String CTRL_UNSUBSCRIBE = "unsub";
+    public static final String CTRL_JOIN = "join";
+    public static final String CTRL_CREDIT = "credit";
+    public static final String CTRL_LEAVE = "leave";
+    public static final String CTRL_ERROR = "error";
 
     private xMsgCtrlConstants() { }
 }
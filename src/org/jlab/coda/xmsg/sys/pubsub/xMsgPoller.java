@@ -27,19 +27,30 @@ import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMQException;
 
 import java.io.Closeable;
+import java.nio.channels.SelectableChannel;
 
 public class xMsgPoller implements Closeable {
 
+    final xMsgProxyDriver connection;
     final Socket subSocket;
     final Poller poller;
 
     public xMsgPoller(xMsgProxyDriver connection) {
+        this.connection = connection;
         this.subSocket = connection.getSocket();
-        this.poller = connection.getContext().poller(1);
+        this.poller = connection.getContext().poller(2);
         this.poller.register(subSocket, Poller.POLLIN);
+        // the poll returns early when the connection must be flushed
+        SelectableChannel signal = connection.signal();
+        if (signal != null) {
+            this.poller.register(signal, Poller.POLLIN);
+        }
     }
 
     public boolean poll(long timeout) {
+        if (connection.hasPending()) {
+            return true;
+        }
         int rc = poller.poll(timeout);
         if (rc < 0) {
             throw new ZMQException("error polling subscription", subSocket.base().errno());
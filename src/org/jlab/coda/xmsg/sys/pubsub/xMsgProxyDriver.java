@@ -25,6 +25,8 @@ package org.jlab.coda.xmsg.sys.pubsub;
 import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgProxyAddress;
 import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.sys.proxy.SubscriptionTrie;
 import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQ.Context;
@@ -33,34 +35,85 @@ import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMQException;
 import org.zeromq.ZMsg;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
 public abstract class xMsgProxyDriver {
 
     protected final xMsgProxyAddress address;
+    protected final xMsgTransport transport;
     protected final Socket socket;
 
     private final xMsgSocketFactory factory;
 
+    // messages received before the subscription was confirmed
+    private final Deque<ZMsg> pending = new ArrayDeque<>();
+
 
     public static xMsgProxyDriver publisher(xMsgProxyAddress address, xMsgSocketFactory factory)
             throws xMsgException {
-        return new Pub(address, factory);
+        return new Pub(address, xMsgTransport.TCP, factory);
+    }
+
+    public static xMsgProxyDriver publisher(xMsgProxyAddress address,
+                                            xMsgTransport transport,
+                                            xMsgSocketFactory factory)
+            throws xMsgException {
+        return new Pub(address, transport, factory);
     }
 
     public static xMsgProxyDriver subscriber(xMsgProxyAddress address, xMsgSocketFactory factory)
             throws xMsgException {
-        return new Sub(address, factory);
+        return new Sub(address, xMsgTransport.TCP, factory);
+    }
+
+    public static xMsgProxyDriver subscriber(xMsgProxyAddress address,
+                                             xMsgTransport transport,
+                                             xMsgSocketFactory factory)
+            throws xMsgException {
+        return new Sub(address, transport, factory);
+    }
+
+    public static xMsgProxyDriver durable(xMsgProxyAddress address,
+                                          String name,
+                                          xMsgSocketFactory factory)
+            throws xMsgException {
+        return new Durable(address, name, factory);
+    }
+
+    public static xMsgProxyDriver group(xMsgProxyAddress address,
+                                        String name,
+                                        xMsgSocketFactory factory)
+            throws xMsgException {
+        return new Group(address, name, factory);
     }
 
 
-    private xMsgProxyDriver(int type, xMsgProxyAddress address, xMsgSocketFactory factory)
+    private xMsgProxyDriver(int type,
+                            xMsgProxyAddress address,
+                            xMsgTransport transport,
+                            xMsgSocketFactory factory)
             throws xMsgException {
         this.address = address;
+        this.transport = transport;
         this.socket = factory.createSocket(type);
         this.factory = factory;
     }
 
     public void connect() throws xMsgException {
-        factory.connectSocket(socket, address.host(), getPort());
+        factory.connectSocket(socket, transport, address.host(), getPort());
     }
 
     abstract int getPort();
@@ -107,8 +160,15 @@ public abstract class xMsgProxyDriver {
         socket.subscribe(topic.getBytes());
     }
 
+    public void subscribe(List<String> topics) {
+        topics.forEach(this::subscribe);
+    }
+
     public boolean checkSubscription(String topic, long timeout) throws xMsgException {
-        Socket pubSocket = createPubSocket();
+        // the request goes to the control socket of the proxy, not to the
+        // publishers port, so it is not queued behind the published data
+        String identity = IdentityGenerator.getCtrlId();
+        Socket ctrlSocket = createControlSocket(identity);
         try (Poller poller = factory.context().poller(1)) {
             poller.register(getSocket(), Poller.POLLIN);
 
@@ -117,15 +177,18 @@ public abstract class xMsgProxyDriver {
             while (totalTime < timeout) {
                 try {
                     ZMsg ctrlMsg = new ZMsg();
-                    ctrlMsg.add(xMsgCtrlConstants.CTRL_TOPIC + ":sub");
                     ctrlMsg.add(xMsgCtrlConstants.CTRL_SUBSCRIBE);
                     ctrlMsg.add(topic);
-                    ctrlMsg.send(pubSocket);
+                    ctrlMsg.send(ctrlSocket);
 
                     poller.poll(pollTimeout);
                     if (poller.pollin(0)) {
-                        ZMsg replyMsg = ZMsg.recvMsg(getSocket());
-                        if (replyMsg.size() == 2) {
+                        ZMsg replyMsg;
+                        while ((replyMsg = ZMsg.recvMsg(getSocket(), false)) != null) {
+                            if (replyMsg.size() != 2) {
+                                pending.add(replyMsg);
+                                continue;
+                            }
                             ZFrame idFrame = replyMsg.pop();
                             ZFrame typeFrame = replyMsg.pop();
 
@@ -143,7 +206,7 @@ public abstract class xMsgProxyDriver {
             }
             return false;
         } finally {
-            factory.closeQuietly(pubSocket);
+            factory.closeQuietly(ctrlSocket);
         }
     }
 
@@ -151,12 +214,95 @@ public abstract class xMsgProxyDriver {
         socket.unsubscribe(topic.getBytes());
     }
 
+    /**
+     * Gets the action that marks the last received message as processed,
+     * if the connection must report it to the proxy.
+     * It must be called from the thread that receives the messages,
+     * right after receiving the message, but the action can run on any thread.
+     *
+     * @return the action to run when the message has been processed,
+     *         or null if the message does not need to be reported
+     */
+    public Runnable received() {
+        return null;
+    }
+
+    Signal openSignal() throws xMsgException {
+        try {
+            return Signal.open();
+        } catch (IOException e) {
+            factory.closeQuietly(socket);
+            throw new xMsgException("could not create connection signal", e);
+        }
+    }
+
+    /**
+     * Handles the pending state of the connection.
+     * The subscriber connections send to the proxy the state of the received
+     * messages, and the publisher connections read the pending subscription
+     * updates from the proxy.
+     * It must be called from the thread that uses the connection.
+     */
+    public void flush() {
+        // nothing to do by default
+    }
+
+    /**
+     * Gets a channel that becomes readable when there is pending state
+     * to be {@link #flush flushed}, so the receiving thread can poll it
+     * together with the socket.
+     *
+     * @return the channel, or null if the connection never needs a flush
+     */
+    public SelectableChannel signal() {
+        return null;
+    }
+
+    /**
+     * Checks if the proxy has any subscriber for the given topic.
+     * Only the publisher connections know the subscriptions of the proxy,
+     * the other connections always return true.
+     *
+     * @param topic the topic to be published
+     * @return false if no subscriber would receive a message of the topic
+     */
+    public boolean hasSubscribers(String topic) {
+        return true;
+    }
+
     public void send(ZMsg msg) {
         msg.send(socket);
     }
 
+    /**
+     * Sends a message with the data in a buffer as the last frame.
+     * The buffer is not copied, and its content must not be modified
+     * until the message is actually sent.
+     *
+     * @param header all the frames of the message but the data
+     * @param data the buffer with the data
+     */
+    public void send(ZMsg header, ByteBuffer data) {
+        for (ZFrame frame : header) {
+            socket.send(frame.getData(), ZMQ.SNDMORE);
+        }
+        socket.sendByteBuffer(data.duplicate(), 0);
+    }
+
     public ZMsg recv() {
-        return ZMsg.recvMsg(socket);
+        return recv(true);
+    }
+
+    public ZMsg recv(boolean wait) {
+        ZMsg msg = pending.poll();
+        if (msg != null) {
+            return msg;
+        }
+        return ZMsg.recvMsg(socket, wait);
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
     }
 
     public void close() {
@@ -172,6 +318,10 @@ public abstract class xMsgProxyDriver {
         return address;
     }
 
+    public xMsgTransport getTransport() {
+        return transport;
+    }
+
     public Socket getSocket() {
         return socket;
     }
@@ -181,10 +331,26 @@ public abstract class xMsgProxyDriver {
     }
 
 
+    /**
+     * Publishes messages to the proxy.
+     * <p>
+     * The proxy forwards the subscriptions of its subscribers to the
+     * publishers, so the socket is an XPUB to read them and keep the
+     * subscribed topics, which can be checked before creating a message.
+     * The subscriptions are read when they are checked, and after every
+     * {@link #UPDATE_INTERVAL} sent messages, so they do not pile up
+     * in the socket.
+     */
     static class Pub extends xMsgProxyDriver {
 
-        Pub(xMsgProxyAddress address, xMsgSocketFactory factory) throws xMsgException {
-            super(ZMQ.PUB, address, factory);
+        static final int UPDATE_INTERVAL = 64;
+
+        private final SubscriptionTrie subscriptions = new SubscriptionTrie();
+        private int sent;
+
+        Pub(xMsgProxyAddress address, xMsgTransport transport, xMsgSocketFactory factory)
+                throws xMsgException {
+            super(ZMQ.XPUB, address, transport, factory);
         }
 
         @Override
@@ -192,6 +358,43 @@ public abstract class xMsgProxyDriver {
             return address.pubPort();
         }
 
+        @Override
+        public boolean hasSubscribers(String topic) {
+            update();
+            return subscriptions.hasSubscribers(topic);
+        }
+
+        @Override
+        public void flush() {
+            update();
+        }
+
+        @Override
+        public void send(ZMsg msg) {
+            super.send(msg);
+            sent();
+        }
+
+        @Override
+        public void send(ZMsg header, ByteBuffer data) {
+            super.send(header, data);
+            sent();
+        }
+
+        private void sent() {
+            if (++sent == UPDATE_INTERVAL) {
+                sent = 0;
+                update();
+            }
+        }
+
+        private void update() {
+            byte[] frame;
+            while ((frame = socket.recv(ZMQ.DONTWAIT)) != null) {
+                subscriptions.subscription(frame);
+            }
+        }
+
         @Override
         public boolean checkSubscription(String topic, long timeout) {
             throw new UnsupportedOperationException("PUB socket cannot subscribe");
@@ -201,8 +404,9 @@ public abstract class xMsgProxyDriver {
 
     static class Sub extends xMsgProxyDriver {
 
-        Sub(xMsgProxyAddress address, xMsgSocketFactory factory) throws xMsgException {
-            super(ZMQ.SUB, address, factory);
+        Sub(xMsgProxyAddress address, xMsgTransport transport, xMsgSocketFactory factory)
+                throws xMsgException {
+            super(ZMQ.SUB, address, transport, factory);
         }
 
         @Override
@@ -217,22 +421,428 @@ public abstract class xMsgProxyDriver {
     }
 
 
-    private Socket createControlSocket(String identity) throws xMsgException {
-        Socket socket = factory.createSocket(ZMQ.DEALER);
-        try {
-            socket.setIdentity(identity.getBytes());
-            factory.connectSocket(socket, address.host(), address.pubPort() + 2);
-            return socket;
-        } catch (Exception e) {
-            factory.closeQuietly(socket);
-            throw e;
+    /**
+     * Receives the messages of a durable subscription from the proxy.
+     * <p>
+     * The messages are replayed by the proxy from its log, starting after the
+     * last offset committed with the subscription name. Every message is
+     * preceded by its sequence number. The offsets are committed back to the
+     * proxy when the messages have been processed, in batches of up to
+     * {@link #ACK_BATCH} messages. The callbacks can complete out of order,
+     * so the committed offset is the one before the oldest message still
+     * being processed.
+     */
+    static class Durable extends xMsgProxyDriver {
+
+        static final int ACK_BATCH = 100;
+
+        private static final Logger LOGGER = Logger.getLogger("xMsgProxy");
+
+        private final String name;
+        private final List<String> topics = new ArrayList<>();
+        private final Signal signal;
+
+        private final NavigableSet<Long> processing = new ConcurrentSkipListSet<>();
+        private final AtomicInteger completed = new AtomicInteger();
+
+        private long lastSequence;
+        private long receivedSequence = -1;
+        private boolean active;
+
+        Durable(xMsgProxyAddress address, String name, xMsgSocketFactory factory)
+                throws xMsgException {
+            super(ZMQ.DEALER, address, xMsgTransport.TCP, factory);
+            this.name = name;
+            this.signal = openSignal();
+        }
+
+        @Override
+        int getPort() {
+            return address.pubPort() + 5;
+        }
+
+        @Override
+        public boolean checkConnection(long timeout) {
+            return true;
+        }
+
+        @Override
+        public void subscribe(String topic) {
+            subscribe(Collections.singletonList(topic));
+        }
+
+        @Override
+        public void subscribe(List<String> topics) {
+            this.topics.addAll(topics);
+            sendRequest();
+            active = true;
+        }
+
+        private void sendRequest() {
+            ZMsg request = new ZMsg();
+            request.add(xMsgCtrlConstants.CTRL_DURABLE);
+            request.add(name);
+            topics.forEach(request::add);
+            request.send(socket);
+        }
+
+        @Override
+        public boolean checkSubscription(String topic, long timeout) throws xMsgException {
+            try (Poller poller = getContext().poller(1)) {
+                poller.register(socket, Poller.POLLIN);
+
+                long pollTimeout = timeout < 100 ? timeout : 100;
+                long totalTime = 0;
+                while (totalTime < timeout) {
+                    try {
+                        poller.poll(pollTimeout);
+                        if (poller.pollin(0)) {
+                            ZMsg replyMsg;
+                            while ((replyMsg = ZMsg.recvMsg(socket, false)) != null) {
+                                if (replyMsg.size() != 2) {
+                                    super.pending.add(replyMsg);
+                                    continue;
+                                }
+                                String type = replyMsg.popString();
+                                String id = replyMsg.popString();
+                                if (type.equals(xMsgCtrlConstants.CTRL_DURABLE)
+                                        && id.equals(name)) {
+                                    return true;
+                                }
+                            }
+                        } else {
+                            // the proxy could be starting; the request is idempotent
+                            sendRequest();
+                        }
+                        totalTime += pollTimeout;
+                    } catch (ZMQException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+            if (!active) {
+                return;
+            }
+            ack();
+            ZMsg request = new ZMsg();
+            request.add(xMsgCtrlConstants.CTRL_UNSUBSCRIBE);
+            request.add(name);
+            request.send(socket);
+            active = false;
+        }
+
+        @Override
+        public ZMsg recv(boolean wait) {
+            receivedSequence = -1;
+            ZMsg msg = super.recv(wait);
+            if (msg == null || msg.size() != 4) {
+                return msg;
+            }
+            String frame = msg.popString();
+            try {
+                lastSequence = Long.parseLong(frame);
+            } catch (NumberFormatException e) {
+                // the message is delivered, but it cannot be acknowledged
+                LOGGER.warning("invalid durable sequence: " + frame);
+                return msg;
+            }
+            processing.add(lastSequence);
+            receivedSequence = lastSequence;
+            return msg;
+        }
+
+        @Override
+        public Runnable received() {
+            long sequence = receivedSequence;
+            if (sequence < 0) {
+                return null;
+            }
+            receivedSequence = -1;
+            return () -> done(sequence);
+        }
+
+        private void done(long sequence) {
+            processing.remove(sequence);
+            completed.incrementAndGet();
+            signal.raise();
+        }
+
+        @Override
+        public SelectableChannel signal() {
+            return signal.channel();
+        }
+
+        @Override
+        public void flush() {
+            signal.clear();
+            int count = completed.get();
+            if (count == 0 || !active) {
+                return;
+            }
+            boolean more = hasPending() || (socket.getEvents() & Poller.POLLIN) != 0;
+            if (count >= ACK_BATCH || !more) {
+                ack();
+            }
+        }
+
+        private void ack() {
+            int count = completed.getAndSet(0);
+            if (count == 0) {
+                return;
+            }
+            // the messages before the oldest unfinished one are all processed
+            Long oldest = processing.ceiling(Long.MIN_VALUE);
+            long sequence = oldest != null ? oldest - 1 : lastSequence;
+            ZMsg ack = new ZMsg();
+            ack.add(xMsgCtrlConstants.CTRL_ACK);
+            ack.add(name);
+            ack.add(Long.toString(sequence));
+            ack.add(Integer.toString(count));
+            ack.send(socket);
+        }
+
+        @Override
+        public void close() {
+            signal.close();
+            super.close();
+        }
+
+        @Override
+        public void close(int linger) {
+            signal.close();
+            super.close(linger);
+        }
+    }
+
+
+    /**
+     * Receives a share of the messages of a work-queue group from the proxy.
+     * <p>
+     * The messages of the group are load-balanced by the proxy among the
+     * members with credit. The member joins the group with {@link #CREDIT}
+     * messages of credit, and every processed message grants one more credit,
+     * so a member never has more than {@link #CREDIT} unfinished messages.
+     * <p>
+     * The callbacks can complete on any thread, but the credit must be sent
+     * by the receiving thread, so the completed messages raise a
+     * {@link #signal() signal} that wakes it up.
+     */
+    static class Group extends xMsgProxyDriver {
+
+        static final int CREDIT = 10;
+
+        private final String name;
+        private final List<String> topics = new ArrayList<>();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final Signal signal;
+
+        private boolean active;
+
+        Group(xMsgProxyAddress address, String name, xMsgSocketFactory factory)
+                throws xMsgException {
+            super(ZMQ.DEALER, address, xMsgTransport.TCP, factory);
+            this.name = name;
+            this.signal = openSignal();
+        }
+
+        @Override
+        int getPort() {
+            return address.pubPort() + 6;
+        }
+
+        @Override
+        public boolean checkConnection(long timeout) {
+            return true;
+        }
+
+        @Override
+        public void subscribe(String topic) {
+            subscribe(Collections.singletonList(topic));
+        }
+
+        @Override
+        public void subscribe(List<String> topics) {
+            this.topics.addAll(topics);
+            sendRequest();
+            active = true;
+        }
+
+        private void sendRequest() {
+            ZMsg request = new ZMsg();
+            request.add(xMsgCtrlConstants.CTRL_JOIN);
+            request.add(name);
+            request.add(Integer.toString(CREDIT));
+            topics.forEach(request::add);
+            request.send(socket);
+        }
+
+        @Override
+        public boolean checkSubscription(String topic, long timeout) throws xMsgException {
+            try (Poller poller = getContext().poller(1)) {
+                poller.register(socket, Poller.POLLIN);
+
+                long pollTimeout = timeout < 100 ? timeout : 100;
+                long totalTime = 0;
+                while (totalTime < timeout) {
+                    try {
+                        poller.poll(pollTimeout);
+                        if (poller.pollin(0)) {
+                            ZMsg replyMsg;
+                            while ((replyMsg = ZMsg.recvMsg(socket, false)) != null) {
+                                if (replyMsg.size() != 2) {
+                                    super.pending.add(replyMsg);
+                                    continue;
+                                }
+                                String type = replyMsg.popString();
+                                String id = replyMsg.popString();
+                                if (type.equals(xMsgCtrlConstants.CTRL_JOIN)
+                                        && id.equals(name)) {
+                                    return true;
+                                }
+                            }
+                        } else {
+                            // the proxy could be starting; the request is idempotent
+                            sendRequest();
+                        }
+                        totalTime += pollTimeout;
+                    } catch (ZMQException e) {
+                        e.printStackTrace();
+                    }
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public void unsubscribe(String topic) {
+            if (!active) {
+                return;
+            }
+            ZMsg request = new ZMsg();
+            request.add(xMsgCtrlConstants.CTRL_LEAVE);
+            request.add(name);
+            request.send(socket);
+            active = false;
+        }
+
+        @Override
+        public Runnable received() {
+            return this::done;
+        }
+
+        private void done() {
+            completed.incrementAndGet();
+            signal.raise();
+        }
+
+        @Override
+        public SelectableChannel signal() {
+            return signal.channel();
+        }
+
+        @Override
+        public void flush() {
+            signal.clear();
+            int credit = completed.getAndSet(0);
+            if (credit == 0 || !active) {
+                return;
+            }
+            ZMsg request = new ZMsg();
+            request.add(xMsgCtrlConstants.CTRL_CREDIT);
+            request.add(name);
+            request.add(Integer.toString(credit));
+            request.send(socket);
+        }
+
+        @Override
+        public void close() {
+            signal.close();
+            super.close();
+        }
+
+        @Override
+        public void close(int linger) {
+            signal.close();
+            super.close(linger);
         }
     }
 
-    private Socket createPubSocket() throws xMsgException {
-        Socket socket = factory.createSocket(ZMQ.PUB);
+
+    /**
+     * Wakes up the thread that receives the messages of a connection,
+     * when the messages are processed by other threads.
+     * <p>
+     * The signal is a non-blocking pipe, polled with the socket.
+     * It is raised after the pending state is updated, and it is cleared by
+     * the receiving thread before reading that state, so an update is never
+     * missed, and the pipe is written at most once between two reads.
+     */
+    private static final class Signal {
+
+        private static final byte[] WAKEUP = {1};
+
+        private final Pipe pipe;
+        private final AtomicBoolean raised = new AtomicBoolean();
+        private final ByteBuffer drain = ByteBuffer.allocate(16);
+
+        private Signal(Pipe pipe) {
+            this.pipe = pipe;
+        }
+
+        static Signal open() throws IOException {
+            Pipe pipe = Pipe.open();
+            pipe.sink().configureBlocking(false);
+            pipe.source().configureBlocking(false);
+            return new Signal(pipe);
+        }
+
+        SelectableChannel channel() {
+            return pipe.source();
+        }
+
+        void raise() {
+            if (raised.compareAndSet(false, true)) {
+                try {
+                    pipe.sink().write(ByteBuffer.wrap(WAKEUP));
+                } catch (IOException e) {
+                    // the connection is closed
+                }
+            }
+        }
+
+        void clear() {
+            try {
+                drain.clear();
+                while (pipe.source().read(drain) > 0) {
+                    drain.clear();
+                }
+            } catch (IOException e) {
+                // the connection is closed
+            }
+            raised.set(false);
+        }
+
+        void close() {
+            try {
+                pipe.sink().close();
+                pipe.source().close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+
+    private Socket createControlSocket(String identity) throws xMsgException {
+        Socket socket = factory.createSocket(ZMQ.DEALER);
         try {
-            factory.connectSocket(socket, address.host(), address.pubPort());
+            socket.setIdentity(identity.getBytes());
+            factory.connectSocket(socket, transport, address.host(), address.pubPort() + 2);
             return socket;
         } catch (Exception e) {
             factory.closeQuietly(socket);
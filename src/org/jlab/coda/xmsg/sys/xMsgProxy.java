@@ -26,6 +26,11 @@ import static java.util.Arrays.asList;
 
 import java.io.PrintStream;
 import java.lang.reflect.Field;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,6 +40,24 @@ import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgContext;
 import org.jlab.coda.xmsg.net.xMsgProxyAddress;
 import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.sys.journal.JournalFormat;
+import org.jlab.coda.xmsg.sys.proxy.ControlLane;
+import org.jlab.coda.xmsg.sys.proxy.Distributor;
+import org.jlab.coda.xmsg.sys.proxy.DurableStore;
+import org.jlab.coda.xmsg.sys.proxy.Federation;
+import org.jlab.coda.xmsg.sys.proxy.HotTopics;
+import org.jlab.coda.xmsg.sys.proxy.MessageRelay;
+import org.jlab.coda.xmsg.sys.proxy.MessageSink;
+import org.jlab.coda.xmsg.sys.proxy.ProxyStats;
+import org.jlab.coda.xmsg.sys.proxy.RateLimiter;
+import org.jlab.coda.xmsg.sys.proxy.Scheduler;
+import org.jlab.coda.xmsg.sys.proxy.PipelinedForwarder;
+import org.jlab.coda.xmsg.sys.proxy.SubscriptionTrie;
+import org.jlab.coda.xmsg.sys.proxy.TrafficCapture;
+import org.jlab.coda.xmsg.sys.proxy.WorkQueues;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.RateLimit;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.SlowSubscriberPolicy;
 import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
 import org.jlab.coda.xmsg.sys.util.Environment;
 import org.jlab.coda.xmsg.sys.util.LogUtils;
@@ -43,11 +66,14 @@ import org.zeromq.ZContext;
 import org.zeromq.ZFrame;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMQException;
+import org.zeromq.ZMQ.Poller;
 import org.zeromq.ZMQ.Socket;
 import org.zeromq.ZMsg;
 import org.zeromq.ZThread;
 import org.zeromq.ZThread.IAttachedRunnable;
 
+import zmq.Msg;
+
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -55,12 +81,51 @@ import joptsimple.OptionSpec;
 
 /**
  * xMsg pub-sub proxy server.
- * This is a simple stateless message switch, i.e. a device that forwards
- * messages without inspecting them.
+ * All xMsg actors (publishers and subscribers) connect to the proxy,
+ * instead of to each other, so it is trivial to add more subscribers or
+ * publishers. The proxy forwards the messages from the publishers to the
+ * subscribers, and it inspects their topics and metadata as needed by the
+ * enabled features. See {@link xMsgProxySetup} for all the options.
+ * <p>
+ * The messages are processed in two stages. The frontend receives the
+ * messages and applies the
+ * {@link org.jlab.coda.xmsg.sys.proxy.ControlLane control lane} and the rate
+ * limits, and the backend, which owns the subscribers socket, sends them.
+ * By default both stages run on the same thread. Optionally, they run on
+ * separate threads connected by a bounded pipe. The backend handles all the
+ * features that need both the messages and the subscriptions:
+ * <ul>
+ * <li>the last-value cache, that replays the last message of every topic
+ *     to new subscriptions,
+ * <li>the metadata filters and the sampling of the filtered subscriptions,
+ * <li>the bounded queues of slow subscribers,
+ * <li>the messages scheduled for a later delivery time,
+ * <li>the capture of the published messages into a journal,
+ * <li>the heartbeats of the proxy.
+ * </ul>
+ * <p>
+ * The control requests are acknowledged before any other message, so they
+ * are not delayed by the forwarded data. The rate of the messages of every
+ * publisher and topic prefix can be limited, and the messages over the
+ * limits are discarded as soon as they are received.
  * <p>
- * The proxy simplifies the dynamic connection problems. All xMsg actors
- * (publishers and subscribers) connect to the proxy, instead of to each other.
- * It becomes trivial to add more subscribers or publishers.
+ * The proxy counts the forwarded traffic. The counters can be requested
+ * with {@link org.jlab.coda.xmsg.sys.proxy.ProxyAdmin ProxyAdmin}
+ * on the {@code pubPort + 3} control port, which can also change the rate
+ * limits while the proxy is running. The proxy also keeps the topics
+ * currently subscribed, so the subscribers of a topic can be requested
+ * without asking the registrar.
+ * <p>
+ * The proxy listens on TCP, and on INPROC for the actors that share its
+ * context. Optionally, it can also listen on IPC for the actors running on
+ * the same node. The other features use their own ports:
+ * <ul>
+ * <li>the federation with the proxies on other nodes, that bridges the
+ *     messages of selected topic domains, on the {@code pubPort + 4} port,
+ * <li>the durable subscriptions, replayed from a log of the messages
+ *     of the durable topics, on the {@code pubPort + 5} port,
+ * <li>the work-queue groups, if enabled, on the {@code pubPort + 6} port.
+ * </ul>
  *
  * @version 2.x
  */
@@ -68,6 +133,8 @@ public class xMsgProxy {
 
     private final xMsgProxyAddress addr;
     private final xMsgContext ctx;
+    private final ProxyStats stats = new ProxyStats();
+    private final RateLimiter limiter;
 
     private final Thread proxy;
     private final Thread controller;
@@ -84,6 +151,55 @@ public class xMsgProxy {
                     .withRequiredArg()
                     .ofType(Integer.class)
                     .defaultsTo(xMsgConstants.DEFAULT_PORT);
+            OptionSpec<Integer> ioThreadsSpec = parser.accepts("io-threads")
+                    .withRequiredArg()
+                    .ofType(Integer.class)
+                    .defaultsTo(1);
+            OptionSpec<Long> cacheSpec = parser.accepts("cache")
+                    .withRequiredArg()
+                    .ofType(Long.class)
+                    .defaultsTo(0L);
+            OptionSpec<String> peerSpec = parser.accepts("peer")
+                    .withRequiredArg();
+            OptionSpec<String> bridgeSpec = parser.accepts("bridge")
+                    .withRequiredArg();
+            OptionSpec<Integer> queueSpec = parser.accepts("queue")
+                    .withRequiredArg()
+                    .ofType(Integer.class)
+                    .defaultsTo(0);
+            OptionSpec<String> slowSpec = parser.accepts("slow")
+                    .withRequiredArg()
+                    .defaultsTo("drop");
+            OptionSpec<Integer> spillSpec = parser.accepts("spill")
+                    .withRequiredArg()
+                    .ofType(Integer.class);
+            OptionSpec<String> captureSpec = parser.accepts("capture")
+                    .withRequiredArg();
+            OptionSpec<Long> segmentSpec = parser.accepts("segment-size")
+                    .withRequiredArg()
+                    .ofType(Long.class)
+                    .defaultsTo(JournalFormat.DEFAULT_SEGMENT_SIZE);
+            OptionSpec<Integer> segmentsSpec = parser.accepts("segments")
+                    .withRequiredArg()
+                    .ofType(Integer.class)
+                    .defaultsTo(0);
+            OptionSpec<String> durableSpec = parser.accepts("durable")
+                    .withRequiredArg();
+            OptionSpec<String> durableTopicSpec = parser.accepts("durable-topic")
+                    .requiredIf(durableSpec)
+                    .withRequiredArg();
+            OptionSpec<Double> rateSpec = parser.accepts("rate-limit")
+                    .withRequiredArg()
+                    .ofType(Double.class);
+            OptionSpec<String> topicRateSpec = parser.accepts("topic-rate-limit")
+                    .withRequiredArg();
+            OptionSpec<Long> heartbeatSpec = parser.accepts("heartbeat")
+                    .withRequiredArg()
+                    .ofType(Long.class)
+                    .defaultsTo((long) xMsgConstants.HEARTBEAT_INTERVAL);
+            parser.accepts("pipeline");
+            parser.accepts("ipc");
+            parser.accepts("groups");
             parser.accepts("verbose");
             parser.acceptsAll(asList("h", "help")).forHelp();
             OptionSet options = parser.parse(args);
@@ -99,7 +215,52 @@ public class xMsgProxy {
             int port = options.valueOf(portSpec);
             xMsgProxyAddress address = new xMsgProxyAddress(host, port);
 
-            xMsgProxy proxy = new xMsgProxy(xMsgContext.getInstance(), address);
+            int ioThreads = options.valueOf(ioThreadsSpec);
+            if (ioThreads > 1) {
+                xMsgContext.getInstance().setIOThreads(ioThreads);
+            }
+
+            SlowSubscriberPolicy policy = SlowSubscriberPolicy.valueOf(
+                    options.valueOf(slowSpec).toUpperCase());
+
+            xMsgProxySetup.Builder builder = xMsgProxySetup.newBuilder()
+                    .withPipeline(options.has("pipeline"))
+                    .withLastValueCache(options.valueOf(cacheSpec))
+                    .withFederation(parsePeers(options.valuesOf(peerSpec)),
+                                    options.valuesOf(bridgeSpec))
+                    .withIpc(options.has("ipc"))
+                    .withWorkQueues(options.has("groups"))
+                    .withSubscriberQueue(options.valueOf(queueSpec), policy)
+                    .withHeartbeatInterval(options.valueOf(heartbeatSpec));
+            if (options.has(spillSpec)) {
+                builder.withSpillBuffer(options.valueOf(spillSpec));
+            }
+            if (options.has(captureSpec)) {
+                builder.withCapture(Paths.get(options.valueOf(captureSpec)))
+                       .withCaptureSegments(options.valueOf(segmentSpec),
+                                            options.valueOf(segmentsSpec));
+            }
+            if (options.has(durableSpec)) {
+                builder.withDurableTopics(Paths.get(options.valueOf(durableSpec)),
+                                          options.valuesOf(durableTopicSpec))
+                       .withDurableSegments(options.valueOf(segmentSpec),
+                                            options.valueOf(segmentsSpec));
+            }
+            if (options.has(rateSpec)) {
+                double rate = options.valueOf(rateSpec);
+                builder.withPublisherRateLimit(rate, defaultBurst(rate));
+            }
+            for (String limit : options.valuesOf(topicRateSpec)) {
+                int sep = limit.lastIndexOf('=');
+                if (sep < 0) {
+                    throw new IllegalArgumentException("invalid topic rate limit: " + limit);
+                }
+                double rate = Double.parseDouble(limit.substring(sep + 1));
+                builder.withTopicRateLimit(limit.substring(0, sep), rate, defaultBurst(rate));
+            }
+            xMsgProxySetup setup = builder.build();
+
+            xMsgProxy proxy = new xMsgProxy(xMsgContext.getInstance(), address, setup);
             if (options.has("verbose")) {
                 proxy.verbose();
             }
@@ -111,7 +272,7 @@ public class xMsgProxy {
 
             proxy.start();
 
-        } catch (OptionException e) {
+        } catch (OptionException | IllegalArgumentException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         } catch (Exception e) {
@@ -120,10 +281,53 @@ public class xMsgProxy {
         }
     }
 
+    // the command line limits accept one second of messages at once
+    private static int defaultBurst(double rate) {
+        return (int) Math.max(1, Math.ceil(rate));
+    }
+
+    private static List<xMsgProxyAddress> parsePeers(List<String> peers) {
+        List<xMsgProxyAddress> addresses = new ArrayList<>();
+        for (String peer : peers) {
+            String[] parts = peer.split(":");
+            if (parts.length == 1) {
+                addresses.add(new xMsgProxyAddress(parts[0]));
+            } else if (parts.length == 2) {
+                addresses.add(new xMsgProxyAddress(parts[0], Integer.parseInt(parts[1])));
+            } else {
+                throw new IllegalArgumentException("invalid peer: " + peer);
+            }
+        }
+        return addresses;
+    }
+
     private static void usage(PrintStream out) {
         out.printf("usage: jx_proxy [options]%n%n  Options:%n");
         out.printf("  %-22s  %s%n", "-host <hostname>", "use the given hostname");
         out.printf("  %-22s  %s%n", "-port <port>", "use the given port");
+        out.printf("  %-22s  %s%n", "-pipeline",
+                   "receive and distribute messages with separate threads");
+        out.printf("  %-22s  %s%n", "-io-threads <num>", "use the given ZMQ I/O threads");
+        out.printf("  %-22s  %s%n", "-cache <bytes>", "keep the last message of every topic");
+        out.printf("  %-22s  %s%n", "-peer <host[:port]>", "federate with the given proxy");
+        out.printf("  %-22s  %s%n", "-bridge <domain>", "bridge the given domain with the peers");
+        out.printf("  %-22s  %s%n", "-ipc", "listen on IPC endpoints too");
+        out.printf("  %-22s  %s%n", "-queue <msgs>", "bound the queue of every subscriber");
+        out.printf("  %-22s  %s%n", "-slow <policy>",
+                   "handle slow subscribers: drop, disconnect or spill");
+        out.printf("  %-22s  %s%n", "-spill <msgs>", "keep up to the given spilled messages");
+        out.printf("  %-22s  %s%n", "-capture <dir>", "record the messages into a journal");
+        out.printf("  %-22s  %s%n", "-segment-size <bytes>", "the size of the journal segments");
+        out.printf("  %-22s  %s%n", "-segments <num>", "keep up to the given journal segments");
+        out.printf("  %-22s  %s%n", "-durable <dir>", "keep a log for durable subscriptions");
+        out.printf("  %-22s  %s%n", "-durable-topic <topic>", "keep the messages of the topic");
+        out.printf("  %-22s  %s%n", "-groups", "load-balance the messages of work-queue groups");
+        out.printf("  %-22s  %s%n", "-rate-limit <msgs>",
+                   "accept up to the given messages per second from every publisher");
+        out.printf("  %-22s  %s%n", "-topic-rate-limit <prefix>=<msgs>",
+                   "accept up to the given messages per second to the topic prefix");
+        out.printf("  %-22s  %s%n", "-heartbeat <ms>",
+                   "publish heartbeats with the given interval (0 to disable)");
         out.printf("  %-22s  %s%n", "-verbose", "print debug information");
     }
 
@@ -146,20 +350,61 @@ public class xMsgProxy {
      * @throws xMsgException if the address is already in use
      */
     public xMsgProxy(xMsgContext context, xMsgProxyAddress address) throws xMsgException {
+        this(context, address, false);
+    }
+
+    /**
+     * Construct the proxy with the given local address,
+     * using separate threads to receive and distribute the messages.
+     *
+     * @param context the context to handle the proxy sockets
+     * @param address the local address
+     * @param pipelined true to receive and distribute the messages
+     *                  with separate threads
+     * @throws xMsgException if the address is already in use
+     * @see xMsgProxySetup.Builder#withPipeline
+     */
+    public xMsgProxy(xMsgContext context, xMsgProxyAddress address, boolean pipelined)
+            throws xMsgException {
+        this(context, address, xMsgProxySetup.newBuilder().withPipeline(pipelined).build());
+    }
+
+    /**
+     * Construct the proxy with the given local address and options.
+     *
+     * @param context the context to handle the proxy sockets
+     * @param address the local address
+     * @param setup the proxy options
+     * @throws xMsgException if the address is already in use
+     */
+    public xMsgProxy(xMsgContext context, xMsgProxyAddress address, xMsgProxySetup setup)
+            throws xMsgException {
         ctx = context;
         addr = address;
+        limiter = new RateLimiter(setup);
+        limiter.register(stats);
+        stats.subscribedTopics().register(stats);
 
         Proxy proxyTask = null;
+        PipelinedForwarder pipelinedTask = null;
         Controller controllerTask = null;
         try {
-            proxyTask = new Proxy();
-            controllerTask = new Controller();
-            proxy = ThreadUtils.newThread("proxy", proxyTask);
+            if (setup.isPipelined()) {
+                pipelinedTask = new PipelinedForwarder(ctx, addr, setup, stats, limiter);
+            } else {
+                proxyTask = new Proxy(setup);
+            }
+            controllerTask = new Controller(setup);
+            proxy = ThreadUtils.newThread("proxy",
+                                          pipelinedTask != null ? pipelinedTask : proxyTask);
             controller = ThreadUtils.newThread("control", controllerTask);
         } catch (Exception e) {
             if (proxyTask != null) {
                 proxyTask.close();
             }
+            if (pipelinedTask != null) {
+                pipelinedTask.close();
+            }
             if (controllerTask != null) {
                 controllerTask.close();
             }
@@ -184,12 +429,14 @@ public class xMsgProxy {
     public void start() {
         proxy.start();
         controller.start();
+        ctx.addLocalProxy(addr, xMsgTransport.INPROC);
     }
 
     /**
      * Stops the proxy. The context must be destroyed first.
      */
     public void shutdown() {
+        ctx.removeLocalProxy(addr);
         try {
             proxy.interrupt();
             controller.interrupt();
@@ -218,6 +465,16 @@ public class xMsgProxy {
         return addr;
     }
 
+    /**
+     * Returns the current value of the traffic counters.
+     *
+     * @return the value of every counter, by name
+     * @see ProxyStats
+     */
+    public Map<String, Long> stats() {
+        return stats.snapshot();
+    }
+
 
     /**
      * The proxy forwards pub/sub communications.
@@ -226,24 +483,77 @@ public class xMsgProxy {
 
         final Socket in;
         final Socket out;
+        final Federation federation;
+        final ControlLane lane;
+        final List<MessageSink> sinks = new ArrayList<>();
+        final xMsgProxySetup setup;
 
         final xMsgSocketFactory factory = new xMsgSocketFactory(ctx.getContext());
 
-        Proxy() throws xMsgException {
+        Proxy(xMsgProxySetup setup) throws xMsgException {
             Socket in = null;
             Socket out = null;
+            ControlLane lane = null;
+            Federation federation = null;
+            TrafficCapture journal = null;
+            DurableStore durable = null;
+            WorkQueues queues = null;
             try {
                 in = factory.createSocket(ZMQ.XSUB);
                 out = factory.createSocket(ZMQ.XPUB);
-                factory.bindSocket(in, addr.pubPort());
-                factory.bindSocket(out, addr.subPort());
+                Distributor.configure(out, setup);
+                for (xMsgTransport transport : setup.transports()) {
+                    factory.bindSocket(in, transport, addr.pubPort());
+                    factory.bindSocket(out, transport, addr.subPort());
+                }
+                lane = new ControlLane(factory, addr);
+                if (setup.hasWorkQueues()) {
+                    queues = new WorkQueues(factory, addr, setup);
+                }
+                if (setup.isFederated()) {
+                    federation = new Federation(factory, addr,
+                                                setup.federationPeers(),
+                                                setup.federationDomains());
+                }
+                if (setup.captureDirectory() != null) {
+                    journal = new TrafficCapture(setup.captureDirectory(),
+                                                 setup.captureSegmentSize(),
+                                                 setup.captureMaxSegments());
+                }
+                if (setup.durableDirectory() != null) {
+                    durable = new DurableStore(factory, addr, setup);
+                }
             } catch (Exception e) {
                 factory.closeQuietly(in);
                 factory.closeQuietly(out);
+                if (lane != null) {
+                    lane.close();
+                }
+                if (queues != null) {
+                    queues.close();
+                }
+                if (federation != null) {
+                    federation.close();
+                }
+                if (journal != null) {
+                    journal.close();
+                }
                 throw e;
             }
             this.in = in;
             this.out = out;
+            this.lane = lane;
+            this.federation = federation;
+            if (journal != null) {
+                sinks.add(journal);
+            }
+            if (durable != null) {
+                sinks.add(durable);
+            }
+            if (queues != null) {
+                sinks.add(queues);
+            }
+            this.setup = setup;
         }
 
         @Override
@@ -253,9 +563,9 @@ public class xMsgProxy {
                 LOGGER.info("running on host = " + addr.host() + "  port = " + addr.pubPort());
                 if (LOGGER.isLoggable(Level.FINE)) {
                     Socket listener = ZThread.fork(wrapper, new Listener());
-                    ZMQ.proxy(in, out, listener);
+                    forward(listener);
                 } else {
-                    ZMQ.proxy(in, out, null);
+                    forward(null);
                 }
             } catch (Exception e) {
                 LOGGER.severe(LogUtils.exceptionReporter(e));
@@ -265,6 +575,49 @@ public class xMsgProxy {
             }
         }
 
+        private void forward(Socket listener) {
+            try (Poller poller = factory.context().poller(5)) {
+                Distributor distributor = new Distributor(out, stats, setup,
+                                                          federation, lane, sinks, listener);
+                distributor.subscribeAll(in);
+                ControlLane.subscribe(in);
+                int input = poller.register(in, Poller.POLLIN);
+                distributor.register(poller);
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (poller.poll(distributor.timeout()) < 0) {
+                        break;
+                    }
+                    if (poller.pollin(input)) {
+                        Msg topic = MessageRelay.receive(in);
+                        if (topic == null) {
+                            break;
+                        }
+                        if (ControlLane.isControl(topic)) {
+                            if (!lane.request(topic, in)) {
+                                break;
+                            }
+                        } else if (!limiter.admit(topic)) {
+                            if (!MessageRelay.discard(topic, in)) {
+                                break;
+                            }
+                        } else {
+                            if (!distributor.publish(topic, in)) {
+                                break;
+                            }
+                            stats.received(topic, distributor.lastSize());
+                        }
+                    }
+                    if (!distributor.process(poller, in)) {
+                        break;
+                    }
+                }
+            } catch (ZMQException e) {
+                if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+                    throw e;
+                }
+            }
+        }
+
         private ZContext wrapContext() {
             try {
                 // I don't want to expose the ZContext private field in xMsgContext
@@ -280,59 +633,111 @@ public class xMsgProxy {
         public void close() {
             factory.closeQuietly(in);
             factory.closeQuietly(out);
+            lane.close();
+            if (federation != null) {
+                federation.close();
+            }
+            sinks.forEach(MessageSink::close);
         }
     }
 
 
     /**
      * The controller receives and replies synchronization control messages from
-     * connections.
+     * connections, and administration requests.
+     * <p>
+     * The control messages never go through the XPUB socket. The requests
+     * published by the actors are passed by the forwarder through the
+     * {@link ControlLane control lane}, and the subscription requests can also
+     * be received directly by the router socket. The acknowledgments for the
+     * subscribers are sent back to the forwarder through the lane.
+     * The scheduled messages are also held by the controller,
+     * and sent back through the lane when they are due.
      */
     private class Controller implements Runnable {
 
         final Socket control;
-        final Socket publisher;
+        final Socket acks;
+        final Socket scheduled;
         final Socket router;
+        final Socket admin;
+        final Scheduler scheduler;
 
         final xMsgSocketFactory factory = new xMsgSocketFactory(ctx.getContext());
 
-        Controller() throws xMsgException {
+        Controller(xMsgProxySetup setup) throws xMsgException {
             Socket control = null;
-            Socket publisher = null;
+            Socket acks = null;
+            Socket scheduled = null;
             Socket router = null;
+            Socket admin = null;
             try {
-                control = factory.createSocket(ZMQ.SUB);
-                publisher = factory.createSocket(ZMQ.PUB);
+                control = factory.createSocket(ZMQ.PULL);
+                acks = factory.createSocket(ZMQ.PUSH);
+                scheduled = factory.createSocket(ZMQ.PUSH);
                 router = factory.createSocket(ZMQ.ROUTER);
+                admin = factory.createSocket(ZMQ.ROUTER);
 
-                factory.connectSocket(control, addr.host(), addr.subPort());
-                factory.connectSocket(publisher, addr.host(), addr.pubPort());
+                // the forwarder binds the lane before the controller is created
+                control.connect(ControlLane.requestsEndpoint(addr));
+                acks.connect(ControlLane.acksEndpoint(addr));
+                scheduled.connect(ControlLane.scheduledEndpoint(addr));
 
                 router.setRouterHandover(true);
-                factory.bindSocket(router, addr.pubPort() + 2);
-
-                control.subscribe(xMsgCtrlConstants.CTRL_TOPIC.getBytes());
+                for (xMsgTransport transport : setup.transports()) {
+                    factory.bindSocket(router, transport, addr.pubPort() + 2);
+                }
+                factory.bindSocket(admin, addr.pubPort() + 3);
             } catch (Exception e) {
                 factory.closeQuietly(control);
-                factory.closeQuietly(publisher);
+                factory.closeQuietly(acks);
+                factory.closeQuietly(scheduled);
                 factory.closeQuietly(router);
+                factory.closeQuietly(admin);
                 throw e;
             }
             this.control = control;
-            this.publisher = publisher;
+            this.acks = acks;
+            this.scheduled = scheduled;
             this.router = router;
+            this.admin = admin;
+            this.scheduler = new Scheduler(scheduled);
+            this.scheduler.register(stats);
         }
 
         @Override
         public void run() {
-            try {
+            try (Poller poller = factory.context().poller(3)) {
+                poller.register(control, Poller.POLLIN);
+                poller.register(admin, Poller.POLLIN);
+                poller.register(router, Poller.POLLIN);
                 while (!Thread.currentThread().isInterrupted()) {
                     try {
-                        ZMsg msg = ZMsg.recvMsg(control);
-                        if (msg == null) {
+                        if (poller.poll(scheduler.timeout()) < 0) {
                             break;
                         }
-                        processRequet(msg);
+                        scheduler.advance();
+                        if (poller.pollin(0)) {
+                            ZMsg msg = ZMsg.recvMsg(control);
+                            if (msg == null) {
+                                break;
+                            }
+                            processRequet(msg);
+                        }
+                        if (poller.pollin(2)) {
+                            ZMsg msg = ZMsg.recvMsg(router);
+                            if (msg == null) {
+                                break;
+                            }
+                            processDirectRequest(msg);
+                        }
+                        if (poller.pollin(1)) {
+                            ZMsg msg = ZMsg.recvMsg(admin);
+                            if (msg == null) {
+                                break;
+                            }
+                            processCommand(msg);
+                        }
                     } catch (ZMQException e) {
                         if (e.getErrorCode() == ZMQ.Error.ETERM.getCode()) {
                             break;
@@ -350,9 +755,13 @@ public class xMsgProxy {
         private void processRequet(ZMsg msg) {
             /* ZFrame topicFrame = */ msg.pop();
             ZFrame typeFrame = msg.pop();
-            ZFrame idFrame = msg.pop();
-
             String type = new String(typeFrame.getData());
+            if (type.equals(xMsgCtrlConstants.CTRL_SCHEDULE)) {
+                scheduler.schedule(msg);
+                return;
+            }
+
+            ZFrame idFrame = msg.pop();
             String id = new String(idFrame.getData());
 
             switch (type) {
@@ -364,10 +773,7 @@ public class xMsgProxy {
                     break;
                 }
                 case xMsgCtrlConstants.CTRL_SUBSCRIBE: {
-                    ZMsg ack = new ZMsg();
-                    ack.add(id);
-                    ack.add(type);
-                    ack.send(publisher);
+                    sendSubscriptionAck(id, type);
                     break;
                 }
                 case xMsgCtrlConstants.CTRL_REPLY: {
@@ -382,10 +788,140 @@ public class xMsgProxy {
             }
         }
 
+        private void processDirectRequest(ZMsg msg) {
+            /* ZFrame identityFrame = */ msg.pop();
+            ZFrame typeFrame = msg.pop();
+            ZFrame idFrame = msg.pop();
+            if (typeFrame == null || idFrame == null) {
+                LOGGER.warning("invalid request");
+                return;
+            }
+            String type = new String(typeFrame.getData());
+            if (type.equals(xMsgCtrlConstants.CTRL_SUBSCRIBE)) {
+                sendSubscriptionAck(new String(idFrame.getData()), type);
+            } else {
+                LOGGER.warning("unexpected request: " + type);
+            }
+        }
+
+        private void sendSubscriptionAck(String topic, String type) {
+            ZMsg ack = new ZMsg();
+            ack.add(topic);
+            ack.add(type);
+            ack.send(acks);
+        }
+
+        private void processCommand(ZMsg msg) {
+            ZFrame idFrame = msg.pop();
+            String type = msg.popString();
+
+            ZMsg reply = new ZMsg();
+            reply.add(idFrame);
+            if (type == null) {
+                reply.add(xMsgCtrlConstants.CTRL_ERROR);
+                reply.add("empty request");
+                reply.send(admin);
+                return;
+            }
+            switch (type) {
+                case xMsgCtrlConstants.CTRL_STATS: {
+                    reply.add(type);
+                    stats.snapshot().forEach((name, value) -> {
+                        reply.add(name);
+                        reply.add(Long.toString(value));
+                    });
+                    break;
+                }
+                case xMsgCtrlConstants.CTRL_TOP: {
+                    try {
+                        long window = Long.parseLong(msg.popString());
+                        HotTopics.Order order = HotTopics.Order.valueOf(msg.popString());
+                        int count = Integer.parseInt(msg.popString());
+                        List<HotTopics.Entry> top = stats.hotTopics().top(window, order, count);
+                        reply.add(type);
+                        for (HotTopics.Entry entry : top) {
+                            reply.add(entry.topic());
+                            reply.add(Long.toString(entry.messages()));
+                            reply.add(Long.toString(entry.bytes()));
+                        }
+                    } catch (NullPointerException | IllegalArgumentException e) {
+                        reply.add(xMsgCtrlConstants.CTRL_ERROR);
+                        reply.add("invalid top request");
+                    }
+                    break;
+                }
+                case xMsgCtrlConstants.CTRL_SUBSCRIBED:
+                case xMsgCtrlConstants.CTRL_LISTENERS: {
+                    String topic = msg.popString();
+                    if (topic == null) {
+                        reply.add(xMsgCtrlConstants.CTRL_ERROR);
+                        reply.add("invalid " + type + " request");
+                        break;
+                    }
+                    SubscriptionTrie registry = stats.subscribedTopics();
+                    List<String> topics = type.equals(xMsgCtrlConstants.CTRL_SUBSCRIBED)
+                            ? registry.subscribed(topic)
+                            : registry.listeners(topic);
+                    reply.add(type);
+                    topics.forEach(reply::add);
+                    break;
+                }
+                case xMsgCtrlConstants.CTRL_LIMIT: {
+                    try {
+                        setLimit(msg);
+                        reply.add(type);
+                        for (RateLimiter.Entry entry : limiter.limits()) {
+                            String prefix = entry.prefix();
+                            reply.add(prefix == null
+                                    ? xMsgCtrlConstants.CTRL_LIMIT_PUBLISHER
+                                    : xMsgCtrlConstants.CTRL_LIMIT_TOPIC);
+                            reply.add(prefix == null ? "" : prefix);
+                            reply.add(Double.toString(entry.limit().rate()));
+                            reply.add(Integer.toString(entry.limit().burst()));
+                        }
+                    } catch (NullPointerException | IllegalArgumentException e) {
+                        reply.add(xMsgCtrlConstants.CTRL_ERROR);
+                        reply.add("invalid limit request");
+                    }
+                    break;
+                }
+                default:
+                    LOGGER.warning("unexpected command: " + type);
+                    reply.add(xMsgCtrlConstants.CTRL_ERROR);
+                    reply.add("unexpected command: " + type);
+            }
+            reply.send(admin);
+        }
+
+        // an empty request only lists the current limits
+        private void setLimit(ZMsg msg) {
+            String scope = msg.popString();
+            if (scope == null) {
+                return;
+            }
+            String prefix = null;
+            if (scope.equals(xMsgCtrlConstants.CTRL_LIMIT_TOPIC)) {
+                prefix = msg.popString();
+                Objects.requireNonNull(prefix);
+            } else if (!scope.equals(xMsgCtrlConstants.CTRL_LIMIT_PUBLISHER)) {
+                throw new IllegalArgumentException(scope);
+            }
+            double rate = Double.parseDouble(msg.popString());
+            int burst = Integer.parseInt(msg.popString());
+            RateLimit limit = rate == 0 ? null : new RateLimit(rate, burst);
+            if (prefix == null) {
+                limiter.setPublisherLimit(limit);
+            } else {
+                limiter.setTopicLimit(prefix, limit);
+            }
+        }
+
         public void close() {
             factory.closeQuietly(control);
-            factory.closeQuietly(publisher);
+            factory.closeQuietly(acks);
+            factory.closeQuietly(scheduled);
             factory.closeQuietly(router);
+            factory.closeQuietly(admin);
         }
     }
 
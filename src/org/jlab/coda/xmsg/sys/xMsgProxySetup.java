@@ -0,0 +1,700 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys;
+
+import org.jlab.coda.xmsg.core.xMsgConstants;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.sys.journal.JournalFormat;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Setup of an xMsg proxy.
+ */
+public final class xMsgProxySetup {
+
+    /**
+     * Creates a builder to set options for an xMsg proxy.
+     *
+     * @return a new xMsgProxySetup builder
+     */
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+
+    /**
+     * The action for the messages to a subscriber with a full queue.
+     *
+     * @see Builder#withSubscriberQueue
+     */
+    public enum SlowSubscriberPolicy {
+        /** Drop the messages to the slow subscriber. */
+        DROP,
+
+        /** Disconnect the slow subscriber, dropping its queue. */
+        DISCONNECT,
+
+        /** Keep the messages in a bounded buffer until the subscriber catches up. */
+        SPILL
+    }
+
+
+    /**
+     * The maximum rate of the messages accepted by the proxy,
+     * with a token bucket.
+     *
+     * @see Builder#withPublisherRateLimit
+     * @see Builder#withTopicRateLimit
+     */
+    public static final class RateLimit {
+
+        private final double rate;
+        private final int burst;
+
+        /**
+         * Creates a new rate limit.
+         *
+         * @param rate the sustained number of messages per second
+         * @param burst the number of messages that can be received at once
+         */
+        public RateLimit(double rate, int burst) {
+            if (!(rate > 0) || Double.isInfinite(rate)) {
+                throw new IllegalArgumentException("invalid rate: " + rate);
+            }
+            if (burst <= 0) {
+                throw new IllegalArgumentException("invalid burst: " + burst);
+            }
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        /**
+         * Gets the sustained rate.
+         *
+         * @return the number of messages per second
+         */
+        public double rate() {
+            return rate;
+        }
+
+        /**
+         * Gets the size of the bucket.
+         *
+         * @return the number of messages that can be received at once
+         */
+        public int burst() {
+            return burst;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Double.hashCode(rate) + burst;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            RateLimit other = (RateLimit) obj;
+            return Double.compare(rate, other.rate) == 0 && burst == other.burst;
+        }
+
+        @Override
+        public String toString() {
+            return rate + "/s burst " + burst;
+        }
+    }
+
+
+    /**
+     * Helps creating the setup for an xMsg proxy.
+     * All parameters not set will be initialized to their default values.
+     */
+    public static final class Builder {
+
+        private boolean pipelined = false;
+        private long cacheSize = 0;
+        private List<xMsgProxyAddress> peers = new ArrayList<>();
+        private Set<String> domains = new LinkedHashSet<>();
+        private boolean ipc = false;
+        private int queueSize = 0;
+        private SlowSubscriberPolicy policy = SlowSubscriberPolicy.DROP;
+        private int spillSize = -1;
+        private Path captureDirectory = null;
+        private long segmentSize = JournalFormat.DEFAULT_SEGMENT_SIZE;
+        private int maxSegments = 0;
+        private Path durableDirectory = null;
+        private Set<String> durableTopics = new LinkedHashSet<>();
+        private long durableSegmentSize = JournalFormat.DEFAULT_SEGMENT_SIZE;
+        private int durableMaxSegments = 0;
+        private boolean workQueues = false;
+        private RateLimit publisherLimit = null;
+        private Map<String, RateLimit> topicLimits = new LinkedHashMap<>();
+        private long heartbeatInterval = xMsgConstants.HEARTBEAT_INTERVAL;
+
+        /**
+         * Sets if the messages are forwarded by a two-stage pipeline.
+         * By default, a single thread receives and distributes the messages.
+         * With the pipeline, one thread receives and admits the published
+         * messages and another thread sends them to the subscribers,
+         * and the messages keep their order.
+         * The two threads are connected by a bounded pipe, so a slow
+         * distribution stops the reception of new messages.
+         *
+         * @param pipelined true to use separate threads for each stage
+         * @return this builder
+         */
+        public Builder withPipeline(boolean pipelined) {
+            this.pipelined = pipelined;
+            return this;
+        }
+
+        /**
+         * Enables the last-value cache, with the given memory budget.
+         * The proxy will keep the last message published to every topic,
+         * and replay the cached messages that match a new subscription
+         * as soon as it is received.
+         * When the budget is exceeded, the topics that were not updated for
+         * the longest time are evicted first.
+         * <p>
+         * Note that the replayed messages are published again through the
+         * subscribers port, which cannot address a single subscriber.
+         * Thus, the subscribers that already match the topic of a cached
+         * message receive it again, as a duplicate, every time a new
+         * subscription matches it. The subscribers of a cached topic must
+         * handle the messages idempotently.
+         * And the publishers will send all their messages to the proxy,
+         * even if there are no subscribers for them.
+         *
+         * @param maxBytes the maximum size of the cached messages,
+         *                 or zero to disable the cache
+         * @return this builder
+         */
+        public Builder withLastValueCache(long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("invalid cache size: " + maxBytes);
+            }
+            this.cacheSize = maxBytes;
+            return this;
+        }
+
+        /**
+         * Bridges the given topic domains with other proxies.
+         * The messages published to a bridged domain on any of the federated
+         * proxies will be received by the subscribers of all of them.
+         * A proxy only receives the messages of a remote peer when it has
+         * local subscribers for them.
+         * <p>
+         * Messages are bridged a single time, so every proxy must list all
+         * other proxies of the federation as peers.
+         * Responses to sync-publication requests are published to the
+         * {@code ret} domain, which must be bridged if the requests cross
+         * proxies.
+         *
+         * @param peers the addresses of the other proxies
+         * @param domains the topic domains to be bridged
+         * @return this builder
+         */
+        public Builder withFederation(Collection<xMsgProxyAddress> peers,
+                                      Collection<String> domains) {
+            Objects.requireNonNull(peers, "null peers");
+            Objects.requireNonNull(domains, "null domains");
+            for (String domain : domains) {
+                if (domain == null || domain.isEmpty() || domain.contains(":")) {
+                    throw new IllegalArgumentException("invalid domain: " + domain);
+                }
+            }
+            this.peers = new ArrayList<>(peers);
+            this.domains = new LinkedHashSet<>(domains);
+            return this;
+        }
+
+        /**
+         * Sets if the proxy also listens on IPC endpoints.
+         * The actors running on the same node can connect to the proxy
+         * with IPC when they prefer the local transports.
+         * <p>
+         * The proxy always listens on INPROC endpoints for the actors that
+         * use its context, and they are selected automatically.
+         *
+         * @param flag if true, bind the proxy ports to IPC endpoints too
+         * @return this builder
+         * @see org.jlab.coda.xmsg.sys.pubsub.xMsgConnectionSetup.Builder#preferIpc
+         */
+        public Builder withIpc(boolean flag) {
+            this.ipc = flag;
+            return this;
+        }
+
+        /**
+         * Bounds the queue of messages of every subscriber.
+         * A subscriber that cannot keep up with the published messages fills
+         * its queue, and the given policy is applied to the next messages
+         * for it. The other subscribers are not affected.
+         * The slow subscribers are reported in the proxy stats.
+         *
+         * @param maxMessages the maximum number of queued messages per
+         *                    subscriber, or zero for unbounded queues
+         * @param policy the action for the messages to slow subscribers
+         * @return this builder
+         */
+        public Builder withSubscriberQueue(int maxMessages, SlowSubscriberPolicy policy) {
+            if (maxMessages < 0) {
+                throw new IllegalArgumentException("invalid queue size: " + maxMessages);
+            }
+            this.queueSize = maxMessages;
+            this.policy = Objects.requireNonNull(policy, "null policy");
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of messages kept for every slow subscriber,
+         * when the {@link SlowSubscriberPolicy#SPILL SPILL} policy is used.
+         * By default it is the size of the subscriber queue.
+         *
+         * @param maxMessages the maximum number of spilled messages
+         *                    per subscriber
+         * @return this builder
+         */
+        public Builder withSpillBuffer(int maxMessages) {
+            if (maxMessages <= 0) {
+                throw new IllegalArgumentException("invalid spill size: " + maxMessages);
+            }
+            this.spillSize = maxMessages;
+            return this;
+        }
+
+        /**
+         * Records every published message into a journal in the given
+         * directory. The topic, metadata and data frames are written with the
+         * time they were received, into rolling memory-mapped segments.
+         * The journal is written by a background thread. If it falls behind,
+         * the messages are still forwarded, but they are not recorded.
+         *
+         * @param directory the journal directory, or null to disable
+         *                  the capture
+         * @return this builder
+         * @see org.jlab.coda.xmsg.sys.journal.JournalReader
+         */
+        public Builder withCapture(Path directory) {
+            this.captureDirectory = directory;
+            return this;
+        }
+
+        /**
+         * Sets the size and number of the segments of the capture journal.
+         * By default the segments are 64 MB and they are never deleted.
+         *
+         * @param segmentSize the size of every segment, in bytes
+         * @param maxSegments the number of segments to keep before deleting
+         *                    the oldest, or zero to keep all
+         * @return this builder
+         */
+        public Builder withCaptureSegments(long segmentSize, int maxSegments) {
+            if (segmentSize <= JournalFormat.HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+            }
+            if (maxSegments < 0) {
+                throw new IllegalArgumentException("invalid number of segments: " + maxSegments);
+            }
+            this.segmentSize = segmentSize;
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * Keeps the messages published to the given topics into a log in the
+         * given directory, for durable subscriptions. Every message is
+         * numbered, and the subscribers can resume from the last message they
+         * received, even after the proxy is restarted.
+         *
+         * @param directory the log directory, or null to disable the log
+         * @param topics the topic prefixes of the kept messages
+         * @return this builder
+         * @see org.jlab.coda.xmsg.core.xMsgSubscriptionSetup.Builder#durable
+         */
+        public Builder withDurableTopics(Path directory, Collection<String> topics) {
+            Objects.requireNonNull(topics, "null durable topics");
+            if (directory != null && topics.isEmpty()) {
+                throw new IllegalArgumentException("no durable topics");
+            }
+            this.durableDirectory = directory;
+            this.durableTopics = new LinkedHashSet<>(topics);
+            return this;
+        }
+
+        /**
+         * Sets the size and number of the segments of the durable log.
+         * By default the segments are 64 MB and they are never deleted.
+         * The subscriptions that fall behind the oldest kept segment
+         * resume from the oldest message still in the log.
+         *
+         * @param segmentSize the size of every segment, in bytes
+         * @param maxSegments the number of segments to keep before deleting
+         *                    the oldest, or zero to keep all
+         * @return this builder
+         */
+        public Builder withDurableSegments(long segmentSize, int maxSegments) {
+            if (segmentSize <= JournalFormat.HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+            }
+            if (maxSegments < 0) {
+                throw new IllegalArgumentException("invalid number of segments: " + maxSegments);
+            }
+            this.durableSegmentSize = segmentSize;
+            this.durableMaxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * Serves the work-queue groups on the {@code pubPort + 6} port.
+         * The messages published to the topics of a group are load-balanced
+         * among the members of the group. By default the port is not bound
+         * and the members cannot join.
+         *
+         * @param enable true to serve the work-queue groups
+         * @return this builder
+         * @see org.jlab.coda.xmsg.core.xMsgSubscriptionSetup.Builder#group
+         */
+        public Builder withWorkQueues(boolean enable) {
+            this.workQueues = enable;
+            return this;
+        }
+
+        /**
+         * Limits the rate of the messages received from every publisher
+         * connection. When a publisher sends messages faster than the limit,
+         * the proxy discards them as soon as they are received, instead of
+         * queueing them, and counts them as rate-limited.
+         * <p>
+         * The actors that share the context of the proxy (INPROC) are limited
+         * together, as a single publisher.
+         * The limit can be changed while the proxy is running,
+         * with {@link org.jlab.coda.xmsg.sys.proxy.ProxyAdmin ProxyAdmin}.
+         *
+         * @param rate the sustained number of messages per second,
+         *             or zero to remove the limit
+         * @param burst the number of messages that can be received at once
+         * @return this builder
+         */
+        public Builder withPublisherRateLimit(double rate, int burst) {
+            this.publisherLimit = rate == 0 ? null : new RateLimit(rate, burst);
+            return this;
+        }
+
+        /**
+         * Limits the rate of the messages published to the given topic prefix,
+         * by all publishers together. When a topic matches several prefixes,
+         * only the limit of the longest one applies. The messages over the limit
+         * are discarded and counted as rate-limited.
+         * The limit can be changed while the proxy is running,
+         * with {@link org.jlab.coda.xmsg.sys.proxy.ProxyAdmin ProxyAdmin}.
+         *
+         * @param prefix the prefix of the limited topics
+         * @param rate the sustained number of messages per second,
+         *             or zero to remove the limit
+         * @param burst the number of messages that can be received at once
+         * @return this builder
+         */
+        public Builder withTopicRateLimit(String prefix, double rate, int burst) {
+            Objects.requireNonNull(prefix, "null topic prefix");
+            if (rate == 0) {
+                this.topicLimits.remove(prefix);
+            } else {
+                this.topicLimits.put(prefix, new RateLimit(rate, burst));
+            }
+            return this;
+        }
+
+        /**
+         * Sets the interval between the heartbeats published by the proxy.
+         * The heartbeats are sent to the subscribers of a reserved topic,
+         * so the clients can detect that the proxy is not running anymore,
+         * without waiting for the TCP connections to time out.
+         *
+         * @param millis the heartbeat interval, in milliseconds,
+         *               or zero to disable the heartbeats
+         * @return this builder
+         * @see org.jlab.coda.xmsg.sys.pubsub.xMsgConnectionSetup.Builder#withHeartbeatTimeout
+         */
+        public Builder withHeartbeatInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("invalid heartbeat interval: " + millis);
+            }
+            this.heartbeatInterval = millis;
+            return this;
+        }
+
+        /**
+         * Creates the setup for an xMsg proxy.
+         *
+         * @return the proxy setup
+         */
+        public xMsgProxySetup build() {
+            return new xMsgProxySetup(this);
+        }
+    }
+
+
+    private final boolean pipelined;
+    private final long cacheSize;
+    private final List<xMsgProxyAddress> peers;
+    private final Set<String> domains;
+    private final Set<xMsgTransport> transports;
+    private final int queueSize;
+    private final SlowSubscriberPolicy policy;
+    private final int spillSize;
+    private final Path captureDirectory;
+    private final long segmentSize;
+    private final int maxSegments;
+    private final Path durableDirectory;
+    private final Set<String> durableTopics;
+    private final long durableSegmentSize;
+    private final int durableMaxSegments;
+    private final boolean workQueues;
+    private final RateLimit publisherLimit;
+    private final Map<String, RateLimit> topicLimits;
+    private final long heartbeatInterval;
+
+    private xMsgProxySetup(Builder builder) {
+        this.pipelined = builder.pipelined;
+        this.cacheSize = builder.cacheSize;
+        this.peers = Collections.unmodifiableList(builder.peers);
+        this.domains = Collections.unmodifiableSet(builder.domains);
+        this.transports = Collections.unmodifiableSet(builder.ipc
+                ? EnumSet.allOf(xMsgTransport.class)
+                : EnumSet.of(xMsgTransport.TCP, xMsgTransport.INPROC));
+        this.queueSize = builder.queueSize;
+        this.policy = builder.policy;
+        this.spillSize = builder.spillSize > 0 ? builder.spillSize : builder.queueSize;
+        this.captureDirectory = builder.captureDirectory;
+        this.segmentSize = builder.segmentSize;
+        this.maxSegments = builder.maxSegments;
+        this.durableDirectory = builder.durableDirectory;
+        this.durableTopics = Collections.unmodifiableSet(builder.durableTopics);
+        this.durableSegmentSize = builder.durableSegmentSize;
+        this.durableMaxSegments = builder.durableMaxSegments;
+        this.workQueues = builder.workQueues;
+        this.publisherLimit = builder.publisherLimit;
+        this.topicLimits = Collections.unmodifiableMap(new LinkedHashMap<>(builder.topicLimits));
+        this.heartbeatInterval = builder.heartbeatInterval;
+    }
+
+    /**
+     * Checks if the messages are forwarded by a two-stage pipeline.
+     *
+     * @return true if the reception and the distribution of the messages
+     *         run on separate threads
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Gets the memory budget of the last-value cache.
+     *
+     * @return the maximum size of the cached messages, or zero if the
+     *         cache is disabled
+     */
+    public long lastValueCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Checks if the proxy is federated with other proxies.
+     *
+     * @return true if there are peers and bridged domains
+     */
+    public boolean isFederated() {
+        return !peers.isEmpty() && !domains.isEmpty();
+    }
+
+    /**
+     * Gets the addresses of the federated proxies.
+     *
+     * @return the peers of the proxy
+     */
+    public List<xMsgProxyAddress> federationPeers() {
+        return peers;
+    }
+
+    /**
+     * Gets the topic domains bridged with the federated proxies.
+     *
+     * @return the bridged domains
+     */
+    public Set<String> federationDomains() {
+        return domains;
+    }
+
+    /**
+     * Gets the transports of the endpoints where the proxy listens.
+     *
+     * @return the transports of the proxy ports
+     */
+    public Set<xMsgTransport> transports() {
+        return transports;
+    }
+
+    /**
+     * Gets the maximum number of queued messages per subscriber.
+     *
+     * @return the size of the subscriber queues, or zero if they are unbounded
+     */
+    public int subscriberQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Gets the action for the messages to subscribers with a full queue.
+     *
+     * @return the slow subscriber policy
+     */
+    public SlowSubscriberPolicy slowSubscriberPolicy() {
+        return policy;
+    }
+
+    /**
+     * Gets the maximum number of spilled messages per slow subscriber.
+     *
+     * @return the size of the spill buffers
+     */
+    public int spillBufferSize() {
+        return spillSize;
+    }
+
+    /**
+     * Gets the directory of the capture journal.
+     *
+     * @return the journal directory, or null if the capture is disabled
+     */
+    public Path captureDirectory() {
+        return captureDirectory;
+    }
+
+    /**
+     * Gets the size of the segments of the capture journal.
+     *
+     * @return the segment size, in bytes
+     */
+    public long captureSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Gets the number of segments of the capture journal to keep.
+     *
+     * @return the maximum number of segments, or zero to keep all
+     */
+    public int captureMaxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * Gets the directory of the durable log.
+     *
+     * @return the log directory, or null if the durable log is disabled
+     */
+    public Path durableDirectory() {
+        return durableDirectory;
+    }
+
+    /**
+     * Gets the topic prefixes of the messages kept in the durable log.
+     *
+     * @return the durable topics
+     */
+    public Set<String> durableTopics() {
+        return durableTopics;
+    }
+
+    /**
+     * Gets the size of the segments of the durable log.
+     *
+     * @return the segment size, in bytes
+     */
+    public long durableSegmentSize() {
+        return durableSegmentSize;
+    }
+
+    /**
+     * Gets the number of segments of the durable log to keep.
+     *
+     * @return the maximum number of segments, or zero to keep all
+     */
+    public int durableMaxSegments() {
+        return durableMaxSegments;
+    }
+
+    /**
+     * Checks if the proxy serves the work-queue groups.
+     *
+     * @return true if the members of the groups can join
+     */
+    public boolean hasWorkQueues() {
+        return workQueues;
+    }
+
+    /**
+     * Gets the rate limit of every publisher connection.
+     *
+     * @return the limit, or null if the publishers are not limited
+     */
+    public RateLimit publisherRateLimit() {
+        return publisherLimit;
+    }
+
+    /**
+     * Gets the rate limits of the topic prefixes.
+     *
+     * @return the limit of every prefix
+     */
+    public Map<String, RateLimit> topicRateLimits() {
+        return topicLimits;
+    }
+
+    /**
+     * Gets the interval between the heartbeats published by the proxy.
+     *
+     * @return the heartbeat interval, in milliseconds, or zero if disabled
+     */
+    public long heartbeatInterval() {
+        return heartbeatInterval;
+    }
+}
@@ -26,19 +26,29 @@ import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgConnectionFactory;
 import org.jlab.coda.xmsg.net.xMsgProxyAddress;
 import org.jlab.coda.xmsg.net.xMsgRegAddress;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgConnectionSetup;
 import org.jlab.coda.xmsg.sys.pubsub.xMsgProxyDriver;
 import org.jlab.coda.xmsg.sys.regdis.xMsgRegDriver;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -103,6 +113,81 @@ public class ConnectionManagerTest {
                          manager::releaseRegistrarConnection);
     }
 
+    @Test
+    public void reuseThreadAffineProxyConnections() throws Exception {
+        manager = new ConnectionManager(factory, threadAffineSetup());
+
+        reuseConnections(xMsgProxyAddress::new,
+                         manager::getProxyConnection,
+                         manager::releaseProxyConnection);
+    }
+
+    @Test
+    public void doNotShareThreadAffineConnections() throws Exception {
+        ConnectionManager.ThreadConnectionPool<String, Object> pool =
+                new ConnectionManager.ThreadConnectionPool<>(c -> { });
+        Object connection = new Object();
+        pool.setConnection("10.2.9.1", connection);
+
+        AtomicReference<Object> other = new AtomicReference<>(connection);
+        Thread thread = new Thread(() -> other.set(pool.getConnection("10.2.9.1")));
+        thread.start();
+        thread.join();
+
+        assertThat(other.get(), is(nullValue()));
+        assertThat(pool.getConnection("10.2.9.1"), is(sameInstance(connection)));
+    }
+
+    @Test
+    public void closeThreadAffineConnectionsOfEndedThreads() throws Exception {
+        manager = new ConnectionManager(factory, threadAffineSetup());
+        xMsgProxyAddress address = new xMsgProxyAddress("10.2.9.1");
+
+        AtomicReference<xMsgProxyDriver> connection = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                connection.set(manager.getProxyConnection(address));
+                manager.releaseProxyConnection(connection.get());
+            } catch (xMsgException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        verify(connection.get(), never()).close();
+
+        xMsgProxyDriver c = manager.getProxyConnection(address);
+        manager.releaseProxyConnection(c);
+
+        verify(connection.get()).close();
+        assertThat(c, not(sameInstance(connection.get())));
+    }
+
+    @Test
+    public void closeThreadAffineConnectionsOnRelease() throws Exception {
+        List<Object> closed = new ArrayList<>();
+        ConnectionManager.ThreadConnectionPool<String, Object> pool =
+                new ConnectionManager.ThreadConnectionPool<>(closed::add, 0);
+        pool.setConnection("10.2.9.1", new Object());
+
+        Object connection = new Object();
+        Thread thread = new Thread(() -> pool.setConnection("10.2.9.1", connection));
+        thread.start();
+        thread.join();
+
+        assertThat(closed, is(empty()));
+
+        pool.setConnection("10.2.9.1", pool.getConnection("10.2.9.1"));
+
+        assertThat(closed, contains(connection));
+        assertThat(pool.size(), is(1));
+    }
+
+    private static xMsgConnectionSetup threadAffineSetup() {
+        return xMsgConnectionSetup.newBuilder().threadAffineConnections(true).build();
+    }
+
     private <A, C> void createConnections(Function<String, A> address,
                                           ConnectionBuilder<A, C> create,
                                           Function<C, A> inspect) throws Exception {
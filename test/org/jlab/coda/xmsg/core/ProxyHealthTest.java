@@ -0,0 +1,112 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.core;
+
+import org.jlab.coda.xmsg.net.xMsgConnectionFactory;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgConnectionSetup;
+import org.jlab.coda.xmsg.sys.pubsub.xMsgCtrlConstants;
+import org.junit.jupiter.api.Test;
+import org.zeromq.ZMsg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+
+public class ProxyHealthTest {
+
+    private final xMsgProxyAddress address = new xMsgProxyAddress("10.2.9.1");
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        ProxyHealth health = create(0);
+        health.watch(address);
+        xMsgUtil.sleep(10);
+
+        assertThat(health.isEnabled(), is(false));
+        assertThat(health.isAlive(address), is(true));
+    }
+
+    @Test
+    public void unwatchedProxyIsAlive() throws Exception {
+        ProxyHealth health = create(20);
+
+        assertThat(health.isAlive(address), is(true));
+    }
+
+    @Test
+    public void proxyIsDownWithoutHeartbeats() throws Exception {
+        ProxyHealth health = create(50);
+        health.watch(address);
+
+        assertThat(health.isAlive(address), is(true));
+
+        for (int i = 0; i < 5; i++) {
+            xMsgUtil.sleep(20);
+            health.beat(address);
+        }
+        assertThat(health.isAlive(address), is(true));
+
+        xMsgUtil.sleep(80);
+        assertThat(health.isAlive(address), is(false));
+
+        health.beat(address);
+        assertThat(health.isAlive(address), is(true));
+    }
+
+    @Test
+    public void proxyIsWatchedUntilLastUnwatch() throws Exception {
+        ProxyHealth health = create(20);
+        health.watch(address);
+        health.watch(address);
+        health.unwatch(address);
+        xMsgUtil.sleep(40);
+
+        assertThat(health.isAlive(address), is(false));
+
+        health.unwatch(address);
+
+        assertThat(health.isAlive(address), is(true));
+    }
+
+    @Test
+    public void detectHeartbeatMessages() throws Exception {
+        ZMsg heartbeat = new ZMsg();
+        heartbeat.add(xMsgCtrlConstants.HEARTBEAT_TOPIC);
+        heartbeat.add("1000");
+
+        ZMsg control = new ZMsg();
+        control.add(xMsgCtrlConstants.CTRL_TOPIC);
+        control.add("1000");
+
+        assertThat(ProxyHealth.isHeartbeat(heartbeat), is(true));
+        assertThat(ProxyHealth.isHeartbeat(control), is(false));
+    }
+
+    private static ProxyHealth create(long timeout) {
+        xMsgConnectionSetup setup = xMsgConnectionSetup.newBuilder()
+                .withHeartbeatTimeout(timeout)
+                .build();
+        return new ProxyHealth(mock(xMsgConnectionFactory.class), setup);
+    }
+}
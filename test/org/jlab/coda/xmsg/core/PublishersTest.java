@@ -81,16 +81,43 @@ public class PublishersTest {
         }
     }
 
+    @Test
+    public void suscribeReceivesAllMessagesPipelinedProxy() throws Exception {
+        try (TestRunner test = new AsyncRunner(false, true)) {
+            test.run(100_000, 8);
+        }
+    }
+
+    @Test
+    public void syncSuscribeReceivesAllMessagesPipelinedProxy() throws Exception {
+        try (TestRunner test = new SyncRunner(false, true)) {
+            test.run(1000, 4);
+        }
+    }
+
+
+    @Test
+    public void suscribeReceivesAllMessagesAsyncPublisher() throws Exception {
+        xMsgSetup setup = xMsgSetup.newBuilder()
+                                   .withAsyncPublishing(1024, xMsgAsyncPolicy.BLOCK)
+                                   .build();
+        try (TestRunner test = new AsyncRunner(true, false, setup)) {
+            test.run(100_000, 8);
+        }
+    }
+
 
     private abstract static class TestRunner implements AutoCloseable {
 
         final String rawTopic = "test_topic";
         final ProxyWrapper proxyThread;
+        final xMsgSetup pubSetup;
         final xMsg pubActor;
 
-        TestRunner(boolean singlePubActor) {
-            this.proxyThread = new ProxyWrapper();
-            this.pubActor = singlePubActor ? new xMsg("test_publisher") : null;
+        TestRunner(boolean singlePubActor, boolean pipelinedProxy, xMsgSetup pubSetup) {
+            this.proxyThread = new ProxyWrapper(pipelinedProxy);
+            this.pubSetup = pubSetup;
+            this.pubActor = singlePubActor ? new xMsg("test_publisher", pubSetup) : null;
         }
 
         abstract void receive(xMsg actor, xMsgMessage msg, Check check) throws Exception;
@@ -133,7 +160,7 @@ public class PublishersTest {
                     xMsg actor = pubActor;
                     try {
                         if (actor == null) {
-                            actor = new xMsg("test_publisher_" + start);
+                            actor = new xMsg("test_publisher_" + start, pubSetup);
                         }
                         xMsgTopic topic = xMsgTopic.build(rawTopic, Integer.toString(start));
                         for (int j = start; j < end; j++) {
@@ -186,7 +213,15 @@ public class PublishersTest {
     private static class AsyncRunner extends TestRunner {
 
         AsyncRunner(boolean singlePubActor) {
-            super(singlePubActor);
+            this(singlePubActor, false);
+        }
+
+        AsyncRunner(boolean singlePubActor, boolean pipelinedProxy) {
+            this(singlePubActor, pipelinedProxy, xMsgSetup.newBuilder().build());
+        }
+
+        AsyncRunner(boolean singlePubActor, boolean pipelinedProxy, xMsgSetup pubSetup) {
+            super(singlePubActor, pipelinedProxy, pubSetup);
         }
 
         @Override
@@ -205,7 +240,11 @@ public class PublishersTest {
     private static class SyncRunner extends TestRunner {
 
         SyncRunner(boolean singlePubActor) {
-            super(singlePubActor);
+            this(singlePubActor, false);
+        }
+
+        SyncRunner(boolean singlePubActor, boolean pipelinedProxy) {
+            super(singlePubActor, pipelinedProxy, xMsgSetup.newBuilder().build());
         }
 
         @Override
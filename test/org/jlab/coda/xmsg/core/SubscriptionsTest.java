@@ -22,6 +22,7 @@
 
 package org.jlab.coda.xmsg.core;
 
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
 import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.sys.ProxyWrapper;
 import org.junit.jupiter.api.AfterEach;
@@ -29,14 +30,20 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -81,6 +88,22 @@ public class SubscriptionsTest {
     }
 
 
+    @Test
+    public void conflatedAndPlainSubscriptionsAreDifferent() throws Exception {
+        try (xMsg actor = new xMsg("test")) {
+            xMsgTopic topic = xMsgTopic.wrap("topic");
+            xMsgSubscriptionSetup conflated = xMsgSubscriptionSetup.newBuilder()
+                                                                   .conflate(true)
+                                                                   .build();
+            xMsgSubscription plain = actor.subscribe(topic, msg -> { });
+            xMsgSubscription latest = actor.subscribe(topic, msg -> { }, conflated);
+
+            assertTrue(plain.isAlive());
+            assertTrue(latest.isAlive());
+        }
+    }
+
+
     @Test
     public void subscribeReceivesAllMessages() throws Exception {
         class Check {
@@ -135,6 +158,44 @@ public class SubscriptionsTest {
     }
 
 
+    @Test
+    public void subscribeReceivesAllBatchedMessages() throws Exception {
+        final int batches = 100;
+        final int batchSize = 100;
+        AtomicInteger counter = new AtomicInteger();
+        AtomicLong sum = new AtomicLong();
+
+        try (xMsg subscriber = new xMsg("test_subscriber");
+             xMsg publisher = new xMsg("test_publisher")) {
+            xMsgTopic topic = xMsgTopic.wrap("test_topic");
+            xMsgSubscription sub = subscriber.subscribe(topic, msg -> {
+                counter.incrementAndGet();
+                sum.addAndGet(xMsgMessage.parseData(msg, Integer.class));
+            });
+            xMsgUtil.sleep(100);
+
+            try (xMsgConnection con = publisher.getConnection()) {
+                for (int i = 0; i < batches; i++) {
+                    List<xMsgMessage> batch = new ArrayList<>();
+                    for (int j = 0; j < batchSize; j++) {
+                        batch.add(xMsgMessage.createFrom(topic, i * batchSize + j));
+                    }
+                    publisher.publish(con, batch);
+                }
+            }
+
+            int shutdownCounter = 0;
+            while (counter.get() < batches * batchSize && shutdownCounter < 100) {
+                shutdownCounter++;
+                xMsgUtil.sleep(100);
+            }
+            subscriber.unsubscribe(sub);
+        }
+
+        assertThat(counter.get(), is(10000));
+        assertThat(sum.get(), is(49995000L));
+    }
+
     @Test
     public void syncPublicationReceivesAllResponses() throws Exception {
         class Check {
@@ -278,4 +339,265 @@ public class SubscriptionsTest {
         assertThat(check.counter.get(), is(Check.N));
         assertThat(check.sum.get(), is(Check.SUM_N));
     }
+
+    @Test
+    public void conflatedSubscriptionReceivesLatestMessages() throws Exception {
+        checkConflatedSubscription(xMsgCallbackMode.MULTI_THREAD);
+    }
+
+    @Test
+    public void conflatedSingleThreadSubscriptionReceivesLatestMessages() throws Exception {
+        checkConflatedSubscription(xMsgCallbackMode.SINGLE_THREAD);
+    }
+
+    private void checkConflatedSubscription(xMsgCallbackMode mode) throws Exception {
+        class Check {
+            static final int N = 2000;
+            AtomicInteger counter = new AtomicInteger();
+            Map<String, Integer> latest = new ConcurrentHashMap<>();
+
+            boolean done() {
+                return latest.getOrDefault("1_test_topic", -1) == N - 2
+                        && latest.getOrDefault("2_test_topic", -1) == N - 1;
+            }
+        }
+
+        final Check check = new Check();
+
+        xMsgSetup setup = xMsgSetup.newBuilder().withSubscriptionMode(mode).build();
+        xMsgSubscriptionSetup subSetup = xMsgSubscriptionSetup.newBuilder()
+                                                              .conflate(true)
+                                                              .build();
+
+        Thread subThread = xMsgUtil.newThread("sub-thread", () -> {
+            try (xMsg actor = new xMsg("test_subscriber", setup)) {
+                Set<xMsgTopic> topics = new HashSet<>();
+                topics.add(xMsgTopic.wrap("1_test_topic"));
+                topics.add(xMsgTopic.wrap("2_test_topic"));
+                xMsgSubscription sub = actor.subscribe(setup.proxyAddress(), topics, msg -> {
+                    int i = xMsgMessage.parseData(msg, Integer.class);
+                    check.counter.incrementAndGet();
+                    check.latest.put(msg.getTopic().toString(), i);
+                    xMsgUtil.sleep(5);
+                }, subSetup);
+                int shutdownCounter = 0;
+                while (!check.done() && shutdownCounter < 100) {
+                    shutdownCounter++;
+                    xMsgUtil.sleep(100);
+                }
+                actor.unsubscribe(sub);
+            } catch (xMsgException e) {
+                e.printStackTrace();
+            }
+        });
+        subThread.start();
+        xMsgUtil.sleep(100);
+
+        Thread pubThread = xMsgUtil.newThread("pub-thread", () -> {
+            try (xMsg actor = new xMsg("test_publisher");
+                 xMsgConnection con = actor.getConnection()) {
+                xMsgTopic[] topics = new xMsgTopic[] {
+                        xMsgTopic.wrap("1_test_topic"), xMsgTopic.wrap("2_test_topic")
+                };
+                for (int i = 0; i < Check.N; i++) {
+                    xMsgMessage msg = xMsgMessage.createFrom(topics[i % 2], i);
+                    actor.publish(con, msg);
+                }
+            } catch (xMsgException e) {
+                e.printStackTrace();
+            }
+        });
+        pubThread.start();
+
+        subThread.join();
+        pubThread.join();
+
+        assertTrue(check.done(), "Received latest messages");
+        assertThat(check.counter.get(), is(lessThan(Check.N)));
+    }
+
+    @Test
+    public void filteredSubscriptionReceivesOnlyMatchingMessages() throws Exception {
+        class Check {
+            static final int N = 1000;
+            AtomicInteger all = new AtomicInteger();
+            AtomicInteger filtered = new AtomicInteger();
+            AtomicInteger errors = new AtomicInteger();
+        }
+
+        final Check check = new Check();
+
+        try (xMsg subscriber = new xMsg("test_subscriber");
+             xMsg publisher = new xMsg("test_publisher")) {
+            xMsgTopic topic = xMsgTopic.wrap("test_topic");
+            xMsgSubscriptionSetup subSetup = xMsgSubscriptionSetup.newBuilder()
+                    .withMetaFilter("status", "ERROR")
+                    .build();
+
+            xMsgSubscription sub1 = subscriber.subscribe(topic, msg -> {
+                check.all.incrementAndGet();
+            });
+            xMsgSubscription sub2 = subscriber.subscribe(topic, msg -> {
+                if (msg.getMetaData().getStatus() != xMsgMeta.Status.ERROR
+                        || !msg.getTopic().equals(topic)) {
+                    check.errors.incrementAndGet();
+                }
+                check.filtered.incrementAndGet();
+            }, subSetup);
+            xMsgUtil.sleep(100);
+
+            try (xMsgConnection con = publisher.getConnection()) {
+                for (int i = 0; i < Check.N; i++) {
+                    xMsgMessage msg = xMsgMessage.createFrom(topic, i);
+                    if (i % 4 == 0) {
+                        msg.getMetaData().setStatus(xMsgMeta.Status.ERROR);
+                    }
+                    publisher.publish(con, msg);
+                }
+            }
+
+            int shutdownCounter = 0;
+            while (check.all.get() < Check.N && shutdownCounter < 100) {
+                shutdownCounter++;
+                xMsgUtil.sleep(100);
+            }
+            xMsgUtil.sleep(100);
+
+            subscriber.unsubscribe(sub1);
+            subscriber.unsubscribe(sub2);
+        }
+
+        assertThat(check.all.get(), is(Check.N));
+        assertThat(check.filtered.get(), is(Check.N / 4));
+        assertThat(check.errors.get(), is(0));
+    }
+
+    @Test
+    public void sampledSubscriptionReceivesOneOfEveryMessages() throws Exception {
+        final int total = 1000;
+        AtomicInteger all = new AtomicInteger();
+        Set<Integer> sampled = ConcurrentHashMap.newKeySet();
+
+        try (xMsg subscriber = new xMsg("test_subscriber");
+             xMsg publisher = new xMsg("test_publisher")) {
+            xMsgTopic topic = xMsgTopic.wrap("test_topic");
+            xMsgSubscriptionSetup subSetup = xMsgSubscriptionSetup.newBuilder()
+                    .sampleEvery(10)
+                    .build();
+
+            xMsgSubscription sub1 = subscriber.subscribe(topic, msg -> all.incrementAndGet());
+            xMsgSubscription sub2 = subscriber.subscribe(topic, msg -> {
+                sampled.add(xMsgMessage.parseData(msg, Integer.class));
+            }, subSetup);
+            xMsgUtil.sleep(100);
+
+            try (xMsgConnection con = publisher.getConnection()) {
+                for (int i = 0; i < total; i++) {
+                    publisher.publish(con, xMsgMessage.createFrom(topic, i));
+                }
+            }
+
+            for (int i = 0; i < 100 && all.get() < total; i++) {
+                xMsgUtil.sleep(100);
+            }
+            xMsgUtil.sleep(100);
+
+            subscriber.unsubscribe(sub1);
+            subscriber.unsubscribe(sub2);
+        }
+
+        assertThat(all.get(), is(total));
+        assertThat(sampled.size(), is(total / 10));
+        assertTrue(sampled.stream().allMatch(i -> i % 10 == 0));
+    }
+
+    @Test
+    public void sampledSubscriptionsWithPrefixKeysReceiveOnlyTheirMessages() throws Exception {
+        final int total = 1000;
+        AtomicInteger all = new AtomicInteger();
+        AtomicInteger everyTwo = new AtomicInteger();
+        AtomicInteger everyTwenty = new AtomicInteger();
+
+        try (xMsg subscriber = new xMsg("test_subscriber");
+             xMsg publisher = new xMsg("test_publisher")) {
+            xMsgTopic topic = xMsgTopic.wrap("test_topic");
+            // without a terminator, the first key would be a prefix of the second
+            xMsgSubscriptionSetup twoSetup = xMsgSubscriptionSetup.newBuilder()
+                    .sampleEvery(2)
+                    .build();
+            xMsgSubscriptionSetup twentySetup = xMsgSubscriptionSetup.newBuilder()
+                    .sampleEvery(20)
+                    .build();
+
+            xMsgSubscription sub1 = subscriber.subscribe(topic, msg -> all.incrementAndGet());
+            xMsgSubscription sub2 = subscriber.subscribe(topic,
+                    msg -> everyTwo.incrementAndGet(), twoSetup);
+            xMsgSubscription sub3 = subscriber.subscribe(topic,
+                    msg -> everyTwenty.incrementAndGet(), twentySetup);
+            xMsgUtil.sleep(100);
+
+            try (xMsgConnection con = publisher.getConnection()) {
+                for (int i = 0; i < total; i++) {
+                    publisher.publish(con, xMsgMessage.createFrom(topic, i));
+                }
+            }
+
+            for (int i = 0; i < 100 && all.get() < total; i++) {
+                xMsgUtil.sleep(100);
+            }
+            xMsgUtil.sleep(100);
+
+            subscriber.unsubscribe(sub1);
+            subscriber.unsubscribe(sub2);
+            subscriber.unsubscribe(sub3);
+        }
+
+        assertThat(all.get(), is(total));
+        assertThat(everyTwo.get(), is(total / 2));
+        assertThat(everyTwenty.get(), is(total / 20));
+    }
+
+    @Test
+    public void rateLimitedSubscriptionReceivesFewerMessages() throws Exception {
+        AtomicInteger all = new AtomicInteger();
+        AtomicInteger sampled = new AtomicInteger();
+
+        try (xMsg subscriber = new xMsg("test_subscriber");
+             xMsg publisher = new xMsg("test_publisher")) {
+            xMsgTopic topic = xMsgTopic.wrap("test_topic");
+            xMsgSubscriptionSetup subSetup = xMsgSubscriptionSetup.newBuilder()
+                    .maxRate(10)
+                    .build();
+
+            xMsgSubscription sub1 = subscriber.subscribe(topic, msg -> all.incrementAndGet());
+            xMsgSubscription sub2 = subscriber.subscribe(topic, msg -> {
+                sampled.incrementAndGet();
+            }, subSetup);
+            xMsgUtil.sleep(100);
+
+            long start = System.nanoTime();
+            try (xMsgConnection con = publisher.getConnection()) {
+                // 50 messages every 100 ms, for half a second
+                for (int i = 0; i < 5; i++) {
+                    for (int j = 0; j < 50; j++) {
+                        publisher.publish(con, xMsgMessage.createFrom(topic, i));
+                    }
+                    xMsgUtil.sleep(100);
+                }
+            }
+            long seconds = 1 + (System.nanoTime() - start) / 1_000_000_000L;
+
+            for (int i = 0; i < 100 && all.get() < 250; i++) {
+                xMsgUtil.sleep(100);
+            }
+            xMsgUtil.sleep(100);
+
+            subscriber.unsubscribe(sub1);
+            subscriber.unsubscribe(sub2);
+
+            assertThat(all.get(), is(250));
+            assertTrue(sampled.get() >= 1);
+            assertThat((long) sampled.get(), lessThanOrEqualTo(10 * seconds + 1));
+        }
+    }
 }
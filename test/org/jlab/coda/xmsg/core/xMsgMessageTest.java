@@ -24,8 +24,11 @@ package org.jlab.coda.xmsg.core;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.List;
@@ -34,6 +37,8 @@ import org.jlab.coda.xmsg.data.xMsgD.xMsgData;
 import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
 import org.jlab.coda.xmsg.data.xMsgMimeType;
 import org.junit.jupiter.api.Test;
+import org.zeromq.ZFrame;
+import org.zeromq.ZMsg;
 
 public class xMsgMessageTest {
 
@@ -125,6 +130,77 @@ public class xMsgMessageTest {
         assertThat(msg.getDataOrder(), is(ByteOrder.LITTLE_ENDIAN));
     }
 
+    @Test
+    public void serializeCachedTopicAndMetadata() throws Exception {
+        xMsgMessage msg = xMsgMessage.createFrom(testTopic, 460);
+
+        ZMsg first = msg.serialize();
+        ZMsg second = msg.serialize();
+
+        assertThat(frame(second, 0), is(sameInstance(frame(first, 0))));
+        assertThat(frame(second, 1), is(sameInstance(frame(first, 1))));
+        assertThat(new String(frame(second, 0)), is("test_topic"));
+    }
+
+    @Test
+    public void serializeChangedMetadata() throws Exception {
+        xMsgMessage msg = xMsgMessage.createFrom(testTopic, 460);
+
+        ZMsg first = msg.serialize();
+        msg.getMetaData().setAuthor("tester");
+        ZMsg second = msg.serialize();
+
+        byte[] metaBytes = frame(second, 1);
+        assertThat(metaBytes, is(not(sameInstance(frame(first, 1)))));
+        assertThat(xMsgMeta.parseFrom(metaBytes).getAuthor(), is("tester"));
+    }
+
+    @Test
+    public void serializeChangedReplyTo() throws Exception {
+        xMsgMessage msg = xMsgMessage.createFrom(testTopic, 460);
+
+        msg.serialize();
+        msg.setReplyTo("return:123");
+        ZMsg second = msg.serialize();
+
+        assertThat(xMsgMeta.parseFrom(frame(second, 1)).getReplyTo(), is("return:123"));
+    }
+
+    @Test
+    public void createWithDataBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put(new byte[] {0, 1, 2, 3, 4, 5}).flip();
+        buffer.position(2);
+
+        xMsgMessage msg = new xMsgMessage(testTopic, xMsgMimeType.BYTES, buffer);
+        buffer.clear();
+
+        assertThat(msg.hasDataBuffer(), is(true));
+        assertThat(msg.getDataSize(), is(4));
+        assertThat(msg.getData(), is(new byte[] {2, 3, 4, 5}));
+        assertThat(msg.getDataBuffer().isDirect(), is(true));
+        assertThat(msg.getDataBuffer().remaining(), is(4));
+        assertThat(frame(msg.serialize(), 2), is(new byte[] {2, 3, 4, 5}));
+        assertThat(msg.serializeHeader().size(), is(2));
+    }
+
+    @Test
+    public void receiveDataIntoByteArray() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        buffer.put(new byte[] {1, 2, 3}).flip();
+        xMsgMessage sent = new xMsgMessage(testTopic, xMsgMimeType.BYTES, buffer);
+
+        xMsgMessage msg = new xMsgMessage(sent.serialize());
+
+        assertThat(msg.hasDataBuffer(), is(false));
+        assertThat(msg.getData(), is(new byte[] {1, 2, 3}));
+        assertThat(msg.getDataBuffer().isDirect(), is(false));
+    }
+
+    private static byte[] frame(ZMsg msg, int index) {
+        return msg.toArray(new ZFrame[0])[index].getData();
+    }
+
     @Test
     public void createSimpleResponse() throws Exception {
         byte[] data = new byte[] {0x0, 0x1, 0x2, 0x3, 0xa, 0xb};
@@ -0,0 +1,88 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.net;
+
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+public class xMsgTransportTest {
+
+    @Test
+    public void createTcpEndpoints() throws Exception {
+        assertThat(xMsgTransport.TCP.bindEndpoint(7771), is("tcp://*:7771"));
+        assertThat(xMsgTransport.TCP.connectEndpoint("10.2.9.1", 7771),
+                   is("tcp://10.2.9.1:7771"));
+    }
+
+    @Test
+    public void createLocalEndpoints() throws Exception {
+        assertThat(xMsgTransport.INPROC.bindEndpoint(7771), is("inproc://xmsg-7771"));
+        assertThat(xMsgTransport.INPROC.connectEndpoint("10.2.9.1", 7771),
+                   is("inproc://xmsg-7771"));
+
+        assertThat(xMsgTransport.IPC.bindEndpoint(7771), startsWith("ipc://"));
+        assertThat(xMsgTransport.IPC.connectEndpoint("10.2.9.1", 7771),
+                   is(xMsgTransport.IPC.bindEndpoint(7771)));
+    }
+
+    @Test
+    public void selectTransportForLocalProxy() throws Exception {
+        xMsgContext context = xMsgContext.newContext();
+        try {
+            xMsgProxyAddress address = new xMsgProxyAddress(xMsgUtil.localhost(), 7771);
+
+            assertThat(context.transport(address, false), is(xMsgTransport.TCP));
+            assertThat(context.transport(address, true), is(xMsgTransport.IPC));
+
+            context.addLocalProxy(address, xMsgTransport.INPROC);
+
+            assertThat(context.transport(address, false), is(xMsgTransport.INPROC));
+            assertThat(context.transport(address, true), is(xMsgTransport.INPROC));
+
+            context.removeLocalProxy(address);
+
+            assertThat(context.transport(address, false), is(xMsgTransport.TCP));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    @Test
+    public void selectTransportForRemoteProxy() throws Exception {
+        xMsgContext context = xMsgContext.newContext();
+        try {
+            xMsgProxyAddress address = new xMsgProxyAddress("10.255.255.1", 7771);
+            context.addLocalProxy(new xMsgProxyAddress(xMsgUtil.localhost(), 7771),
+                                  xMsgTransport.INPROC);
+
+            assertThat(context.transport(address, false), is(xMsgTransport.TCP));
+            assertThat(context.transport(address, true), is(xMsgTransport.TCP));
+        } finally {
+            context.destroy();
+        }
+    }
+}
@@ -25,6 +25,7 @@ package org.jlab.coda.xmsg.sys;
 import org.jlab.coda.xmsg.core.xMsgUtil;
 import org.jlab.coda.xmsg.excp.xMsgException;
 import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
 
 // checkstyle.off: JavadocType
 // checkstyle.off: JavadocMethod
@@ -34,8 +35,20 @@ public class ProxyWrapper implements AutoCloseable {
     private xMsgProxy proxy = null;
 
     public ProxyWrapper() {
+        this(false);
+    }
+
+    public ProxyWrapper(boolean pipelined) {
+        this(xMsgProxySetup.newBuilder().withPipeline(pipelined).build());
+    }
+
+    public ProxyWrapper(xMsgProxySetup setup) {
+        this(new xMsgProxyAddress(), setup);
+    }
+
+    public ProxyWrapper(xMsgProxyAddress address, xMsgProxySetup setup) {
         try {
-            proxy = new xMsgProxy(context);
+            proxy = new xMsgProxy(context, address, setup);
             proxy.start();
             xMsgUtil.sleep(100);
         } catch (xMsgException e) {
@@ -43,6 +56,10 @@ public class ProxyWrapper implements AutoCloseable {
         }
     }
 
+    public xMsgContext context() {
+        return context;
+    }
+
     @Override
     public void close() {
         context.destroy();
@@ -0,0 +1,142 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import org.jlab.coda.xmsg.core.xMsg;
+import org.jlab.coda.xmsg.core.xMsgConnection;
+import org.jlab.coda.xmsg.core.xMsgMessage;
+import org.jlab.coda.xmsg.core.xMsgTopic;
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.sys.ProxyWrapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+@Tag("integration")
+public class JournalReplayTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void replayWithOriginalTiming() throws Exception {
+        record(10, 100);
+
+        long elapsed = replay(new JournalReader(dir), 1.0, 0, 10);
+
+        assertThat(elapsed, greaterThanOrEqualTo(900L));
+    }
+
+    @Test
+    public void replayFasterBySpeedFactor() throws Exception {
+        record(10, 100);
+
+        long elapsed = replay(new JournalReader(dir), 4.0, 0, 10);
+
+        assertThat(elapsed, greaterThanOrEqualTo(225L));
+        assertThat(elapsed, lessThan(900L));
+    }
+
+    @Test
+    public void replayAtMaximumRate() throws Exception {
+        record(10, 1000);
+
+        long elapsed = replay(new JournalReader(dir), JournalReplay.MAX_SPEED, 20, 10);
+
+        assertThat(elapsed, greaterThanOrEqualTo(450L));
+        assertThat(elapsed, lessThan(9000L));
+    }
+
+    @Test
+    public void replaySelectedMessages() throws Exception {
+        record(10, 100);
+
+        JournalReader reader = new JournalReader(dir, 1200, 1500, "replay");
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        try (ProxyWrapper proxy = new ProxyWrapper();
+             xMsg actor = new xMsg("test")) {
+            actor.subscribe(xMsgTopic.wrap("replay"), msg -> {
+                received.add(xMsgMessage.parseData(msg, Integer.class));
+            });
+            xMsgUtil.sleep(100);
+            try (xMsgConnection con = actor.getConnection()) {
+                xMsgUtil.sleep(100);
+                new JournalReplay(reader, JournalReplay.MAX_SPEED, 0).run(actor, con);
+            }
+            xMsgUtil.sleep(200);
+        }
+
+        assertThat(received, containsInAnyOrder(2, 3, 4, 5));
+    }
+
+    // writes messages starting at time 1000, every interval milliseconds
+    private void record(int total, long interval) throws Exception {
+        xMsgTopic topic = xMsgTopic.wrap("replay:data");
+        try (JournalWriter writer = new JournalWriter(dir, JournalFormat.DEFAULT_SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < total; i++) {
+                xMsgMessage msg = xMsgMessage.createFrom(topic, i);
+                byte[] meta = msg.getMetaData().build().toByteArray();
+                writer.append(1000 + i * interval, Arrays.asList(topic.toString().getBytes(),
+                                                                 meta,
+                                                                 msg.getData()));
+            }
+        }
+    }
+
+    private long replay(JournalReader reader, double speed, double rate, int total)
+            throws Exception {
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        long elapsed;
+        try (ProxyWrapper proxy = new ProxyWrapper();
+             xMsg actor = new xMsg("test")) {
+            actor.subscribe(xMsgTopic.wrap("replay"), msg -> {
+                received.add(xMsgMessage.parseData(msg, Integer.class));
+            });
+            xMsgUtil.sleep(100);
+            JournalReplay replay = new JournalReplay(reader, speed, rate);
+            try (xMsgConnection con = actor.getConnection()) {
+                xMsgUtil.sleep(100);
+                long start = System.nanoTime();
+                replay.run(actor, con);
+                elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+            xMsgUtil.sleep(200);
+
+            assertThat(replay.messages(), is((long) total));
+        }
+        assertThat(received.size(), is(total));
+        return elapsed;
+    }
+}
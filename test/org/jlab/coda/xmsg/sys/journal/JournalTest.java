@@ -0,0 +1,173 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class JournalTest {
+
+    private static final long SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void readWrittenMessages() throws Exception {
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            writer.append(1000, message("a:b", "meta", "data1"));
+            writer.append(1001, message("a:c", "meta", "data2"));
+        }
+
+        JournalReader reader = new JournalReader(dir);
+        JournalRecord first = reader.next();
+        JournalRecord second = reader.next();
+
+        assertThat(first.time(), is(1000L));
+        assertThat(first.topic(), is("a:b"));
+        assertThat(new String(first.frames().get(2)), is("data1"));
+        assertThat(second.time(), is(1001L));
+        assertThat(second.topic(), is("a:c"));
+        assertThat(reader.next(), is((JournalRecord) null));
+    }
+
+    @Test
+    public void rollSegmentsWhenFull() throws Exception {
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 100; i++) {
+                writer.append(1000 + i, message("a:b", "meta", "data" + i));
+            }
+        }
+
+        assertThat(JournalWriter.existingSegments(dir).size() > 1, is(true));
+        assertThat(times(new JournalReader(dir)).size(), is(100));
+    }
+
+    @Test
+    public void deleteOldestSegments() throws Exception {
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 2)) {
+            for (int i = 0; i < 100; i++) {
+                writer.append(1000 + i, message("a:b", "meta", "data" + i));
+            }
+        }
+
+        List<Long> segments = JournalWriter.existingSegments(dir);
+        List<Long> times = times(new JournalReader(dir));
+
+        assertThat(segments.size(), is(2));
+        assertThat(times.get(times.size() - 1), is(1099L));
+        assertThat(Files.exists(JournalFormat.indexFile(dir, 1)), is(false));
+    }
+
+    @Test
+    public void continueSequenceOfPreviousJournal() throws Exception {
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            writer.append(1000, message("a:b", "meta", "data"));
+        }
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            writer.append(2000, message("a:b", "meta", "data"));
+        }
+
+        assertThat(JournalWriter.existingSegments(dir), contains(1L, 2L));
+        assertThat(times(new JournalReader(dir)), contains(1000L, 2000L));
+    }
+
+    @Test
+    public void writeLargeMessagesIntoOwnSegment() throws Exception {
+        byte[] data = new byte[(int) SEGMENT_SIZE * 2];
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            writer.append(1000, message("a:b", "meta", "data"));
+            writer.append(1001, Arrays.asList("a:b".getBytes(), "meta".getBytes(), data));
+            writer.append(1002, message("a:b", "meta", "data"));
+        }
+
+        JournalReader reader = new JournalReader(dir);
+        reader.next();
+
+        assertThat(reader.next().frames().get(2).length, is(data.length));
+        assertThat(reader.next().time(), is(1002L));
+    }
+
+    @Test
+    public void selectMessagesByTimeRange() throws Exception {
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 100; i++) {
+                writer.append(1000 * i, message("a:b", "meta", "data" + i));
+            }
+        }
+
+        JournalReader reader = new JournalReader(dir, 40500, 43000, "");
+
+        assertThat(times(reader), contains(41000L, 42000L, 43000L));
+    }
+
+    @Test
+    public void selectMessagesByTopicPrefix() throws Exception {
+        try (JournalWriter writer = new JournalWriter(dir, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 100; i++) {
+                String topic = i % 10 == 0 ? "x:y" : "a:b";
+                writer.append(1000 + i, message(topic, "meta", "data" + i));
+            }
+            writer.append(2000, message("x:z", "meta", "data"));
+        }
+
+        JournalReader reader = new JournalReader(dir, 0, Long.MAX_VALUE, "x");
+        List<Long> times = times(reader);
+
+        assertThat(times.size(), is(11));
+        assertThat(times.get(10), is(2000L));
+    }
+
+    @Test
+    public void rejectInvalidSegments() throws Exception {
+        Files.write(JournalFormat.segmentFile(dir, 1), new byte[JournalFormat.HEADER_SIZE]);
+
+        JournalReader reader = new JournalReader(dir);
+
+        assertThrows(IOException.class, reader::next);
+    }
+
+    private static List<byte[]> message(String topic, String meta, String data) {
+        return Arrays.asList(topic.getBytes(), meta.getBytes(), data.getBytes());
+    }
+
+    private static List<Long> times(JournalReader reader) throws IOException {
+        List<Long> times = new ArrayList<>();
+        for (JournalRecord r = reader.next(); r != null; r = reader.next()) {
+            times.add(r.time());
+        }
+        return times;
+    }
+}
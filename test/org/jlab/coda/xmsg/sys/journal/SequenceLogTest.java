@@ -0,0 +1,142 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SequenceLogTest {
+
+    private static final long SEGMENT_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void readAppendedMessagesInOrder() throws Exception {
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            assertThat(log.append(message("a:b", "data1")), is(1L));
+            assertThat(log.append(message("a:c", "data2")), is(2L));
+
+            SequenceLog.Cursor cursor = log.cursor(1);
+            SequenceLog.Entry first = cursor.next();
+
+            assertThat(first.sequence(), is(1L));
+            assertThat(new String(first.frames().get(0)), is("a:b"));
+            assertThat(new String(first.frames().get(2)), is("data1"));
+            assertThat(cursor.next().sequence(), is(2L));
+            assertThat(cursor.next(), is((SequenceLog.Entry) null));
+        }
+    }
+
+    @Test
+    public void cursorReturnsNewMessages() throws Exception {
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            SequenceLog.Cursor cursor = log.cursor(1);
+
+            assertThat(cursor.next(), is((SequenceLog.Entry) null));
+
+            for (int i = 0; i < 50; i++) {
+                log.append(message("a:b", "data" + i));
+            }
+
+            assertThat(sequences(cursor).size(), is(50));
+        }
+    }
+
+    @Test
+    public void cursorStartsAtGivenSequence() throws Exception {
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 100; i++) {
+                log.append(message("a:b", "data" + i));
+            }
+
+            List<Long> sequences = sequences(log.cursor(98));
+
+            assertThat(sequences, contains(98L, 99L, 100L));
+        }
+    }
+
+    @Test
+    public void cursorStartsAtOldestRetainedMessage() throws Exception {
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 2)) {
+            for (int i = 0; i < 100; i++) {
+                log.append(message("a:b", "data" + i));
+            }
+
+            List<Long> sequences = sequences(log.cursor(1));
+
+            assertThat(sequences.get(0) > 1, is(true));
+            assertThat(sequences.get(sequences.size() - 1), is(100L));
+        }
+    }
+
+    @Test
+    public void continueSequenceOfPreviousLog() throws Exception {
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            for (int i = 0; i < 30; i++) {
+                log.append(message("a:b", "data" + i));
+            }
+        }
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            assertThat(log.lastSequence(), is(30L));
+            assertThat(log.append(message("a:b", "data")), is(31L));
+            assertThat(sequences(log.cursor(29)), contains(29L, 30L, 31L));
+        }
+    }
+
+    @Test
+    public void saveCommittedOffsets() throws Exception {
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            log.commit("reader", 20);
+            log.commit("other", 5);
+        }
+        try (SequenceLog log = new SequenceLog(dir, SEGMENT_SIZE, 0)) {
+            assertThat(log.committed("reader"), is(20L));
+            assertThat(log.committed("other"), is(5L));
+            assertThat(log.committed("unknown"), is(0L));
+        }
+    }
+
+    private static List<byte[]> message(String topic, String data) {
+        return Arrays.asList(topic.getBytes(), "meta".getBytes(), data.getBytes());
+    }
+
+    private static List<Long> sequences(SequenceLog.Cursor cursor) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        for (SequenceLog.Entry e = cursor.next(); e != null; e = cursor.next()) {
+            sequences.add(e.sequence());
+        }
+        return sequences;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.sys.proxy.HotTopics.Entry;
+import org.jlab.coda.xmsg.sys.proxy.HotTopics.Order;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class HotTopicsTest {
+
+    private static final long WINDOW = HotTopics.BUCKET_MILLIS * HotTopics.BUCKETS;
+
+    private final HotTopics hot = new HotTopics();
+    private final long start = System.currentTimeMillis();
+
+    @Test
+    public void reportTopTopicsByMessages() throws Exception {
+        record("a", 10, 100);
+        record("b", 30, 10);
+        record("c", 20, 50);
+
+        List<Entry> top = hot.top(WINDOW, Order.MESSAGES, 2, start);
+
+        assertThat(topics(top), contains("b", "c"));
+        assertThat(top.get(0).messages(), is(30L));
+        assertThat(top.get(0).bytes(), is(300L));
+    }
+
+    @Test
+    public void reportTopTopicsByBytes() throws Exception {
+        record("a", 10, 100);
+        record("b", 30, 10);
+        record("c", 20, 60);
+
+        List<Entry> top = hot.top(WINDOW, Order.BYTES, 3, start);
+
+        assertThat(topics(top), contains("c", "a", "b"));
+        assertThat(top.get(0).bytes(), is(1200L));
+    }
+
+    @Test
+    public void findHeavyHittersAmongManyTopics() throws Exception {
+        for (int i = 0; i < 20000; i++) {
+            hot.record(("rare:" + i).getBytes(), 10, start);
+            if (i % 100 == 0) {
+                hot.record("hot:1".getBytes(), 10, start);
+                hot.record("hot:2".getBytes(), 10, start);
+                hot.record("hot:2".getBytes(), 10, start);
+            }
+        }
+
+        List<Entry> top = hot.top(WINDOW, Order.MESSAGES, 2, start);
+
+        assertThat(topics(top), contains("hot:2", "hot:1"));
+        assertThat(top.get(0).messages(), greaterThanOrEqualTo(400L));
+        assertThat(top.get(1).messages(), greaterThanOrEqualTo(200L));
+    }
+
+    @Test
+    public void reportOnlyTheRequestedWindow() throws Exception {
+        record("old", 50, 10);
+        long now = start + 3 * HotTopics.BUCKET_MILLIS;
+        for (int i = 0; i < 5; i++) {
+            hot.record("new".getBytes(), 10, now);
+        }
+
+        List<Entry> recent = hot.top(HotTopics.BUCKET_MILLIS, Order.MESSAGES, 5, now);
+        List<Entry> all = hot.top(WINDOW, Order.MESSAGES, 5, now);
+
+        assertThat(topics(recent), contains("new"));
+        assertThat(topics(all), contains("old", "new"));
+    }
+
+    @Test
+    public void expireOldTraffic() throws Exception {
+        record("a", 10, 10);
+
+        List<Entry> top = hot.top(WINDOW, Order.MESSAGES, 5, start + WINDOW + 1);
+
+        assertThat(top, is(empty()));
+    }
+
+    @Test
+    public void limitReportedTopics() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            record("topic:" + i, 1, 1);
+        }
+
+        List<Entry> top = hot.top(WINDOW, Order.MESSAGES, 1000, start);
+
+        assertThat(top, hasSize(HotTopics.MAX_TOPICS));
+    }
+
+    private void record(String topic, int messages, long bytes) {
+        for (int i = 0; i < messages; i++) {
+            hot.record(topic.getBytes(), bytes, start);
+        }
+    }
+
+    private static List<String> topics(List<Entry> entries) {
+        return entries.stream().map(Entry::topic).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LastValueCacheTest {
+
+    @Test
+    public void matchCachedTopicsByPrefix() throws Exception {
+        LastValueCache cache = new LastValueCache(1024);
+
+        cache.store(message("a:b:c", "1"));
+        cache.store(message("a:b:d", "2"));
+        cache.store(message("a:x", "3"));
+        cache.store(message("z", "4"));
+
+        assertThat(topics(cache.match("a:b")), containsInAnyOrder("a:b:c", "a:b:d"));
+        assertThat(topics(cache.match("a")), containsInAnyOrder("a:b:c", "a:b:d", "a:x"));
+        assertThat(topics(cache.match("")), containsInAnyOrder("a:b:c", "a:b:d", "a:x", "z"));
+        assertThat(cache.match("b"), is(empty()));
+    }
+
+    @Test
+    public void keepOnlyLastMessageOfTopic() throws Exception {
+        LastValueCache cache = new LastValueCache(1024);
+
+        cache.store(message("a:b", "1"));
+        cache.store(message("a:b", "2"));
+
+        List<byte[][]> result = cache.match("a:b");
+
+        assertThat(result.size(), is(1));
+        assertThat(new String(result.get(0)[2]), is("2"));
+        assertThat(cache.topics(), is(1L));
+    }
+
+    @Test
+    public void evictLeastRecentlyUpdatedTopics() throws Exception {
+        long entrySize = LastValueCache.ENTRY_OVERHEAD + 1 + 4 + 10;
+        LastValueCache cache = new LastValueCache(3 * entrySize);
+
+        cache.store(message("a", "0123456789"));
+        cache.store(message("b", "0123456789"));
+        cache.store(message("c", "0123456789"));
+        cache.store(message("a", "9876543210"));
+        cache.store(message("d", "0123456789"));
+
+        assertThat(topics(cache.match("")), containsInAnyOrder("a", "c", "d"));
+        assertThat(cache.bytes(), is(3 * entrySize));
+        assertThat(cache.evictions(), is(1L));
+    }
+
+    @Test
+    public void doNotCacheMessagesBiggerThanBudget() throws Exception {
+        LastValueCache cache = new LastValueCache(LastValueCache.ENTRY_OVERHEAD + 20);
+
+        cache.store(message("a", "data"));
+        boolean stored = cache.store(message("a", "this data is too long"));
+
+        assertThat(stored, is(false));
+        assertThat(cache.match("a"), is(empty()));
+        assertThat(cache.bytes(), is(0L));
+    }
+
+    @Test
+    public void doNotCacheControlMessages() throws Exception {
+        LastValueCache cache = new LastValueCache(1024);
+
+        cache.store(message("xmsg:control:sub", "data"));
+        cache.store(message("ret:actor:1", "data"));
+        cache.store(Arrays.asList("a:b".getBytes(), "sub".getBytes()));
+
+        assertThat(cache.match(""), is(empty()));
+    }
+
+    @Test
+    public void storeCopyOfFrames() throws Exception {
+        LastValueCache cache = new LastValueCache(1024);
+        List<byte[]> msg = message("a", "data");
+
+        cache.store(msg);
+        msg.get(2)[0] = 'x';
+
+        assertThat(new String(cache.match("a").get(0)[2]), is("data"));
+    }
+
+    private static List<byte[]> message(String topic, String data) {
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(topic.getBytes());
+        frames.add("meta".getBytes());
+        frames.add(data.getBytes());
+        return frames;
+    }
+
+    private static List<String> topics(List<byte[][]> messages) {
+        List<String> topics = new ArrayList<>();
+        for (byte[][] msg : messages) {
+            topics.add(new String(msg[0]));
+        }
+        return topics;
+    }
+}
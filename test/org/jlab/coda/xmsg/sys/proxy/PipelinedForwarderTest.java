@@ -0,0 +1,85 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgSocketFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class PipelinedForwarderTest {
+
+    private static final int HWM = 10;
+
+    private final xMsgContext context = xMsgContext.newContext();
+
+    @AfterEach
+    public void tearDown() {
+        context.destroy();
+    }
+
+    @Test
+    public void dataPipeFillsUpWhenTheBackendDoesNotRead() throws Exception {
+        xMsgSocketFactory factory = new xMsgSocketFactory(context.getContext());
+        Socket receiver = factory.createSocket(ZMQ.PAIR);
+        Socket sender = factory.createSocket(ZMQ.PAIR);
+        try {
+            PipelinedForwarder.connectPipe(receiver, sender, "inproc://test-pipe", HWM);
+
+            int sent = fill(sender);
+            assertThat(sent, is(greaterThan(0)));
+            assertThat(sent, is(lessThanOrEqualTo(2 * HWM)));
+
+            // the pipe accepts more messages when the backend reads them
+            int received = 0;
+            while (ZMsg.recvMsg(receiver, false) != null) {
+                received++;
+            }
+            assertThat(received, is(sent));
+
+            xMsgUtil.sleep(100);
+            assertThat(fill(sender), is(greaterThan(0)));
+        } finally {
+            factory.closeQuietly(receiver);
+            factory.closeQuietly(sender);
+        }
+    }
+
+    private static int fill(Socket sender) {
+        byte[][] msg = new byte[][] {"topic".getBytes(), new byte[] {0x1}, new byte[16]};
+        int sent = 0;
+        while (sent < 100 * HWM && MessageRelay.send(msg, sender)) {
+            sent++;
+        }
+        return sent;
+    }
+}
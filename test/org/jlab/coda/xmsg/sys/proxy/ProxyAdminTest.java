@@ -0,0 +1,229 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.core.xMsg;
+import org.jlab.coda.xmsg.core.xMsgConnection;
+import org.jlab.coda.xmsg.core.xMsgMessage;
+import org.jlab.coda.xmsg.core.xMsgSubscription;
+import org.jlab.coda.xmsg.core.xMsgTopic;
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.ProxyWrapper;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.RateLimit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Tag("integration")
+public class ProxyAdminTest {
+
+    @Test
+    public void getStatsFromProxy() throws Exception {
+        checkStats(false);
+    }
+
+    @Test
+    public void getStatsFromPipelinedProxy() throws Exception {
+        checkStats(true);
+    }
+
+    @Test
+    public void getTopTopicsFromProxy() throws Exception {
+        checkTopTopics(false);
+    }
+
+    @Test
+    public void getTopTopicsFromPipelinedProxy() throws Exception {
+        checkTopTopics(true);
+    }
+
+    @Test
+    public void changeRateLimitsOfProxy() throws Exception {
+        checkRateLimits(false);
+    }
+
+    @Test
+    public void changeRateLimitsOfPipelinedProxy() throws Exception {
+        checkRateLimits(true);
+    }
+
+    @Test
+    public void querySubscribedTopicsOfProxy() throws Exception {
+        checkSubscribedTopics(false);
+    }
+
+    @Test
+    public void querySubscribedTopicsOfPipelinedProxy() throws Exception {
+        checkSubscribedTopics(true);
+    }
+
+    @Test
+    public void failsWithoutProxy() throws Exception {
+        xMsgContext context = xMsgContext.newContext();
+        try (ProxyAdmin admin = new ProxyAdmin(context, new xMsgProxyAddress("localhost", 9990))) {
+            assertThrows(xMsgException.class, () -> admin.stats(200));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private void checkStats(boolean pipelined) throws Exception {
+        final int total = 100;
+        xMsgContext context = xMsgContext.newContext();
+        try (ProxyWrapper proxy = new ProxyWrapper(pipelined);
+             xMsg actor = new xMsg("test");
+             ProxyAdmin admin = new ProxyAdmin(context, new xMsgProxyAddress())) {
+            xMsgTopic topic = xMsgTopic.wrap("test_stats");
+            actor.subscribe(topic, msg -> { });
+            for (int i = 0; i < total; i++) {
+                actor.publish(xMsgMessage.createFrom(topic, i));
+            }
+            xMsgUtil.sleep(100);
+
+            Map<String, Long> stats = admin.stats(1000);
+
+            assertThat(stats.get(ProxyStats.MESSAGES_IN), greaterThanOrEqualTo((long) total));
+            assertThat(stats.get(ProxyStats.MESSAGES_OUT), greaterThanOrEqualTo((long) total));
+            assertThat(stats.get(ProxyStats.BYTES_IN), greaterThanOrEqualTo((long) total * 10));
+            assertThat(stats.get(ProxyStats.SUBSCRIPTIONS), greaterThanOrEqualTo(1L));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private void checkTopTopics(boolean pipelined) throws Exception {
+        xMsgContext context = xMsgContext.newContext();
+        try (ProxyWrapper proxy = new ProxyWrapper(pipelined);
+             xMsg actor = new xMsg("test");
+             ProxyAdmin admin = new ProxyAdmin(context, new xMsgProxyAddress())) {
+            xMsgTopic hot = xMsgTopic.wrap("test_top:hot");
+            xMsgTopic big = xMsgTopic.wrap("test_top:big");
+            actor.subscribe(xMsgTopic.wrap("test_top"), msg -> { });
+            for (int i = 0; i < 50; i++) {
+                actor.publish(xMsgMessage.createFrom(hot, i));
+            }
+            for (int i = 0; i < 5; i++) {
+                actor.publish(xMsgMessage.createFrom(big, new byte[10000]));
+            }
+            xMsgUtil.sleep(100);
+
+            List<HotTopics.Entry> byMessages = admin.top(1000, 60000, HotTopics.Order.MESSAGES, 2);
+            List<HotTopics.Entry> byBytes = admin.top(1000, 60000, HotTopics.Order.BYTES, 2);
+
+            assertThat(byMessages.get(0).topic(), is(hot.toString()));
+            assertThat(byMessages.get(0).messages(), greaterThanOrEqualTo(50L));
+            assertThat(byBytes.get(0).topic(), is(big.toString()));
+            assertThat(byBytes.get(0).bytes(), greaterThanOrEqualTo(50000L));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private void checkRateLimits(boolean pipelined) throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withPipeline(pipelined)
+                .withPublisherRateLimit(10, 10)
+                .build();
+        xMsgContext context = xMsgContext.newContext();
+        try (ProxyWrapper proxy = new ProxyWrapper(setup);
+             xMsg actor = new xMsg("test");
+             ProxyAdmin admin = new ProxyAdmin(context, new xMsgProxyAddress())) {
+            xMsgTopic topic = xMsgTopic.wrap("test_limit");
+            AtomicInteger received = new AtomicInteger();
+            actor.subscribe(topic, msg -> received.incrementAndGet());
+            xMsgUtil.sleep(100);
+
+            publish(actor, topic, 100);
+            assertThat(received.get(), lessThan(50));
+            assertThat(admin.stats(1000).get(RateLimiter.RATE_LIMITED), greaterThan(50L));
+
+            List<RateLimiter.Entry> limits = admin.setPublisherLimit(1000, null);
+            assertThat(limits, is(empty()));
+            received.set(0);
+            publish(actor, topic, 100);
+            assertThat(received.get(), is(100));
+
+            limits = admin.setTopicLimit(1000, "test_limit", new RateLimit(10, 20));
+            assertThat(limits.get(0).prefix(), is("test_limit"));
+            assertThat(limits.get(0).limit(), is(new RateLimit(10, 20)));
+            received.set(0);
+            publish(actor, topic, 100);
+            assertThat(received.get(), lessThan(50));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private void checkSubscribedTopics(boolean pipelined) throws Exception {
+        xMsgContext context = xMsgContext.newContext();
+        try (ProxyWrapper proxy = new ProxyWrapper(pipelined);
+             xMsg actor = new xMsg("test");
+             ProxyAdmin admin = new ProxyAdmin(context, new xMsgProxyAddress())) {
+            xMsgSubscription det1 = actor.subscribe(xMsgTopic.wrap("test_subs:det1"), msg -> { });
+            actor.subscribe(xMsgTopic.wrap("test_subs:det1:crate3"), msg -> { });
+            actor.subscribe(xMsgTopic.wrap("test_subs:det2"), msg -> { });
+            xMsgUtil.sleep(100);
+
+            assertThat(admin.subscribed(1000, "test_subs"),
+                       contains("test_subs:det1", "test_subs:det1:crate3", "test_subs:det2"));
+            assertThat(admin.listeners(1000, "test_subs:det1:crate3:slot5"),
+                       contains("test_subs:det1", "test_subs:det1:crate3"));
+            assertThat(admin.listeners(1000, "test_subs:det3"), is(empty()));
+            assertThat(admin.stats(1000).get(SubscriptionTrie.TOPICS), greaterThanOrEqualTo(3L));
+
+            actor.unsubscribe(det1);
+            xMsgUtil.sleep(100);
+
+            assertThat(admin.subscribed(1000, "test_subs"),
+                       contains("test_subs:det1:crate3", "test_subs:det2"));
+        } finally {
+            context.destroy();
+        }
+    }
+
+    private static void publish(xMsg actor, xMsgTopic topic, int total) throws Exception {
+        try (xMsgConnection con = actor.getConnection()) {
+            xMsgUtil.sleep(100);
+            for (int i = 0; i < total; i++) {
+                actor.publish(con, xMsgMessage.createFrom(topic, i));
+            }
+        }
+        xMsgUtil.sleep(300);
+    }
+}
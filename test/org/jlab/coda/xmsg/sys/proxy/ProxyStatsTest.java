@@ -0,0 +1,98 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import zmq.Msg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Map;
+
+public class ProxyStatsTest {
+
+    @Test
+    public void countReceivedAndSentMessages() throws Exception {
+        ProxyStats stats = new ProxyStats();
+
+        stats.received(22);
+        stats.received(19);
+        stats.sent(19);
+
+        Map<String, Long> values = stats.snapshot();
+
+        assertThat(values.get(ProxyStats.MESSAGES_IN), is(2L));
+        assertThat(values.get(ProxyStats.BYTES_IN), is(41L));
+        assertThat(values.get(ProxyStats.MESSAGES_OUT), is(1L));
+        assertThat(values.get(ProxyStats.BYTES_OUT), is(19L));
+    }
+
+    @Test
+    public void countSubscriptionRequests() throws Exception {
+        ProxyStats stats = new ProxyStats();
+
+        stats.subscription(subscription(1, "domain:subject"));
+        stats.subscription(subscription(1, "domain"));
+        stats.subscription(subscription(0, "domain"));
+        stats.subscription(subscription(2, "domain"));
+        stats.subscription(new Msg());
+
+        Map<String, Long> values = stats.snapshot();
+
+        assertThat(values.get(ProxyStats.SUBSCRIPTIONS), is(2L));
+        assertThat(values.get(ProxyStats.UNSUBSCRIPTIONS), is(1L));
+    }
+
+    @Test
+    public void countDroppedMessages() throws Exception {
+        ProxyStats stats = new ProxyStats();
+
+        stats.dropped();
+        stats.dropped();
+
+        assertThat(stats.snapshot().get(ProxyStats.DROPPED), is(2L));
+    }
+
+    @Test
+    public void snapshotKeepsCounterOrder() throws Exception {
+        ProxyStats stats = new ProxyStats();
+
+        assertThat(stats.snapshot().keySet(), contains(ProxyStats.MESSAGES_IN,
+                                                       ProxyStats.BYTES_IN,
+                                                       ProxyStats.MESSAGES_OUT,
+                                                       ProxyStats.BYTES_OUT,
+                                                       ProxyStats.SUBSCRIPTIONS,
+                                                       ProxyStats.UNSUBSCRIPTIONS,
+                                                       ProxyStats.DROPPED));
+    }
+
+    private static Msg subscription(int type, String topic) {
+        byte[] data = new byte[topic.length() + 1];
+        data[0] = (byte) type;
+        System.arraycopy(topic.getBytes(), 0, data, 1, topic.length());
+        return new Msg(data);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.RateLimit;
+import org.junit.jupiter.api.Test;
+
+import zmq.Msg;
+import zmq.io.Metadata;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final long start = System.nanoTime();
+
+    @Test
+    public void acceptAllMessagesWithoutLimits() throws Exception {
+        RateLimiter limiter = new RateLimiter(xMsgProxySetup.newBuilder().build());
+
+        assertThat(admitted(limiter, topic("a:b", null), 1000, start), is(1000));
+    }
+
+    @Test
+    public void limitEveryPublisherConnection() throws Exception {
+        RateLimiter limiter = new RateLimiter(xMsgProxySetup.newBuilder()
+                .withPublisherRateLimit(10, 5)
+                .build());
+        Metadata pub1 = new Metadata();
+        Metadata pub2 = new Metadata();
+
+        assertThat(admitted(limiter, topic("a:b", pub1), 20, start), is(5));
+        assertThat(admitted(limiter, topic("a:b", pub2), 20, start), is(5));
+        assertThat(admitted(limiter, topic("a:b", null), 20, start), is(5));
+
+        // the tokens are refilled over time, up to the burst
+        assertThat(admitted(limiter, topic("a:b", pub1), 20, start + SECOND / 2), is(5));
+        assertThat(admitted(limiter, topic("a:b", pub1), 20, start + SECOND), is(5));
+        assertThat(admitted(limiter, topic("a:b", pub2), 20, start + 10 * SECOND), is(5));
+    }
+
+    @Test
+    public void limitTopicPrefixesForAllPublishers() throws Exception {
+        RateLimiter limiter = new RateLimiter(xMsgProxySetup.newBuilder()
+                .withTopicRateLimit("a", 10, 10)
+                .withTopicRateLimit("a:b", 10, 3)
+                .build());
+
+        // the longest prefix applies
+        assertThat(admitted(limiter, topic("a:b:c", new Metadata()), 10, start), is(3));
+        assertThat(admitted(limiter, topic("a:b:c", new Metadata()), 10, start), is(0));
+        assertThat(admitted(limiter, topic("a:c", new Metadata()), 20, start), is(10));
+        assertThat(admitted(limiter, topic("b:c", new Metadata()), 20, start), is(20));
+    }
+
+    @Test
+    public void changeLimitsAtRuntime() throws Exception {
+        RateLimiter limiter = new RateLimiter(xMsgProxySetup.newBuilder()
+                .withPublisherRateLimit(10, 5)
+                .build());
+        Metadata pub = new Metadata();
+
+        assertThat(admitted(limiter, topic("a", pub), 20, start), is(5));
+
+        limiter.setPublisherLimit(null);
+        assertThat(admitted(limiter, topic("a", pub), 20, start), is(20));
+
+        limiter.setPublisherLimit(new RateLimit(10, 2));
+        limiter.setTopicLimit("b", new RateLimit(1, 1));
+        assertThat(admitted(limiter, topic("a", pub), 20, start + SECOND), is(2));
+        assertThat(admitted(limiter, topic("b", new Metadata()), 20, start + SECOND), is(1));
+
+        List<RateLimiter.Entry> limits = limiter.limits();
+        assertThat(limits.size(), is(2));
+        assertThat(limits.get(0).prefix(), is(nullValue()));
+        assertThat(limits.get(0).limit(), is(new RateLimit(10, 2)));
+        assertThat(limits.get(1).prefix(), is("b"));
+        assertThat(limits.get(1).limit(), is(new RateLimit(1, 1)));
+    }
+
+    @Test
+    public void removeBucketsOfIdlePublishers() throws Exception {
+        RateLimiter limiter = new RateLimiter(xMsgProxySetup.newBuilder()
+                .withPublisherRateLimit(10, 5)
+                .build());
+
+        for (int i = 0; i < 10; i++) {
+            admitted(limiter, topic("a", new Metadata()), 1, start);
+        }
+        assertThat(limiter.publishers(), is(10));
+
+        admitted(limiter, topic("a", new Metadata()), 1, start + 60 * SECOND);
+        assertThat(limiter.publishers(), is(1));
+    }
+
+    private static Msg topic(String topic, Metadata publisher) {
+        Msg msg = new Msg(topic.getBytes(StandardCharsets.UTF_8));
+        if (publisher != null) {
+            msg.setMetadata(publisher);
+        }
+        return msg;
+    }
+
+    private static int admitted(RateLimiter limiter, Msg topic, int messages, long now) {
+        int count = 0;
+        for (int i = 0; i < messages; i++) {
+            if (limiter.admit(topic, now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.jlab.coda.xmsg.core.xMsg;
+import org.jlab.coda.xmsg.core.xMsgMessage;
+import org.jlab.coda.xmsg.core.xMsgSetup;
+import org.jlab.coda.xmsg.core.xMsgTopic;
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.sys.ProxyWrapper;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup;
+import org.jlab.coda.xmsg.sys.xMsgProxySetup.SlowSubscriberPolicy;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQ.Socket;
+import org.zeromq.ZMsg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Tag("integration")
+public class SlowSubscribersTest {
+
+    private static final int TOTAL = 400;
+    private static final int SIZE = 64 * 1024;
+
+    private final xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+
+    @Test
+    public void dropMessagesToSlowSubscriber() throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withSubscriberQueue(20, SlowSubscriberPolicy.DROP)
+                .build();
+
+        checkSlowSubscriber(setup, (slow, stats) -> {
+            assertThat(stats.get(SubscriberQueues.SLOW_DROPPED), greaterThan(0L));
+            assertThat(stats.get(SubscriberQueues.SLOW_DISCONNECTED), is(0L));
+        });
+    }
+
+    @Test
+    public void disconnectSlowSubscriber() throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withSubscriberQueue(20, SlowSubscriberPolicy.DISCONNECT)
+                .build();
+
+        checkSlowSubscriber(setup, (slow, stats) -> {
+            assertThat(stats.get(SubscriberQueues.SLOW_DISCONNECTED), greaterThan(0L));
+        });
+    }
+
+    @Test
+    public void spillMessagesToSlowSubscriber() throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withSubscriberQueue(20, SlowSubscriberPolicy.SPILL)
+                .withSpillBuffer(TOTAL)
+                .build();
+
+        checkSlowSubscriber(setup, (slow, stats) -> {
+            assertThat(stats.get(SubscriberQueues.SLOW_DROPPED), is(0L));
+            assertThat(stats.get(SubscriberQueues.SPILLED), greaterThan(0L));
+
+            // the slow subscriber catches up and receives all messages in order
+            slow.setReceiveTimeOut(2000);
+            for (int i = 0; i < TOTAL; i++) {
+                ZMsg msg = ZMsg.recvMsg(slow);
+                assertThat(msg != null, is(true));
+                assertThat(msg.getLast().getData()[0], is((byte) i));
+            }
+        });
+    }
+
+    private interface Check {
+        void run(Socket slow, Map<String, Long> stats) throws Exception;
+    }
+
+    private void checkSlowSubscriber(xMsgProxySetup setup, Check check) throws Exception {
+        xMsgContext context = xMsgContext.newContext();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder().withProxy(address).build();
+        try (ProxyWrapper proxy = new ProxyWrapper(address, setup);
+             xMsg actor = new xMsg("test", actorSetup);
+             ProxyAdmin admin = new ProxyAdmin(context, address)) {
+            xMsgTopic topic = xMsgTopic.wrap("data");
+
+            AtomicInteger received = new AtomicInteger();
+            actor.subscribe(topic, msg -> received.incrementAndGet());
+
+            Socket slow = context.getContext().socket(ZMQ.SUB);
+            try {
+                slow.setRcvHWM(1);
+                slow.setReceiveBufferSize(4096);
+                slow.connect("tcp://" + address.host() + ":" + address.subPort());
+                slow.subscribe(topic.toString().getBytes());
+                xMsgUtil.sleep(300);
+
+                for (int i = 0; i < TOTAL; i++) {
+                    byte[] data = new byte[SIZE];
+                    data[0] = (byte) i;
+                    actor.publish(xMsgMessage.createFrom(topic, data));
+                    // give time to the fast subscriber to keep up
+                    xMsgUtil.sleep(2);
+                }
+                for (int i = 0; i < 100 && received.get() < TOTAL; i++) {
+                    xMsgUtil.sleep(100);
+                }
+                xMsgUtil.sleep(200);
+
+                // the fast subscriber is not affected
+                assertThat(received.get(), is(TOTAL));
+
+                check.run(slow, admin.stats(1000));
+            } finally {
+                slow.setLinger(0);
+                slow.close();
+            }
+        } finally {
+            context.destroy();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import zmq.Msg;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.nio.charset.StandardCharsets;
+
+public class SubscriptionTrieTest {
+
+    private final SubscriptionTrie trie = new SubscriptionTrie();
+
+    @Test
+    public void emptyRegistryHasNoSubscribers() throws Exception {
+        assertThat(trie.hasSubscribers("a:b"), is(false));
+        assertThat(trie.listeners("a:b"), is(empty()));
+        assertThat(trie.subscribed(""), is(empty()));
+        assertThat(trie.count(""), is(0));
+    }
+
+    @Test
+    public void findSubscribersOfTopic() throws Exception {
+        subscribe("data:det1");
+        subscribe("data:det1:crate3");
+        subscribe("data:det2");
+
+        assertThat(trie.hasSubscribers("data:det1:crate3:slot5"), is(true));
+        assertThat(trie.hasSubscribers("data:det3"), is(false));
+        assertThat(trie.hasSubscribers("data"), is(false));
+        assertThat(trie.listeners("data:det1:crate3:slot5"),
+                   contains("data:det1", "data:det1:crate3"));
+        assertThat(trie.listeners("data:det2"), contains("data:det2"));
+    }
+
+    @Test
+    public void emptyPrefixMatchesEveryTopic() throws Exception {
+        subscribe("");
+
+        assertThat(trie.hasSubscribers("any:topic"), is(true));
+        assertThat(trie.listeners("any:topic"), contains(""));
+    }
+
+    @Test
+    public void listSubscribedTopicsByPrefix() throws Exception {
+        subscribe("data:det2");
+        subscribe("data:det1");
+        subscribe("data:det1:crate3");
+        subscribe("ctrl:run");
+
+        assertThat(trie.subscribed("data"),
+                   contains("data:det1", "data:det1:crate3", "data:det2"));
+        assertThat(trie.subscribed("data:det1:"), contains("data:det1:crate3"));
+        assertThat(trie.subscribed("mon"), is(empty()));
+        assertThat(trie.count("data"), is(3));
+        assertThat(trie.count(""), is(4));
+    }
+
+    @Test
+    public void repeatedSubscriptionsAreCountedOnce() throws Exception {
+        subscribe("data:det1");
+        subscribe("data:det1");
+
+        assertThat(trie.count(""), is(1));
+
+        unsubscribe("data:det1");
+
+        assertThat(trie.count(""), is(0));
+        assertThat(trie.hasSubscribers("data:det1"), is(false));
+    }
+
+    @Test
+    public void unsubscribeRemovesOnlyTheTopic() throws Exception {
+        subscribe("data:det1");
+        subscribe("data:det1:crate3");
+        subscribe("data:det2");
+
+        unsubscribe("data:det1");
+        unsubscribe("data:det5");
+
+        assertThat(trie.subscribed(""), contains("data:det1:crate3", "data:det2"));
+        assertThat(trie.listeners("data:det1:crate3"), contains("data:det1:crate3"));
+        assertThat(trie.hasSubscribers("data:det1:crate4"), is(false));
+
+        unsubscribe("data:det1:crate3");
+        unsubscribe("data:det2");
+
+        assertThat(trie.subscribed(""), is(empty()));
+        assertThat(trie.count("data"), is(0));
+    }
+
+    private void subscribe(String topic) {
+        trie.subscription(frame(1, topic));
+    }
+
+    private void unsubscribe(String topic) {
+        trie.subscription(frame(0, topic));
+    }
+
+    private static Msg frame(int flag, String topic) {
+        byte[] data = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[data.length + 1];
+        frame[0] = (byte) flag;
+        System.arraycopy(data, 0, frame, 1, data.length);
+        return new Msg(frame);
+    }
+}
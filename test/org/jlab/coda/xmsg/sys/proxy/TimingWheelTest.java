@@ -0,0 +1,106 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 10;
+
+    private final long start = 1000000;
+    private final TimingWheel<String> wheel = new TimingWheel<>(TICK, 8, start);
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    public void expireItemsAfterDeadline() throws Exception {
+        wheel.schedule(start + 25, "a");
+        wheel.schedule(start + 55, "b");
+
+        wheel.advance(start + 20, expired::add);
+        assertThat(expired, is(empty()));
+
+        wheel.advance(start + 30, expired::add);
+        assertThat(expired, contains("a"));
+
+        wheel.advance(start + 60, expired::add);
+        assertThat(expired, contains("a", "b"));
+        assertThat(wheel.size(), is(0));
+    }
+
+    @Test
+    public void expireItemsAfterFullTurnsOfTheWheel() throws Exception {
+        // eight buckets of 10 ms, so both items share a bucket
+        wheel.schedule(start + 205, "late");
+        wheel.schedule(start + 45, "early");
+
+        wheel.advance(start + 100, expired::add);
+        assertThat(expired, contains("early"));
+
+        wheel.advance(start + 200, expired::add);
+        assertThat(expired, contains("early"));
+
+        wheel.advance(start + 210, expired::add);
+        assertThat(expired, contains("early", "late"));
+    }
+
+    @Test
+    public void expireItemsInOrderOfDeadline() throws Exception {
+        wheel.schedule(start + 75, "c");
+        wheel.schedule(start + 15, "a");
+        wheel.schedule(start + 35, "b");
+
+        wheel.advance(start + 100, expired::add);
+
+        assertThat(expired, contains("a", "b", "c"));
+    }
+
+    @Test
+    public void expirePastDeadlinesOnNextTick() throws Exception {
+        wheel.advance(start + 500, expired::add);
+        wheel.schedule(start + 100, "past");
+
+        wheel.advance(start + 505, expired::add);
+        assertThat(expired, is(empty()));
+
+        wheel.advance(start + 510, expired::add);
+        assertThat(expired, contains("past"));
+    }
+
+    @Test
+    public void reportTimeUntilNextTick() throws Exception {
+        assertThat(wheel.timeout(start), is(-1L));
+
+        wheel.schedule(start + 100, "a");
+
+        assertThat(wheel.timeout(start + 3), is(7L));
+    }
+}
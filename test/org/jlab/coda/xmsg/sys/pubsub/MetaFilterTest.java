@@ -0,0 +1,186 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.pubsub;
+
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MetaFilterTest {
+
+    @Test
+    public void parseFilterFromKey() throws Exception {
+        MetaFilter filter = new MetaFilter("a:b", values("status", "ERROR", "WARNING"));
+
+        MetaFilter parsed = MetaFilter.parse(filter.key());
+
+        assertThat(parsed, is(filter));
+        assertThat(parsed.topic(), is("a:b"));
+        assertThat(parsed.values(), is(filter.values()));
+    }
+
+    @Test
+    public void parseSamplingFilterFromKey() throws Exception {
+        MetaFilter filter = new MetaFilter("a:b", values("status", "ERROR"), 10, 2.5);
+        MetaFilter sampler = new MetaFilter("a:b", new HashMap<>(), 100, 0);
+
+        MetaFilter parsedFilter = MetaFilter.parse(filter.key());
+        MetaFilter parsedSampler = MetaFilter.parse(sampler.key());
+
+        assertThat(parsedFilter, is(filter));
+        assertThat(parsedFilter.every(), is(10));
+        assertThat(parsedFilter.rate(), is(2.5));
+        assertThat(parsedFilter.values(), is(filter.values()));
+        assertThat(parsedSampler, is(sampler));
+        assertThat(parsedSampler.isSampled(), is(true));
+        assertThat(parsedSampler.values().isEmpty(), is(true));
+        assertThat(MetaFilter.topicOf(sampler.key()), is("a:b"));
+    }
+
+    @Test
+    public void equalFiltersHaveSameKey() throws Exception {
+        Map<String, Set<String>> values1 = values("dataType", "text/string");
+        values1.putAll(values("sender", "s1", "s2"));
+        Map<String, Set<String>> values2 = values("sender", "s2", "s1");
+        values2.putAll(values("dataType", "text/string"));
+
+        MetaFilter filter1 = new MetaFilter("a:b", values1);
+        MetaFilter filter2 = new MetaFilter("a:b", values2);
+
+        assertThat(filter1.key(), is(filter2.key()));
+    }
+
+    @Test
+    public void samplingKeyIsNotPrefixOfLongerOptions() throws Exception {
+        MetaFilter rate = new MetaFilter("a:b", new HashMap<>(), 1, 1.0);
+        MetaFilter longerRate = new MetaFilter("a:b", new HashMap<>(), 1, 1.05);
+        MetaFilter every = new MetaFilter("a:b", new HashMap<>(), 2, 0);
+        MetaFilter longerEvery = new MetaFilter("a:b", new HashMap<>(), 20, 0);
+
+        assertThat(longerRate.key().startsWith(rate.key()), is(false));
+        assertThat(longerEvery.key().startsWith(every.key()), is(false));
+        assertThat(MetaFilter.parse(longerRate.key()).rate(), is(1.05));
+        assertThat(MetaFilter.parse(longerEvery.key()).every(), is(20));
+    }
+
+    @Test
+    public void getTopicOfSubscription() throws Exception {
+        MetaFilter filter = new MetaFilter("a:b", values("status", "ERROR"));
+
+        assertThat(MetaFilter.isKey(filter.key()), is(true));
+        assertThat(MetaFilter.isKey("a:b"), is(false));
+        assertThat(MetaFilter.topicOf(filter.key()), is("a:b"));
+        assertThat(MetaFilter.topicOf("a:b"), is("a:b"));
+    }
+
+    @Test
+    public void parseInvalidKeyReturnsNull() throws Exception {
+        String key = new MetaFilter("a:b", values("status", "ERROR")).key();
+
+        assertThat(MetaFilter.parse("a:b"), is(nullValue()));
+        assertThat(MetaFilter.parse(MetaFilter.MARKER + "a:b" + MetaFilter.MARKER),
+                   is(nullValue()));
+        assertThat(MetaFilter.parse(MetaFilter.MARKER + "a:b" + MetaFilter.MARKER + "x=1"
+                                    + MetaFilter.MARKER),
+                   is(nullValue()));
+        assertThat(MetaFilter.parse(key.substring(0, key.length() - 1)), is(nullValue()));
+    }
+
+    @Test
+    public void keyIsNotPrefixOfLongerValues() throws Exception {
+        MetaFilter topic = new MetaFilter("a:b", values("status", "ERROR"));
+        MetaFilter longerTopic = new MetaFilter("a:bc", values("status", "ERROR"));
+        MetaFilter sender = new MetaFilter("a:b", values("sender", "s1"));
+        MetaFilter longerSender = new MetaFilter("a:b", values("sender", "s10"));
+
+        assertThat(longerTopic.key().startsWith(topic.key()), is(false));
+        assertThat(longerSender.key().startsWith(sender.key()), is(false));
+    }
+
+    @Test
+    public void matchAllFields() throws Exception {
+        Map<String, Set<String>> values = values("dataType", "text/string");
+        values.putAll(values("status", "ERROR", "WARNING"));
+        MetaFilter filter = new MetaFilter("a:b", values);
+
+        assertThat(filter.matches(meta("text/string", xMsgMeta.Status.ERROR)), is(true));
+        assertThat(filter.matches(meta("text/string", xMsgMeta.Status.WARNING)), is(true));
+        assertThat(filter.matches(meta("text/string", xMsgMeta.Status.INFO)), is(false));
+        assertThat(filter.matches(meta("binary/bytes", xMsgMeta.Status.ERROR)), is(false));
+        assertThat(filter.matches(meta("text/string", null)), is(false));
+    }
+
+    @Test
+    public void samplingFilterWithoutFieldsMatchesAll() throws Exception {
+        MetaFilter filter = new MetaFilter("a:b", new HashMap<>(), 1, 10);
+
+        assertThat(filter.matches(meta("text/string", null)), is(true));
+        assertThat(filter.matches(meta("binary/bytes", xMsgMeta.Status.ERROR)), is(true));
+    }
+
+    @Test
+    public void rejectInvalidSampling() throws Exception {
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", new HashMap<>(), 0, 0));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", new HashMap<>(), 1, -1));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", new HashMap<>(), 1, Double.NaN));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", new HashMap<>(), 1, 0));
+    }
+
+    @Test
+    public void rejectInvalidFields() throws Exception {
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", values("color", "red")));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", values("sender", "a" + MetaFilter.MARKER)));
+        assertThrows(IllegalArgumentException.class,
+            () -> new MetaFilter("a:b", new HashMap<>()));
+    }
+
+    private static Map<String, Set<String>> values(String field, String... values) {
+        Map<String, Set<String>> map = new HashMap<>();
+        map.put(field, new HashSet<>(Arrays.asList(values)));
+        return map;
+    }
+
+    private static xMsgMeta meta(String dataType, xMsgMeta.Status status) {
+        xMsgMeta.Builder meta = xMsgMeta.newBuilder().setDataType(dataType);
+        if (status != null) {
+            meta.setStatus(status);
+        }
+        return meta.build();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys.pubsub;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MpscRingTest {
+
+    @Test
+    public void roundUpCapacityToPowerOfTwo() throws Exception {
+        assertThat(new MpscRing<String>(1).capacity(), is(1));
+        assertThat(new MpscRing<String>(5).capacity(), is(8));
+        assertThat(new MpscRing<String>(16).capacity(), is(16));
+    }
+
+    @Test
+    public void pollItemsInOrder() throws Exception {
+        MpscRing<String> ring = new MpscRing<>(4);
+
+        ring.offer("a");
+        ring.offer("b");
+        ring.offer("c");
+
+        assertThat(ring.size(), is(3));
+        assertThat(ring.poll(), is("a"));
+        assertThat(ring.poll(), is("b"));
+        assertThat(ring.poll(), is("c"));
+        assertThat(ring.poll(), is(nullValue()));
+        assertThat(ring.isEmpty(), is(true));
+    }
+
+    @Test
+    public void rejectItemsWhenFull() throws Exception {
+        MpscRing<String> ring = new MpscRing<>(2);
+
+        assertThat(ring.offer("a"), is(true));
+        assertThat(ring.offer("b"), is(true));
+        assertThat(ring.offer("c"), is(false));
+
+        ring.poll();
+
+        assertThat(ring.offer("d"), is(true));
+        assertThat(ring.size(), is(2));
+    }
+
+    @Test
+    public void drainAllItemsAfterWrapping() throws Exception {
+        MpscRing<Integer> ring = new MpscRing<>(4);
+        List<Integer> items = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            ring.offer(i);
+        }
+        ring.drain(items::add);
+        for (int i = 3; i < 7; i++) {
+            ring.offer(i);
+        }
+
+        assertThat(ring.drain(items::add), is(4));
+        assertThat(items, contains(0, 1, 2, 3, 4, 5, 6));
+    }
+
+    @Test
+    public void receiveAllItemsFromManyProducers() throws Exception {
+        final int producers = 4;
+        final int itemsByProducer = 100_000;
+        MpscRing<Integer> ring = new MpscRing<>(64);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int start = p * itemsByProducer;
+            Thread thread = new Thread(() -> {
+                for (int i = start; i < start + itemsByProducer; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        long sum = 0;
+        int received = 0;
+        while (received < producers * itemsByProducer) {
+            Integer item = ring.poll();
+            if (item == null) {
+                continue;
+            }
+            int producer = item / itemsByProducer;
+            assertThat(item > last[producer], is(true));
+            last[producer] = item;
+            sum += item;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long n = (long) producers * itemsByProducer;
+        assertThat(sum, is(n * (n - 1) / 2));
+        assertThat(ring.isEmpty(), is(true));
+    }
+}
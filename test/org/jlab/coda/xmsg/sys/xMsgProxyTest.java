@@ -0,0 +1,622 @@
+/*
+ *    Copyright (C) 2017. Jefferson Lab (JLAB). All Rights Reserved.
+ *    Permission to use, copy, modify, and distribute this software and its
+ *    documentation for governmental use, educational, research, and not-for-profit
+ *    purposes, without fee and without a signed licensing agreement.
+ *
+ *    IN NO EVENT SHALL JLAB BE LIABLE TO ANY PARTY FOR DIRECT, INDIRECT, SPECIAL,
+ *    INCIDENTAL, OR CONSEQUENTIAL DAMAGES, INCLUDING LOST PROFITS, ARISING OUT OF
+ *    THE USE OF THIS SOFTWARE AND ITS DOCUMENTATION, EVEN IF JLAB HAS BEEN ADVISED
+ *    OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *    JLAB SPECIFICALLY DISCLAIMS ANY WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *    THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ *    PURPOSE. THE CLARA SOFTWARE AND ACCOMPANYING DOCUMENTATION, IF ANY, PROVIDED
+ *    HEREUNDER IS PROVIDED "AS IS". JLAB HAS NO OBLIGATION TO PROVIDE MAINTENANCE,
+ *    SUPPORT, UPDATES, ENHANCEMENTS, OR MODIFICATIONS.
+ *
+ *    This software was developed under the United States Government License.
+ *    For more information contact author at gurjyan@jlab.org
+ *    Department of Experimental Nuclear Physics, Jefferson Lab.
+ */
+
+package org.jlab.coda.xmsg.sys;
+
+import org.jlab.coda.xmsg.core.xMsg;
+import org.jlab.coda.xmsg.core.xMsgConnection;
+import org.jlab.coda.xmsg.core.xMsgMessage;
+import org.jlab.coda.xmsg.core.xMsgSetup;
+import org.jlab.coda.xmsg.core.xMsgSubscription;
+import org.jlab.coda.xmsg.core.xMsgSubscriptionSetup;
+import org.jlab.coda.xmsg.core.xMsgTopic;
+import org.jlab.coda.xmsg.core.xMsgUtil;
+import org.jlab.coda.xmsg.net.xMsgConnectionFactory;
+import org.jlab.coda.xmsg.net.xMsgContext;
+import org.jlab.coda.xmsg.net.xMsgProxyAddress;
+import org.jlab.coda.xmsg.net.xMsgTransport;
+import org.jlab.coda.xmsg.data.xMsgM.xMsgMeta;
+import org.jlab.coda.xmsg.excp.xMsgException;
+import org.jlab.coda.xmsg.sys.journal.JournalReader;
+import org.jlab.coda.xmsg.sys.journal.JournalRecord;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasEntry;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("integration")
+public class xMsgProxyTest {
+
+    @Test
+    public void lateSubscriberReceivesCachedMessages() throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withLastValueCache(1024 * 1024)
+                .build();
+
+        checkCachedMessages(setup);
+    }
+
+    @Test
+    public void lateSubscriberReceivesCachedMessagesPipelinedProxy() throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withPipeline(true)
+                .withLastValueCache(1024 * 1024)
+                .build();
+
+        checkCachedMessages(setup);
+    }
+
+    @Test
+    public void existingSubscriberReceivesReplayedMessages() throws Exception {
+        xMsgProxySetup setup = xMsgProxySetup.newBuilder()
+                .withLastValueCache(1024 * 1024)
+                .build();
+
+        try (ProxyWrapper proxy = new ProxyWrapper(setup);
+             xMsg first = new xMsg("first");
+             xMsg second = new xMsg("second")) {
+            AtomicInteger received = new AtomicInteger();
+            first.subscribe(xMsgTopic.wrap("state"), msg -> received.incrementAndGet());
+            xMsgUtil.sleep(100);
+
+            first.publish(xMsgMessage.createFrom(xMsgTopic.wrap("state:run"), 1));
+            xMsgUtil.sleep(100);
+
+            // the replay for the new subscriber is published to all subscribers
+            second.subscribe(xMsgTopic.wrap("state"), msg -> { });
+            xMsgUtil.sleep(200);
+
+            assertThat(received.get(), is(2));
+        }
+    }
+
+    @Test
+    public void lateSubscriberDoesNotReceiveMessagesWithoutCache() throws Exception {
+        try (ProxyWrapper proxy = new ProxyWrapper();
+             xMsg actor = new xMsg("test")) {
+            actor.publish(xMsgMessage.createFrom(xMsgTopic.wrap("state:run"), 1));
+            xMsgUtil.sleep(100);
+
+            Map<String, Integer> received = new ConcurrentHashMap<>();
+            actor.subscribe(xMsgTopic.wrap("state"), msg -> {
+                received.put(msg.getTopic().toString(), xMsgMessage.parseData(msg, Integer.class));
+            });
+            xMsgUtil.sleep(200);
+
+            assertThat(received, is(anEmptyMap()));
+        }
+    }
+
+    @Test
+    public void actorsWithProxyContextConnectWithInproc() throws Exception {
+        try (ProxyWrapper proxy = new ProxyWrapper()) {
+            xMsgContext context = proxy.context();
+            xMsgConnectionFactory factory = new xMsgConnectionFactory(context);
+            try (xMsg actor = new xMsg("test", xMsgSetup.newBuilder().build(), factory) { }) {
+                assertThat(context.transport(new xMsgProxyAddress(), false),
+                           is(xMsgTransport.INPROC));
+
+                checkPublishSubscribe(actor, new xMsgProxyAddress());
+            }
+        }
+    }
+
+    @Test
+    public void actorsOnSameNodeConnectWithIpc() throws Exception {
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7801);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder().withIpc(true).build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder()
+                .withProxy(address)
+                .preferIpc(true)
+                .build();
+        try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup);
+             xMsg actor = new xMsg("test", actorSetup)) {
+            checkPublishSubscribe(actor, address);
+        }
+    }
+
+    @Test
+    public void captureRecordsPublishedMessages(@TempDir Path dir) throws Exception {
+        checkCapture(false, dir);
+    }
+
+    @Test
+    public void captureRecordsPublishedMessagesPipelinedProxy(@TempDir Path dir) throws Exception {
+        checkCapture(true, dir);
+    }
+
+    @Test
+    public void durableSubscriptionResumesFromLastReceived(@TempDir Path dir) throws Exception {
+        checkDurableSubscription(false, dir);
+    }
+
+    @Test
+    public void durableSubscriptionResumesFromLastReceivedPipelinedProxy(@TempDir Path dir)
+            throws Exception {
+        checkDurableSubscription(true, dir);
+    }
+
+    @Test
+    public void groupMembersShareMessages() throws Exception {
+        checkGroupMembers(false);
+    }
+
+    @Test
+    public void groupMembersShareMessagesPipelinedProxy() throws Exception {
+        checkGroupMembers(true);
+    }
+
+    @Test
+    public void scheduledMessagesAreDeliveredWhenDue() throws Exception {
+        checkScheduledMessages(false);
+    }
+
+    @Test
+    public void scheduledMessagesAreDeliveredWhenDuePipelinedProxy() throws Exception {
+        checkScheduledMessages(true);
+    }
+
+    @Test
+    public void clientsDetectStoppedProxy() throws Exception {
+        checkHeartbeats(false);
+    }
+
+    @Test
+    public void clientsDetectStoppedPipelinedProxy() throws Exception {
+        checkHeartbeats(true);
+    }
+
+    @Test
+    public void publishOnlyWhenTopicIsSubscribed() throws Exception {
+        checkPublishIfSubscribed(false);
+    }
+
+    @Test
+    public void publishOnlyWhenTopicIsSubscribedPipelinedProxy() throws Exception {
+        checkPublishIfSubscribed(true);
+    }
+
+    @Test
+    public void controlRequestsAreNotDelayedByData() throws Exception {
+        checkControlUnderLoad(false);
+    }
+
+    @Test
+    public void controlRequestsAreNotDelayedByDataPipelinedProxy() throws Exception {
+        checkControlUnderLoad(true);
+    }
+
+    private void checkControlUnderLoad(boolean pipelined) throws Exception {
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder().withPipeline(pipelined).build();
+        xMsgTopic topic = xMsgTopic.wrap("bulk:data");
+        byte[] data = new byte[64 * 1024];
+        AtomicBoolean running = new AtomicBoolean(true);
+        try (ProxyWrapper proxy = new ProxyWrapper(proxySetup);
+             xMsg bulk = new xMsg("bulk");
+             xMsg actor = new xMsg("test")) {
+            bulk.subscribe(topic, msg -> xMsgUtil.sleep(1));
+            Thread publisher = xMsgUtil.newThread("bulk-publisher", () -> {
+                try (xMsgConnection con = bulk.getConnection()) {
+                    while (running.get()) {
+                        bulk.publish(con, new xMsgMessage(topic, "binary/bytes", data));
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            publisher.start();
+            xMsgUtil.sleep(500);
+
+            try {
+                // new publishers and subscribers of the same domain must start
+                // within the default timeouts
+                for (int i = 0; i < 5; i++) {
+                    xMsgTopic sub = xMsgTopic.wrap("bulk:check" + i);
+                    actor.unsubscribe(actor.subscribe(sub, msg -> { }));
+                    try (xMsgConnection con = actor.getConnection()) {
+                        actor.publish(con, xMsgMessage.createFrom(sub, i));
+                    }
+                }
+            } finally {
+                running.set(false);
+                publisher.join();
+            }
+        }
+    }
+
+    private void checkPublishSubscribe(xMsg actor, xMsgProxyAddress address) throws Exception {
+        AtomicInteger received = new AtomicInteger();
+        actor.subscribe(address, xMsgTopic.wrap("local"), msg -> received.incrementAndGet());
+        for (int i = 0; i < 10; i++) {
+            actor.publish(address, xMsgMessage.createFrom(xMsgTopic.wrap("local:data"), i));
+        }
+        xMsgUtil.sleep(200);
+
+        assertThat(received.get(), is(10));
+    }
+
+    @Test
+    public void federatedProxiesBridgeSelectedDomains() throws Exception {
+        checkFederation(false);
+    }
+
+    @Test
+    public void federatedPipelinedProxiesBridgeSelectedDomains() throws Exception {
+        checkFederation(true);
+    }
+
+    private void checkFederation(boolean pipelined) throws Exception {
+        xMsgProxyAddress addrA = new xMsgProxyAddress("localhost", 7771);
+        xMsgProxyAddress addrB = new xMsgProxyAddress("localhost", 7781);
+        xMsgProxyAddress addrC = new xMsgProxyAddress("localhost", 7791);
+
+        List<String> domains = Collections.singletonList("shared");
+
+        try (ProxyWrapper proxyA = new ProxyWrapper(addrA, federated(pipelined, domains,
+                                                                     addrB, addrC));
+             ProxyWrapper proxyB = new ProxyWrapper(addrB, federated(pipelined, domains,
+                                                                     addrA, addrC));
+             ProxyWrapper proxyC = new ProxyWrapper(addrC, federated(pipelined, domains,
+                                                                     addrA, addrB));
+             xMsg actor = new xMsg("test")) {
+
+            AtomicInteger sharedB = new AtomicInteger();
+            AtomicInteger sharedC = new AtomicInteger();
+            AtomicInteger privateB = new AtomicInteger();
+
+            actor.subscribe(addrB, xMsgTopic.wrap("shared"), msg -> sharedB.incrementAndGet());
+            actor.subscribe(addrC, xMsgTopic.wrap("shared"), msg -> sharedC.incrementAndGet());
+            actor.subscribe(addrB, xMsgTopic.wrap("private"), msg -> privateB.incrementAndGet());
+            xMsgUtil.sleep(300);
+
+            for (int i = 0; i < 10; i++) {
+                actor.publish(addrA, xMsgMessage.createFrom(xMsgTopic.wrap("shared:data"), i));
+                actor.publish(addrA, xMsgMessage.createFrom(xMsgTopic.wrap("private:data"), i));
+            }
+            xMsgUtil.sleep(300);
+
+            assertThat(sharedB.get(), is(10));
+            assertThat(sharedC.get(), is(10));
+            assertThat(privateB.get(), is(0));
+        }
+    }
+
+    private static xMsgProxySetup federated(boolean pipelined,
+                                            List<String> domains,
+                                            xMsgProxyAddress... peers) {
+        return xMsgProxySetup.newBuilder()
+                .withPipeline(pipelined)
+                .withFederation(Arrays.asList(peers), domains)
+                .build();
+    }
+
+    private void checkCachedMessages(xMsgProxySetup setup) throws Exception {
+        try (ProxyWrapper proxy = new ProxyWrapper(setup);
+             xMsg actor = new xMsg("test")) {
+            actor.publish(xMsgMessage.createFrom(xMsgTopic.wrap("state:run"), 1));
+            actor.publish(xMsgMessage.createFrom(xMsgTopic.wrap("state:run"), 2));
+            actor.publish(xMsgMessage.createFrom(xMsgTopic.wrap("state:config"), 3));
+            actor.publish(xMsgMessage.createFrom(xMsgTopic.wrap("other:run"), 4));
+            xMsgUtil.sleep(100);
+
+            Map<String, Integer> received = new ConcurrentHashMap<>();
+            actor.subscribe(xMsgTopic.wrap("state"), msg -> {
+                received.put(msg.getTopic().toString(), xMsgMessage.parseData(msg, Integer.class));
+            });
+            xMsgUtil.sleep(200);
+
+            assertThat(received.size(), is(2));
+            assertThat(received, hasEntry("state:run", 2));
+            assertThat(received, hasEntry("state:config", 3));
+        }
+    }
+
+    private void checkCapture(boolean pipelined, Path dir) throws Exception {
+        final int total = 100;
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder()
+                .withPipeline(pipelined)
+                .withCapture(dir)
+                .withCaptureSegments(4096, 0)
+                .build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder().withProxy(address).build();
+        try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup);
+             xMsg actor = new xMsg("test", actorSetup)) {
+            xMsgTopic topic = xMsgTopic.wrap("capture:data");
+            actor.subscribe(topic, msg -> { });
+            xMsgUtil.sleep(100);
+            try (xMsgConnection con = actor.getConnection()) {
+                for (int i = 0; i < total; i++) {
+                    actor.publish(con, xMsgMessage.createFrom(topic, i));
+                }
+            }
+            xMsgUtil.sleep(200);
+        }
+
+        List<Integer> values = new ArrayList<>();
+        JournalReader reader = new JournalReader(dir, 0, Long.MAX_VALUE, "capture");
+        for (JournalRecord r = reader.next(); r != null; r = reader.next()) {
+            List<byte[]> frames = r.frames();
+            xMsgMessage msg = new xMsgMessage(xMsgTopic.wrap(r.topic()),
+                                              xMsgMeta.parseFrom(frames.get(1)).toBuilder(),
+                                              frames.get(2));
+            values.add(xMsgMessage.parseData(msg, Integer.class));
+        }
+
+        assertThat(values.size(), is(total));
+        assertThat(values.get(total - 1), is(total - 1));
+    }
+
+    private void checkDurableSubscription(boolean pipelined, Path dir) throws Exception {
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder()
+                .withPipeline(pipelined)
+                .withDurableTopics(dir, Arrays.asList("durable"))
+                .withDurableSegments(4096, 0)
+                .build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder().withProxy(address).build();
+        xMsgSubscriptionSetup subSetup = xMsgSubscriptionSetup.newBuilder()
+                .durable("reader")
+                .build();
+        xMsgTopic topic = xMsgTopic.wrap("durable:data");
+        Set<Integer> received = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        try (xMsg actor = new xMsg("test", actorSetup)) {
+            try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup)) {
+                xMsgSubscription sub = actor.subscribe(topic, msg -> {
+                    if (!received.add(xMsgMessage.parseData(msg, Integer.class))) {
+                        duplicates.incrementAndGet();
+                    }
+                }, subSetup);
+                publish(actor, topic, 0, 50);
+                waitFor(received, 50);
+                actor.unsubscribe(sub);
+                xMsgUtil.sleep(100);
+
+                // published while the durable subscriber is not running
+                publish(actor, topic, 50, 100);
+                xMsgUtil.sleep(200);
+            }
+            assertThat(received.size(), is(50));
+
+            // the log and the offsets must survive the restart of the proxy
+            try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup)) {
+                xMsgSubscription sub = actor.subscribe(topic, msg -> {
+                    if (!received.add(xMsgMessage.parseData(msg, Integer.class))) {
+                        duplicates.incrementAndGet();
+                    }
+                }, subSetup);
+                waitFor(received, 100);
+                publish(actor, topic, 100, 110);
+                waitFor(received, 110);
+                actor.unsubscribe(sub);
+            }
+        }
+
+        List<Integer> values = new ArrayList<>(received);
+        Collections.sort(values);
+        assertThat(values.size(), is(110));
+        assertThat(values.get(109), is(109));
+        assertThat(duplicates.get(), is(0));
+    }
+
+    private static void publish(xMsg actor, xMsgTopic topic, int first, int last)
+            throws Exception {
+        try (xMsgConnection con = actor.getConnection()) {
+            xMsgUtil.sleep(100);
+            for (int i = first; i < last; i++) {
+                actor.publish(con, xMsgMessage.createFrom(topic, i));
+            }
+        }
+    }
+
+    private static void waitFor(Set<Integer> received, int total) {
+        for (int i = 0; i < 50 && received.size() < total; i++) {
+            xMsgUtil.sleep(100);
+        }
+    }
+
+    private void checkGroupMembers(boolean pipelined) throws Exception {
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder()
+                .withPipeline(pipelined)
+                .withWorkQueues(true)
+                .build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder().withProxy(address).build();
+        xMsgSubscriptionSetup subSetup = xMsgSubscriptionSetup.newBuilder()
+                .group("workers")
+                .build();
+        xMsgTopic topic = xMsgTopic.wrap("group:data");
+        Set<Integer> received = ConcurrentHashMap.newKeySet();
+        Set<Integer> observed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger fastCount = new AtomicInteger();
+        AtomicInteger slowCount = new AtomicInteger();
+
+        try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup);
+             xMsg fast = new xMsg("fast", actorSetup);
+             xMsg slow = new xMsg("slow", actorSetup);
+             xMsg observer = new xMsg("observer", actorSetup)) {
+            fast.subscribe(topic, msg -> {
+                if (!received.add(xMsgMessage.parseData(msg, Integer.class))) {
+                    duplicates.incrementAndGet();
+                }
+                fastCount.incrementAndGet();
+            }, subSetup);
+            slow.subscribe(topic, msg -> {
+                xMsgUtil.sleep(20);
+                if (!received.add(xMsgMessage.parseData(msg, Integer.class))) {
+                    duplicates.incrementAndGet();
+                }
+                slowCount.incrementAndGet();
+            }, subSetup);
+            // the groups do not change the delivery to normal subscribers
+            observer.subscribe(topic, msg -> {
+                observed.add(xMsgMessage.parseData(msg, Integer.class));
+            });
+            xMsgUtil.sleep(100);
+
+            publish(observer, topic, 0, 500);
+            waitFor(received, 500);
+            waitFor(observed, 500);
+        }
+
+        assertThat(received.size(), is(500));
+        assertThat(observed.size(), is(500));
+        assertThat(duplicates.get(), is(0));
+        assertThat(fastCount.get() > slowCount.get(), is(true));
+    }
+
+    private void checkScheduledMessages(boolean pipelined) throws Exception {
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder().withPipeline(pipelined).build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder().withProxy(address).build();
+        xMsgTopic topic = xMsgTopic.wrap("scheduled:data");
+        Map<Integer, Long> received = new ConcurrentHashMap<>();
+
+        try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup);
+             xMsg actor = new xMsg("test", actorSetup)) {
+            actor.subscribe(topic, msg -> {
+                received.put(xMsgMessage.parseData(msg, Integer.class),
+                             System.currentTimeMillis());
+            });
+            xMsgUtil.sleep(100);
+
+            long start;
+            try (xMsgConnection con = actor.getConnection()) {
+                xMsgUtil.sleep(100);
+                start = System.currentTimeMillis();
+                for (int i = 0; i < 10; i++) {
+                    xMsgMessage msg = xMsgMessage.createFrom(topic, i);
+                    msg.getMetaData().setDeliveryTime(start + 1000 + 100 * (i % 2));
+                    actor.publish(con, msg);
+                }
+                actor.publish(con, xMsgMessage.createFrom(topic, 10));
+            }
+            xMsgUtil.sleep(300);
+            assertThat(received.keySet(), contains(10));
+
+            for (int i = 0; i < 30 && received.size() < 11; i++) {
+                xMsgUtil.sleep(100);
+            }
+            assertThat(received.size(), is(11));
+            for (int i = 0; i < 10; i++) {
+                assertThat(received.get(i) >= start + 1000 + 100 * (i % 2), is(true));
+            }
+        }
+    }
+
+    private void checkHeartbeats(boolean pipelined) throws Exception {
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder()
+                .withPipeline(pipelined)
+                .withHeartbeatInterval(50)
+                .build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder()
+                .withProxy(address)
+                .withHeartbeatTimeout(300)
+                .build();
+        xMsgTopic topic = xMsgTopic.wrap("heartbeat:data");
+
+        try (xMsg actor = new xMsg("test", actorSetup)) {
+            xMsgSubscription sub;
+            try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup)) {
+                sub = actor.subscribe(topic, msg -> { });
+                publish(actor, topic, 0, 10);
+                xMsgUtil.sleep(500);
+
+                assertThat(sub.isProxyAlive(), is(true));
+                assertThat(actor.isProxyAlive(address), is(true));
+            }
+
+            for (int i = 0; i < 10 && actor.isProxyAlive(address); i++) {
+                xMsgUtil.sleep(100);
+            }
+            assertThat(sub.isProxyAlive(), is(false));
+            assertThat(actor.isProxyAlive(address), is(false));
+            assertThrows(xMsgException.class, () -> actor.getConnection(address));
+
+            actor.unsubscribe(sub);
+        }
+    }
+
+    private void checkPublishIfSubscribed(boolean pipelined) throws Exception {
+        xMsgProxyAddress address = new xMsgProxyAddress("localhost", 7811);
+        xMsgProxySetup proxySetup = xMsgProxySetup.newBuilder().withPipeline(pipelined).build();
+        xMsgSetup actorSetup = xMsgSetup.newBuilder().withProxy(address).build();
+        xMsgTopic topic = xMsgTopic.wrap("suppress:data:det1");
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+
+        try (ProxyWrapper proxy = new ProxyWrapper(address, proxySetup);
+             xMsg actor = new xMsg("test", actorSetup);
+             xMsgConnection con = actor.getConnection()) {
+            xMsgUtil.sleep(100);
+
+            assertThat(actor.hasSubscribers(con, topic), is(false));
+            assertThat(actor.publishIfSubscribed(con, topic, () -> {
+                created.incrementAndGet();
+                return xMsgMessage.createFrom(topic, 1);
+            }), is(false));
+
+            xMsgTopic prefix = xMsgTopic.wrap("suppress:data");
+            xMsgSubscription sub = actor.subscribe(prefix, msg -> received.incrementAndGet());
+            xMsgUtil.sleep(200);
+
+            assertThat(actor.hasSubscribers(con, topic), is(true));
+            assertThat(actor.hasSubscribers(con, xMsgTopic.wrap("suppress:mon")), is(false));
+            assertThat(actor.publishIfSubscribed(con, topic, () -> {
+                created.incrementAndGet();
+                return xMsgMessage.createFrom(topic, 2);
+            }), is(true));
+            for (int i = 0; i < 20 && received.get() < 1; i++) {
+                xMsgUtil.sleep(50);
+            }
+
+            actor.unsubscribe(sub);
+            xMsgUtil.sleep(200);
+
+            assertThat(actor.hasSubscribers(con, topic), is(false));
+        }
+
+        assertThat(created.get(), is(1));
+        assertThat(received.get(), is(1));
+    }
+}